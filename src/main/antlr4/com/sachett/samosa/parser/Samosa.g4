@@ -61,6 +61,7 @@ COLON: ':';
 DOUBLEDOT: '..';
 STATEMENTEND: '.';
 WHILE: 'while';
+FOR: 'for';
 RETURN: 'return';
 
 INTTYPE: 'int';
@@ -118,7 +119,8 @@ returnStmt: RETURN #returnStmtNoExpr
           | RETURN booleanExpr #returnStmtWithBooleanExpr; // TODO: STATIC VERIFICATION TO BE ADDED!!
 
 assignStmt: IDENTIFIER EQUAL expr #exprAssign
-          | IDENTIFIER EQUAL booleanExpr #booleanExprAssign;
+          | IDENTIFIER EQUAL booleanExpr #booleanExprAssign
+          | IDENTIFIER LSQBR index=expr RSQBR EQUAL value=expr #arrayElementAssign;
 
 expr: MINUS expr #unaryMinus
     | expr DIVIDE expr #exprDivide
@@ -127,13 +129,16 @@ expr: MINUS expr #unaryMinus
     | expr PLUS expr #exprPlus
     | expr MINUS expr #exprMinus
     | LPAREN expr RPAREN #exprParen
+    | IDENTIFIER LSQBR expr RSQBR #exprArrayIndex
+    | INTTYPE LSQBR expr RSQBR #exprNewIntArray
     | IDENTIFIER #exprIdentifier
     | DECINT #exprDecint
     | STRING #exprString
     | functionCall #exprFunctionCall;
 
 declStmt: VARDEF IDENTIFIER COLON typeName;
-typeName: INTTYPE | STRINGTYPE | VOIDTYPE | BOOLTYPE;
+typeName: INTTYPE | STRINGTYPE | VOIDTYPE | BOOLTYPE | arrayTypeName;
+arrayTypeName: INTTYPE LSQBR RSQBR;
 
 declAssignStmt: VARDEF IDENTIFIER COLON BOOLTYPE EQUAL booleanExpr #booleanDeclAssignStmt
               | VARDEF IDENTIFIER COLON typeName EQUAL expr #normalDeclAssignStmt
@@ -147,6 +152,11 @@ ifStmt: IF LPAREN booleanExpr RPAREN block (ELSE IF LPAREN booleanExpr RPAREN el
 
 whileStmt: WHILE LPAREN booleanExpr RPAREN block;
 
+forStmt: FOR LPAREN IDENTIFIER EQUAL start=expr DOUBLEDOT end=expr (stepKeyword step=expr)? RPAREN block;
+
+// 'step' is only a keyword here (it can still be used as a name elsewhere)
+stepKeyword: IDENTIFIER;
+
 booleanExpr: LOGICALNOT booleanExpr #booleanExprNot
            | booleanExpr LOGICALOR booleanExpr #booleanExprOr
            | booleanExpr LOGICALAND booleanExpr #booleanExprAnd
@@ -163,17 +173,20 @@ compOp: (COMP | COMPNOTEQ);
 
 relOp: (LT | GT | LTEQ | GTEQ);
 
-compoundStmt: (ifStmt | whileStmt);
+compoundStmt: (ifStmt | whileStmt | forStmt);
 
 uncertainCompoundStmt: compoundStmt QUESTIONMARK LSQBR expr RSQBR STATEMENTEND #uncertainCompoundStmtSingle
                         | compoundStmt QUESTIONMARK LSQBR expr RSQBR compoundStmt STATEMENTEND #uncertainCompoundStmtMultiple;
 
-funcDef: (FUNCDEF IDENTIFIER block
-       | FUNCDEF IDENTIFIER LPAREN RPAREN block
-       | FUNCDEF IDENTIFIER LPAREN funcArgList RPAREN block) (STATEMENTEND)? #implicitRetTypeFuncDef
-       | (FUNCDEF IDENTIFIER COLON typeName block
-       | FUNCDEF IDENTIFIER LPAREN RPAREN COLON typeName block
-       | FUNCDEF IDENTIFIER LPAREN funcArgList RPAREN COLON typeName block) (STATEMENTEND)? #explicitRetTypeFuncDef;
+funcDef: (FUNCDEF (memoKeyword)? IDENTIFIER block
+       | FUNCDEF (memoKeyword)? IDENTIFIER LPAREN RPAREN block
+       | FUNCDEF (memoKeyword)? IDENTIFIER LPAREN funcArgList RPAREN block) (STATEMENTEND)? #implicitRetTypeFuncDef
+       | (FUNCDEF (memoKeyword)? IDENTIFIER COLON typeName block
+       | FUNCDEF (memoKeyword)? IDENTIFIER LPAREN RPAREN COLON typeName block
+       | FUNCDEF (memoKeyword)? IDENTIFIER LPAREN funcArgList RPAREN COLON typeName block) (STATEMENTEND)? #explicitRetTypeFuncDef;
+
+// 'memo' is only a keyword here (it can still be used as a name elsewhere)
+memoKeyword: IDENTIFIER;
 
 funcArgList: args+=argParam
            | (args+=argParam COMMA)+ args+=argParam;
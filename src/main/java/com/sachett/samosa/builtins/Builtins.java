@@ -2,6 +2,7 @@ package com.sachett.samosa.builtins;
 
 import com.sachett.samosa.logging.LoggingUtilsKt;
 import com.sachett.samosa.parser.SamosaParser;
+import com.sachett.samosa.runtime.SamosaRuntime;
 import com.sachett.samosa.samosac.codegen.function.FunctionGenerationContext;
 import com.sachett.samosa.samosac.staticchecker.ExpressionTypeDetector;
 import com.sachett.samosa.samosac.symbol.*;
@@ -9,6 +10,7 @@ import com.sachett.samosa.samosac.symbol.symboltable.SymbolTable;
 import kotlin.Pair;
 import org.antlr.v4.runtime.tree.ParseTree;
 import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
 
 import java.lang.annotation.Repeatable;
 import java.lang.annotation.Retention;
@@ -44,20 +46,25 @@ public class Builtins {
 
         public static IBuiltinFunctionCodegenParams currentBuiltinFunctionCodegenParams = null;
 
+        /**
+         * The class with the runtime support code that some builtins call.
+         */
+        private static final String RUNTIME_CLASS = Type.getInternalName(SamosaRuntime.class);
+
         /**
          * TODO: (Refactor) Move this class somewhere else?
          */
         public static class Utils {
             /**
              * Converts a descriptorString to a corresponding FunctionSymbol.
-             * NOTE: DOES NOT HANDLE ARRAYS AND OBJECTS OF ANY OTHER EXCEPT STRING FOR NOW.
+             * NOTE: DOES NOT HANDLE ARRAYS (EXCEPT int[]) AND OBJECTS OF ANY OTHER EXCEPT STRING FOR NOW.
              * @param descriptorString The descriptor string of the method.
              * @param name             The name of the function symbol to be made.
              * @param method           The java.lang.reflect.Method instance of the method.
              * @return FunctionSymbol corresponding to the given descriptor string.
              */
             public static FunctionSymbol descriptorToFunctionSymbol(String descriptorString, String name, Method method) {
-                // TODO: DOES NOT PARSE ARRAYS IN DESCRIPTOR STRING FOR NOW!
+                // TODO: DOES NOT PARSE ARRAYS OTHER THAN int[] IN DESCRIPTOR STRING FOR NOW!
                 ArrayList<ISymbol> params = new ArrayList<>();
                 SymbolType funcRetType = SymbolType.VOID;
 
@@ -139,6 +146,26 @@ public class Builtins {
                             } // TODO: Add support for objects of other class types
                             strPos = classNameEndPos + 1;
                             break;
+                        case '[':
+                            if (descriptorString.charAt(strPos + 1) != 'I') {
+                                // TODO: Add support for arrays of other types
+                                strPos++;
+                                break;
+                            }
+                            if (!parsingParams) {
+                                funcRetType = SymbolType.INT_ARRAY;
+                                strPos += 2;
+                                continue;
+                            }
+                            params.add(new IntArraySymbol(
+                                    paramNames[paramNamesCount],
+                                    -1,
+                                    false,
+                                    false,
+                                    new Pair<Integer, Integer>(-1, -1)
+                            ));
+                            strPos += 2;
+                            break;
                         case 'V':
                             if (!parsingParams) {
                                 funcRetType = SymbolType.VOID;
@@ -202,6 +229,9 @@ public class Builtins {
                             case STRING:
                                 descriptor.append("Ljava/lang/String;");
                                 break;
+                            case INT_ARRAY:
+                                descriptor.append("[I");
+                                break;
                         }
 
                         normalParamsCounter++;
@@ -362,10 +392,11 @@ public class Builtins {
         }
 
         /**
-         * Displays text to stdout (or stderr). Also adds an end-line at the end.
+         * Displays text to stdout through the buffered output of the runtime (see SamosaRuntime).
+         * Also adds an end-line at the end.
          * Function call example: ("hello") -> println.
          * Will load arguments on stack using argsLoader; required arguments: one single value of type symbolTypeToPrint
-         * that will be output to stdout or stderr.
+         * that will be output to stdout.
          *
          * @param argsLoader            An implementation of the functional interface FunctionArgsLoader (a lambda) whose
          *                              loadArgumentsToStack() method will be called internally to load arguments to stack.
@@ -379,8 +410,6 @@ public class Builtins {
                 FunctionGenerationContext functionGenerationCtx,
                 SymbolType symbolTypeToPrint
         ) {
-            functionGenerationCtx.getMv().visitFieldInsn(Opcodes.GETSTATIC, "java/lang/System", "out",
-                    "Ljava/io/PrintStream;");
             argsLoader.loadArgumentsToStack();
 
             String printlnDescriptor = "(Ljava/lang/String;)V";
@@ -396,12 +425,14 @@ public class Builtins {
                     break;
             }
 
-            functionGenerationCtx.getMv().visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/io/PrintStream",
+            // the output is buffered by the runtime (and written out when the program exits or reads input)
+            functionGenerationCtx.getMv().visitMethodInsn(Opcodes.INVOKESTATIC, RUNTIME_CLASS,
                     "println", printlnDescriptor, false);
         }
 
         /**
-         * Inputs a value from stdin using Scanner. The value taken as input is present on the stack on top after this function finishes.
+         * Inputs a value from stdin using the shared reader of the runtime (see SamosaRuntime).
+         * The value taken as input is present on the stack on top after this function finishes.
          *
          * @param functionGenerationCtx The function generation context in which to place the function call to this.
          * @param symbolTypeToInput     The type of value to be taken as input. Can be INT, BOOL, or STRING.
@@ -410,44 +441,45 @@ public class Builtins {
                 FunctionGenerationContext functionGenerationCtx,
                 SymbolType symbolTypeToInput
         ) {
-            // Check if it is a compatible symbol type
-            if ((symbolTypeToInput != SymbolType.INT)
-                    && (symbolTypeToInput != SymbolType.BOOL)
-                    && (symbolTypeToInput != SymbolType.STRING)) {
-                return;
-            }
-            // Make a scanner
-            functionGenerationCtx.getMv().visitTypeInsn(Opcodes.NEW, "java/util/Scanner");
-            functionGenerationCtx.getMv().visitInsn(Opcodes.DUP);
-            functionGenerationCtx.getMv().visitFieldInsn(
-                    Opcodes.GETSTATIC, "java/lang/System", "in", "Ljava/io/InputStream;"
-            );
-            functionGenerationCtx.getMv().visitMethodInsn(
-                    Opcodes.INVOKESPECIAL, "java/util/Scanner", "<init>", "(Ljava/io/InputStream;)V", false
-            );
+            String readMethodName;
+            String readMethodDescriptor;
 
-            // scan next required thing
             switch (symbolTypeToInput) {
                 case INT:
-                    functionGenerationCtx.getMv().visitMethodInsn(
-                        Opcodes.INVOKEVIRTUAL, "java/util/Scanner", "nextInt", "()I", false
-                    );
+                    readMethodName = "readInt";
+                    readMethodDescriptor = "()I";
                     break;
                 case BOOL:
-                    functionGenerationCtx.getMv().visitMethodInsn(
-                        Opcodes.INVOKEVIRTUAL, "java/util/Scanner", "nextBoolean", "()Z", false
-                    );
+                    readMethodName = "readBoolean";
+                    readMethodDescriptor = "()Z";
                     break;
                 case STRING:
-                    functionGenerationCtx.getMv().visitMethodInsn(
-                        Opcodes.INVOKEVIRTUAL, "java/util/Scanner", "nextLine", "()Ljava/lang/String;", false
-                    );
+                    readMethodName = "readLine";
+                    readMethodDescriptor = "()Ljava/lang/String;";
                     break;
+                default:
+                    // not a compatible symbol type
+                    return;
             }
+
+            functionGenerationCtx.getMv().visitMethodInsn(
+                    Opcodes.INVOKESTATIC, RUNTIME_CLASS, readMethodName, readMethodDescriptor, false
+            );
+        }
+
+        @SamosaBuiltinFuncName(name = "len")
+        @SamosaBuiltinFuncOverload(descriptorString = "([I)I", paramNames = {"array"})
+        public static void arrayLength(
+                FunctionArgsLoader functionArgsLoader,
+                FunctionGenerationContext functionGenerationContext
+        ) {
+            functionArgsLoader.loadArgumentsToStack();
+
+            functionGenerationContext.getMv().visitInsn(Opcodes.ARRAYLENGTH);
         }
 
         /**
-         * Uses System.exit to exit.
+         * Writes out the buffered output and uses System.exit to exit (see SamosaRuntime.exit()).
          * Expects arguments to be loaded by argsLoader; expected arguments: one int value (exit status code).
          *
          * @param argsLoader                An implementation of the functional interface FunctionArgsLoader (a lambda) whose
@@ -460,7 +492,7 @@ public class Builtins {
             argsLoader.loadArgumentsToStack();
 
             functionGenerationContext.getMv().visitMethodInsn(
-                    Opcodes.INVOKESTATIC, "java/lang/System", "exit", "(I)V", false
+                    Opcodes.INVOKESTATIC, RUNTIME_CLASS, "exit", "(I)V", false
             );
         }
     }
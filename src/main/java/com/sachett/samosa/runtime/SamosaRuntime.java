@@ -0,0 +1,563 @@
+package com.sachett.samosa.runtime;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.InputMismatchException;
+import java.util.NoSuchElementException;
+
+/**
+ * Support code that the generated class files call at runtime (through INVOKESTATIC).
+ *
+ * The compiler copies this class into its output directory, next to the generated classes
+ * (see RuntimeSupportWriter). As it may have to run on Java 8, it should only use the Java 8 APIs,
+ * and should not concatenate strings or have inner classes (javac compiles these differently for newer releases).
+ */
+public final class SamosaRuntime {
+    private SamosaRuntime() {}
+
+    // ---------------- INPUT --------------------------
+
+    private static final int INPUT_BUFFER_SIZE = 1 << 16;
+
+    /* The input is read from System.in into this buffer (which is created on the first read) */
+    private static byte[] inputBuffer = null;
+    private static int inputBufferLength = 0;
+    private static int inputBufferPosition = 0;
+
+    /* Holds the bytes of the token or line being read */
+    private static byte[] tokenBuffer = new byte[64];
+
+    /*
+     * Set after an int or a boolean is read, so that a following readLine() skips the end of that line
+     * if nothing else is left on it.
+     */
+    private static boolean afterToken = false;
+
+    /**
+     * Returns the next byte of the input, or -1 at the end of the input.
+     */
+    private static int peekByte() {
+        if (inputBufferPosition == inputBufferLength) {
+            if (inputBuffer == null) {
+                inputBuffer = new byte[INPUT_BUFFER_SIZE];
+            }
+
+            // the program may wait for the input now, so what it has output so far should be seen
+            flush();
+
+            InputStream in = System.in;
+            try {
+                inputBufferLength = in.read(inputBuffer, 0, INPUT_BUFFER_SIZE);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            inputBufferPosition = 0;
+
+            if (inputBufferLength <= 0) {
+                inputBufferLength = 0;
+                return -1;
+            }
+        }
+
+        return inputBuffer[inputBufferPosition];
+    }
+
+    private static int readByte() {
+        int b = peekByte();
+        if (b != -1) {
+            inputBufferPosition++;
+        }
+        return b;
+    }
+
+    private static boolean isWhitespace(int b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == '\f' || b == 0x0B;
+    }
+
+    private static void appendToTokenBuffer(int length, int b) {
+        if (length == tokenBuffer.length) {
+            byte[] largerTokenBuffer = new byte[tokenBuffer.length * 2];
+            System.arraycopy(tokenBuffer, 0, largerTokenBuffer, 0, length);
+            tokenBuffer = largerTokenBuffer;
+        }
+        tokenBuffer[length] = (byte) b;
+    }
+
+    /**
+     * Reads the next whitespace-separated token into the token buffer, and returns its length.
+     */
+    private static int readToken() {
+        int b = readByte();
+        while (b != -1 && isWhitespace(b)) {
+            b = readByte();
+        }
+
+        if (b == -1) {
+            throw new NoSuchElementException();
+        }
+
+        int length = 0;
+        while (b != -1 && !isWhitespace(b)) {
+            appendToTokenBuffer(length++, b);
+            b = peekByte();
+            if (b != -1 && !isWhitespace(b)) {
+                inputBufferPosition++;
+            }
+        }
+
+        afterToken = true;
+        return length;
+    }
+
+    /**
+     * Reads the next token as an int (used by putinInt).
+     */
+    public static int readInt() {
+        int length = readToken();
+        int position = 0;
+        boolean negative = false;
+
+        if (tokenBuffer[0] == '-' || tokenBuffer[0] == '+') {
+            negative = tokenBuffer[0] == '-';
+            position++;
+        }
+
+        if (position == length) {
+            throw new InputMismatchException();
+        }
+
+        // the value is accumulated as a negative number, which can also hold Integer.MIN_VALUE
+        int value = 0;
+        for (; position < length; position++) {
+            int digit = tokenBuffer[position] - '0';
+            if (digit < 0 || digit > 9 || value < (Integer.MIN_VALUE + digit) / 10) {
+                throw new InputMismatchException();
+            }
+            value = value * 10 - digit;
+        }
+
+        if (!negative) {
+            if (value == Integer.MIN_VALUE) {
+                throw new InputMismatchException();
+            }
+            return -value;
+        }
+
+        return value;
+    }
+
+    /**
+     * Reads the next token as a boolean, "true" or "false" in any case (used by putinBoolie).
+     */
+    public static boolean readBoolean() {
+        int length = readToken();
+        if (tokenMatchesIgnoringCase(length, "true")) {
+            return true;
+        }
+        if (tokenMatchesIgnoringCase(length, "false")) {
+            return false;
+        }
+
+        throw new InputMismatchException();
+    }
+
+    private static boolean tokenMatchesIgnoringCase(int length, String word) {
+        if (length != word.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < length; i++) {
+            if (Character.toLowerCase((char) tokenBuffer[i]) != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the rest of the current line, without the line separator (used by putinString).
+     * If an int or a boolean was the last thing read from the current line, the next line is read instead.
+     */
+    public static String readLine() {
+        if (afterToken) {
+            afterToken = false;
+
+            int b = peekByte();
+            while (b == ' ' || b == '\t' || b == '\r') {
+                inputBufferPosition++;
+                b = peekByte();
+            }
+
+            if (b == '\n') {
+                inputBufferPosition++;
+            }
+        }
+
+        int b = readByte();
+        if (b == -1) {
+            throw new NoSuchElementException();
+        }
+
+        int length = 0;
+        while (b != -1 && b != '\n') {
+            appendToTokenBuffer(length++, b);
+            b = readByte();
+        }
+
+        if (length > 0 && tokenBuffer[length - 1] == '\r') {
+            length--;
+        }
+
+        return new String(tokenBuffer, 0, length);
+    }
+
+    // ---------------- OUTPUT --------------------------
+
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+    /* Room for the longest int (-2147483648) */
+    private static final int MAX_INT_LENGTH = 11;
+
+    private static final byte[] TRUE_BYTES = { 't', 'r', 'u', 'e' };
+    private static final byte[] FALSE_BYTES = { 'f', 'a', 'l', 's', 'e' };
+    private static final byte[] LINE_SEPARATOR_BYTES = System.lineSeparator().getBytes();
+
+    /*
+     * The output is collected in this buffer (which is created on the first output) and written to the
+     * standard output when it gets full, before the input is read, and when the program exits
+     * (or stops on an uncaught exception, before the stack trace is printed).
+     * Unlike System.out, this is not synchronized and not flushed at each line.
+     */
+    private static byte[] outputBuffer = null;
+    private static int outputBufferLength = 0;
+    private static FileOutputStream outputStream = null;
+
+    /*
+     * Set when writing to the standard output fails (like when it has been closed by the other end of a pipe).
+     * Like System.out, the runtime does not throw then, and drops the rest of the output.
+     */
+    private static boolean outputFailed = false;
+
+    private static void ensureOutputBuffer(int bytesNeeded) {
+        if (outputBuffer == null) {
+            outputBuffer = new byte[OUTPUT_BUFFER_SIZE];
+            outputStream = new FileOutputStream(FileDescriptor.out);
+            Runtime.getRuntime().addShutdownHook(new Thread(SamosaRuntime::flush));
+            flushOnUncaughtException();
+        }
+
+        if (outputBufferLength + bytesNeeded > OUTPUT_BUFFER_SIZE) {
+            flush();
+        }
+    }
+
+    /**
+     * Makes sure that the output is written out before the stack trace of an uncaught exception (like an array index
+     * out of range or a division by zero), which the shutdown hook would only do after the trace.
+     */
+    private static void flushOnUncaughtException() {
+        Thread.UncaughtExceptionHandler previousHandler = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler((thread, exception) -> {
+            flush();
+            if (previousHandler != null) {
+                previousHandler.uncaughtException(thread, exception);
+            } else {
+                // what the JVM prints without a handler (without concatenating the strings, see above)
+                System.err.print("Exception in thread \"");
+                System.err.print(thread.getName());
+                System.err.print("\" ");
+                exception.printStackTrace(System.err);
+            }
+        });
+    }
+
+    /**
+     * Writes out the output and exits with the given status code (used by exit).
+     */
+    public static void exit(int status) {
+        flush();
+        System.exit(status);
+    }
+
+    /**
+     * Writes out whatever is in the output buffer.
+     */
+    public static void flush() {
+        if (outputBufferLength == 0) {
+            return;
+        }
+
+        if (!outputFailed) {
+            try {
+                outputStream.write(outputBuffer, 0, outputBufferLength);
+            } catch (IOException e) {
+                outputFailed = true;
+            }
+        }
+        outputBufferLength = 0;
+    }
+
+    private static void writeBytes(byte[] bytes) {
+        ensureOutputBuffer(bytes.length);
+        System.arraycopy(bytes, 0, outputBuffer, outputBufferLength, bytes.length);
+        outputBufferLength += bytes.length;
+    }
+
+    /**
+     * Outputs an int and a line separator (used by putout).
+     */
+    public static void println(int value) {
+        ensureOutputBuffer(MAX_INT_LENGTH);
+
+        // the digits are written from the end, with the value kept negative so that Integer.MIN_VALUE works too
+        int length = value < 0 ? 1 : 0;
+        int negativeValue = value < 0 ? value : -value;
+        for (int rest = negativeValue; rest <= -10; rest /= 10) {
+            length++;
+        }
+        length++;
+
+        int position = outputBufferLength + length;
+        do {
+            outputBuffer[--position] = (byte) ('0' - negativeValue % 10);
+            negativeValue /= 10;
+        } while (negativeValue != 0);
+
+        if (value < 0) {
+            outputBuffer[--position] = '-';
+        }
+
+        outputBufferLength += length;
+        writeBytes(LINE_SEPARATOR_BYTES);
+    }
+
+    /**
+     * Outputs a boolean and a line separator (used by putout).
+     */
+    public static void println(boolean value) {
+        writeBytes(value ? TRUE_BYTES : FALSE_BYTES);
+        writeBytes(LINE_SEPARATOR_BYTES);
+    }
+
+    /**
+     * Outputs a string (encoded in UTF-8) and a line separator (used by putout).
+     */
+    public static void println(String value) {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+
+            if (c < 0x80) {
+                ensureOutputBuffer(1);
+                outputBuffer[outputBufferLength++] = (byte) c;
+            } else if (c < 0x800) {
+                ensureOutputBuffer(2);
+                outputBuffer[outputBufferLength++] = (byte) (0xC0 | (c >> 6));
+                outputBuffer[outputBufferLength++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                ensureOutputBuffer(4);
+                outputBuffer[outputBufferLength++] = (byte) (0xF0 | (codePoint >> 18));
+                outputBuffer[outputBufferLength++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                outputBuffer[outputBufferLength++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                outputBuffer[outputBufferLength++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // an unpaired surrogate cannot be encoded
+                ensureOutputBuffer(1);
+                outputBuffer[outputBufferLength++] = '?';
+            } else {
+                ensureOutputBuffer(3);
+                outputBuffer[outputBufferLength++] = (byte) (0xE0 | (c >> 12));
+                outputBuffer[outputBufferLength++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                outputBuffer[outputBufferLength++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+
+        writeBytes(LINE_SEPARATOR_BYTES);
+    }
+
+    // ---------------- RANDOM NUMBERS --------------------------
+
+    /**
+     * The system property that fixes the seed of the random numbers for probable statements
+     * (like: java -Dsamosa.seed=42 SamosaSamo). It takes precedence over the seed given to the compiler.
+     */
+    public static final String SEED_PROPERTY = "samosa.seed";
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    /* The state of the generator (SplitMix64), which is seeded on the first use if it has not been seeded yet */
+    private static long randomState = 0;
+    private static boolean randomSeeded = false;
+
+    /**
+     * Seeds the random numbers (the compiler calls this at the start of main if it was given a seed),
+     * unless the seed is set by the system property.
+     */
+    public static void seedRandom(long seed) {
+        if (System.getProperty(SEED_PROPERTY) == null) {
+            randomState = seed;
+            randomSeeded = true;
+        }
+    }
+
+    private static void seedRandomIfNeeded() {
+        String seedProperty = System.getProperty(SEED_PROPERTY);
+        if (seedProperty != null) {
+            randomState = Long.parseLong(seedProperty.trim());
+        } else {
+            randomState = System.nanoTime() ^ GOLDEN_GAMMA;
+        }
+        randomSeeded = true;
+    }
+
+    /**
+     * Returns a random number from 0 (inclusive) to bound (exclusive, at least 1), which is compared to the
+     * probability of a probable statement (or the product of the probabilities of nested probable statements).
+     */
+    public static int nextBelow(int bound) {
+        if (!randomSeeded) {
+            seedRandomIfNeeded();
+        }
+
+        long z = (randomState += GOLDEN_GAMMA);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+
+        // scales the upper 32 bits to [0, bound) without a division
+        return (int) (((z >>> 32) * bound) >>> 32);
+    }
+
+    // ---------------- MEMO CACHES --------------------------
+
+    /*
+     * The caches of the memoized functions (let memo ...) are open addressing hash tables with a fixed
+     * number of slots (a power of two), kept in static fields of the generated class: an array of keys,
+     * an array of flags that tells which slots are filled (for primitive keys) and an array of results.
+     * A key is looked for in MEMO_MAX_PROBES slots from its home slot on. If all of them are taken by other keys
+     * when a result is added, the entry in the home slot is evicted, so the size of a cache is bounded.
+     * The entries are never removed otherwise, so a lookup can stop at the first empty slot.
+     *
+     * memoFind() returns the slot of the key, or -1 if it is not in the cache, and memoPut() returns the slot
+     * in which the result for the key is to be stored (the key is stored in it already).
+     */
+
+    private static final int MEMO_MAX_PROBES = 8;
+
+    private static int memoHomeSlot(int hash, int numSlots) {
+        // Fibonacci hashing: the upper bits of the product depend on all the bits of the hash
+        return (hash * 0x9E3779B9) >>> Integer.numberOfLeadingZeros(numSlots - 1);
+    }
+
+    public static int memoFind(int[] keys, boolean[] filled, int key) {
+        int mask = keys.length - 1;
+        int slot = memoHomeSlot(key, keys.length);
+        for (int i = 0; i < MEMO_MAX_PROBES && filled[slot]; i++) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    public static int memoPut(int[] keys, boolean[] filled, int key) {
+        int mask = keys.length - 1;
+        int homeSlot = memoHomeSlot(key, keys.length);
+        int slot = homeSlot;
+        for (int i = 0; i < MEMO_MAX_PROBES; i++) {
+            if (!filled[slot] || keys[slot] == key) {
+                keys[slot] = key;
+                filled[slot] = true;
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        keys[homeSlot] = key;
+        return homeSlot;
+    }
+
+    public static int memoFind(long[] keys, boolean[] filled, long key) {
+        int mask = keys.length - 1;
+        int slot = memoHomeSlot((int) (key ^ (key >>> 32)), keys.length);
+        for (int i = 0; i < MEMO_MAX_PROBES && filled[slot]; i++) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    public static int memoPut(long[] keys, boolean[] filled, long key) {
+        int mask = keys.length - 1;
+        int homeSlot = memoHomeSlot((int) (key ^ (key >>> 32)), keys.length);
+        int slot = homeSlot;
+        for (int i = 0; i < MEMO_MAX_PROBES; i++) {
+            if (!filled[slot] || keys[slot] == key) {
+                keys[slot] = key;
+                filled[slot] = true;
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        keys[homeSlot] = key;
+        return homeSlot;
+    }
+
+    /*
+     * The string keys are made by memoKey() from the arguments, which need no flags (the empty slots are null).
+     */
+
+    public static int memoFind(String[] keys, String key) {
+        int mask = keys.length - 1;
+        int slot = memoHomeSlot(key.hashCode(), keys.length);
+        for (int i = 0; i < MEMO_MAX_PROBES && keys[slot] != null; i++) {
+            if (keys[slot].equals(key)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    public static int memoPut(String[] keys, String key) {
+        int mask = keys.length - 1;
+        int homeSlot = memoHomeSlot(key.hashCode(), keys.length);
+        int slot = homeSlot;
+        for (int i = 0; i < MEMO_MAX_PROBES; i++) {
+            if (keys[slot] == null || keys[slot].equals(key)) {
+                keys[slot] = key;
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        keys[homeSlot] = key;
+        return homeSlot;
+    }
+
+    /*
+     * Append the arguments of a call to its key (for the functions whose arguments do not fit in a long).
+     * An int is two chars, a boolean one, and a string its length (two chars) followed by its chars,
+     * so two different lists of arguments (of the same types) never have the same key.
+     */
+
+    public static StringBuilder memoKey(StringBuilder key, int arg) {
+        return key.append((char) (arg >>> 16)).append((char) arg);
+    }
+
+    public static StringBuilder memoKey(StringBuilder key, boolean arg) {
+        return key.append(arg ? '1' : '0');
+    }
+
+    public static StringBuilder memoKey(StringBuilder key, String arg) {
+        return memoKey(key, arg.length()).append(arg);
+    }
+}
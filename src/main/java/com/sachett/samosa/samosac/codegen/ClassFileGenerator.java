@@ -1,27 +1,35 @@
 package com.sachett.samosa.samosac.codegen;
 
 import com.sachett.samosa.logging.LoggingUtilsKt;
+import com.sachett.samosa.runtime.SamosaRuntime;
 import com.sachett.samosa.samosac.codegen.compoundstmt.FunctionCodegen;
 import com.sachett.samosa.samosac.codegen.expressions.BooleanExprCodegen;
+import com.sachett.samosa.samosac.codegen.expressions.IntArrayExprCodegen;
 import com.sachett.samosa.samosac.codegen.expressions.IntExprCodegen;
 import com.sachett.samosa.samosac.codegen.expressions.StringExprCodegen;
 import com.sachett.samosa.samosac.codegen.function.FunctionGenerationContext;
 import com.sachett.samosa.samosac.codegen.utils.delegation.CodegenDelegatedMethod;
 import com.sachett.samosa.samosac.codegen.utils.delegation.CodegenDelegationManager;
 import com.sachett.samosa.samosac.codegen.utils.delegation.CodegenDelegatable;
+import com.sachett.samosa.samosac.optimizer.FinalGlobalsAnalyzer;
+import com.sachett.samosa.samosac.optimizer.GlobalsEscapeAnalyzer;
 import com.sachett.samosa.samosac.symbol.*;
 import com.sachett.samosa.samosac.symbol.symboltable.SymbolTable;
 
 import com.sachett.samosa.parser.SamosaParser;
 import kotlin.Pair;
+import org.antlr.v4.runtime.tree.ParseTree;
 import org.apache.commons.io.FileUtils;
 import org.jetbrains.annotations.NotNull;
 
 import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.MethodNode;
 import org.objectweb.asm.util.CheckClassAdapter;
 import org.objectweb.asm.util.TraceClassVisitor;
 
@@ -41,6 +49,11 @@ public class ClassFileGenerator extends CodegenDelegatable {
     private FunctionGenerationContext currentFunctionGenerationContext;
     private final CodegenCommons delegateCodegenCommons;
     private final SymbolTable symbolTable;
+    private final TargetRelease targetRelease;
+    private final GlobalsEscapeAnalyzer globalsEscapeAnalyzer;
+    private FunctionGenerationContext mainFunctionGenerationContext;
+    private final FinalGlobalsAnalyzer finalGlobalsAnalyzer;
+    private FunctionGenerationContext classInitFunctionGenerationContext = null;
 
     /**
      * Stores the variables that are supposed to be static when code gets generated.
@@ -52,6 +65,25 @@ public class ClassFileGenerator extends CodegenDelegatable {
         return this.staticVars;
     }
 
+    /**
+     * Stores the code of the generated methods that are small enough to be inlined (see FunctionInliner).
+     * Each entry is of the form: (method_name + method_descriptor, the code of the method)
+     */
+    private final HashMap<String, MethodNode> inlinableMethods = new HashMap<>();
+
+    /**
+     * The number of entries in the cache of a memoized function (a power of two).
+     */
+    private static final int MEMO_CACHE_SIZE = 1 << 14;
+
+    public HashMap<String, MethodNode> getInlinableMethods() {
+        return this.inlinableMethods;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
     /**
      * The CodegenDelegationManager helps manage the delegation of the partial code generators.
      */
@@ -62,11 +94,14 @@ public class ClassFileGenerator extends CodegenDelegatable {
             SamosaParser.ProgramContext programContext,
             @NotNull File sourceFile,
             @NotNull File outputDir,
-            @NotNull SymbolTable symbolTable
+            @NotNull SymbolTable symbolTable,
+            @NotNull TargetRelease targetRelease,
+            @Nullable Long randomSeed
     ) {
         super();
 
         this.fileName = sourceFile.getName();
+        this.targetRelease = targetRelease;
         this.outputDir = outputDir;
         /**
          * Register the stuff that this generator generates with the shared delegation manager.
@@ -79,12 +114,14 @@ public class ClassFileGenerator extends CodegenDelegatable {
                 CodegenDelegatedMethod.TYPEINF_BOOLEAN_DECLASSIGN,
                 CodegenDelegatedMethod.EXPR_ASSIGN,
                 CodegenDelegatedMethod.BOOLEAN_EXPR_ASSIGN,
+                CodegenDelegatedMethod.ARRAY_ELEMENT_ASSIGN,
                 CodegenDelegatedMethod.FUNCTIONCALL_NOARGS,
                 CodegenDelegatedMethod.FUNCTIONCALL_WITHARGS,
                 CodegenDelegatedMethod.IMPLICIT_RET_FUNCDEF,
                 CodegenDelegatedMethod.EXPLICIT_RET_FUNCDEF,
                 CodegenDelegatedMethod.IF,
                 CodegenDelegatedMethod.WHILE,
+                CodegenDelegatedMethod.FOR,
                 CodegenDelegatedMethod.BREAK,
                 CodegenDelegatedMethod.CONTINUE));
         this.registerDelegatedMethods(delegatedMethodHashSet);
@@ -96,6 +133,8 @@ public class ClassFileGenerator extends CodegenDelegatable {
 
         this.programContext = programContext;
         this.symbolTable = symbolTable;
+        this.globalsEscapeAnalyzer = new GlobalsEscapeAnalyzer(programContext);
+        this.finalGlobalsAnalyzer = new FinalGlobalsAnalyzer(symbolTable);
 
         // ensure that the symbol table's currentScopeIndex is reset
         symbolTable.resetScopeIndex();
@@ -129,12 +168,11 @@ public class ClassFileGenerator extends CodegenDelegatable {
         this.className = (tempClassNameNoNumbers + tempClassNameNumbers).replaceAll("[^0-9a-zA-Z]", "");
 
         // Generate a default class
-        // TODO: Make this COMPUTE_MAXS and compute frames properly in jumps
-        // This is being done already, but for some reason the JVM complains EVEN IF the stack frames are consistent.
-        // To try it, change COMPUTE_FRAMES to COMPUTE_MAXS and try running the generated class file.
-        this.delegateClassWriter = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        // The stack map frames are inserted into each method before it reaches the class writer
+        // (see StackMapFrameEmitter), so only the max stack size and the number of locals are computed here.
+        this.delegateClassWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
         this.classWriter = new TraceClassVisitor(delegateClassWriter, new PrintWriter(System.out));
-        classWriter.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, this.className, null, "java/lang/Object", null);
+        classWriter.visit(targetRelease.getClassFileVersion(), Opcodes.ACC_PUBLIC, this.className, null, "java/lang/Object", null);
 
         // Generate a default main function
         currentFunctionGenerationContext = new FunctionGenerationContext(
@@ -146,7 +184,17 @@ public class ClassFileGenerator extends CodegenDelegatable {
                 null
         );
         currentFunctionGenerationContext.setParentClassGenerator(this);
+        mainFunctionGenerationContext = currentFunctionGenerationContext;
         currentFunctionGenerationContext.getMv().visitCode();
+
+        if (randomSeed != null) {
+            // fix the seed of the random numbers for probable statements
+            currentFunctionGenerationContext.getMv().visitLdcInsn(randomSeed);
+            currentFunctionGenerationContext.getMv().visitMethodInsn(
+                    Opcodes.INVOKESTATIC, Type.getInternalName(SamosaRuntime.class), "seedRandom", "(J)V", false
+            );
+        }
+
         delegateCodegenCommons = new CodegenCommons(this,
                 currentFunctionGenerationContext,
                 symbolTable,
@@ -159,6 +207,14 @@ public class ClassFileGenerator extends CodegenDelegatable {
         currentFunctionGenerationContext.getMv().visitInsn(Opcodes.RETURN); // end main function
         currentFunctionGenerationContext.getMv().visitMaxs(0, 0);
         currentFunctionGenerationContext.getMv().visitEnd();
+
+        if (classInitFunctionGenerationContext != null) {
+            // end the static initializer
+            classInitFunctionGenerationContext.getMv().visitInsn(Opcodes.RETURN);
+            classInitFunctionGenerationContext.getMv().visitMaxs(0, 0);
+            classInitFunctionGenerationContext.getMv().visitEnd();
+        }
+
         classWriter.visitEnd();
         CheckClassAdapter.verify(new ClassReader(delegateClassWriter.toByteArray()), true, new PrintWriter(System.out));
     }
@@ -175,18 +231,25 @@ public class ClassFileGenerator extends CodegenDelegatable {
         }
     }
 
-    private ISymbol makeFieldFromSymbol(String idName) {
+    private ISymbol makeFieldFromSymbol(String idName, @Nullable ParseTree initExpr) {
         ISymbol symbol = symbolTable.lookup(idName);
 
         if (symbol == null) {
             return null;
         }
 
-        // Put it in staticVars
         if (symbol.getSymbolCoordinates() == null) {
             LoggingUtilsKt.err("Internal error: Invalid symbol coordinates for symbol " + symbol.getName());
         }
 
+        // A variable that no function can see is only used by main, so it is a local variable of main instead
+        // (see GlobalsEscapeAnalyzer).
+        if (!globalsEscapeAnalyzer.isUsedInFunctions(symbol.getName())) {
+            currentFunctionGenerationContext.newLocal(symbol, FunctionGenerationContext.typeOf(symbol.getSymbolType()));
+            return symbol;
+        }
+
+        // Put it in staticVars
         // For global variables, we store them as static variables
         // without augmenting their name with scope coordinates
         // Variables that are not in a function but in some local scope,
@@ -200,34 +263,58 @@ public class ClassFileGenerator extends CodegenDelegatable {
         }
         else {
             // global variable inside a scope => static variable with augmented name
-            staticVars.put(symbol.getAugmentedName(), symbol);
+            if (staticVars.put(symbol.getAugmentedName(), symbol) == symbol) {
+                // the field has been made already: the declaration is in a loop that is unrolled
+                return symbol;
+            }
             symbolName = symbol.getAugmentedName();
         }
 
+        // A global that is never assigned to is a final field: with a ConstantValue if its value is known
+        // at compile time, or initialized in the static initializer if it can be (see FinalGlobalsAnalyzer).
+        // The other globals are assigned to in main, so they cannot be final.
+        int finalAccess = 0;
+        boolean hasConstantValue = true;
+        if (finalGlobalsAnalyzer.isConstant(symbol)) {
+            finalAccess = Opcodes.ACC_FINAL;
+        } else if (finalGlobalsAnalyzer.canInitializeInClassInit(symbol, initExpr)) {
+            finalAccess = Opcodes.ACC_FINAL;
+            hasConstantValue = false;
+        }
+
         SymbolType symbolType = symbol.getSymbolType();
         if (symbolType == SymbolType.INT) {
             classWriter.visitField(
-                    Opcodes.ACC_STATIC + Opcodes.ACC_PRIVATE,
+                    Opcodes.ACC_STATIC + Opcodes.ACC_PRIVATE + finalAccess,
                     symbolName,
                     Type.INT_TYPE.getDescriptor(),
                     null,
-                    ((IntSymbol) symbol).getValue()
+                    hasConstantValue ? ((IntSymbol) symbol).getValue() : null
             ).visitEnd();
         } else if (symbolType == SymbolType.BOOL) {
             classWriter.visitField(
-                    Opcodes.ACC_STATIC + Opcodes.ACC_PRIVATE,
+                    Opcodes.ACC_STATIC + Opcodes.ACC_PRIVATE + finalAccess,
                     symbolName,
                     Type.BOOLEAN_TYPE.getDescriptor(),
                     null,
-                    ((BoolSymbol) symbol).getValue()
+                    hasConstantValue ? ((BoolSymbol) symbol).getValue() : null
             ).visitEnd();
         } else if (symbolType == SymbolType.STRING) {
             classWriter.visitField(
-                    Opcodes.ACC_STATIC + Opcodes.ACC_PUBLIC,
+                    Opcodes.ACC_STATIC + Opcodes.ACC_PUBLIC + finalAccess,
                     symbolName,
                     Type.getType(String.class).getDescriptor(),
                     null,
-                    ((StringSymbol) symbol).getValue()
+                    hasConstantValue ? ((StringSymbol) symbol).getValue() : null
+            ).visitEnd();
+        } else if (symbolType == SymbolType.INT_ARRAY) {
+            // an array is always initialized at runtime
+            classWriter.visitField(
+                    Opcodes.ACC_STATIC + Opcodes.ACC_PRIVATE + finalAccess,
+                    symbolName,
+                    Type.getType(int[].class).getDescriptor(),
+                    null,
+                    null
             ).visitEnd();
         }
 
@@ -239,67 +326,95 @@ public class ClassFileGenerator extends CodegenDelegatable {
             LoggingUtilsKt.err("Internal error: Invalid symbol coordinates for symbol " + symbol.getName());
         }
 
-        // get the name of the symbol
-        String symbolName = symbol.getSymbolCoordinates().getFirst() == 0 ?
-                symbol.getName() : symbol.getAugmentedName();
+        // the globals that are final fields are initialized in the static initializer, the others in main
+        FunctionGenerationContext initContext = finalGlobalsAnalyzer.isInitializedInClassInit(symbol)
+                ? getClassInitFunctionGenerationContext()
+                : currentFunctionGenerationContext;
+        boolean isField = !initContext.hasLocal(symbol);
+        if (symbol.isInitialValueCalculated()) {
+            if (isField) {
+                // the field already has the value (it was given when the field was made)
+                return;
+            }
 
-        switch (symbol.getSymbolType()) {
-            case INT:
-                if (!symbol.isInitialValueCalculated()) {
-                    // Runtime evaluation
+            pushInitialValue(symbol, initContext);
+        } else {
+            // Runtime evaluation
+            switch (symbol.getSymbolType()) {
+                case INT:
                     if (initExpr != null) {
                         IntExprCodegen intExprCodegen = new IntExprCodegen(
                                 initExpr,
                                 symbolTable,
-                                currentFunctionGenerationContext,
+                                initContext,
                                 className,
                                 ""
                         );
                         intExprCodegen.doCodegen();
                     } else {
-                        currentFunctionGenerationContext.getMv().visitLdcInsn(SymbolType.INT.getDefaultValue());
+                        initContext.getMv().visitLdcInsn(SymbolType.INT.getDefaultValue());
                     }
+                    break;
+
+                case BOOL:
+                    // This is the case when either of these occurs (the other boolean initializations
+                    // are done in initializeBooleanField() as they require a BooleanExprContext):
+                    // bro, boolVar = () -> aFunctionReturningBool.
+                    // or,
+                    // bro, boolVar = anotherBoolVar.
+                    if (initExpr != null) {
+                        BooleanExprCodegen booleanExprCodegen = new BooleanExprCodegen(
+                                null, symbolTable, initContext, className, ""
+                        );
+                        booleanExprCodegen.doSpecialCodegen(initExpr);
+                    } else {
+                        initContext.getMv().visitLdcInsn(
+                                Boolean.TRUE.equals(SymbolType.BOOL.getDefaultValue()) ? 1 : 0
+                        );
+                    }
+                    break;
 
-                    currentFunctionGenerationContext.getMv().visitFieldInsn(
-                            Opcodes.PUTSTATIC,
-                            className,
-                            symbolName,
-                            Type.INT_TYPE.getDescriptor()
-                    );
-                }
-                break;
-
-            case BOOL:
-                // If we are here, that means initExpr is null and the Symbol is a bool symbol
-                // So for boolean field dynamic initialization: we don't do that here
-                // (it's done in initializeBooleanField() as it requires a BooleanExprContext)
-                break;
-
-            case STRING:
-                if (!symbol.isInitialValueCalculated()) {
+                case STRING:
                     if (initExpr != null) {
                         StringExprCodegen stringExprCodegen = new StringExprCodegen(
                                 initExpr,
                                 symbolTable,
-                                currentFunctionGenerationContext,
+                                initContext,
                                 className,
                                 ""
                         );
                         stringExprCodegen.doCodegen();
                     } else {
-                        currentFunctionGenerationContext.getMv().visitLdcInsn(SymbolType.STRING.getDefaultValue());
+                        initContext.getMv().visitLdcInsn(SymbolType.STRING.getDefaultValue());
                     }
+                    break;
 
-                    // the string should now be on the top of the stack
-                    currentFunctionGenerationContext.getMv().visitFieldInsn(
-                            Opcodes.PUTSTATIC,
-                            className,
-                            symbolName,
-                            Type.getType(String.class).getDescriptor()
-                    );
-                }
-                break;
+                case INT_ARRAY:
+                    if (initExpr != null) {
+                        IntArrayExprCodegen intArrayExprCodegen = new IntArrayExprCodegen(
+                                initExpr,
+                                symbolTable,
+                                initContext,
+                                className,
+                                ""
+                        );
+                        intArrayExprCodegen.doCodegen();
+                    } else {
+                        // an int[] that is only declared is an empty array
+                        initContext.getMv().visitInsn(Opcodes.ICONST_0);
+                        initContext.getMv().visitIntInsn(Opcodes.NEWARRAY, Opcodes.T_INT);
+                    }
+                    break;
+
+                default:
+                    return;
+            }
         }
+
+        // the value should now be on the top of the stack
+        initContext.storeVariable(
+                symbol, symbol.getSymbolCoordinates().getFirst() == 0, className
+        );
     }
 
     private void initializeBooleanField(ISymbol symbol, SamosaParser.BooleanExprContext initExpr) {
@@ -307,30 +422,73 @@ public class ClassFileGenerator extends CodegenDelegatable {
             LoggingUtilsKt.err("Internal error: Invalid symbol coordinates for symbol " + symbol.getName());
         }
 
-        // get the name of the symbol
-        String symbolName = symbol.getSymbolCoordinates().getFirst() == 0 ?
-                symbol.getName() : symbol.getAugmentedName();
-
         if (symbol.getSymbolType() != SymbolType.BOOL) {
             return;
         }
-        if (!symbol.isInitialValueCalculated()) {
+
+        // the globals that are final fields are initialized in the static initializer, the others in main
+        FunctionGenerationContext initContext = finalGlobalsAnalyzer.isInitializedInClassInit(symbol)
+                ? getClassInitFunctionGenerationContext()
+                : currentFunctionGenerationContext;
+        boolean isField = !initContext.hasLocal(symbol);
+        if (symbol.isInitialValueCalculated()) {
+            if (isField) {
+                // the field already has the value (it was given when the field was made)
+                return;
+            }
+
+            pushInitialValue(symbol, initContext);
+        } else {
             BooleanExprCodegen booleanExprCodegen = new BooleanExprCodegen(
                     initExpr,
                     symbolTable,
-                    currentFunctionGenerationContext,
+                    initContext,
                     className,
                     ""
             );
             booleanExprCodegen.doCodegen();
+        }
 
-            currentFunctionGenerationContext.getMv().visitFieldInsn(
-                    Opcodes.PUTSTATIC,
-                    className,
-                    symbolName,
-                    Type.BOOLEAN_TYPE.getDescriptor()
+        initContext.storeVariable(
+                symbol, symbol.getSymbolCoordinates().getFirst() == 0, className
+        );
+    }
+
+    /**
+     * Pushes the initial value of the symbol (which was calculated at compile time) onto the stack.
+     */
+    private void pushInitialValue(ISymbol symbol, FunctionGenerationContext initContext) {
+        switch (symbol.getSymbolType()) {
+            case INT:
+                initContext.getMv().visitLdcInsn(((IntSymbol) symbol).getValue());
+                break;
+            case BOOL:
+                initContext.getMv().visitLdcInsn(((BoolSymbol) symbol).getValue() ? 1 : 0);
+                break;
+            case STRING:
+                initContext.getMv().visitLdcInsn(((StringSymbol) symbol).getValue());
+                break;
+        }
+    }
+
+    /**
+     * Returns the generation context of the static initializer of the class (which is made when it is first needed).
+     */
+    private FunctionGenerationContext getClassInitFunctionGenerationContext() {
+        if (classInitFunctionGenerationContext == null) {
+            classInitFunctionGenerationContext = new FunctionGenerationContext(
+                    classWriter,
+                    Opcodes.ACC_STATIC,
+                    "<clinit>",
+                    "()V",
+                    null,
+                    null
             );
+            classInitFunctionGenerationContext.setParentClassGenerator(this);
+            classInitFunctionGenerationContext.getMv().visitCode();
         }
+
+        return classInitFunctionGenerationContext;
     }
 
     @Override
@@ -342,7 +500,7 @@ public class ClassFileGenerator extends CodegenDelegatable {
     @Override
     public Void visitDeclStmt(SamosaParser.DeclStmtContext ctx) {
         String idName = ctx.IDENTIFIER().getSymbol().getText();
-        ISymbol symbol = makeFieldFromSymbol(idName);
+        ISymbol symbol = makeFieldFromSymbol(idName, null);
         if (symbol != null) {
             initializeField(symbol, null);
         }
@@ -352,7 +510,7 @@ public class ClassFileGenerator extends CodegenDelegatable {
     @Override
     public Void visitNormalDeclAssignStmt(SamosaParser.NormalDeclAssignStmtContext ctx) {
         String idName = ctx.IDENTIFIER().getSymbol().getText();
-        ISymbol symbol = makeFieldFromSymbol(idName);
+        ISymbol symbol = makeFieldFromSymbol(idName, ctx.expr());
         if (symbol != null) {
             initializeField(symbol, ctx.expr());
         }
@@ -362,7 +520,7 @@ public class ClassFileGenerator extends CodegenDelegatable {
     @Override
     public Void visitBooleanDeclAssignStmt(SamosaParser.BooleanDeclAssignStmtContext ctx) {
         String idName = ctx.IDENTIFIER().getSymbol().getText();
-        ISymbol symbol = makeFieldFromSymbol(idName);
+        ISymbol symbol = makeFieldFromSymbol(idName, ctx.booleanExpr());
         if (symbol != null) {
             initializeBooleanField(symbol, ctx.booleanExpr());
         }
@@ -372,7 +530,7 @@ public class ClassFileGenerator extends CodegenDelegatable {
     @Override
     public Void visitTypeInferredDeclAssignStmt(SamosaParser.TypeInferredDeclAssignStmtContext ctx) {
         String idName = ctx.IDENTIFIER().getSymbol().getText();
-        ISymbol symbol = makeFieldFromSymbol(idName);
+        ISymbol symbol = makeFieldFromSymbol(idName, ctx.expr());
         if (symbol != null) {
             initializeField(symbol, ctx.expr());
         }
@@ -382,7 +540,7 @@ public class ClassFileGenerator extends CodegenDelegatable {
     @Override
     public Void visitTypeInferredBooleanDeclAssignStmt(SamosaParser.TypeInferredBooleanDeclAssignStmtContext ctx) {
         String idName = ctx.IDENTIFIER().getSymbol().getText();
-        ISymbol symbol = makeFieldFromSymbol(idName);
+        ISymbol symbol = makeFieldFromSymbol(idName, ctx.booleanExpr());
         if (symbol != null) {
             initializeBooleanField(symbol, ctx.booleanExpr());
         }
@@ -395,6 +553,12 @@ public class ClassFileGenerator extends CodegenDelegatable {
         return null;
     }
 
+    @Override
+    public Void visitArrayElementAssign(SamosaParser.ArrayElementAssignContext ctx) {
+        delegateCodegenCommons.visitArrayElementAssign(ctx);
+        return null;
+    }
+
     @Override
     public Void visitBooleanExprAssign(SamosaParser.BooleanExprAssignContext ctx) {
         String idName = ctx.IDENTIFIER().getText();
@@ -406,25 +570,13 @@ public class ClassFileGenerator extends CodegenDelegatable {
         }
 
         // Let's just trust the compile-time type checker here
-        Type type = Type.BOOLEAN_TYPE;
-        int storeInstruction = Opcodes.ISTORE;
-
         // Do codegen of RHS
         BooleanExprCodegen boolCodegen = new BooleanExprCodegen(
                 ctx.booleanExpr(), symbolTable, currentFunctionGenerationContext, className, "");
         boolCodegen.doCodegen();
 
         // Store the value generated into the variable
-        if (lookupInfo.getSecond() == 0) {
-            // we're talking about a global variable
-            // (a static field of the class during generation)
-            currentFunctionGenerationContext.getMv().visitFieldInsn(
-                    Opcodes.PUTSTATIC, className, idName, type.getDescriptor()
-            );
-        } else {
-            Integer localVarIndex = currentFunctionGenerationContext.getLocalVarIndex(idName);
-            currentFunctionGenerationContext.getMv().visitVarInsn(storeInstruction, localVarIndex);
-        }
+        currentFunctionGenerationContext.storeVariable(lookupInfo.getFirst(), lookupInfo.getSecond() == 0, className);
 
         return super.visitBooleanExprAssign(ctx);
     }
@@ -448,6 +600,18 @@ public class ClassFileGenerator extends CodegenDelegatable {
         delegateCodegenCommons.setFunctionCodegen(currentFunctionGenerationContext); // TODO: refactor this redundancy
     }
 
+    public TargetRelease getTargetRelease() {
+        return targetRelease;
+    }
+
+    public FinalGlobalsAnalyzer getFinalGlobalsAnalyzer() {
+        return finalGlobalsAnalyzer;
+    }
+
+    public FunctionGenerationContext getMainFunctionGenerationContext() {
+        return mainFunctionGenerationContext;
+    }
+
     public FunctionGenerationContext getCurrentFunctionGenerationContext() {
         return currentFunctionGenerationContext;
     }
@@ -472,11 +636,13 @@ public class ClassFileGenerator extends CodegenDelegatable {
 
         var functionSymbol = (FunctionSymbol) funcSymbol;
 
+        // The method of a memoized function only looks its result up in the cache,
+        // and calls the method with the code of the function if it is not there (see generateMemoizedFunction()).
         String funcDescriptor = FunctionGenerationContext.generateDescriptor(functionSymbol);
         FunctionGenerationContext functionGenerationContext = new FunctionGenerationContext(
                 classWriter,
-                Opcodes.ACC_STATIC + Opcodes.ACC_PUBLIC,
-                functionSymbol.getName(),
+                Opcodes.ACC_STATIC + (functionSymbol.isMemoized() ? Opcodes.ACC_PRIVATE : Opcodes.ACC_PUBLIC),
+                functionSymbol.isMemoized() ? getComputingMethodName(functionSymbol) : functionSymbol.getName(),
                 funcDescriptor,
                 null, null
         );
@@ -491,6 +657,193 @@ public class ClassFileGenerator extends CodegenDelegatable {
         );
     }
 
+    private static String getComputingMethodName(FunctionSymbol functionSymbol) {
+        return functionSymbol.getName() + "$compute";
+    }
+
+    /**
+     * Generates the cache of a memoized function (let memo ...), and the method of the function that returns
+     * the result from the cache, or calls the method with the code of the function and adds its result to the cache.
+     * The caches are hash tables of a fixed size (see SamosaRuntime.memoFind()), in static fields:
+     * the arguments are the key if there is a single int parameter, or are packed into a long if they fit in it
+     * (ints take 32 bits and boolies 1), or else are made into a string.
+     */
+    private void generateMemoizedFunction(FunctionSymbol functionSymbol) {
+        String name = functionSymbol.getName();
+        String descriptor = FunctionGenerationContext.generateDescriptor(functionSymbol);
+        Type returnType = Type.getReturnType(descriptor);
+        Type[] argumentTypes = Type.getArgumentTypes(descriptor);
+
+        int keyBits = 0;
+        for (Type argumentType : argumentTypes) {
+            keyBits += argumentType == Type.INT_TYPE ? 32 : argumentType == Type.BOOLEAN_TYPE ? 1 : Long.SIZE + 1;
+        }
+
+        Type keyType;
+        if (argumentTypes.length == 1 && argumentTypes[0] == Type.INT_TYPE) {
+            keyType = Type.INT_TYPE;
+        } else if (keyBits <= Long.SIZE) {
+            keyType = Type.LONG_TYPE;
+        } else {
+            keyType = Type.getType(String.class);
+        }
+
+        // the string keys need no flags for the filled slots (the empty slots are null)
+        boolean hasFilledFlags = keyType.getSort() != Type.OBJECT;
+        String keysField = name + "$memoKeys";
+        String filledField = name + "$memoFilled";
+        String resultsField = name + "$memoResults";
+        String keysDescriptor = "[" + keyType.getDescriptor();
+        String resultsDescriptor = "[" + returnType.getDescriptor();
+
+        // the cache
+        FunctionGenerationContext classInitContext = getClassInitFunctionGenerationContext();
+        makeMemoCacheField(classInitContext, keysField, keyType);
+        if (hasFilledFlags) {
+            makeMemoCacheField(classInitContext, filledField, Type.BOOLEAN_TYPE);
+        }
+        makeMemoCacheField(classInitContext, resultsField, returnType);
+
+        // the function
+        FunctionGenerationContext functionContext = new FunctionGenerationContext(
+                classWriter, Opcodes.ACC_STATIC + Opcodes.ACC_PUBLIC, name, descriptor, null, null
+        );
+        functionContext.setParentClassGenerator(this);
+        MethodVisitor mv = functionContext.getMv();
+        mv.visitCode();
+
+        int keyLocal = 0;
+        if (keyType != Type.INT_TYPE) {
+            pushMemoKey(mv, argumentTypes, keyType);
+            keyLocal = functionContext.newTempLocal(keyType);
+            mv.visitVarInsn(keyType.getOpcode(Opcodes.ISTORE), keyLocal);
+        }
+
+        String runtimeClass = Type.getInternalName(SamosaRuntime.class);
+        String findDescriptor = hasFilledFlags
+                ? "(" + keysDescriptor + "[Z" + keyType.getDescriptor() + ")I"
+                : "(" + keysDescriptor + keyType.getDescriptor() + ")I";
+
+        // look the result up
+        Label notCached = new Label();
+        int slotLocal = functionContext.newTempLocal(Type.INT_TYPE);
+        mv.visitFieldInsn(Opcodes.GETSTATIC, className, keysField, keysDescriptor);
+        if (hasFilledFlags) {
+            mv.visitFieldInsn(Opcodes.GETSTATIC, className, filledField, "[Z");
+        }
+        mv.visitVarInsn(keyType.getOpcode(Opcodes.ILOAD), keyLocal);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, runtimeClass, "memoFind", findDescriptor, false);
+        mv.visitVarInsn(Opcodes.ISTORE, slotLocal);
+        mv.visitVarInsn(Opcodes.ILOAD, slotLocal);
+        mv.visitJumpInsn(Opcodes.IFLT, notCached);
+
+        mv.visitFieldInsn(Opcodes.GETSTATIC, className, resultsField, resultsDescriptor);
+        mv.visitVarInsn(Opcodes.ILOAD, slotLocal);
+        mv.visitInsn(returnType.getOpcode(Opcodes.IALOAD));
+        mv.visitInsn(returnType.getOpcode(Opcodes.IRETURN));
+
+        // compute it, and add it to the cache
+        mv.visitLabel(notCached);
+        int argumentLocal = 0;
+        for (Type argumentType : argumentTypes) {
+            mv.visitVarInsn(argumentType.getOpcode(Opcodes.ILOAD), argumentLocal);
+            argumentLocal += argumentType.getSize();
+        }
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, className, getComputingMethodName(functionSymbol), descriptor, false);
+        int resultLocal = functionContext.newTempLocal(returnType);
+        mv.visitVarInsn(returnType.getOpcode(Opcodes.ISTORE), resultLocal);
+
+        mv.visitFieldInsn(Opcodes.GETSTATIC, className, resultsField, resultsDescriptor);
+        mv.visitFieldInsn(Opcodes.GETSTATIC, className, keysField, keysDescriptor);
+        if (hasFilledFlags) {
+            mv.visitFieldInsn(Opcodes.GETSTATIC, className, filledField, "[Z");
+        }
+        mv.visitVarInsn(keyType.getOpcode(Opcodes.ILOAD), keyLocal);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, runtimeClass, "memoPut", findDescriptor, false);
+        mv.visitVarInsn(returnType.getOpcode(Opcodes.ILOAD), resultLocal);
+        mv.visitInsn(returnType.getOpcode(Opcodes.IASTORE));
+
+        mv.visitVarInsn(returnType.getOpcode(Opcodes.ILOAD), resultLocal);
+        mv.visitInsn(returnType.getOpcode(Opcodes.IRETURN));
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    /**
+     * Makes a static field for an array of the cache of a memoized function, and creates the array
+     * in the static initializer.
+     */
+    private void makeMemoCacheField(FunctionGenerationContext classInitContext, String fieldName, Type elementType) {
+        String descriptor = "[" + elementType.getDescriptor();
+        classWriter.visitField(
+                Opcodes.ACC_STATIC + Opcodes.ACC_PRIVATE + Opcodes.ACC_FINAL, fieldName, descriptor, null, null
+        ).visitEnd();
+
+        MethodVisitor mv = classInitContext.getMv();
+        mv.visitLdcInsn(MEMO_CACHE_SIZE);
+        switch (elementType.getSort()) {
+            case Type.INT:
+                mv.visitIntInsn(Opcodes.NEWARRAY, Opcodes.T_INT);
+                break;
+            case Type.LONG:
+                mv.visitIntInsn(Opcodes.NEWARRAY, Opcodes.T_LONG);
+                break;
+            case Type.BOOLEAN:
+                mv.visitIntInsn(Opcodes.NEWARRAY, Opcodes.T_BOOLEAN);
+                break;
+            default:
+                mv.visitTypeInsn(Opcodes.ANEWARRAY, elementType.getInternalName());
+        }
+        mv.visitFieldInsn(Opcodes.PUTSTATIC, className, fieldName, descriptor);
+    }
+
+    /**
+     * Pushes the key of the arguments of a memoized function onto the stack (a long or a string).
+     */
+    private void pushMemoKey(MethodVisitor mv, Type[] argumentTypes, Type keyType) {
+        String runtimeClass = Type.getInternalName(SamosaRuntime.class);
+        if (keyType == Type.LONG_TYPE) {
+            // the arguments are packed from the most significant bits to the least significant ones
+            if (argumentTypes.length == 0) {
+                mv.visitInsn(Opcodes.LCONST_0);
+                return;
+            }
+
+            for (int i = 0; i < argumentTypes.length; i++) {
+                boolean isInt = argumentTypes[i] == Type.INT_TYPE;
+                if (i > 0) {
+                    mv.visitLdcInsn(isInt ? 32 : 1);
+                    mv.visitInsn(Opcodes.LSHL);
+                }
+                mv.visitVarInsn(Opcodes.ILOAD, i);
+                mv.visitInsn(Opcodes.I2L);
+                if (isInt) {
+                    mv.visitLdcInsn(0xFFFFFFFFL);
+                    mv.visitInsn(Opcodes.LAND);
+                }
+                if (i > 0) {
+                    mv.visitInsn(Opcodes.LOR);
+                }
+            }
+            return;
+        }
+
+        mv.visitTypeInsn(Opcodes.NEW, "java/lang/StringBuilder");
+        mv.visitInsn(Opcodes.DUP);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/StringBuilder", "<init>", "()V", false);
+        for (int i = 0; i < argumentTypes.length; i++) {
+            mv.visitVarInsn(argumentTypes[i].getOpcode(Opcodes.ILOAD), i);
+            mv.visitMethodInsn(
+                    Opcodes.INVOKESTATIC, runtimeClass, "memoKey",
+                    "(Ljava/lang/StringBuilder;" + argumentTypes[i].getDescriptor() + ")Ljava/lang/StringBuilder;",
+                    false
+            );
+        }
+        mv.visitMethodInsn(
+                Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "toString", "()Ljava/lang/String;", false
+        );
+    }
+
     @Override
     public Void visitImplicitRetTypeFuncDef(SamosaParser.ImplicitRetTypeFuncDefContext ctx) {
         String funcIdName = ctx.IDENTIFIER().getText();
@@ -504,6 +857,11 @@ public class ClassFileGenerator extends CodegenDelegatable {
 
         // restore previous functionGenerationContext
         restoreLastFunctionCodegen();
+
+        ISymbol functionSymbol = symbolTable.getSymbolAnnotations().get(ctx);
+        if (functionSymbol instanceof FunctionSymbol && ((FunctionSymbol) functionSymbol).isMemoized()) {
+            generateMemoizedFunction((FunctionSymbol) functionSymbol);
+        }
         return null;
     }
 
@@ -520,6 +878,11 @@ public class ClassFileGenerator extends CodegenDelegatable {
 
         // restore previous functionGenerationContext
         restoreLastFunctionCodegen();
+
+        ISymbol functionSymbol = symbolTable.getSymbolAnnotations().get(ctx);
+        if (functionSymbol instanceof FunctionSymbol && ((FunctionSymbol) functionSymbol).isMemoized()) {
+            generateMemoizedFunction((FunctionSymbol) functionSymbol);
+        }
         return null;
     }
 
@@ -533,6 +896,11 @@ public class ClassFileGenerator extends CodegenDelegatable {
         return delegateCodegenCommons.visitWhileStmt(ctx);
     }
 
+    @Override
+    public Void visitForStmt(SamosaParser.ForStmtContext ctx) {
+        return delegateCodegenCommons.visitForStmt(ctx);
+    }
+
     @Override
     public Void visitBreakControlStmt(SamosaParser.BreakControlStmtContext ctx) {
         return delegateCodegenCommons.visitBreakControlStmt(ctx);
@@ -2,24 +2,33 @@ package com.sachett.samosa.samosac.codegen;
 
 import com.sachett.samosa.parser.SamosaBaseVisitor;
 import com.sachett.samosa.parser.SamosaParser;
+import com.sachett.samosa.runtime.SamosaRuntime;
 import com.sachett.samosa.samosac.codegen.compoundstmt.ControlNodeCodegenType;
+import com.sachett.samosa.samosac.codegen.compoundstmt.ForStmtCodegen;
 import com.sachett.samosa.samosac.codegen.compoundstmt.IControlNodeCodegen;
 import com.sachett.samosa.samosac.codegen.compoundstmt.IfStmtCodegen;
 import com.sachett.samosa.samosac.codegen.compoundstmt.WhileStmtCodegen;
 import com.sachett.samosa.samosac.codegen.expressions.BooleanExprCodegen;
+import com.sachett.samosa.samosac.codegen.expressions.IntArrayExprCodegen;
 import com.sachett.samosa.samosac.codegen.expressions.IntExprCodegen;
 import com.sachett.samosa.samosac.codegen.expressions.StringExprCodegen;
 import com.sachett.samosa.samosac.codegen.function.FunctionCallCodegen;
 import com.sachett.samosa.samosac.codegen.function.FunctionGenerationContext;
 import com.sachett.samosa.samosac.codegen.utils.delegation.CodegenDelegatable;
+import com.sachett.samosa.samosac.optimizer.GlobalsEscapeAnalyzer;
+import com.sachett.samosa.samosac.symbol.FunctionSymbol;
 import com.sachett.samosa.samosac.symbol.ISymbol;
 import com.sachett.samosa.samosac.symbol.symboltable.SymbolTable;
+import com.sachett.samosa.samosac.staticchecker.evaluators.IntExpressionEvaluator;
 import kotlin.Pair;
+import org.antlr.v4.runtime.tree.ParseTree;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 
+import java.math.BigInteger;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 
 import static com.sachett.samosa.logging.LoggingUtilsKt.err;
 
@@ -33,7 +42,7 @@ public class CodegenCommons extends SamosaBaseVisitor<Void> {
     protected final SymbolTable symbolTable;
 
     /**
-     * Stack of WhileStmtCodeGens (for nested while statements).
+     * Stack of the codegens of the compound statements being generated (for nested if, while and for statements).
      */
     protected final ArrayDeque<IControlNodeCodegen> controlNodeCodegens = new ArrayDeque<>();
 
@@ -73,7 +82,9 @@ public class CodegenCommons extends SamosaBaseVisitor<Void> {
         // keep track of scopes in the symbol table
         Pair<Integer, Integer> blockStart = new Pair<>(ctx.start.getLine(), ctx.start.getCharPositionInLine());
         symbolTable.goToBlock(blockStart);
+        functionGenerationContext.enterScope();
         parentCodegen.visitChildren(ctx);
+        functionGenerationContext.exitScope();
         symbolTable.restoreLastCoordinates();
         return null;
     }
@@ -89,14 +100,9 @@ public class CodegenCommons extends SamosaBaseVisitor<Void> {
             return null;
         }
 
-        Type type = null;
-        int storeInstruction = Opcodes.ASTORE;
-
         // Do codegen of RHS
         switch (lookupInfo.getFirst().getSymbolType()) {
             case INT:
-                type = Type.INT_TYPE;
-                storeInstruction = Opcodes.ISTORE;
                 IntExprCodegen intCodegen = new IntExprCodegen(
                         ctx.expr(), symbolTable, functionGenerationContext, className, packageName);
                 intCodegen.doCodegen();
@@ -107,35 +113,46 @@ public class CodegenCommons extends SamosaBaseVisitor<Void> {
                 // aBoolVar = () -> aFunctionReturningBool.
                 // or,
                 // aBoolVar = anotherBoolVar.
-                type = Type.BOOLEAN_TYPE;
-                storeInstruction = Opcodes.ISTORE;
                 BooleanExprCodegen boolCodegen = new BooleanExprCodegen(
                         null, symbolTable, functionGenerationContext, className, packageName);
                 boolCodegen.doSpecialCodegen(ctx.expr());
                 break;
 
             case STRING:
-                type = Type.getType(String.class);
                 StringExprCodegen stringExprCodegen = new StringExprCodegen(
                         ctx.expr(), symbolTable, functionGenerationContext, className, packageName);
                 stringExprCodegen.doCodegen();
                 break;
+
+            case INT_ARRAY:
+                IntArrayExprCodegen intArrayCodegen = new IntArrayExprCodegen(
+                        ctx.expr(), symbolTable, functionGenerationContext, className, packageName);
+                intArrayCodegen.doCodegen();
+                break;
             default:
                 err("[Error] Wrong assignment (bad type on LHS).");
         }
 
         // Store the value generated into the variable
-        if (lookupInfo.getSecond() == 0) {
-            // we're talking about a global variable
-            // (a static field of the class during generation)
-            assert type != null;
-            functionGenerationContext.getMv().visitFieldInsn(
-                    Opcodes.PUTSTATIC, className, idName, type.getDescriptor()
-            );
-        } else {
-            Integer localVarIndex = functionGenerationContext.getLocalVarIndex(lookupInfo.getFirst().getAugmentedName());
-            functionGenerationContext.getMv().visitVarInsn(storeInstruction, localVarIndex);
+        // (a static field of the class or a local variable, see IExprCodegen.doIdentifierCodegen())
+        functionGenerationContext.storeVariable(lookupInfo.getFirst(), lookupInfo.getSecond() == 0, className);
+        return null;
+    }
+
+    public Void visitArrayElementAssign(SamosaParser.ArrayElementAssignContext ctx) {
+        String idName = ctx.IDENTIFIER().getText();
+
+        Pair<ISymbol, Integer> lookupInfo = symbolTable.lookupWithNearestScopeValue(idName);
+        if (lookupInfo.getFirst() == null) {
+            // lookup failed
+            return null;
         }
+
+        // arrayref, index, value -> IASTORE
+        functionGenerationContext.loadVariable(lookupInfo.getFirst(), lookupInfo.getSecond() == 0, className);
+        new IntExprCodegen(ctx.index, symbolTable, functionGenerationContext, className, packageName).doCodegen();
+        new IntExprCodegen(ctx.value, symbolTable, functionGenerationContext, className, packageName).doCodegen();
+        functionGenerationContext.getMv().visitInsn(Opcodes.IASTORE);
         return null;
     }
 
@@ -167,24 +184,108 @@ public class CodegenCommons extends SamosaBaseVisitor<Void> {
                 packageName
         );
 
+        // The globals used in a top level loop of main are kept in local variables while the loop runs
+        ArrayList<Pair<ISymbol, String>> cachedVariables = new ArrayList<>();
+        if (getMostRecentLoopCodegen() == null && functionGenerationContext.isMainFunction()) {
+            cachedVariables = cacheStaticVariablesUsedIn(ctx);
+        }
+
         controlNodeCodegens.push(whileStmtCodegen);
         parentCodegen.startDelegatingTo(whileStmtCodegen);
         whileStmtCodegen.generateWhileStmt(ctx);
         parentCodegen.finishDelegating();
         controlNodeCodegens.pop();
+
+        for (Pair<ISymbol, String> cachedVariable : cachedVariables) {
+            functionGenerationContext.uncacheField(cachedVariable.getFirst(), cachedVariable.getSecond());
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(SamosaParser.ForStmtContext ctx) {
+        ForStmtCodegen forStmtCodegen = new ForStmtCodegen(
+                parentCodegen,
+                functionGenerationContext,
+                symbolTable,
+                className,
+                packageName
+        );
+
+        // The globals used in a top level loop of main are kept in local variables while the loop runs
+        ArrayList<Pair<ISymbol, String>> cachedVariables = new ArrayList<>();
+        if (getMostRecentLoopCodegen() == null && functionGenerationContext.isMainFunction()) {
+            cachedVariables = cacheStaticVariablesUsedIn(ctx);
+        }
+
+        controlNodeCodegens.push(forStmtCodegen);
+        parentCodegen.startDelegatingTo(forStmtCodegen);
+        forStmtCodegen.generateForStmt(ctx);
+        parentCodegen.finishDelegating();
+        controlNodeCodegens.pop();
+
+        for (Pair<ISymbol, String> cachedVariable : cachedVariables) {
+            functionGenerationContext.uncacheField(cachedVariable.getFirst(), cachedVariable.getSecond());
+        }
         return null;
     }
 
     /**
-     * Checks if there's a WhileStmtCodegen in the stack (and return one if there's one).
-     * Returns null if the stack does not contain a WhileStmtCodegen.
+     * Loads the variables that are used in the loop and stored in static fields into local variables
+     * (see FunctionGenerationContext.cacheField()).
+     * The calls to the functions of the program in the loop store them back and reload them (see FunctionCallCodegen).
+     * @return The cached variables, with the names of their fields.
      */
-    private WhileStmtCodegen getMostRecentWhileStmtCodegen() {
+    private ArrayList<Pair<ISymbol, String>> cacheStaticVariablesUsedIn(ParseTree ctx) {
+        ArrayList<Pair<ISymbol, String>> cachedVariables = new ArrayList<>();
+        var usedAndAssignedNames = GlobalsEscapeAnalyzer.findUsedAndAssignedNames(ctx);
+        var declaredNames = GlobalsEscapeAnalyzer.findDeclaredNames(ctx);
+
+        for (String name : usedAndAssignedNames.getFirst()) {
+            if (declaredNames.contains(name)) {
+                continue;
+            }
+
+            Pair<ISymbol, Integer> lookupInfo = symbolTable.lookupWithNearestScopeValue(name);
+            ISymbol symbol = lookupInfo.getFirst();
+            if (symbol == null || symbol instanceof FunctionSymbol
+                    || functionGenerationContext.hasLocal(symbol)) {
+                continue;
+            }
+
+            // the constants are inlined, and the final fields never change
+            if (functionGenerationContext.getParentClassGenerator().getFinalGlobalsAnalyzer().isFinal(symbol)
+                    || (symbol.isInitialValueCalculated() && !symbol.isReassigned())) {
+                continue;
+            }
+
+            boolean isGlobal = lookupInfo.getSecond() == 0;
+            String fieldName = isGlobal ? symbol.getName() : symbol.getAugmentedName();
+            functionGenerationContext.cacheField(
+                    symbol,
+                    className,
+                    fieldName,
+                    FunctionGenerationContext.typeOf(symbol.getSymbolType()),
+                    usedAndAssignedNames.getSecond().contains(name)
+            );
+            cachedVariables.add(new Pair<>(symbol, fieldName));
+        }
+
+        return cachedVariables;
+    }
+
+    /**
+     * Checks if there's the codegen of a loop (a WhileStmtCodegen or a ForStmtCodegen) in the stack
+     * (and returns the innermost one if there's one).
+     * Returns null if the stack does not contain the codegen of a loop.
+     */
+    private CodegenDelegatable getMostRecentLoopCodegen() {
         // The loop below iterates of things getting popped off from the stack represented by the deque
         // (but does not actually pop anything)
         for (var elem : controlNodeCodegens) {
-            if (elem.getControlNodeCodegenType() == ControlNodeCodegenType.WHILE) {
-                return (WhileStmtCodegen) elem;
+            if (elem.getControlNodeCodegenType() == ControlNodeCodegenType.WHILE
+                    || elem.getControlNodeCodegenType() == ControlNodeCodegenType.FOR) {
+                return (CodegenDelegatable) elem;
             }
         }
         return null;
@@ -192,20 +293,20 @@ public class CodegenCommons extends SamosaBaseVisitor<Void> {
 
     @Override
     public Void visitBreakControlStmt(SamosaParser.BreakControlStmtContext ctx) {
-        WhileStmtCodegen firstWhileStmtCodegenOnStack = getMostRecentWhileStmtCodegen();
+        CodegenDelegatable firstLoopCodegenOnStack = getMostRecentLoopCodegen();
 
-        if (firstWhileStmtCodegenOnStack != null) {
-            firstWhileStmtCodegenOnStack.visitBreakControlStmt(ctx);
+        if (firstLoopCodegenOnStack != null) {
+            firstLoopCodegenOnStack.visitBreakControlStmt(ctx);
         }
         return null;
     }
 
     @Override
     public Void visitContinueControlStmt(SamosaParser.ContinueControlStmtContext ctx) {
-        WhileStmtCodegen firstWhileStmtCodegenOnStack = getMostRecentWhileStmtCodegen();
+        CodegenDelegatable firstLoopCodegenOnStack = getMostRecentLoopCodegen();
 
-        if (firstWhileStmtCodegenOnStack != null) {
-            firstWhileStmtCodegenOnStack.visitContinueControlStmt(ctx);
+        if (firstLoopCodegenOnStack != null) {
+            firstLoopCodegenOnStack.visitContinueControlStmt(ctx);
         }
         return null;
     }
@@ -230,31 +331,131 @@ public class CodegenCommons extends SamosaBaseVisitor<Void> {
         return null;
     }
 
-    private void generateRandomNumber() {
-        functionGenerationContext.getMv().visitTypeInsn(Opcodes.NEW, "java/util/Random");
-        functionGenerationContext.getMv().visitInsn(Opcodes.DUP);
-        functionGenerationContext.getMv().visitMethodInsn(Opcodes.INVOKESPECIAL, "java/util/Random", "<init>", "()V", false);
-        functionGenerationContext.getMv().visitIntInsn(Opcodes.BIPUSH, 101);
-        functionGenerationContext.getMv().visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/util/Random", "nextInt", "(I)I", false);
+    /**
+     * Pushes a random number from 0 (inclusive) to bound (exclusive), from the shared generator of the runtime
+     * (see SamosaRuntime). A statement with probability p (in percent) runs when this number (for a bound of 100)
+     * is lower than p.
+     */
+    private void generateRandomNumber(int bound) {
+        functionGenerationContext.getMv().visitLdcInsn(bound);
+        functionGenerationContext.getMv().visitMethodInsn(
+                Opcodes.INVOKESTATIC, Type.getInternalName(SamosaRuntime.class), "nextBelow", "(I)I", false
+        );
     }
 
-    @Override
-    public Void visitUncertainStatementSingle(SamosaParser.UncertainStatementSingleContext ctx) {
-        generateRandomNumber();
+    /**
+     * Generates the code for a probability and clamps it to [0, 100] (so that it can be multiplied with others).
+     */
+    private void generateClampedProbability(SamosaParser.ExprContext probabilityExpr) {
         IntExprCodegen intExprCodegen = new IntExprCodegen(
-                ctx.expr(),
-                symbolTable,
-                functionGenerationContext,
-                className,
-                packageName
+                probabilityExpr, symbolTable, functionGenerationContext, className, packageName
         );
         intExprCodegen.doCodegen();
 
-        // if the generated number is lower than or equal to the probability value given,
-        // we execute the statement, else we skip it (comparison happens at runtime)
+        functionGenerationContext.getMv().visitLdcInsn(100);
+        functionGenerationContext.getMv().visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Math", "min", "(II)I", false);
+        functionGenerationContext.getMv().visitInsn(Opcodes.ICONST_0);
+        functionGenerationContext.getMv().visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Math", "max", "(II)I", false);
+    }
+
+    private static boolean containsFunctionCall(ParseTree tree) {
+        if (tree instanceof SamosaParser.FunctionCallContext) {
+            return true;
+        }
+
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            if (containsFunctionCall(tree.getChild(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Void visitUncertainStatementSingle(SamosaParser.UncertainStatementSingleContext ctx) {
+        // A chain of nested probable statements (stmt ?[p1]... ?[p2]... ?[p3]...) runs stmt with the probability
+        // p1 * p2 * p3 (in percent^3). So, instead of a draw for each of them, a single number is drawn from
+        // [0, 100^3) and compared to p1 * p2 * p3. The constant probabilities are multiplied at compile time
+        // (and the fraction is reduced), and the others at runtime. The inner probabilities are only evaluated
+        // if the outer ones make them run, so those with function calls (which may have side effects) end the chain.
+        long constantThreshold = 1;
+        long constantBound = 1;
+        ArrayList<SamosaParser.ExprContext> runtimeProbabilities = new ArrayList<>();
+        SamosaParser.StatementContext innerStatement = ctx;
+
+        while (innerStatement instanceof SamosaParser.UncertainStatementSingleContext) {
+            var uncertainStatement = (SamosaParser.UncertainStatementSingleContext) innerStatement;
+            SamosaParser.ExprContext probabilityExpr = uncertainStatement.expr();
+            if (uncertainStatement != ctx && containsFunctionCall(probabilityExpr)) {
+                break;
+            }
+
+            IntExpressionEvaluator probabilityEvaluator = new IntExpressionEvaluator(probabilityExpr, symbolTable);
+            long threshold = constantThreshold;
+            long bound = constantBound;
+            int numRuntimeProbabilities = runtimeProbabilities.size();
+            if (probabilityEvaluator.checkStaticEvaluable()) {
+                threshold *= Math.max(0, Math.min(100, probabilityEvaluator.evaluate()));
+                bound *= 100;
+                long gcd = BigInteger.valueOf(threshold).gcd(BigInteger.valueOf(bound)).longValue();
+                if (gcd > 1) {
+                    threshold /= gcd;
+                    bound /= gcd;
+                }
+            } else {
+                numRuntimeProbabilities++;
+            }
+
+            // each runtime probability can be up to 100, and the number is drawn as an int
+            if (bound * (long) Math.pow(100, numRuntimeProbabilities) > Integer.MAX_VALUE) {
+                break;
+            }
+
+            constantThreshold = threshold;
+            constantBound = bound;
+            if (numRuntimeProbabilities > runtimeProbabilities.size()) {
+                runtimeProbabilities.add(probabilityExpr);
+            }
+            innerStatement = uncertainStatement.statement();
+        }
+
+        if (constantThreshold == 0) {
+            // the statement never runs; only the function calls in the outermost probability are left to be done
+            if (containsFunctionCall(ctx.expr())) {
+                new IntExprCodegen(ctx.expr(), symbolTable, functionGenerationContext, className, packageName)
+                        .doCodegen();
+                functionGenerationContext.getMv().visitInsn(Opcodes.POP);
+            }
+            return null;
+        }
+
+        if (runtimeProbabilities.isEmpty() && constantThreshold == constantBound) {
+            // the statement always runs
+            parentCodegen.visit(innerStatement);
+            return null;
+        }
+
+        int bound = (int) (constantBound * (long) Math.pow(100, runtimeProbabilities.size()));
+        generateRandomNumber(bound);
+
+        // the threshold: the product of the probabilities
+        if (runtimeProbabilities.size() == 1 && constantBound == 1) {
+            // (a single probability can be used as it is, as the comparison works for any value)
+            new IntExprCodegen(runtimeProbabilities.get(0), symbolTable, functionGenerationContext, className, packageName)
+                    .doCodegen();
+        } else {
+            functionGenerationContext.getMv().visitLdcInsn((int) constantThreshold);
+            for (SamosaParser.ExprContext probabilityExpr : runtimeProbabilities) {
+                generateClampedProbability(probabilityExpr);
+                functionGenerationContext.getMv().visitInsn(Opcodes.IMUL);
+            }
+        }
+
+        // if the generated number is lower than the threshold, we execute the statement,
+        // else we skip it (comparison happens at runtime)
         Label endUncertaintyLabel = new Label();
-        functionGenerationContext.getMv().visitJumpInsn(Opcodes.IF_ICMPGT, endUncertaintyLabel);
-        parentCodegen.visit(ctx.statement());
+        functionGenerationContext.getMv().visitJumpInsn(Opcodes.IF_ICMPGE, endUncertaintyLabel);
+        parentCodegen.visit(innerStatement);
         functionGenerationContext.getMv().visitLabel(endUncertaintyLabel);
 
         return null;
@@ -262,7 +463,21 @@ public class CodegenCommons extends SamosaBaseVisitor<Void> {
 
     @Override
     public Void visitUncertainStatementMultiple(SamosaParser.UncertainStatementMultipleContext ctx) {
-        generateRandomNumber();
+        IntExpressionEvaluator probabilityEvaluator = new IntExpressionEvaluator(ctx.expr(), symbolTable);
+        if (probabilityEvaluator.checkStaticEvaluable()) {
+            // no need to draw a number if one of the statements always runs
+            int probability = probabilityEvaluator.evaluate();
+            if (probability <= 0) {
+                parentCodegen.visit(ctx.statement(1));
+                return null;
+            }
+            if (probability >= 100) {
+                parentCodegen.visit(ctx.statement(0));
+                return null;
+            }
+        }
+
+        generateRandomNumber(100);
         IntExprCodegen intExprCodegen = new IntExprCodegen(
                 ctx.expr(),
                 symbolTable,
@@ -272,16 +487,15 @@ public class CodegenCommons extends SamosaBaseVisitor<Void> {
         );
         intExprCodegen.doCodegen();
 
-        // if the generated number is lower than or equal to the probability value given,
+        // if the generated number is lower than the probability value given,
         // we execute the statement, else we skip it (comparison happens at runtime)
         Label secondStmt = new Label();
-        functionGenerationContext.getMv().visitJumpInsn(Opcodes.IF_ICMPGT, secondStmt);
+        functionGenerationContext.getMv().visitJumpInsn(Opcodes.IF_ICMPGE, secondStmt);
         parentCodegen.visit(ctx.statement(0));
         Label endUncertaintyLabel = new Label();
         functionGenerationContext.getMv().visitJumpInsn(Opcodes.GOTO, endUncertaintyLabel);
         functionGenerationContext.getMv().visitLabel(secondStmt);
         parentCodegen.visit(ctx.statement(1));
-        functionGenerationContext.getMv().visitJumpInsn(Opcodes.GOTO, endUncertaintyLabel);
         functionGenerationContext.getMv().visitLabel(endUncertaintyLabel);
 
         return null;
@@ -0,0 +1,61 @@
+package com.sachett.samosa.samosac.codegen;
+
+import com.sachett.samosa.logging.LoggingUtilsKt;
+import com.sachett.samosa.runtime.SamosaRuntime;
+import org.jetbrains.annotations.NotNull;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Writes the runtime support classes (that the generated classes call) into the output directory.
+ */
+public class RuntimeSupportWriter {
+    private static final Class<?>[] runtimeClasses = { SamosaRuntime.class };
+
+    /**
+     * Copies the runtime support classes into the output directory, with the class file version of the target.
+     * @param outputDir     The directory in which the generated classes are written.
+     * @param targetRelease The target of the generated classes.
+     */
+    public static void writeRuntimeClasses(@NotNull File outputDir, @NotNull TargetRelease targetRelease) {
+        for (Class<?> runtimeClass : runtimeClasses) {
+            String classFileName = runtimeClass.getName().replace('.', '/') + ".class";
+
+            try (InputStream classStream = runtimeClass.getClassLoader().getResourceAsStream(classFileName)) {
+                if (classStream == null) {
+                    LoggingUtilsKt.err("Internal error: Cannot find the runtime class " + runtimeClass.getName());
+                }
+
+                ClassWriter classWriter = new ClassWriter(0);
+                new ClassReader(classStream).accept(new ClassVisitor(Opcodes.ASM9, classWriter) {
+                    @Override
+                    public void visit(
+                            int version, int access, String name,
+                            String signature, String superName, String[] interfaces
+                    ) {
+                        super.visit(targetRelease.getClassFileVersion(), access, name, signature, superName, interfaces);
+                    }
+                }, 0);
+
+                // The class is written to a temporary file first and then moved in place, so that a program
+                // compiled in parallel into the same directory never sees a partially written class.
+                Path classFile = outputDir.toPath().resolve(classFileName);
+                Files.createDirectories(classFile.getParent());
+                Path tempClassFile = Files.createTempFile(classFile.getParent(), runtimeClass.getSimpleName(), ".tmp");
+                Files.write(tempClassFile, classWriter.toByteArray());
+                Files.move(tempClassFile, classFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                LoggingUtilsKt.err("samosac: Cannot write the runtime class " + runtimeClass.getName() + ": " + e);
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.sachett.samosa.samosac.codegen;
+
+import org.objectweb.asm.Opcodes;
+
+/**
+ * The Java releases that the generated class files can target (see the --target option of the compiler).
+ */
+public enum TargetRelease {
+    JAVA_8(8, Opcodes.V1_8),
+    JAVA_11(11, Opcodes.V11),
+    JAVA_17(17, Opcodes.V17);
+
+    public static final TargetRelease DEFAULT = JAVA_11;
+
+    private final int release;
+    private final int classFileVersion;
+
+    TargetRelease(int release, int classFileVersion) {
+        this.release = release;
+        this.classFileVersion = classFileVersion;
+    }
+
+    /**
+     * Returns the target for the given Java release number, or null if that release cannot be targeted.
+     */
+    public static TargetRelease of(int release) {
+        for (TargetRelease targetRelease : values()) {
+            if (targetRelease.release == release) {
+                return targetRelease;
+            }
+        }
+
+        return null;
+    }
+
+    public int getRelease() {
+        return release;
+    }
+
+    public int getClassFileVersion() {
+        return classFileVersion;
+    }
+
+    /**
+     * Checks if string concatenation can be done by invokedynamic with StringConcatFactory (Java 9 onwards).
+     */
+    public boolean supportsIndyStringConcat() {
+        return release >= 9;
+    }
+}
@@ -1,5 +1,5 @@
 package com.sachett.samosa.samosac.codegen.compoundstmt;
 
 public enum ControlNodeCodegenType {
-    IF, WHILE
+    IF, WHILE, FOR
 }
@@ -0,0 +1,308 @@
+package com.sachett.samosa.samosac.codegen.compoundstmt;
+
+import com.sachett.samosa.parser.SamosaParser;
+import com.sachett.samosa.samosac.codegen.expressions.IntExprCodegen;
+import com.sachett.samosa.samosac.codegen.expressions.StringExprCodegen;
+import com.sachett.samosa.samosac.codegen.function.FunctionGenerationContext;
+import com.sachett.samosa.samosac.codegen.utils.delegation.CodegenDelegatable;
+import com.sachett.samosa.samosac.codegen.utils.delegation.CodegenDelegatedMethod;
+import com.sachett.samosa.samosac.optimizer.LoopAnalyzer;
+import com.sachett.samosa.samosac.staticchecker.evaluators.IntExpressionEvaluator;
+import com.sachett.samosa.samosac.symbol.ISymbol;
+import com.sachett.samosa.samosac.symbol.SymbolType;
+import com.sachett.samosa.samosac.symbol.symboltable.SymbolTable;
+import kotlin.Pair;
+import org.antlr.v4.runtime.tree.TerminalNode;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Generates a for loop as a counted loop, the shape of loop that HotSpot optimizes best:
+ * the loop variable is always kept in a local variable, it is stepped with an iinc instruction,
+ * and the end of the range is computed once (it is a constant or is kept in a local variable as well).
+ * The condition is checked at the bottom of the loop, so there is a single jump back to the body.
+ * Unless the end is a constant far enough from the limits of int, the loop variable is also checked before it is
+ * stepped, so that the loop ends instead of wrapping around.
+ */
+public class ForStmtCodegen extends CodegenDelegatable implements IControlNodeCodegen {
+    private FunctionGenerationContext functionGenerationContext;
+    private final ControlNodeCodegenType controlNodeCodegenType = ControlNodeCodegenType.FOR;
+
+    public ControlNodeCodegenType getControlNodeCodegenType() {
+        return controlNodeCodegenType;
+    }
+
+    private String className;
+    private String packageName;
+    private SymbolTable symbolTable;
+
+    private boolean generatingForBlock = false;
+    private Label forLoopStepLabel = null;
+    private Label forLoopExitLabel = null;
+
+    private CodegenDelegatable delegatedParentCodegen;
+
+    public ForStmtCodegen(
+            CodegenDelegatable delegatedParentCodegen,
+            FunctionGenerationContext functionGenerationContext,
+            SymbolTable symbolTable,
+            String className,
+            String packageName
+    ) {
+        super(delegatedParentCodegen.getSharedDelegationManager());
+
+        /**
+         * Register the stuff that this generator generates with the shared delegation manager.
+         */
+        HashSet<CodegenDelegatedMethod> delegatedMethodHashSet = new HashSet<>(List.of(
+                CodegenDelegatedMethod.BLOCK,
+                CodegenDelegatedMethod.BREAK,
+                CodegenDelegatedMethod.CONTINUE
+        ));
+        this.registerDelegatedMethods(delegatedMethodHashSet);
+
+        this.functionGenerationContext = functionGenerationContext;
+        this.delegatedParentCodegen = delegatedParentCodegen;
+        this.className = className;
+        this.packageName = packageName;
+        this.symbolTable = symbolTable;
+    }
+
+    // Delegate methods:
+    @Override
+    public Void visitBooleanExprAssign(SamosaParser.BooleanExprAssignContext ctx) {
+        return delegatedParentCodegen.visitBooleanExprAssign(ctx);
+    }
+
+    @Override
+    public Void visitDeclStmt(SamosaParser.DeclStmtContext ctx) {
+        return delegatedParentCodegen.visitDeclStmt(ctx);
+    }
+
+    @Override
+    public Void visitBooleanDeclAssignStmt(SamosaParser.BooleanDeclAssignStmtContext ctx) {
+        return delegatedParentCodegen.visitBooleanDeclAssignStmt(ctx);
+    }
+
+    @Override
+    public Void visitNormalDeclAssignStmt(SamosaParser.NormalDeclAssignStmtContext ctx) {
+        return delegatedParentCodegen.visitNormalDeclAssignStmt(ctx);
+    }
+
+    @Override
+    public Void visitTypeInferredDeclAssignStmt(SamosaParser.TypeInferredDeclAssignStmtContext ctx) {
+        return delegatedParentCodegen.visitTypeInferredDeclAssignStmt(ctx);
+    }
+
+    @Override
+    public Void visitTypeInferredBooleanDeclAssignStmt(SamosaParser.TypeInferredBooleanDeclAssignStmtContext ctx) {
+        return delegatedParentCodegen.visitTypeInferredBooleanDeclAssignStmt(ctx);
+    }
+
+    @Override
+    public Void visitBlock(SamosaParser.BlockContext ctx) {
+        return delegatedParentCodegen.visitBlock(ctx);
+    }
+
+    @Override
+    public Void visitIfStmt(SamosaParser.IfStmtContext ctx) {
+        return delegatedParentCodegen.visitIfStmt(ctx);
+    }
+
+    @Override
+    public Void visitWhileStmt(SamosaParser.WhileStmtContext ctx) {
+        return delegatedParentCodegen.visitWhileStmt(ctx);
+    }
+
+    @Override
+    public Void visitForStmt(SamosaParser.ForStmtContext ctx) {
+        return delegatedParentCodegen.visitForStmt(ctx);
+    }
+
+    @Override
+    public Void visitUncertainCompoundStmtSingle(SamosaParser.UncertainCompoundStmtSingleContext ctx) {
+        return delegatedParentCodegen.visitUncertainCompoundStmtSingle(ctx);
+    }
+
+    @Override
+    public Void visitUncertainCompoundStmtMultiple(SamosaParser.UncertainCompoundStmtMultipleContext ctx) {
+        return delegatedParentCodegen.visitUncertainCompoundStmtMultiple(ctx);
+    }
+
+    @Override
+    public Void visitUncertainStatementSingle(SamosaParser.UncertainStatementSingleContext ctx) {
+        return delegatedParentCodegen.visitUncertainStatementSingle(ctx);
+    }
+
+    @Override
+    public Void visitUncertainStatementMultiple(SamosaParser.UncertainStatementMultipleContext ctx) {
+        return delegatedParentCodegen.visitUncertainStatementMultiple(ctx);
+    }
+
+    @Override
+    public Void visitFunctionCallWithArgs(SamosaParser.FunctionCallWithArgsContext ctx) {
+        return delegatedParentCodegen.visitFunctionCallWithArgs(ctx);
+    }
+
+    @Override
+    public Void visitFunctionCallNoArgs(SamosaParser.FunctionCallNoArgsContext ctx) {
+        return delegatedParentCodegen.visitFunctionCallNoArgs(ctx);
+    }
+
+    @Override
+    public Void visitExprAssign(SamosaParser.ExprAssignContext ctx) {
+        return delegatedParentCodegen.visitExprAssign(ctx);
+    }
+
+    @Override
+    public Void visitArrayElementAssign(SamosaParser.ArrayElementAssignContext ctx) {
+        return delegatedParentCodegen.visitArrayElementAssign(ctx);
+    }
+
+    public void setDelegatedParentCodegen(CodegenDelegatable delegatedParentCodegen) {
+        this.delegatedParentCodegen = delegatedParentCodegen;
+    }
+
+    public void setFunctionCodegen(FunctionGenerationContext functionGenerationContext) {
+        this.functionGenerationContext = functionGenerationContext;
+    }
+
+    // Methods handled by this class (not delegated to parent):
+
+    @Override
+    public Void visitBreakControlStmt(SamosaParser.BreakControlStmtContext ctx) {
+        if (generatingForBlock && forLoopExitLabel != null && forLoopStepLabel != null) {
+            functionGenerationContext.getMv().visitJumpInsn(Opcodes.GOTO, forLoopExitLabel);
+        }
+        undelegateSelf();
+        return null;
+    }
+
+    @Override
+    public Void visitContinueControlStmt(SamosaParser.ContinueControlStmtContext ctx) {
+        // the loop variable is still stepped before the next iteration
+        if (generatingForBlock && forLoopExitLabel != null && forLoopStepLabel != null) {
+            functionGenerationContext.getMv().visitJumpInsn(Opcodes.GOTO, forLoopStepLabel);
+        }
+        undelegateSelf();
+        return null;
+    }
+
+    public void generateForStmt(SamosaParser.ForStmtContext ctx) {
+        MethodVisitor mv = functionGenerationContext.getMv();
+        Label bodyLabel = new Label();
+        Label stepLabel = new Label();
+        Label conditionLabel = new Label();
+        Label exitLoopLabel = new Label();
+        this.forLoopStepLabel = stepLabel;
+        this.forLoopExitLabel = exitLoopLabel;
+
+        // the static checker has made sure that the step is a nonzero constant that fits in an iinc instruction
+        int step = ctx.step == null ? 1 : Objects.requireNonNull(new IntExpressionEvaluator(ctx.step, null).evaluate());
+        ISymbol loopVariable = symbolTable.getSymbolAnnotations().get(ctx);
+
+        // The loop variable, the end of the range and the loop-invariant expressions are kept in local variables
+        // that are freed after the loop
+        functionGenerationContext.enterScope();
+
+        new IntExprCodegen(ctx.start, symbolTable, functionGenerationContext, className, packageName).doCodegen();
+        functionGenerationContext.newLocal(loopVariable, Type.INT_TYPE);
+        int loopVariableIndex = functionGenerationContext.getLocalVarIndex(loopVariable);
+        mv.visitVarInsn(Opcodes.ISTORE, loopVariableIndex);
+
+        IntExpressionEvaluator endEvaluator = new IntExpressionEvaluator(ctx.end, symbolTable);
+        boolean isEndConstant = endEvaluator.checkStaticEvaluable();
+        int endIndex = -1;
+        if (!isEndConstant) {
+            new IntExprCodegen(ctx.end, symbolTable, functionGenerationContext, className, packageName).doCodegen();
+            endIndex = functionGenerationContext.newTempLocal(Type.INT_TYPE);
+            mv.visitVarInsn(Opcodes.ISTORE, endIndex);
+        }
+
+        LoopAnalyzer loopAnalyzer = new LoopAnalyzer(symbolTable, functionGenerationContext);
+        List<Pair<SamosaParser.ExprContext, SymbolType>> invariantExprs = loopAnalyzer.findInvariantExprs(ctx);
+        for (Pair<SamosaParser.ExprContext, SymbolType> invariantExpr : invariantExprs) {
+            hoistExpr(invariantExpr.getFirst(), invariantExpr.getSecond());
+        }
+
+        // the range may be empty, so the condition is checked before the first iteration as well
+        mv.visitJumpInsn(Opcodes.GOTO, conditionLabel);
+
+        mv.visitLabel(bodyLabel);
+        generateForBlock(ctx);
+
+        mv.visitLabel(stepLabel);
+        if (!isEndConstant || canStepPastIntRange(endEvaluator.evaluate(), step)) {
+            // the loop ends (instead of wrapping around) if the loop variable cannot be stepped without overflowing
+            mv.visitVarInsn(Opcodes.ILOAD, loopVariableIndex);
+            if (step > 0) {
+                mv.visitLdcInsn(Integer.MAX_VALUE - step);
+                mv.visitJumpInsn(Opcodes.IF_ICMPGT, exitLoopLabel);
+            } else {
+                mv.visitLdcInsn(Integer.MIN_VALUE - step);
+                mv.visitJumpInsn(Opcodes.IF_ICMPLT, exitLoopLabel);
+            }
+        }
+        mv.visitIincInsn(loopVariableIndex, step);
+
+        // if the loop variable has not reached the end (going up or down, depending on the step), loop again
+        mv.visitLabel(conditionLabel);
+        mv.visitVarInsn(Opcodes.ILOAD, loopVariableIndex);
+        if (isEndConstant) {
+            mv.visitLdcInsn(endEvaluator.evaluate());
+        } else {
+            mv.visitVarInsn(Opcodes.ILOAD, endIndex);
+        }
+        mv.visitJumpInsn(step > 0 ? Opcodes.IF_ICMPLT : Opcodes.IF_ICMPGT, bodyLabel);
+        mv.visitLabel(exitLoopLabel);
+
+        this.forLoopStepLabel = null;
+        this.forLoopExitLabel = null;
+
+        for (Pair<SamosaParser.ExprContext, SymbolType> invariantExpr : invariantExprs) {
+            functionGenerationContext.unhoistExpr(invariantExpr.getFirst());
+        }
+        functionGenerationContext.exitScope();
+    }
+
+    /**
+     * Checks if the loop variable can be stepped past the range of int before it reaches the (constant) end:
+     * the last value that the loop runs with is at most one before the end (or at least one after it, going down).
+     */
+    private static boolean canStepPastIntRange(int end, int step) {
+        if (step > 0) {
+            return (long) end - 1 + step > Integer.MAX_VALUE;
+        }
+        return (long) end + 1 + step < Integer.MIN_VALUE;
+    }
+
+    private void hoistExpr(SamosaParser.ExprContext expr, SymbolType type) {
+        if (type == SymbolType.INT) {
+            new IntExprCodegen(expr, symbolTable, functionGenerationContext, className, packageName).doCodegen();
+        } else {
+            new StringExprCodegen(expr, symbolTable, functionGenerationContext, className, packageName).doCodegen();
+        }
+        functionGenerationContext.hoistExpr(expr, FunctionGenerationContext.typeOf(type));
+    }
+
+    private void generateForBlock(SamosaParser.ForStmtContext ctx) {
+        this.generatingForBlock = true;
+        undelegateSelf();
+        visit(ctx.block());
+        this.generatingForBlock = false;
+    }
+
+    @Override
+    public Void visitTerminal(TerminalNode node) {
+        if (Objects.equals(node.getSymbol().getText(), "}")) {
+            undelegateSelf();
+        }
+        return super.visitTerminal(node);
+    }
+}
@@ -3,8 +3,10 @@ package com.sachett.samosa.samosac.codegen.compoundstmt;
 import com.sachett.samosa.parser.SamosaParser;
 import com.sachett.samosa.samosac.codegen.CodegenCommons;
 import com.sachett.samosa.samosac.codegen.expressions.BooleanExprCodegen;
+import com.sachett.samosa.samosac.codegen.expressions.IntArrayExprCodegen;
 import com.sachett.samosa.samosac.codegen.expressions.IntExprCodegen;
 import com.sachett.samosa.samosac.codegen.expressions.StringExprCodegen;
+import com.sachett.samosa.samosac.codegen.function.FunctionCallCodegen;
 import com.sachett.samosa.samosac.codegen.function.FunctionGenerationContext;
 import com.sachett.samosa.samosac.codegen.utils.delegation.CodegenDelegatedMethod;
 import com.sachett.samosa.samosac.codegen.utils.delegation.CodegenDelegatable;
@@ -14,6 +16,9 @@ import com.sachett.samosa.samosac.symbol.ISymbol;
 import com.sachett.samosa.samosac.symbol.SymbolType;
 import com.sachett.samosa.samosac.symbol.symboltable.SymbolTable;
 import kotlin.Pair;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+import org.objectweb.asm.Label;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 
@@ -30,6 +35,9 @@ public class FunctionCodegen extends CodegenDelegatable {
     private String packageName;
     private FunctionSymbol functionSymbol;
 
+    /* The beginning of the code of the function (which the self tail calls jump to) */
+    private final Label functionStartLabel = new Label();
+
     public FunctionCodegen(
             CodegenDelegatable delegatedParentCodegen,
             FunctionGenerationContext functionGenerationContext,
@@ -55,11 +63,13 @@ public class FunctionCodegen extends CodegenDelegatable {
                 CodegenDelegatedMethod.TYPEINF_BOOLEAN_DECLASSIGN,
                 CodegenDelegatedMethod.EXPR_ASSIGN,
                 CodegenDelegatedMethod.BOOLEAN_EXPR_ASSIGN,
+                CodegenDelegatedMethod.ARRAY_ELEMENT_ASSIGN,
                 CodegenDelegatedMethod.BREAK,
                 CodegenDelegatedMethod.CONTINUE,
                 CodegenDelegatedMethod.BLOCK,
                 CodegenDelegatedMethod.IF,
                 CodegenDelegatedMethod.WHILE,
+                CodegenDelegatedMethod.FOR,
                 CodegenDelegatedMethod.IMPLICIT_RET_FUNCDEF,
                 CodegenDelegatedMethod.EXPLICIT_RET_FUNCDEF,
                 CodegenDelegatedMethod.FUNCTIONCALL_NOARGS,
@@ -101,6 +111,11 @@ public class FunctionCodegen extends CodegenDelegatable {
         return delegatedParentCodegen.visitBooleanExprAssign(ctx);
     }
 
+    @Override
+    public Void visitArrayElementAssign(SamosaParser.ArrayElementAssignContext ctx) {
+        return delegatedParentCodegen.visitArrayElementAssign(ctx);
+    }
+
     @Override
     public Void visitUncertainCompoundStmtSingle(SamosaParser.UncertainCompoundStmtSingleContext ctx) {
         var savedParentCodegen = codegenCommons.getParentCodegen();
@@ -146,6 +161,15 @@ public class FunctionCodegen extends CodegenDelegatable {
         return null;
     }
 
+    @Override
+    public Void visitForStmt(SamosaParser.ForStmtContext ctx) {
+        CodegenDelegatable previousParentCodegen = codegenCommons.getParentCodegen();
+        codegenCommons.setParentCodegen(this);
+        codegenCommons.visitForStmt(ctx);
+        codegenCommons.setParentCodegen(previousParentCodegen);
+        return null;
+    }
+
     @Override
     public Void visitIfStmt(SamosaParser.IfStmtContext ctx) {
         CodegenDelegatable previousParentCodegen = codegenCommons.getParentCodegen();
@@ -171,8 +195,58 @@ public class FunctionCodegen extends CodegenDelegatable {
         return null;
     }
 
+    /**
+     * Returns the call if the returned expression is just a call of this function to itself
+     * (which can then be done with a jump, see FunctionCallCodegen.doSelfTailCallCodegen()), and null otherwise.
+     */
+    private SamosaParser.FunctionCallContext getSelfTailCall(ParseTree returnedExpr) {
+        while (returnedExpr instanceof SamosaParser.ExprParenContext
+                || returnedExpr instanceof SamosaParser.BooleanExprParenContext) {
+            returnedExpr = returnedExpr.getChild(1);
+        }
+
+        SamosaParser.FunctionCallContext functionCall;
+        if (returnedExpr instanceof SamosaParser.ExprFunctionCallContext) {
+            functionCall = ((SamosaParser.ExprFunctionCallContext) returnedExpr).functionCall();
+        } else if (returnedExpr instanceof SamosaParser.BooleanFunctionCallContext) {
+            functionCall = ((SamosaParser.BooleanFunctionCallContext) returnedExpr).functionCall();
+        } else {
+            return null;
+        }
+
+        TerminalNode funcIdentifier;
+        if (functionCall instanceof SamosaParser.FunctionCallNoArgsContext) {
+            funcIdentifier = ((SamosaParser.FunctionCallNoArgsContext) functionCall).IDENTIFIER();
+        } else if (functionCall instanceof SamosaParser.FunctionCallWithArgsContext) {
+            funcIdentifier = ((SamosaParser.FunctionCallWithArgsContext) functionCall).IDENTIFIER();
+        } else {
+            return null;
+        }
+
+        ISymbol calledSymbol = symbolTable.lookupInCoordinates(funcIdentifier.getText(), new Pair<>(0, 0));
+        return calledSymbol == functionSymbol ? functionCall : null;
+    }
+
+    private boolean generateIfSelfTailCall(ParseTree returnedExpr) {
+        SamosaParser.FunctionCallContext selfTailCall = getSelfTailCall(returnedExpr);
+        if (selfTailCall == null) {
+            return false;
+        }
+
+        FunctionCallCodegen functionCallCodegen = new FunctionCallCodegen(
+                symbolTable, className, functionGenerationContext, className, packageName
+        );
+        functionCallCodegen.doSelfTailCallCodegen(functionSymbol, selfTailCall, functionStartLabel);
+        return true;
+    }
+
     @Override
     public Void visitReturnStmtWithExpr(SamosaParser.ReturnStmtWithExprContext ctx) {
+        if (generateIfSelfTailCall(ctx.expr())) {
+            undelegateSelf();
+            return null;
+        }
+
         ExpressionTypeDetector typeDetector = new ExpressionTypeDetector(symbolTable);
         Pair<Boolean, SymbolType> typeInfo = typeDetector.getType(ctx.expr());
         if (typeInfo.getFirst()) {
@@ -208,6 +282,15 @@ public class FunctionCodegen extends CodegenDelegatable {
                     booleanExprCodegen.doSpecialCodegen(ctx.expr());
                     functionGenerationContext.getMv().visitInsn(Opcodes.IRETURN);
                     break;
+                case INT_ARRAY:
+                    IntArrayExprCodegen intArrayExprCodegen = new IntArrayExprCodegen(
+                            ctx.expr(),
+                            symbolTable, functionGenerationContext,
+                            className, packageName
+                    );
+                    intArrayExprCodegen.doCodegen();
+                    functionGenerationContext.getMv().visitInsn(Opcodes.ARETURN);
+                    break;
             }
         }
 
@@ -217,6 +300,11 @@ public class FunctionCodegen extends CodegenDelegatable {
 
     @Override
     public Void visitReturnStmtWithBooleanExpr(SamosaParser.ReturnStmtWithBooleanExprContext ctx) {
+        if (generateIfSelfTailCall(ctx.booleanExpr())) {
+            undelegateSelf();
+            return null;
+        }
+
         BooleanExprCodegen booleanExprCodegen = new BooleanExprCodegen(
                 ctx.booleanExpr(),
                 symbolTable, functionGenerationContext,
@@ -239,24 +327,30 @@ public class FunctionCodegen extends CodegenDelegatable {
         }
 
         SymbolType symbolType = symbol.getSymbolType();
-        String symbolAugmentedName = symbol.getAugmentedName();
         Object symbolTypeDefaultValue = symbolType.getDefaultValue();
         switch (symbolType) {
             case INT:
-                functionGenerationContext.newLocal(symbolAugmentedName, Type.INT_TYPE);
+                functionGenerationContext.newLocal(symbol, Type.INT_TYPE);
                 functionGenerationContext.getMv().visitLdcInsn(symbolTypeDefaultValue);
-                functionGenerationContext.getMv().visitVarInsn(Opcodes.ISTORE, functionGenerationContext.getLocalVarIndex(symbolAugmentedName));
+                functionGenerationContext.getMv().visitVarInsn(Opcodes.ISTORE, functionGenerationContext.getLocalVarIndex(symbol));
                 break;
             case STRING:
-                functionGenerationContext.newLocal(symbol.getAugmentedName(), Type.getType(String.class));
+                functionGenerationContext.newLocal(symbol, Type.getType(String.class));
                 functionGenerationContext.getMv().visitLdcInsn(symbolTypeDefaultValue);
-                functionGenerationContext.getMv().visitVarInsn(Opcodes.ASTORE, functionGenerationContext.getLocalVarIndex(symbolAugmentedName));
+                functionGenerationContext.getMv().visitVarInsn(Opcodes.ASTORE, functionGenerationContext.getLocalVarIndex(symbol));
                 break;
             case BOOL:
-                functionGenerationContext.newLocal(symbol.getAugmentedName(), Type.BOOLEAN_TYPE);
+                functionGenerationContext.newLocal(symbol, Type.BOOLEAN_TYPE);
                 symbolTypeDefaultValue = Boolean.TRUE.equals(symbolType.getDefaultValue()) ? 1 : 0;
                 functionGenerationContext.getMv().visitLdcInsn(symbolTypeDefaultValue);
-                functionGenerationContext.getMv().visitVarInsn(Opcodes.ISTORE, functionGenerationContext.getLocalVarIndex(symbolAugmentedName));
+                functionGenerationContext.getMv().visitVarInsn(Opcodes.ISTORE, functionGenerationContext.getLocalVarIndex(symbol));
+                break;
+            case INT_ARRAY:
+                // an int[] that is only declared is an empty array
+                functionGenerationContext.newLocal(symbol, Type.getType(int[].class));
+                functionGenerationContext.getMv().visitInsn(Opcodes.ICONST_0);
+                functionGenerationContext.getMv().visitIntInsn(Opcodes.NEWARRAY, Opcodes.T_INT);
+                functionGenerationContext.getMv().visitVarInsn(Opcodes.ASTORE, functionGenerationContext.getLocalVarIndex(symbol));
                 break;
         }
 
@@ -273,14 +367,14 @@ public class FunctionCodegen extends CodegenDelegatable {
             return null;
         }
 
-        functionGenerationContext.newLocal(symbol.getAugmentedName(), Type.BOOLEAN_TYPE);
+        functionGenerationContext.newLocal(symbol, Type.BOOLEAN_TYPE);
         BooleanExprCodegen booleanExprCodegen = new BooleanExprCodegen(
                 ctx.booleanExpr(),
                 symbolTable, functionGenerationContext,
                 className, packageName
         );
         booleanExprCodegen.doCodegen();
-        functionGenerationContext.getMv().visitVarInsn(Opcodes.ISTORE, functionGenerationContext.getLocalVarIndex(symbol.getAugmentedName()));
+        functionGenerationContext.getMv().visitVarInsn(Opcodes.ISTORE, functionGenerationContext.getLocalVarIndex(symbol));
 
         undelegateSelf();
         return null;
@@ -296,29 +390,34 @@ public class FunctionCodegen extends CodegenDelegatable {
         }
 
         SymbolType symbolType = symbol.getSymbolType();
-        String symbolAugmentedName = symbol.getAugmentedName();
         switch (symbolType) {
             case INT:
-                functionGenerationContext.newLocal(symbolAugmentedName, Type.INT_TYPE);
+                functionGenerationContext.newLocal(symbol, Type.INT_TYPE);
                 IntExprCodegen intExprCodegen = new IntExprCodegen(ctx.expr(), symbolTable, functionGenerationContext, className, packageName);
                 intExprCodegen.doCodegen();
-                functionGenerationContext.getMv().visitVarInsn(Opcodes.ISTORE, functionGenerationContext.getLocalVarIndex(symbolAugmentedName));
+                functionGenerationContext.getMv().visitVarInsn(Opcodes.ISTORE, functionGenerationContext.getLocalVarIndex(symbol));
                 break;
             case STRING:
-                functionGenerationContext.newLocal(symbolAugmentedName, Type.getType(String.class));
+                functionGenerationContext.newLocal(symbol, Type.getType(String.class));
                 StringExprCodegen strExprCodegen = new StringExprCodegen(ctx.expr(), symbolTable, functionGenerationContext, className, packageName);
                 strExprCodegen.doCodegen();
-                functionGenerationContext.getMv().visitVarInsn(Opcodes.ASTORE, functionGenerationContext.getLocalVarIndex(symbolAugmentedName));
+                functionGenerationContext.getMv().visitVarInsn(Opcodes.ASTORE, functionGenerationContext.getLocalVarIndex(symbol));
                 break;
             case BOOL:
                 // This again, is either of these scenarios:
                 // bro, boolVar = boolVar2.
                 // or,
                 // bro, boolVar = () -> boolValReturnFunc.
-                functionGenerationContext.newLocal(symbolAugmentedName, Type.BOOLEAN_TYPE);
+                functionGenerationContext.newLocal(symbol, Type.BOOLEAN_TYPE);
                 BooleanExprCodegen booleanExprCodegen = new BooleanExprCodegen(null, symbolTable, functionGenerationContext, className, packageName);
                 booleanExprCodegen.doSpecialCodegen(ctx.expr());
-                functionGenerationContext.getMv().visitVarInsn(Opcodes.ISTORE, functionGenerationContext.getLocalVarIndex(symbolAugmentedName));
+                functionGenerationContext.getMv().visitVarInsn(Opcodes.ISTORE, functionGenerationContext.getLocalVarIndex(symbol));
+                break;
+            case INT_ARRAY:
+                functionGenerationContext.newLocal(symbol, Type.getType(int[].class));
+                IntArrayExprCodegen intArrayExprCodegen = new IntArrayExprCodegen(ctx.expr(), symbolTable, functionGenerationContext, className, packageName);
+                intArrayExprCodegen.doCodegen();
+                functionGenerationContext.getMv().visitVarInsn(Opcodes.ASTORE, functionGenerationContext.getLocalVarIndex(symbol));
                 break;
         }
 
@@ -337,7 +436,6 @@ public class FunctionCodegen extends CodegenDelegatable {
 
         ExpressionTypeDetector typeDetector = new ExpressionTypeDetector(symbolTable);
         Pair<Boolean, SymbolType> symbolTypeInfo = typeDetector.getType(ctx.expr());
-        String symbolAugmentedName = symbol.getAugmentedName();
 
         if (!symbolTypeInfo.getFirst()) {
             return null;
@@ -345,26 +443,32 @@ public class FunctionCodegen extends CodegenDelegatable {
 
         switch (symbolTypeInfo.getSecond()) {
             case INT:
-                functionGenerationContext.newLocal(symbolAugmentedName, Type.INT_TYPE);
+                functionGenerationContext.newLocal(symbol, Type.INT_TYPE);
                 IntExprCodegen intExprCodegen = new IntExprCodegen(ctx.expr(), symbolTable, functionGenerationContext, className, packageName);
                 intExprCodegen.doCodegen();
-                functionGenerationContext.getMv().visitVarInsn(Opcodes.ISTORE, functionGenerationContext.getLocalVarIndex(symbolAugmentedName));
+                functionGenerationContext.getMv().visitVarInsn(Opcodes.ISTORE, functionGenerationContext.getLocalVarIndex(symbol));
                 break;
             case STRING:
-                functionGenerationContext.newLocal(symbolAugmentedName, Type.getType(String.class));
+                functionGenerationContext.newLocal(symbol, Type.getType(String.class));
                 StringExprCodegen strExprCodegen = new StringExprCodegen(ctx.expr(), symbolTable, functionGenerationContext, className, packageName);
                 strExprCodegen.doCodegen();
-                functionGenerationContext.getMv().visitVarInsn(Opcodes.ASTORE, functionGenerationContext.getLocalVarIndex(symbolAugmentedName));
+                functionGenerationContext.getMv().visitVarInsn(Opcodes.ASTORE, functionGenerationContext.getLocalVarIndex(symbol));
                 break;
             case BOOL:
                 // This again, is either of these scenarios:
                 // bro, boolVar = boolVar2.
                 // or,
                 // bro, boolVar = () -> boolValReturnFunc.
-                functionGenerationContext.newLocal(symbolAugmentedName, Type.BOOLEAN_TYPE);
+                functionGenerationContext.newLocal(symbol, Type.BOOLEAN_TYPE);
                 BooleanExprCodegen booleanExprCodegen = new BooleanExprCodegen(null, symbolTable, functionGenerationContext, className, packageName);
                 booleanExprCodegen.doSpecialCodegen(ctx.expr());
-                functionGenerationContext.getMv().visitVarInsn(Opcodes.ISTORE, functionGenerationContext.getLocalVarIndex(symbolAugmentedName));
+                functionGenerationContext.getMv().visitVarInsn(Opcodes.ISTORE, functionGenerationContext.getLocalVarIndex(symbol));
+                break;
+            case INT_ARRAY:
+                functionGenerationContext.newLocal(symbol, Type.getType(int[].class));
+                IntArrayExprCodegen intArrayExprCodegen = new IntArrayExprCodegen(ctx.expr(), symbolTable, functionGenerationContext, className, packageName);
+                intArrayExprCodegen.doCodegen();
+                functionGenerationContext.getMv().visitVarInsn(Opcodes.ASTORE, functionGenerationContext.getLocalVarIndex(symbol));
                 break;
         }
 
@@ -381,14 +485,14 @@ public class FunctionCodegen extends CodegenDelegatable {
             return null;
         }
 
-        functionGenerationContext.newLocal(symbol.getAugmentedName(), Type.BOOLEAN_TYPE);
+        functionGenerationContext.newLocal(symbol, Type.BOOLEAN_TYPE);
         BooleanExprCodegen booleanExprCodegen = new BooleanExprCodegen(
                 ctx.booleanExpr(),
                 symbolTable, functionGenerationContext,
                 className, packageName
         );
         booleanExprCodegen.doCodegen();
-        functionGenerationContext.getMv().visitVarInsn(Opcodes.ISTORE, functionGenerationContext.getLocalVarIndex(symbol.getAugmentedName()));
+        functionGenerationContext.getMv().visitVarInsn(Opcodes.ISTORE, functionGenerationContext.getLocalVarIndex(symbol));
 
         undelegateSelf();
         return null;
@@ -399,9 +503,9 @@ public class FunctionCodegen extends CodegenDelegatable {
         int localVarSlot = 0;
 
         for (ISymbol symbol : functionSymbol.getParamList()) {
-            functionGenerationContext.registerLocal(symbol.getAugmentedName(), localVarSlot);
+            functionGenerationContext.registerLocal(symbol, localVarSlot);
 
-            // TODO: When long/doubles/arrays are added, localVarSlot will have to be be incremented by more than one for them
+            // TODO: When long/doubles are added, localVarSlot will have to be be incremented by more than one for them
             localVarSlot++;
         }
     }
@@ -418,12 +522,14 @@ public class FunctionCodegen extends CodegenDelegatable {
 
     public void generateImplicitRetTypeFuncDef(SamosaParser.ImplicitRetTypeFuncDefContext ctx) {
         registerArguments();
+        functionGenerationContext.getMv().visitLabel(functionStartLabel);
         functionGenerationContext.setNeedsNoExprReturn(true);
         visitChildren(ctx);
     }
 
     public void generateExplicitRetTypeFuncDef(SamosaParser.ExplicitRetTypeFuncDefContext ctx) {
         registerArguments();
+        functionGenerationContext.getMv().visitLabel(functionStartLabel);
         functionGenerationContext.setNeedsNoExprReturn(functionSymbol.getReturnType() == SymbolType.VOID);
         visitChildren(ctx);
     }
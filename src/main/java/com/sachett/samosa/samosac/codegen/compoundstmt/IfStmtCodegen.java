@@ -3,17 +3,28 @@ package com.sachett.samosa.samosac.codegen.compoundstmt;
 import com.sachett.samosa.parser.SamosaParser;
 import com.sachett.samosa.samosac.codegen.ClassFileGenerator;
 import com.sachett.samosa.samosac.codegen.expressions.BooleanExprCodegen;
+import com.sachett.samosa.samosac.codegen.expressions.IntExprCodegen;
+import com.sachett.samosa.samosac.codegen.expressions.StringExprCodegen;
 import com.sachett.samosa.samosac.codegen.function.FunctionGenerationContext;
 import com.sachett.samosa.samosac.codegen.utils.delegation.CodegenDelegatable;
 import com.sachett.samosa.samosac.codegen.utils.delegation.CodegenDelegatedMethod;
+import com.sachett.samosa.samosac.staticchecker.evaluators.IntExpressionEvaluator;
+import com.sachett.samosa.samosac.staticchecker.evaluators.StringExpressionEvaluator;
+import com.sachett.samosa.samosac.symbol.ISymbol;
+import com.sachett.samosa.samosac.symbol.SymbolType;
 import com.sachett.samosa.samosac.symbol.symboltable.SymbolTable;
 import kotlin.Pair;
 import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
 
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 public class IfStmtCodegen extends CodegenDelegatable implements IControlNodeCodegen {
     FunctionGenerationContext functionGenerationContext;
@@ -57,11 +68,14 @@ public class IfStmtCodegen extends CodegenDelegatable implements IControlNodeCod
     }
 
     public void generateIfStmt(SamosaParser.IfStmtContext ctx) {
+        if (generateSwitchIfPossible(ctx)) {
+            return;
+        }
+
         SamosaParser.BooleanExprContext booleanExprContext = ctx.booleanExpr(0);
         BooleanExprCodegen booleanExprCodegen = new BooleanExprCodegen(
                 booleanExprContext, symbolTable, functionGenerationContext, className, packageName);
 
-        booleanExprCodegen.setJumpToFalseLabel(false);
         ArrayList<Pair<Label, SamosaParser.BooleanExprContext>> labels = new ArrayList<>();
         int nElseIfs = ctx.elseifblocks.size();
 
@@ -81,29 +95,14 @@ public class IfStmtCodegen extends CodegenDelegatable implements IControlNodeCod
         }
 
         Label afterIf = labels.get(labels.size() - 1).getFirst();
-        ArrayList<FunctionGenerationContext.FrameStackMap> frameStackMaps = new ArrayList<>();
 
         // First generate the boolean expressions and if branch statements
         for (int i = 0; i < labels.size(); i++) {
             var labelCtx = labels.get(i);
             if (labelCtx.getSecond() != null) {
                 booleanExprCodegen.setBooleanExprContext(labelCtx.getSecond());
-                if (!(booleanExprContext instanceof SamosaParser.BooleanExprRelOpContext)
-                        && !(booleanExprContext instanceof SamosaParser.BooleanExprCompOpContext)) {
-                    booleanExprCodegen.doCodegen();
-                    // In this case, after codegen of the booleanExpr, the stack should contain
-                    // a bool value on top, on whose basis we can jump
-
-                    // Note that IFEQ jumps if top of stack == 0 and IFNE jumps if top of stack != 0
-                    functionGenerationContext.getMv().visitJumpInsn(Opcodes.IFNE, labelCtx.getFirst());
-                } else {
-                    booleanExprCodegen.setFalseLabel(labelCtx.getFirst());
-                    booleanExprCodegen.setJumpLabelsHaveBlocks(true);
-                    booleanExprCodegen.doCodegen();
-
-                    // update the labelCtx with the right jump label
-                    labels.set(i, new Pair<>(booleanExprCodegen.getActualJumpLabel(), labelCtx.getSecond()));
-                }
+                // jump to the branch's label if its condition is true, else fall through to the next condition
+                booleanExprCodegen.generateConditionalJump(labelCtx.getFirst(), true);
             } else {
                 // TODO: Generate else block code here
                 if (ctx.elseblock.size() > 0) {
@@ -113,7 +112,6 @@ public class IfStmtCodegen extends CodegenDelegatable implements IControlNodeCod
                     this.finishDelegating();
                 }
                 // the label corresponding to the next statement after the if construct
-                frameStackMaps.add(functionGenerationContext.getCurrentFrameStackInfo());
                 functionGenerationContext.getMv().visitJumpInsn(Opcodes.GOTO, afterIf);
             }
         }
@@ -123,11 +121,6 @@ public class IfStmtCodegen extends CodegenDelegatable implements IControlNodeCod
             // visit the label and generate code for that block
             Pair<Label, SamosaParser.BooleanExprContext> labelCtx = labels.get(i);
             functionGenerationContext.getMv().visitLabel(labelCtx.getFirst());
-            functionGenerationContext.getMv().visitFrame(
-                    Opcodes.F_NEW,
-                    frameStackMaps.get(0).numLocals, frameStackMaps.get(0).locals,
-                    frameStackMaps.get(0).numStack, frameStackMaps.get(0).stack
-            );
 
             // generate codes for the corresponding blocks
             if (i < labels.size() - 1) {
@@ -135,9 +128,210 @@ public class IfStmtCodegen extends CodegenDelegatable implements IControlNodeCod
                 delegatedParentCodegen.visit(ctx.block(i));
                 this.finishDelegating();
                 // after execution, skip other labels and go to afterIf
-                frameStackMaps.add(functionGenerationContext.getCurrentFrameStackInfo());
                 functionGenerationContext.getMv().visitJumpInsn(Opcodes.GOTO, afterIf);
             }
         }
     }
+
+    /**
+     * The least number of conditions for which an if statement is generated as a switch.
+     */
+    private static final int MIN_SWITCH_CASES = 3;
+
+    /**
+     * Generates the if statement as a switch if all of its conditions compare the same int or string variable
+     * for equality with constants (like a state machine or a command interpreter does), so that the branch
+     * is found without checking the conditions one by one.
+     * @return Whether the if statement was generated.
+     */
+    private boolean generateSwitchIfPossible(SamosaParser.IfStmtContext ctx) {
+        int nConditions = ctx.elseifblocks.size() + 1;
+        if (nConditions < MIN_SWITCH_CASES) {
+            return false;
+        }
+
+        ISymbol switchSymbol = null;
+        SamosaParser.ExprContext switchExpr = null;
+        ArrayList<Object> caseValues = new ArrayList<>();
+
+        for (int i = 0; i < nConditions; i++) {
+            SamosaParser.BooleanExprContext condition = ctx.booleanExpr(i);
+            while (condition instanceof SamosaParser.BooleanExprParenContext) {
+                condition = ((SamosaParser.BooleanExprParenContext) condition).booleanExpr();
+            }
+
+            if (!(condition instanceof SamosaParser.BooleanExprCompOpContext)) {
+                return false;
+            }
+
+            var compOpContext = (SamosaParser.BooleanExprCompOpContext) condition;
+            if (compOpContext.compOp().COMP() == null) {
+                return false;
+            }
+
+            // one side is the variable, the other one is a constant
+            for (int side = 0; side < 2; side++) {
+                SamosaParser.ExprContext variableExpr = compOpContext.expr(side);
+                SamosaParser.ExprContext constantExpr = compOpContext.expr(1 - side);
+                if (!(variableExpr instanceof SamosaParser.ExprIdentifierContext)) {
+                    continue;
+                }
+
+                String idName = ((SamosaParser.ExprIdentifierContext) variableExpr).IDENTIFIER().getText();
+                ISymbol symbol = symbolTable.lookupWithNearestScopeValue(idName).getFirst();
+                if (symbol == null || (switchSymbol != null && symbol != switchSymbol)) {
+                    continue;
+                }
+
+                Object caseValue = evaluateCaseValue(symbol.getSymbolType(), constantExpr);
+                if (caseValue != null) {
+                    switchSymbol = symbol;
+                    switchExpr = variableExpr;
+                    caseValues.add(caseValue);
+                    break;
+                }
+            }
+
+            if (caseValues.size() != i + 1) {
+                return false;
+            }
+        }
+
+        MethodVisitor mv = functionGenerationContext.getMv();
+        Label afterIf = new Label();
+        Label elseLabel = ctx.elseblock.size() > 0 ? new Label() : afterIf;
+
+        // the first branch for a value is the one taken, the others are never reached
+        Label[] blockLabels = new Label[nConditions];
+        LinkedHashMap<Object, Label> caseLabels = new LinkedHashMap<>();
+        for (int i = 0; i < nConditions; i++) {
+            if (!caseLabels.containsKey(caseValues.get(i))) {
+                blockLabels[i] = new Label();
+                caseLabels.put(caseValues.get(i), blockLabels[i]);
+            }
+        }
+
+        if (switchSymbol.getSymbolType() == SymbolType.INT) {
+            new IntExprCodegen(switchExpr, symbolTable, functionGenerationContext, className, packageName).doCodegen();
+
+            TreeMap<Integer, Label> keyLabels = new TreeMap<>();
+            for (Map.Entry<Object, Label> caseLabel : caseLabels.entrySet()) {
+                keyLabels.put((Integer) caseLabel.getKey(), caseLabel.getValue());
+            }
+            generateSwitchInsn(keyLabels, elseLabel);
+        } else {
+            generateStringSwitch(switchExpr, caseLabels, elseLabel);
+        }
+
+        if (ctx.elseblock.size() > 0) {
+            mv.visitLabel(elseLabel);
+            this.startDelegatingTo(delegatedParentCodegen);
+            delegatedParentCodegen.visit(ctx.elseblock.get(0));
+            this.finishDelegating();
+            mv.visitJumpInsn(Opcodes.GOTO, afterIf);
+        }
+
+        for (int i = 0; i < nConditions; i++) {
+            if (blockLabels[i] == null) {
+                continue;
+            }
+
+            mv.visitLabel(blockLabels[i]);
+            this.startDelegatingTo(delegatedParentCodegen);
+            delegatedParentCodegen.visit(ctx.block(i));
+            this.finishDelegating();
+            mv.visitJumpInsn(Opcodes.GOTO, afterIf);
+        }
+
+        mv.visitLabel(afterIf);
+        return true;
+    }
+
+    /**
+     * Returns the value of the expression if it is a constant that a variable of the given type can be
+     * switched on, or null.
+     */
+    private Object evaluateCaseValue(SymbolType symbolType, SamosaParser.ExprContext expr) {
+        if (symbolType == SymbolType.INT) {
+            IntExpressionEvaluator intExpressionEvaluator = new IntExpressionEvaluator(expr, symbolTable);
+            return intExpressionEvaluator.checkStaticEvaluable() ? intExpressionEvaluator.evaluate() : null;
+        } else if (symbolType == SymbolType.STRING) {
+            StringExpressionEvaluator stringExpressionEvaluator = new StringExpressionEvaluator(expr, symbolTable);
+            return stringExpressionEvaluator.checkStaticEvaluable() ? stringExpressionEvaluator.evaluate() : null;
+        }
+        return null;
+    }
+
+    /**
+     * Switches on the string variable: on the hash code of its value first, and then checks which of the
+     * strings with that hash code it is equal to (like javac does).
+     */
+    private void generateStringSwitch(
+            SamosaParser.ExprContext switchExpr,
+            LinkedHashMap<Object, Label> caseLabels,
+            Label defaultLabel
+    ) {
+        MethodVisitor mv = functionGenerationContext.getMv();
+
+        // the value is only needed until the branch is found
+        functionGenerationContext.enterScope();
+        int valueLocal = functionGenerationContext.newTempLocal(Type.getType(String.class));
+        new StringExprCodegen(switchExpr, symbolTable, functionGenerationContext, className, packageName).doCodegen();
+        mv.visitVarInsn(Opcodes.ASTORE, valueLocal);
+
+        TreeMap<Integer, List<String>> hashCodeStrings = new TreeMap<>();
+        for (Object caseValue : caseLabels.keySet()) {
+            hashCodeStrings.computeIfAbsent(caseValue.hashCode(), hashCode -> new ArrayList<>()).add((String) caseValue);
+        }
+
+        TreeMap<Integer, Label> hashCodeLabels = new TreeMap<>();
+        for (Integer hashCode : hashCodeStrings.keySet()) {
+            hashCodeLabels.put(hashCode, new Label());
+        }
+
+        mv.visitVarInsn(Opcodes.ALOAD, valueLocal);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/String", "hashCode", "()I", false);
+        generateSwitchInsn(hashCodeLabels, defaultLabel);
+
+        for (Map.Entry<Integer, List<String>> hashCodeEntry : hashCodeStrings.entrySet()) {
+            mv.visitLabel(hashCodeLabels.get(hashCodeEntry.getKey()));
+            for (String caseValue : hashCodeEntry.getValue()) {
+                mv.visitVarInsn(Opcodes.ALOAD, valueLocal);
+                mv.visitLdcInsn(caseValue);
+                mv.visitMethodInsn(
+                        Opcodes.INVOKEVIRTUAL, "java/lang/String", "equals", "(Ljava/lang/Object;)Z", false);
+                mv.visitJumpInsn(Opcodes.IFNE, caseLabels.get(caseValue));
+            }
+            mv.visitJumpInsn(Opcodes.GOTO, defaultLabel);
+        }
+
+        functionGenerationContext.exitScope();
+    }
+
+    /**
+     * Generates a tableswitch or a lookupswitch (whichever javac would pick) on the int on top of the stack.
+     * @param keyLabels     The labels to jump to for each key, sorted by key.
+     */
+    private void generateSwitchInsn(TreeMap<Integer, Label> keyLabels, Label defaultLabel) {
+        MethodVisitor mv = functionGenerationContext.getMv();
+        int lo = keyLabels.firstKey();
+        int hi = keyLabels.lastKey();
+        long nKeys = keyLabels.size();
+
+        long tableSpaceCost = 4 + ((long) hi - lo + 1);
+        long tableTimeCost = 3;
+        long lookupSpaceCost = 3 + 2 * nKeys;
+        long lookupTimeCost = nKeys;
+
+        if (tableSpaceCost + 3 * tableTimeCost <= lookupSpaceCost + 3 * lookupTimeCost) {
+            Label[] labels = new Label[hi - lo + 1];
+            for (int i = 0; i < labels.length; i++) {
+                labels[i] = keyLabels.getOrDefault(lo + i, defaultLabel);
+            }
+            mv.visitTableSwitchInsn(lo, hi, defaultLabel, labels);
+        } else {
+            int[] keys = keyLabels.keySet().stream().mapToInt(Integer::intValue).toArray();
+            mv.visitLookupSwitchInsn(defaultLabel, keys, keyLabels.values().toArray(new Label[0]));
+        }
+    }
 }
@@ -3,10 +3,15 @@ package com.sachett.samosa.samosac.codegen.compoundstmt;
 import com.sachett.samosa.parser.SamosaParser;
 import com.sachett.samosa.samosac.codegen.ClassFileGenerator;
 import com.sachett.samosa.samosac.codegen.expressions.BooleanExprCodegen;
+import com.sachett.samosa.samosac.codegen.expressions.IntExprCodegen;
+import com.sachett.samosa.samosac.codegen.expressions.StringExprCodegen;
 import com.sachett.samosa.samosac.codegen.function.FunctionGenerationContext;
 import com.sachett.samosa.samosac.codegen.utils.delegation.CodegenDelegatable;
 import com.sachett.samosa.samosac.codegen.utils.delegation.CodegenDelegatedMethod;
+import com.sachett.samosa.samosac.optimizer.LoopAnalyzer;
+import com.sachett.samosa.samosac.symbol.SymbolType;
 import com.sachett.samosa.samosac.symbol.symboltable.SymbolTable;
+import kotlin.Pair;
 import org.antlr.v4.runtime.tree.TerminalNode;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.Opcodes;
@@ -110,6 +115,11 @@ public class WhileStmtCodegen extends CodegenDelegatable implements IControlNode
         return delegatedParentCodegen.visitWhileStmt(ctx);
     }
 
+    @Override
+    public Void visitForStmt(SamosaParser.ForStmtContext ctx) {
+        return delegatedParentCodegen.visitForStmt(ctx);
+    }
+
     @Override
     public Void visitUncertainCompoundStmtSingle(SamosaParser.UncertainCompoundStmtSingleContext ctx) {
         return delegatedParentCodegen.visitUncertainCompoundStmtSingle(ctx);
@@ -173,49 +183,81 @@ public class WhileStmtCodegen extends CodegenDelegatable implements IControlNode
         return delegatedParentCodegen.visitExprAssign(ctx);
     }
 
+    @Override
+    public Void visitArrayElementAssign(SamosaParser.ArrayElementAssignContext ctx) {
+        return delegatedParentCodegen.visitArrayElementAssign(ctx);
+    }
+
     public void generateWhileStmt(SamosaParser.WhileStmtContext ctx) {
         Label loopLabel = new Label();
         Label exitLoopLabel = new Label();
         this.whileLoopStartLabel = loopLabel;
         this.whileLoopExitLabel = exitLoopLabel;
 
-        var currentStackFrame = functionGenerationContext.getCurrentFrameStackInfo();
+        // The values of the loop-invariant expressions are computed once, before the loop
+        // (the local variables they are kept in are freed after the loop)
+        LoopAnalyzer loopAnalyzer = new LoopAnalyzer(symbolTable, functionGenerationContext);
+        List<Pair<SamosaParser.ExprContext, SymbolType>> invariantExprs = loopAnalyzer.findInvariantExprs(ctx);
+        functionGenerationContext.enterScope();
+        for (Pair<SamosaParser.ExprContext, SymbolType> invariantExpr : invariantExprs) {
+            hoistExpr(invariantExpr.getFirst(), invariantExpr.getSecond());
+        }
+
+        Integer unrollTripCount = loopAnalyzer.findUnrollTripCount(ctx);
+        if (unrollTripCount != null) {
+            // the trip count is known (and small), so the body is generated that many times
+            // and the condition is never checked
+            generateWhileBlock(ctx, unrollTripCount);
+        } else {
+            functionGenerationContext.getMv().visitLabel(loopLabel);
+
+            // check condition
+            BooleanExprCodegen booleanExprCodegen = new BooleanExprCodegen(
+                    ctx.booleanExpr(),
+                    symbolTable,
+                    functionGenerationContext,
+                    className,
+                    packageName
+            );
+
+            // if condition is false, exit loop
+            booleanExprCodegen.generateConditionalJump(exitLoopLabel, false);
+
+            generateWhileBlock(ctx, 1);
+
+            // start next iteration
+            functionGenerationContext.getMv().visitJumpInsn(Opcodes.GOTO, loopLabel);
+            functionGenerationContext.getMv().visitLabel(exitLoopLabel);
+        }
 
-        functionGenerationContext.getMv().visitLabel(loopLabel);
-        functionGenerationContext.getMv().visitFrame(Opcodes.F_NEW,
-                currentStackFrame.numLocals, currentStackFrame.locals,
-                currentStackFrame.numStack, currentStackFrame.stack
-        );
+        this.whileLoopStartLabel = null;
+        this.whileLoopExitLabel = null;
 
-        // check condition
-        BooleanExprCodegen booleanExprCodegen = new BooleanExprCodegen(
-                ctx.booleanExpr(),
-                symbolTable,
-                functionGenerationContext,
-                className,
-                packageName
-        );
-        booleanExprCodegen.doCodegen();
+        for (Pair<SamosaParser.ExprContext, SymbolType> invariantExpr : invariantExprs) {
+            functionGenerationContext.unhoistExpr(invariantExpr.getFirst());
+        }
+        functionGenerationContext.exitScope();
+    }
 
-        // if condition is false, exit loop
-        currentStackFrame = functionGenerationContext.getCurrentFrameStackInfo();
-        functionGenerationContext.getMv().visitJumpInsn(Opcodes.IFEQ, exitLoopLabel);
+    private void hoistExpr(SamosaParser.ExprContext expr, SymbolType type) {
+        if (type == SymbolType.INT) {
+            new IntExprCodegen(expr, symbolTable, functionGenerationContext, className, packageName).doCodegen();
+        } else {
+            new StringExprCodegen(expr, symbolTable, functionGenerationContext, className, packageName).doCodegen();
+        }
+        functionGenerationContext.hoistExpr(expr, FunctionGenerationContext.typeOf(type));
+    }
 
+    /**
+     * Generates the body of the loop the given number of times in a row.
+     */
+    private void generateWhileBlock(SamosaParser.WhileStmtContext ctx, int copies) {
         this.generatingWhileBlock = true;
-        undelegateSelf();
-        visit(ctx.block());
-
+        for (int i = 0; i < copies; i++) {
+            undelegateSelf();
+            visit(ctx.block());
+        }
         this.generatingWhileBlock = false;
-        this.whileLoopStartLabel = null;
-        this.whileLoopExitLabel = null;
-
-        // start next iteration
-        functionGenerationContext.getMv().visitJumpInsn(Opcodes.GOTO, loopLabel);
-        functionGenerationContext.getMv().visitLabel(exitLoopLabel);
-        functionGenerationContext.getMv().visitFrame(Opcodes.F_NEW,
-                currentStackFrame.numLocals, currentStackFrame.locals,
-                currentStackFrame.numStack, currentStackFrame.stack
-        );
     }
 
     @Override
@@ -5,8 +5,12 @@ import com.sachett.samosa.parser.SamosaParser;
 import com.sachett.samosa.samosac.codegen.function.FunctionCallCodegen;
 import com.sachett.samosa.samosac.codegen.function.FunctionGenerationContext;
 import com.sachett.samosa.samosac.staticchecker.ExpressionTypeDetector;
+import com.sachett.samosa.samosac.staticchecker.evaluators.FunctionCallEvaluator;
+import com.sachett.samosa.samosac.symbol.BoolSymbol;
+import com.sachett.samosa.samosac.symbol.ISymbol;
 import com.sachett.samosa.samosac.symbol.SymbolType;
 import com.sachett.samosa.samosac.symbol.symboltable.SymbolTable;
+import org.antlr.v4.runtime.tree.ParseTree;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
@@ -22,36 +26,11 @@ public class BooleanExprCodegen extends SamosaBaseVisitor<Void> implements IExpr
     private final String packageName;
     private final String qualifiedClassName;
 
-    /**
-     * Indicates whether the labels generated will have more code inserted in them.
-     * This should be true in the case of if, while etc.
-     * but false for cases where the boolean result of the evaluation should be stored
-     * on top of the stack after doCodegen(); for example, in case of assignment statements.
-     */
-    private boolean jumpLabelsHaveBlocks = false;
-
-    /**
-     * jump instructions are inverted to jump to false labels
-     * for example if it is var1 > var2, codegen generates jump to falseLabel if var1 <= var 2
-     * and if jumpToFalseLabel is set to false:
-     * for var1 > var2, codegen generates jump to trueLabel if var2 > var2
-     */
-    private boolean jumpToFalseLabel = true;
-
-    private Label trueLabel = new Label();  // to jump to when condition is true
-    private Label falseLabel = new Label(); // to jump to when condition is false
-    private Label nextLabel = new Label();  // to jump to after the boolean expression is evaluated
-
-    /* Stores the actual label to which the jump is performed on condition true/false (trueLabel or falseLabel) */
-    private Label conditionJumpLabel = new Label();
-
-    public Label getActualJumpLabel() {
-        return conditionJumpLabel;
-    }
+    /* The label to jump to while generating a condition */
+    private Label jumpTarget = null;
 
-    public Label getNextLabel() {
-        return nextLabel;
-    }
+    /* Whether to jump to jumpTarget when the condition is true (or when it is false); control falls through otherwise */
+    private boolean jumpIfTrue = true;
 
     public BooleanExprCodegen(
             SamosaParser.BooleanExprContext exprContext,
@@ -68,46 +47,161 @@ public class BooleanExprCodegen extends SamosaBaseVisitor<Void> implements IExpr
         this.qualifiedClassName = packageName.replace(".", "/") + className;
     }
 
+    /**
+     * Generates the code that leaves the value of the boolean expression on top of the stack.
+     */
     @Override
     public void doCodegen() {
-        visit(this.exprContext);
+        pushValue(this.exprContext);
     }
 
-    public void setBooleanExprContext(SamosaParser.BooleanExprContext booleanExprContext) {
-        this.exprContext = booleanExprContext;
+    /**
+     * Generates the code for the boolean expression as a condition:
+     * control jumps to the target label if the condition has the value jumpIfTrue, and falls through otherwise.
+     * No value is left on the stack.
+     * The code of the operands of "and" and "or" is skipped if the first operand decides the result,
+     * and "not" just swaps the targets.
+     * The caller must visit the target label.
+     * @param target        The label to jump to.
+     * @param jumpIfTrue    Whether to jump when the condition is true (or when it is false).
+     */
+    public void generateConditionalJump(Label target, boolean jumpIfTrue) {
+        generateConditionalJump(this.exprContext, target, jumpIfTrue);
+    }
+
+    private void generateConditionalJump(SamosaParser.BooleanExprContext booleanExprContext, Label target, boolean jumpIfTrue) {
+        Label outerJumpTarget = this.jumpTarget;
+        boolean outerJumpIfTrue = this.jumpIfTrue;
+        this.jumpTarget = target;
+        this.jumpIfTrue = jumpIfTrue;
+
+        // folded by the ConstantPropagator
+        Object foldedValue = symbolTable.getFoldedValues().get(booleanExprContext);
+        if (foldedValue instanceof Boolean) {
+            // the jump is either always taken or never taken
+            if ((Boolean) foldedValue == jumpIfTrue) {
+                functionGenerationContext.getMv().visitJumpInsn(Opcodes.GOTO, target);
+            }
+        } else {
+            visit(booleanExprContext);
+        }
+
+        this.jumpTarget = outerJumpTarget;
+        this.jumpIfTrue = outerJumpIfTrue;
     }
 
     /**
-     * Performs codeGen in cases such as:
-     * aBoolVariable = () -> aFuncThatReturnsABool.
-     * or,
-     * aBoolVar = anotherBoolVar.
-     * @param specialExprContext    The ExprContext corresponding to the RHS.
+     * Generates the code that leaves the value of the boolean expression on top of the stack.
+     * Comparisons and logical operators are generated as conditional jumps, and the value is materialized
+     * only at the end (as 1 on one path, 0 on the other).
+     * @param booleanExprContext    The boolean expression.
      */
-    public void doSpecialCodegen(SamosaParser.ExprContext specialExprContext) {
-        visit(specialExprContext);
+    private void pushValue(SamosaParser.BooleanExprContext booleanExprContext) {
+        Object foldedValue = symbolTable.getFoldedValues().get(booleanExprContext);
+        if (foldedValue instanceof Boolean) {
+            functionGenerationContext.getMv().visitLdcInsn((Boolean) foldedValue ? 1 : 0);
+            return;
+        }
+
+        if (booleanExprContext instanceof SamosaParser.BooleanExprParenContext) {
+            pushValue(((SamosaParser.BooleanExprParenContext) booleanExprContext).booleanExpr());
+            return;
+        }
+
+        if (booleanExprContext instanceof SamosaParser.BooleanExprIdentifierContext) {
+            String idName = ((SamosaParser.BooleanExprIdentifierContext) booleanExprContext).IDENTIFIER().getText();
+            doIdentifierCodegen(idName, symbolTable, Type.BOOLEAN_TYPE, functionGenerationContext, qualifiedClassName, Opcodes.ILOAD);
+            return;
+        }
+
+        if (booleanExprContext instanceof SamosaParser.BooleanFunctionCallContext) {
+            visit(((SamosaParser.BooleanFunctionCallContext) booleanExprContext).functionCall());
+            return;
+        }
+
+        if (booleanExprContext instanceof SamosaParser.BooleanExprXorContext) {
+            // both the operands are always needed for xor
+            var xorContext = (SamosaParser.BooleanExprXorContext) booleanExprContext;
+            pushValue(xorContext.booleanExpr(0));
+            pushValue(xorContext.booleanExpr(1));
+            functionGenerationContext.getMv().visitInsn(Opcodes.IXOR);
+            return;
+        }
+
+        if (booleanExprContext instanceof SamosaParser.BooleanExprNotContext
+                && isPlainValue(((SamosaParser.BooleanExprNotContext) booleanExprContext).booleanExpr())) {
+            // xoring anything with true gives its complement
+            pushValue(((SamosaParser.BooleanExprNotContext) booleanExprContext).booleanExpr());
+            functionGenerationContext.getMv().visitLdcInsn(1);
+            functionGenerationContext.getMv().visitInsn(Opcodes.IXOR);
+            return;
+        }
+
+        Label falseLabel = new Label();
+        Label nextLabel = new Label();
+
+        generateConditionalJump(booleanExprContext, falseLabel, false);
+        functionGenerationContext.getMv().visitLdcInsn(1);
+        functionGenerationContext.getMv().visitJumpInsn(Opcodes.GOTO, nextLabel);
+
+        functionGenerationContext.getMv().visitLabel(falseLabel);
+        functionGenerationContext.getMv().visitLdcInsn(0);
+
+        functionGenerationContext.getMv().visitLabel(nextLabel);
     }
 
-    public void setJumpLabelsHaveBlocks(boolean jumpLabelsHaveBlocks) {
-        this.jumpLabelsHaveBlocks = jumpLabelsHaveBlocks;
+    /**
+     * Checks if the value of the boolean expression is pushed without any jumps.
+     */
+    private boolean isPlainValue(SamosaParser.BooleanExprContext booleanExprContext) {
+        while (booleanExprContext instanceof SamosaParser.BooleanExprParenContext) {
+            booleanExprContext = ((SamosaParser.BooleanExprParenContext) booleanExprContext).booleanExpr();
+        }
+
+        return booleanExprContext instanceof SamosaParser.BooleanExprIdentifierContext
+                || booleanExprContext instanceof SamosaParser.BooleanFunctionCallContext;
     }
 
-    public void setTrueLabel(Label label) {
-        this.trueLabel = label;
+    /**
+     * Pushes the value of the boolean expression, and jumps to the jump target on it.
+     */
+    private void jumpOnValue(SamosaParser.BooleanExprContext booleanExprContext) {
+        pushValue(booleanExprContext);
+        // Note that IFEQ jumps if top of stack == 0 and IFNE jumps if top of stack != 0
+        functionGenerationContext.getMv().visitJumpInsn(jumpIfTrue ? Opcodes.IFNE : Opcodes.IFEQ, jumpTarget);
     }
 
-    public void setFalseLabel(Label label) {
-        this.falseLabel = label;
+    /**
+     * Pushes the value of the identifier if it refers to a constant.
+     * @return true if the value was pushed, false otherwise.
+     */
+    private boolean emitIfConstantIdentifier(ParseTree identifierNode) {
+        ISymbol constantSymbol = symbolTable.lookupConstant(identifierNode);
+        if (!(constantSymbol instanceof BoolSymbol)) {
+            return false;
+        }
+
+        functionGenerationContext.getMv().visitLdcInsn(((BoolSymbol) constantSymbol).getValue() ? 1 : 0);
+        return true;
     }
 
-    public void setNextLabel(Label label) {
-        this.nextLabel = label;
+    public void setBooleanExprContext(SamosaParser.BooleanExprContext booleanExprContext) {
+        this.exprContext = booleanExprContext;
     }
 
-    public void setJumpToFalseLabel(boolean jumpToFalseLabel) {
-        this.jumpToFalseLabel = jumpToFalseLabel;
+    /**
+     * Performs codeGen in cases such as:
+     * aBoolVariable = () -> aFuncThatReturnsABool.
+     * or,
+     * aBoolVar = anotherBoolVar.
+     * @param specialExprContext    The ExprContext corresponding to the RHS.
+     */
+    public void doSpecialCodegen(SamosaParser.ExprContext specialExprContext) {
+        visit(specialExprContext);
     }
 
+    // The visitor methods for boolean expressions generate them as conditions (see generateConditionalJump()).
+
     @Override
     public Void visitBooleanExprRelOp(SamosaParser.BooleanExprRelOpContext ctx) {
         var lhs = ctx.expr(0);
@@ -118,103 +212,78 @@ public class BooleanExprCodegen extends SamosaBaseVisitor<Void> implements IExpr
         var rhsType = typeDetector.getType(rhs);
 
         // check for incompatible types
+        // (since we only have int expressions that can be compared using relops right now)
         if ((!lhsType.getFirst() || !rhsType.getFirst())
                 || (lhsType.getSecond() != rhsType.getSecond())
-                || !lhsType.getSecond().getCanBeUsedWithCompOp()
+                || lhsType.getSecond() != SymbolType.INT
         ) {
             return null;
         }
 
-        var theRelOp = ctx.relOp();
-        var exprType = lhsType.getSecond();
-
-        // Since we only have int expressions that can be compared using relops right now
-        if (exprType == SymbolType.INT) {
-            // evaluate the left and right sides of the relOp expression
-            IntExprCodegen intExprCodegen = new IntExprCodegen(ctx.expr(0), symbolTable, functionGenerationContext, className, packageName);
-            intExprCodegen.doCodegen();
+        // evaluate the left and right sides of the relOp expression
+        IntExprCodegen intExprCodegen = new IntExprCodegen(ctx.expr(0), symbolTable, functionGenerationContext, className, packageName);
+        intExprCodegen.doCodegen();
 
-            intExprCodegen.setExprContext(ctx.expr(1));
-            intExprCodegen.doCodegen();
-        }
-
-        Label labelToJump = new Label();
-        conditionJumpLabel = labelToJump;
-        nextLabel = new Label();
-        // save current stack map
-        var currentFrameStack = functionGenerationContext.getCurrentFrameStackInfo();
+        intExprCodegen.setExprContext(ctx.expr(1));
+        intExprCodegen.doCodegen();
 
+        // the jump instructions are inverted when jumping on false
+        var theRelOp = ctx.relOp();
+        int opcode;
         if (theRelOp.GT() != null) {
-            if (lhsType.getSecond() == SymbolType.INT && rhsType.getSecond() == SymbolType.INT) {
-                int opcode = this.jumpToFalseLabel ? Opcodes.IF_ICMPLE : Opcodes.IF_ICMPGT;
-                functionGenerationContext.getMv().visitJumpInsn(opcode, labelToJump);
-            }
+            opcode = this.jumpIfTrue ? Opcodes.IF_ICMPGT : Opcodes.IF_ICMPLE;
         } else if (theRelOp.GTEQ() != null) {
-            if (lhsType.getSecond() == SymbolType.INT && rhsType.getSecond() == SymbolType.INT) {
-                int opcode = this.jumpToFalseLabel ? Opcodes.IF_ICMPLT : Opcodes.IF_ICMPGE;
-                functionGenerationContext.getMv().visitJumpInsn(opcode, labelToJump);
-            }
+            opcode = this.jumpIfTrue ? Opcodes.IF_ICMPGE : Opcodes.IF_ICMPLT;
         } else if (theRelOp.LT() != null) {
-            if (lhsType.getSecond() == SymbolType.INT && rhsType.getSecond() == SymbolType.INT) {
-                int opcode = this.jumpToFalseLabel ? Opcodes.IF_ICMPGE : Opcodes.IF_ICMPLT;
-                functionGenerationContext.getMv().visitJumpInsn(opcode, labelToJump);
-            }
+            opcode = this.jumpIfTrue ? Opcodes.IF_ICMPLT : Opcodes.IF_ICMPGE;
         } else if (theRelOp.LTEQ() != null) {
-            if (lhsType.getSecond() == SymbolType.INT && rhsType.getSecond() == SymbolType.INT) {
-                int opcode = this.jumpToFalseLabel ? Opcodes.IF_ICMPGE : Opcodes.IF_ICMPLT;
-                functionGenerationContext.getMv().visitJumpInsn(opcode, labelToJump);
-            }
+            opcode = this.jumpIfTrue ? Opcodes.IF_ICMPLE : Opcodes.IF_ICMPGT;
         } else {
             err("[Error] Unknown relational operator.");
+            return null;
         }
 
-        if (!this.jumpLabelsHaveBlocks) {
-            // the argument passed in the next line
-            // is the simplification of: this.jumpToFalseLabel ? true : false
-            functionGenerationContext.getMv().visitLdcInsn(this.jumpToFalseLabel ? 1 : 0);
-
-            functionGenerationContext.getMv().visitJumpInsn(Opcodes.GOTO, nextLabel);
-            functionGenerationContext.getMv().visitLabel(labelToJump);
-            functionGenerationContext.getMv().visitFrame(
-                    Opcodes.F_NEW,
-                    currentFrameStack.numLocals, currentFrameStack.locals,
-                    currentFrameStack.numStack, currentFrameStack.stack
-            );
-
-            // the argument passed in the next line
-            // is the simplification of: this.jumpToFalseLabel ? false : true
-            functionGenerationContext.getMv().visitLdcInsn(this.jumpToFalseLabel ? 0 : 1);
-            currentFrameStack = functionGenerationContext.getCurrentFrameStackInfo();
-            functionGenerationContext.getMv().visitJumpInsn(Opcodes.GOTO, nextLabel);
-
-            functionGenerationContext.getMv().visitLabel(nextLabel);
-            // see the Javadoc about visitFrame to know what is Opcodes.F_SAME1
-            functionGenerationContext.getMv().visitFrame(
-                    Opcodes.F_NEW,
-                    currentFrameStack.numLocals, currentFrameStack.locals,
-                    currentFrameStack.numStack, currentFrameStack.stack
-            );
+        functionGenerationContext.getMv().visitJumpInsn(opcode, this.jumpTarget);
+        return null;
+    }
+
+    @Override
+    public Void visitBooleanExprOr(SamosaParser.BooleanExprOrContext ctx) {
+        if (this.jumpIfTrue) {
+            // either operand being true is enough to jump
+            generateConditionalJump(ctx.booleanExpr(0), this.jumpTarget, true);
+            generateConditionalJump(ctx.booleanExpr(1), this.jumpTarget, true);
+            return null;
         }
 
+        // if the first operand is true, the second one need not be evaluated
+        Label skipLabel = new Label();
+        generateConditionalJump(ctx.booleanExpr(0), skipLabel, true);
+        generateConditionalJump(ctx.booleanExpr(1), this.jumpTarget, false);
+        functionGenerationContext.getMv().visitLabel(skipLabel);
         return null;
     }
 
     @Override
-    public Void visitBooleanExprOr(SamosaParser.BooleanExprOrContext ctx) {
-        // TODO: implement short circuiting
-        visit(ctx.booleanExpr(0));
-        visit(ctx.booleanExpr(1));
-        functionGenerationContext.getMv().visitInsn(Opcodes.IOR);
+    public Void visitBooleanExprAnd(SamosaParser.BooleanExprAndContext ctx) {
+        if (!this.jumpIfTrue) {
+            // either operand being false is enough to jump
+            generateConditionalJump(ctx.booleanExpr(0), this.jumpTarget, false);
+            generateConditionalJump(ctx.booleanExpr(1), this.jumpTarget, false);
+            return null;
+        }
+
+        // if the first operand is false, the second one need not be evaluated
+        Label skipLabel = new Label();
+        generateConditionalJump(ctx.booleanExpr(0), skipLabel, false);
+        generateConditionalJump(ctx.booleanExpr(1), this.jumpTarget, true);
+        functionGenerationContext.getMv().visitLabel(skipLabel);
         return null;
     }
 
     @Override
     public Void visitBooleanExprNot(SamosaParser.BooleanExprNotContext ctx) {
-        // I couldn't find a JVM "not" instruction.
-        // So, here's a little trick: xoring anything with true gives its complement
-        visit(ctx.booleanExpr());
-        functionGenerationContext.getMv().visitLdcInsn(1);
-        functionGenerationContext.getMv().visitInsn(Opcodes.IXOR);
+        generateConditionalJump(ctx.booleanExpr(), this.jumpTarget, !this.jumpIfTrue);
         return null;
     }
 
@@ -230,7 +299,6 @@ public class BooleanExprCodegen extends SamosaBaseVisitor<Void> implements IExpr
         // check for incompatible types
         if ((!lhsType.getFirst() || !rhsType.getFirst())
                 || (lhsType.getSecond() != rhsType.getSecond())
-                || !lhsType.getSecond().getCanBeUsedWithCompOp()
         ) {
             return null;
         }
@@ -238,6 +306,11 @@ public class BooleanExprCodegen extends SamosaBaseVisitor<Void> implements IExpr
         var theCompOp = ctx.compOp();
         var exprType = lhsType.getSecond();
 
+        if (!exprType.getCanBeUsedWithCompOp()) {
+            fmtfatalerr("Cannot compare given types.", ctx.start.getLine());
+            return null;
+        }
+
         // These are the types for which we support the comp ops for now
         switch(exprType) {
             case INT:
@@ -253,92 +326,56 @@ public class BooleanExprCodegen extends SamosaBaseVisitor<Void> implements IExpr
                 stringExprCodegen.doCodegen();
                 break;
             case BOOL:
-                BooleanExprCodegen booleanExprCodegen = new BooleanExprCodegen(null, symbolTable, functionGenerationContext, className, packageName);
-                booleanExprCodegen.doSpecialCodegen(ctx.expr(0));
-                booleanExprCodegen.doSpecialCodegen(ctx.expr(1));
+                doSpecialCodegen(ctx.expr(0));
+                doSpecialCodegen(ctx.expr(1));
                 break;
         }
 
-        Label labelToJump = new Label();
-        conditionJumpLabel = labelToJump;
-        nextLabel = new Label();
-        // save current stack map
-        var currentFrameStack = functionGenerationContext.getCurrentFrameStackInfo();
-
-        if (!exprType.getCanBeUsedWithCompOp()) {
-            fmtfatalerr("Cannot compare given types.", ctx.start.getLine());
-            return null;
-        }
-
+        boolean jumpIfEqual;
         if (theCompOp.COMP() != null) {
-            switch (exprType) {
-                case INT:
-                case BOOL:
-                    int opcode = Opcodes.IF_ICMPEQ;//this.jumpToFalseLabel ? Opcodes.IF_ICMPNE : Opcodes.IF_ICMPEQ;
-                    functionGenerationContext.getMv().visitJumpInsn(opcode, labelToJump);
-                    break;
-                case STRING:
-                    opcode = Opcodes.IF_ACMPEQ;//this.jumpToFalseLabel ? Opcodes.IF_ICMPNE : Opcodes.IF_ICMPEQ;
-                    functionGenerationContext.getMv().visitJumpInsn(opcode, labelToJump);
-                    break;
-            }
+            jumpIfEqual = this.jumpIfTrue;
         } else if (theCompOp.COMPNOTEQ() != null) {
-            switch (exprType) {
-                case INT:
-                case BOOL:
-                    int opcode = Opcodes.IF_ICMPNE;//this.jumpToFalseLabel ? Opcodes.IF_ICMPNE : Opcodes.IF_ICMPEQ;
-                    functionGenerationContext.getMv().visitJumpInsn(opcode, labelToJump);
-                    break;
-                case STRING:
-                    opcode = Opcodes.IF_ACMPNE;//this.jumpToFalseLabel ? Opcodes.IF_ICMPNE : Opcodes.IF_ICMPEQ;
-                    functionGenerationContext.getMv().visitJumpInsn(opcode, labelToJump);
-                    break;
-            }
+            jumpIfEqual = !this.jumpIfTrue;
         } else {
             err("[Error] Unknown relational operator.");
+            return null;
         }
 
-        if (!this.jumpLabelsHaveBlocks) {
-            // the argument passed in the next line
-            // is the simplification of: this.jumpToFalseLabel ? true : false
-            functionGenerationContext.getMv().visitLdcInsn(this.jumpToFalseLabel ? 1 : 0);
-
-            functionGenerationContext.getMv().visitJumpInsn(Opcodes.GOTO, nextLabel);
-            functionGenerationContext.getMv().visitLabel(labelToJump);
-            functionGenerationContext.getMv().visitFrame(
-                    Opcodes.F_NEW,
-                    currentFrameStack.numLocals, currentFrameStack.locals,
-                    currentFrameStack.numStack, currentFrameStack.stack
-            );
-
-            // the argument passed in the next line
-            // is the simplification of: this.jumpToFalseLabel ? false : true
-            functionGenerationContext.getMv().visitLdcInsn(this.jumpToFalseLabel ? 0 : 1);
-            currentFrameStack = functionGenerationContext.getCurrentFrameStackInfo();
-            functionGenerationContext.getMv().visitJumpInsn(Opcodes.GOTO, nextLabel);
-
-            functionGenerationContext.getMv().visitLabel(nextLabel);
-            // see the Javadoc about visitFrame to know what is Opcodes.F_SAME1
-            functionGenerationContext.getMv().visitFrame(
-                    Opcodes.F_NEW,
-                    currentFrameStack.numLocals, currentFrameStack.locals,
-                    currentFrameStack.numStack, currentFrameStack.stack
-            );
+        int opcode;
+        if (exprType == SymbolType.STRING) {
+            // strings are compared by their contents (like the constant folder does), not by reference
+            functionGenerationContext.getMv().visitMethodInsn(
+                    Opcodes.INVOKEVIRTUAL, "java/lang/String", "equals", "(Ljava/lang/Object;)Z", false);
+            opcode = jumpIfEqual ? Opcodes.IFNE : Opcodes.IFEQ;
+        } else {
+            opcode = jumpIfEqual ? Opcodes.IF_ICMPEQ : Opcodes.IF_ICMPNE;
         }
 
+        functionGenerationContext.getMv().visitJumpInsn(opcode, this.jumpTarget);
         return null;
     }
 
     @Override
     public Void visitBooleanExprParen(SamosaParser.BooleanExprParenContext ctx) {
-        visit(ctx.booleanExpr());
+        generateConditionalJump(ctx.booleanExpr(), this.jumpTarget, this.jumpIfTrue);
+        return null;
+    }
+
+    @Override
+    public Void visitBooleanExprXor(SamosaParser.BooleanExprXorContext ctx) {
+        jumpOnValue(ctx);
+        return null;
+    }
+
+    @Override
+    public Void visitBooleanFunctionCall(SamosaParser.BooleanFunctionCallContext ctx) {
+        jumpOnValue(ctx);
         return null;
     }
 
     @Override
     public Void visitBooleanExprIdentifier(SamosaParser.BooleanExprIdentifierContext ctx) {
-        String idName = ctx.IDENTIFIER().getText();
-        doIdentifierCodegen(idName, symbolTable, Type.BOOLEAN_TYPE, functionGenerationContext, qualifiedClassName, Opcodes.ILOAD);
+        jumpOnValue(ctx);
         return null;
     }
 
@@ -348,39 +385,31 @@ public class BooleanExprCodegen extends SamosaBaseVisitor<Void> implements IExpr
      */
     @Override
     public Void visitExprIdentifier(SamosaParser.ExprIdentifierContext ctx) {
+        if (emitIfConstantIdentifier(ctx)) {
+            return null;
+        }
+
         String idName = ctx.IDENTIFIER().getText();
         // Let's trust the static type checker here and assume that this identifier is of boolean type
         doIdentifierCodegen(idName, symbolTable, Type.BOOLEAN_TYPE, functionGenerationContext, qualifiedClassName, Opcodes.ILOAD);
         return null;
     }
 
+    /**
+     * Used by doSpecialCodegen().
+     * @param ctx   Appropriate context.
+     */
     @Override
-    public Void visitBooleanTrue(SamosaParser.BooleanTrueContext ctx) {
-        functionGenerationContext.getMv().visitLdcInsn(1);
-        return null;
-    }
-
-    @Override
-    public Void visitBooleanFalse(SamosaParser.BooleanFalseContext ctx) {
-        functionGenerationContext.getMv().visitLdcInsn(0);
-        return null;
-    }
-
-    @Override
-    public Void visitBooleanExprXor(SamosaParser.BooleanExprXorContext ctx) {
-        visit(ctx.booleanExpr(0));
-        visit(ctx.booleanExpr(1));
-        functionGenerationContext.getMv().visitInsn(Opcodes.IXOR); // TODO: TEST IF THIS WORKS!
-        return null;
-    }
+    public Void visitExprFunctionCall(SamosaParser.ExprFunctionCallContext ctx) {
+        // the result of a call to a pure function may be known at compile time
+        FunctionCallEvaluator functionCallEvaluator = symbolTable.getFunctionCallEvaluator();
+        Object callResult = functionCallEvaluator != null ? functionCallEvaluator.evaluateCall(ctx.functionCall()) : null;
+        if (callResult instanceof Boolean) {
+            functionGenerationContext.getMv().visitLdcInsn((Boolean) callResult ? 1 : 0);
+            return null;
+        }
 
-    @Override
-    public Void visitBooleanExprAnd(SamosaParser.BooleanExprAndContext ctx) {
-        // TODO: implement short circuiting
-        visit(ctx.booleanExpr(0));
-        visit(ctx.booleanExpr(1));
-        functionGenerationContext.getMv().visitInsn(Opcodes.IAND);
-        return null;
+        return visit(ctx.functionCall());
     }
 
     @Override
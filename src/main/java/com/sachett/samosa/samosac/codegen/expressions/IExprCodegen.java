@@ -1,11 +1,13 @@
 package com.sachett.samosa.samosac.codegen.expressions;
 
-import com.sachett.samosa.samosac.codegen.ClassFileGenerator;
 import com.sachett.samosa.samosac.codegen.function.FunctionGenerationContext;
+import com.sachett.samosa.samosac.symbol.BoolSymbol;
 import com.sachett.samosa.samosac.symbol.ISymbol;
+import com.sachett.samosa.samosac.symbol.IntSymbol;
+import com.sachett.samosa.samosac.symbol.StringSymbol;
+import com.sachett.samosa.samosac.symbol.SymbolType;
 import com.sachett.samosa.samosac.symbol.symboltable.SymbolTable;
 import kotlin.Pair;
-import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 
 public interface IExprCodegen {
@@ -25,30 +27,26 @@ public interface IExprCodegen {
             return;
         }
 
-        if (lookupInfo.getSecond() == 0) {
-            // we're talking about a global variable
-            // that should be looked up in the symbol table without the augmented name
-            // (a static field of the class during generation)
-            functionGenerationContext.getMv().visitFieldInsn(
-                    Opcodes.GETSTATIC, qualifiedClassName, idName, type.getDescriptor()
-            );
-        }
-        else if (lookupInfo.getSecond() != 0 && functionGenerationContext
-                                                .getParentClassGenerator()
-                                                .getStaticVarsAugmentedNames()
-                                                .containsKey(
-                                                        lookupInfo
-                                                                .getFirst()
-                                                                .getAugmentedName()))
-        {
-            // static variable but stored in symbol table with augmented name
-            functionGenerationContext.getMv().visitFieldInsn(
-                    Opcodes.GETSTATIC, qualifiedClassName, lookupInfo.getFirst().getAugmentedName(), type.getDescriptor()
-            );
-        }
-        else {
-            Integer localVarIndex = functionGenerationContext.getLocalVarIndex(lookupInfo.getFirst().getAugmentedName());
-            functionGenerationContext.getMv().visitVarInsn(loadInstruction, localVarIndex);
+        ISymbol symbol = lookupInfo.getFirst();
+        if (symbol.getSymbolType() != SymbolType.FUNCTION
+                && symbol.isInitialValueCalculated() && !symbol.isReassigned()) {
+            // the value of the variable is known at compile time and never changes, so it is inlined here
+            switch (symbol.getSymbolType()) {
+                case INT:
+                    functionGenerationContext.getMv().visitLdcInsn(((IntSymbol) symbol).getValue());
+                    return;
+                case BOOL:
+                    functionGenerationContext.getMv().visitLdcInsn(((BoolSymbol) symbol).getValue() ? 1 : 0);
+                    return;
+                case STRING:
+                    functionGenerationContext.getMv().visitLdcInsn(((StringSymbol) symbol).getValue());
+                    return;
+            }
         }
+
+        // a global variable is a static field of the class (without the augmented name), unless it is only used
+        // in main (and is a local variable of main then); the same goes for the variables in the blocks of main
+        // (whose fields have augmented names), see ClassFileGenerator
+        functionGenerationContext.loadVariable(symbol, lookupInfo.getSecond() == 0, qualifiedClassName);
     }
 }
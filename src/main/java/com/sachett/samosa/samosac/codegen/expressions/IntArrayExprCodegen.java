@@ -0,0 +1,85 @@
+package com.sachett.samosa.samosac.codegen.expressions;
+
+import com.sachett.samosa.parser.SamosaBaseVisitor;
+import com.sachett.samosa.parser.SamosaParser;
+import com.sachett.samosa.samosac.codegen.function.FunctionCallCodegen;
+import com.sachett.samosa.samosac.codegen.function.FunctionGenerationContext;
+import com.sachett.samosa.samosac.symbol.symboltable.SymbolTable;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * Generates the code for int[] expressions: an int[] variable, a new array (int[size]), or a call to a function
+ * returning an int[].
+ */
+public class IntArrayExprCodegen extends SamosaBaseVisitor<Void> implements IExprCodegen {
+    private SamosaParser.ExprContext exprContext;
+    private final FunctionGenerationContext functionGenerationContext;
+    private final SymbolTable symbolTable;
+    private final String qualifiedClassName;
+    private final String className;
+    private final String packageName;
+
+    public IntArrayExprCodegen(
+            SamosaParser.ExprContext exprContext,
+            SymbolTable symbolTable,
+            FunctionGenerationContext functionGenerationContext,
+            String className,
+            String packageName
+    ) {
+        this.exprContext = exprContext;
+        this.functionGenerationContext = functionGenerationContext;
+        this.symbolTable = symbolTable;
+        this.qualifiedClassName = packageName.replace(".", "/") + className;
+        this.className = className;
+        this.packageName = packageName;
+    }
+
+    @Override
+    public void doCodegen() {
+        visit(exprContext);
+    }
+
+    public void setExprContext(SamosaParser.ExprContext exprContext) {
+        this.exprContext = exprContext;
+    }
+
+    @Override
+    public Void visitExprParen(SamosaParser.ExprParenContext ctx) {
+        visit(ctx.expr());
+        return null;
+    }
+
+    @Override
+    public Void visitExprIdentifier(SamosaParser.ExprIdentifierContext ctx) {
+        String idName = ctx.IDENTIFIER().getText();
+        doIdentifierCodegen(idName, symbolTable, Type.getType(int[].class),
+                functionGenerationContext, qualifiedClassName, Opcodes.ALOAD);
+        return null;
+    }
+
+    @Override
+    public Void visitExprNewIntArray(SamosaParser.ExprNewIntArrayContext ctx) {
+        new IntExprCodegen(ctx.expr(), symbolTable, functionGenerationContext, className, packageName).doCodegen();
+        functionGenerationContext.getMv().visitIntInsn(Opcodes.NEWARRAY, Opcodes.T_INT);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionCallWithArgs(SamosaParser.FunctionCallWithArgsContext ctx) {
+        FunctionCallCodegen functionCallCodegen = new FunctionCallCodegen(
+                symbolTable, className, functionGenerationContext, className, packageName
+        );
+        functionCallCodegen.doWithArgFunctionCallCodegen(ctx, false); // do not discard result
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionCallNoArgs(SamosaParser.FunctionCallNoArgsContext ctx) {
+        FunctionCallCodegen functionCallCodegen = new FunctionCallCodegen(
+                symbolTable, className, functionGenerationContext, className, packageName
+        );
+        functionCallCodegen.doNoArgFunctionCallCodegen(ctx, false); // do not discard result
+        return null;
+    }
+}
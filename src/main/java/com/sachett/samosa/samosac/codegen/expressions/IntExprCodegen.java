@@ -4,6 +4,7 @@ import com.sachett.samosa.parser.SamosaBaseVisitor;
 import com.sachett.samosa.parser.SamosaParser;
 import com.sachett.samosa.samosac.codegen.function.FunctionCallCodegen;
 import com.sachett.samosa.samosac.codegen.function.FunctionGenerationContext;
+import com.sachett.samosa.samosac.staticchecker.evaluators.IntExpressionEvaluator;
 import com.sachett.samosa.samosac.symbol.symboltable.SymbolTable;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
@@ -33,7 +34,27 @@ public class IntExprCodegen extends SamosaBaseVisitor<Void> implements IExprCode
 
     @Override
     public void doCodegen() {
-        visit(exprContext);
+        visitOperand(exprContext);
+    }
+
+    /**
+     * Generates the code for an operand, which is just the folded value if the operand is a constant.
+     * @param operandContext    The operand's ExprContext.
+     */
+    private void visitOperand(SamosaParser.ExprContext operandContext) {
+        if (functionGenerationContext.loadHoistedExpr(operandContext)) {
+            // computed before the loop that this is in
+            return;
+        }
+
+        // folded by the ConstantPropagator
+        Object foldedValue = symbolTable.getFoldedValues().get(operandContext);
+        if (foldedValue instanceof Integer) {
+            functionGenerationContext.getMv().visitLdcInsn(foldedValue);
+            return;
+        }
+
+        visit(operandContext);
     }
 
     public void setExprContext(SamosaParser.ExprContext exprContext) {
@@ -49,53 +70,58 @@ public class IntExprCodegen extends SamosaBaseVisitor<Void> implements IExprCode
 
     @Override
     public Void visitExprParen(SamosaParser.ExprParenContext ctx) {
-        visit(ctx.expr());
+        visitOperand(ctx.expr());
         return null;
     }
 
     @Override
     public Void visitExprPlus(SamosaParser.ExprPlusContext ctx) {
-        visit(ctx.expr(0)); // visit left operand
-        visit(ctx.expr(1)); // visit right operand
+        visitOperand(ctx.expr(0)); // visit left operand
+        visitOperand(ctx.expr(1)); // visit right operand
         functionGenerationContext.getMv().visitInsn(Opcodes.IADD);
         return null;
     }
 
     @Override
     public Void visitExprMinus(SamosaParser.ExprMinusContext ctx) {
-        visit(ctx.expr(0)); // visit left operand
-        visit(ctx.expr(1)); // visit right operand
+        visitOperand(ctx.expr(0)); // visit left operand
+        visitOperand(ctx.expr(1)); // visit right operand
         functionGenerationContext.getMv().visitInsn(Opcodes.ISUB);
         return null;
     }
 
     @Override
     public Void visitExprMultiply(SamosaParser.ExprMultiplyContext ctx) {
-        visit(ctx.expr(0)); // visit left operand
-        visit(ctx.expr(1)); // visit right operand
+        visitOperand(ctx.expr(0)); // visit left operand
+        visitOperand(ctx.expr(1)); // visit right operand
         functionGenerationContext.getMv().visitInsn(Opcodes.IMUL);
         return null;
     }
 
     @Override
     public Void visitExprDivide(SamosaParser.ExprDivideContext ctx) {
-        visit(ctx.expr(0)); // visit left operand
-        visit(ctx.expr(1)); // visit right operand
+        visitOperand(ctx.expr(0)); // visit left operand
+        visitOperand(ctx.expr(1)); // visit right operand
         functionGenerationContext.getMv().visitInsn(Opcodes.IDIV);
         return null;
     }
 
     @Override
     public Void visitExprModulo(SamosaParser.ExprModuloContext ctx) {
-        visit(ctx.expr(0)); // visit left operand
-        visit(ctx.expr(1)); // visit right operand
+        visitOperand(ctx.expr(0)); // visit left operand
+        visitOperand(ctx.expr(1)); // visit right operand
         functionGenerationContext.getMv().visitInsn(Opcodes.IREM);
         return null;
     }
 
     @Override
     public Void visitUnaryMinus(SamosaParser.UnaryMinusContext ctx) {
-        visit(ctx.expr());
+        if (IntExpressionEvaluator.isIntMinValueLiteral(ctx)) {
+            // the digits alone do not fit in an int
+            functionGenerationContext.getMv().visitLdcInsn(Integer.MIN_VALUE);
+            return null;
+        }
+        visitOperand(ctx.expr());
         functionGenerationContext.getMv().visitInsn(Opcodes.INEG);
         return null;
     }
@@ -107,6 +133,16 @@ public class IntExprCodegen extends SamosaBaseVisitor<Void> implements IExprCode
         return null;
     }
 
+    @Override
+    public Void visitExprArrayIndex(SamosaParser.ExprArrayIndexContext ctx) {
+        String idName = ctx.IDENTIFIER().getText();
+        doIdentifierCodegen(idName, symbolTable, Type.getType(int[].class),
+                functionGenerationContext, qualifiedClassName, Opcodes.ALOAD);
+        visitOperand(ctx.expr());
+        functionGenerationContext.getMv().visitInsn(Opcodes.IALOAD);
+        return null;
+    }
+
     @Override
     public Void visitFunctionCallWithArgs(SamosaParser.FunctionCallWithArgsContext ctx) {
         FunctionCallCodegen functionCallCodegen = new FunctionCallCodegen(
@@ -1,16 +1,16 @@
 package com.sachett.samosa.samosac.codegen.expressions;
 
-import com.sachett.samosa.logging.LoggingUtilsKt;
 import com.sachett.samosa.parser.SamosaBaseVisitor;
 import com.sachett.samosa.parser.SamosaParser;
 import com.sachett.samosa.samosac.codegen.function.FunctionCallCodegen;
 import com.sachett.samosa.samosac.codegen.function.FunctionGenerationContext;
 import com.sachett.samosa.samosac.symbol.symboltable.SymbolTable;
+import kotlin.Pair;
+import org.objectweb.asm.Handle;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Method;
+import java.util.ArrayList;
 
 public class StringExprCodegen extends SamosaBaseVisitor<Void> implements IExprCodegen {
     private SamosaParser.ExprContext exprContext;
@@ -20,6 +20,26 @@ public class StringExprCodegen extends SamosaBaseVisitor<Void> implements IExprC
     private final String className;
     private final String packageName;
 
+    private static final Handle MAKE_CONCAT_WITH_CONSTANTS = new Handle(
+            Opcodes.H_INVOKESTATIC,
+            "java/lang/invoke/StringConcatFactory",
+            "makeConcatWithConstants",
+            "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;"
+                    + "Ljava/lang/String;[Ljava/lang/Object;)Ljava/lang/invoke/CallSite;",
+            false
+    );
+
+    /* The characters that stand for an argument and for a constant in a makeConcatWithConstants recipe */
+    private static final char RECIPE_ARG_TAG = '\u0001';
+    private static final char RECIPE_CONSTANT_TAG = '\u0002';
+
+    /* makeConcatWithConstants takes at most 200 argument slots */
+    private static final int MAX_CONCAT_ARGS = 200;
+
+    /* Used to presize the StringBuilder when concatenating without invokedynamic */
+    private static final int MAX_INT_STRING_LENGTH = 11;
+    private static final int ESTIMATED_STRING_LENGTH = 16;
+
     public StringExprCodegen(
             SamosaParser.ExprContext exprContext,
             SymbolTable symbolTable,
@@ -37,7 +57,27 @@ public class StringExprCodegen extends SamosaBaseVisitor<Void> implements IExprC
 
     @Override
     public void doCodegen() {
-        visit(this.exprContext);
+        visitOperand(this.exprContext);
+    }
+
+    /**
+     * Generates the code for an operand, which is just the folded string if the operand is a constant.
+     * @param operandContext    The operand's ExprContext.
+     */
+    private void visitOperand(SamosaParser.ExprContext operandContext) {
+        if (functionGenerationContext.loadHoistedExpr(operandContext)) {
+            // computed before the loop that this is in
+            return;
+        }
+
+        // folded by the ConstantPropagator
+        Object foldedValue = symbolTable.getFoldedValues().get(operandContext);
+        if (foldedValue instanceof String) {
+            functionGenerationContext.getMv().visitLdcInsn(foldedValue);
+            return;
+        }
+
+        visit(operandContext);
     }
 
     @Override
@@ -60,74 +100,220 @@ public class StringExprCodegen extends SamosaBaseVisitor<Void> implements IExprC
         this.exprContext = exprContext;
     }
 
+    /**
+     * A part of a concatenation chain: either a string known at compile time, or an expression whose value is
+     * computed at runtime (a string, or the int argument of an itos call, which is concatenated directly).
+     */
+    private static class ConcatPart {
+        String constant;
+        SamosaParser.ExprContext expr;
+        boolean isInt;
+
+        ConcatPart(String constant) {
+            this.constant = constant;
+        }
+
+        ConcatPart(SamosaParser.ExprContext expr, boolean isInt) {
+            this.expr = expr;
+            this.isInt = isInt;
+        }
+
+        String getDescriptor() {
+            return isInt ? "I" : "Ljava/lang/String;";
+        }
+    }
+
     @Override
     public Void visitExprPlus(SamosaParser.ExprPlusContext ctx) {
-        // Java equivalent:
-        // StringBuilder sb = new StringBuilder("stringLeft");
-        // sb.append("stringLeft")
-
-        // Make a StringBuilder object and duplicate it on the stack
-        // Note that we need to duplicate it ONE time because we will make three calls on it as follows:
-        // 1. <init>: pops off object ref
-        // 2. append: pops off object ref, does append, then pushes it back (see descriptor of append)
-        // 3. toString: pops off object ref, pushes string representation onto stack
-        functionGenerationContext.getMv().visitTypeInsn(Opcodes.NEW, Type.getType(StringBuilder.class).getInternalName());
-        functionGenerationContext.getMv().visitInsn(Opcodes.DUP);
-        // Process and put the left operand on the stack
-        visit(ctx.expr(0));
+        // The whole chain of concatenations (a + b + (c + d) ...) is generated at once,
+        // so that no intermediate strings are made.
+        ArrayList<ConcatPart> parts = new ArrayList<>();
+        collectConcatParts(ctx, parts);
 
-        // Using Reflection API so that I don't have to write descriptor strings by hand
-        Constructor<StringBuilder> stringBuilderConstructor = null;
-        Method stringBuilderAppend = null;
-        Method stringBuilderToString = null;
+        if (parts.size() == 1) {
+            // all but one part are empty strings
+            ConcatPart part = parts.get(0);
+            pushConcatPart(part);
+            if (part.isInt) {
+                functionGenerationContext.getMv().visitMethodInsn(
+                        Opcodes.INVOKESTATIC, "java/lang/Integer", "toString", "(I)Ljava/lang/String;", false
+                );
+            }
+            return null;
+        }
 
-        try {
-             stringBuilderConstructor = StringBuilder.class.getConstructor(String.class);
-             stringBuilderAppend = StringBuilder.class.getMethod("append", String.class);
-             stringBuilderToString = StringBuilder.class.getMethod("toString");
-        } catch (NoSuchMethodException e) {
-            LoggingUtilsKt.err(String.valueOf(e));
+        if (functionGenerationContext.getParentClassGenerator().getTargetRelease().supportsIndyStringConcat()) {
+            doIndyConcatCodegen(parts);
+        } else {
+            doStringBuilderConcatCodegen(parts);
         }
 
-        // Invoke the constructor of StringBuilder with the left operand
-        assert stringBuilderConstructor != null;
-        functionGenerationContext.getMv().visitMethodInsn(
-                Opcodes.INVOKESPECIAL,
-                Type.getType(StringBuilder.class).getInternalName(),
-                "<init>",
-                Type.getConstructorDescriptor(stringBuilderConstructor),
-                false
+        return null;
+    }
+
+    /**
+     * Flattens a concatenation chain into its parts, merging the adjacent parts that are known at compile time.
+     */
+    private void collectConcatParts(SamosaParser.ExprContext operandContext, ArrayList<ConcatPart> parts) {
+        if (functionGenerationContext.isHoisted(operandContext)) {
+            parts.add(new ConcatPart(operandContext, false));
+            return;
+        }
+
+        while (operandContext instanceof SamosaParser.ExprParenContext) {
+            operandContext = ((SamosaParser.ExprParenContext) operandContext).expr();
+        }
+
+        if (operandContext instanceof SamosaParser.ExprPlusContext) {
+            for (SamosaParser.ExprContext operand : ((SamosaParser.ExprPlusContext) operandContext).expr()) {
+                collectConcatParts(operand, parts);
+            }
+            return;
+        }
+
+        Object foldedValue = symbolTable.getFoldedValues().get(operandContext);
+        if (foldedValue instanceof String) {
+            String constant = (String) foldedValue;
+            ConcatPart lastPart = parts.isEmpty() ? null : parts.get(parts.size() - 1);
+
+            if (lastPart != null && lastPart.constant != null) {
+                lastPart.constant += constant;
+            } else if (!constant.isEmpty()) {
+                parts.add(new ConcatPart(constant));
+            }
+            return;
+        }
+
+        SamosaParser.ExprContext itosArgument = getBuiltinItosArgument(operandContext);
+        if (itosArgument != null) {
+            parts.add(new ConcatPart(itosArgument, true));
+        } else {
+            parts.add(new ConcatPart(operandContext, false));
+        }
+    }
+
+    /**
+     * Returns the argument of the operand if it is a call to the builtin itos, null otherwise.
+     */
+    private SamosaParser.ExprContext getBuiltinItosArgument(SamosaParser.ExprContext operandContext) {
+        if (!(operandContext instanceof SamosaParser.ExprFunctionCallContext)) {
+            return null;
+        }
+
+        var functionCall = ((SamosaParser.ExprFunctionCallContext) operandContext).functionCall();
+        if (!(functionCall instanceof SamosaParser.FunctionCallWithArgsContext)) {
+            return null;
+        }
+
+        var functionCallWithArgs = (SamosaParser.FunctionCallWithArgsContext) functionCall;
+        var callArgs = functionCallWithArgs.callArgList();
+        if (!functionCallWithArgs.IDENTIFIER().getText().equals("itos")
+                || symbolTable.lookupInCoordinates("itos", new Pair<>(0, 0)) != null
+                || callArgs.callParams.size() != 1 || !callArgs.booleanCallParams.isEmpty()) {
+            // not a call to the builtin (a function of this class with the same name is called instead)
+            return null;
+        }
+
+        return callArgs.callParams.get(0);
+    }
+
+    private void pushConcatPart(ConcatPart part) {
+        if (part.constant != null) {
+            functionGenerationContext.getMv().visitLdcInsn(part.constant);
+        } else if (part.isInt) {
+            new IntExprCodegen(part.expr, symbolTable, functionGenerationContext, className, packageName).doCodegen();
+        } else {
+            visitOperand(part.expr);
+        }
+    }
+
+    /**
+     * Concatenates the parts with invokedynamic calls to StringConcatFactory.makeConcatWithConstants.
+     * The constant parts go into the recipe (except those with the recipe's tag characters, which are
+     * passed as arguments instead).
+     */
+    private void doIndyConcatCodegen(ArrayList<ConcatPart> parts) {
+        StringBuilder recipe = new StringBuilder();
+        StringBuilder argsDescriptor = new StringBuilder();
+        int numArgs = 0;
+
+        for (ConcatPart part : parts) {
+            if (part.constant != null
+                    && part.constant.indexOf(RECIPE_ARG_TAG) < 0 && part.constant.indexOf(RECIPE_CONSTANT_TAG) < 0) {
+                recipe.append(part.constant);
+                continue;
+            }
+
+            if (numArgs == MAX_CONCAT_ARGS) {
+                // concatenate what we have so far, and pass the result on as the first argument of the next call
+                emitMakeConcatWithConstants(recipe.toString(), argsDescriptor.toString());
+                recipe = new StringBuilder().append(RECIPE_ARG_TAG);
+                argsDescriptor = new StringBuilder("Ljava/lang/String;");
+                numArgs = 1;
+            }
+
+            pushConcatPart(part);
+            recipe.append(RECIPE_ARG_TAG);
+            argsDescriptor.append(part.getDescriptor());
+            numArgs++;
+        }
+
+        emitMakeConcatWithConstants(recipe.toString(), argsDescriptor.toString());
+    }
+
+    private void emitMakeConcatWithConstants(String recipe, String argsDescriptor) {
+        functionGenerationContext.getMv().visitInvokeDynamicInsn(
+                "makeConcatWithConstants",
+                "(" + argsDescriptor + ")Ljava/lang/String;",
+                MAKE_CONCAT_WITH_CONSTANTS,
+                recipe
         );
+    }
 
-        // Now process the right operand and put it on the stack
-        visit(ctx.expr(1));
+    /**
+     * Concatenates the parts with a single StringBuilder, made large enough for the whole result
+     * (if the values that are only known at runtime are not too long).
+     */
+    private void doStringBuilderConcatCodegen(ArrayList<ConcatPart> parts) {
+        int capacity = 0;
+        for (ConcatPart part : parts) {
+            if (part.constant != null) {
+                capacity += part.constant.length();
+            } else {
+                capacity += part.isInt ? MAX_INT_STRING_LENGTH : ESTIMATED_STRING_LENGTH;
+            }
+        }
 
-        // Now invoke append on the StringBuilder object with the right operand
-        assert stringBuilderAppend != null;
+        // The StringBuilder is initialized before the parts are processed, so that no jumps in the parts' code
+        // (for boolean arguments of function calls, for example) come between the new and the <init>.
+        String stringBuilderName = Type.getInternalName(StringBuilder.class);
+        functionGenerationContext.getMv().visitTypeInsn(Opcodes.NEW, stringBuilderName);
+        functionGenerationContext.getMv().visitInsn(Opcodes.DUP);
+        functionGenerationContext.getMv().visitLdcInsn(capacity);
         functionGenerationContext.getMv().visitMethodInsn(
-                Opcodes.INVOKEVIRTUAL,
-                Type.getType(StringBuilder.class).getInternalName(),
-                "append",
-                Type.getMethodDescriptor(stringBuilderAppend),
-                false
+                Opcodes.INVOKESPECIAL, stringBuilderName, "<init>", "(I)V", false
         );
 
-        // Now get the string representation using toString()
-        assert stringBuilderToString != null;
+        // append returns the StringBuilder, so the calls can be chained without storing it anywhere
+        for (ConcatPart part : parts) {
+            pushConcatPart(part);
+            functionGenerationContext.getMv().visitMethodInsn(
+                    Opcodes.INVOKEVIRTUAL,
+                    stringBuilderName,
+                    "append",
+                    "(" + part.getDescriptor() + ")Ljava/lang/StringBuilder;",
+                    false
+            );
+        }
+
         functionGenerationContext.getMv().visitMethodInsn(
-                Opcodes.INVOKEVIRTUAL,
-                Type.getType(StringBuilder.class).getInternalName(),
-                "toString",
-                Type.getMethodDescriptor(stringBuilderToString),
-                false
+                Opcodes.INVOKEVIRTUAL, stringBuilderName, "toString", "()Ljava/lang/String;", false
         );
-
-        return null;
     }
 
     @Override
     public Void visitExprParen(SamosaParser.ExprParenContext ctx) {
-        visit(ctx.expr());
+        visitOperand(ctx.expr());
         return null;
     }
 
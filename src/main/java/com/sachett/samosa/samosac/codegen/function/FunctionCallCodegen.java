@@ -4,6 +4,7 @@ import com.sachett.samosa.builtins.Builtins;
 import com.sachett.samosa.logging.LoggingUtilsKt;
 import com.sachett.samosa.parser.SamosaParser;
 import com.sachett.samosa.samosac.codegen.expressions.BooleanExprCodegen;
+import com.sachett.samosa.samosac.codegen.expressions.IntArrayExprCodegen;
 import com.sachett.samosa.samosac.codegen.expressions.IntExprCodegen;
 import com.sachett.samosa.samosac.codegen.expressions.StringExprCodegen;
 import com.sachett.samosa.samosac.codegen.utils.delegation.CodegenDelegatable;
@@ -13,6 +14,7 @@ import com.sachett.samosa.samosac.symbol.ISymbol;
 import com.sachett.samosa.samosac.symbol.SymbolType;
 import com.sachett.samosa.samosac.symbol.symboltable.SymbolTable;
 import kotlin.Pair;
+import org.objectweb.asm.Label;
 import org.objectweb.asm.Opcodes;
 
 import java.lang.reflect.Method;
@@ -69,10 +71,16 @@ public class FunctionCallCodegen extends CodegenDelegatable {
                 e.printStackTrace();
                 System.exit(-1);
             }
+
+            if (discardResult) {
+                discardResultOf(theFunc.getFirst());
+            }
         }
         else if (functionSymbol instanceof FunctionSymbol) {
             // the function exists in this class
             // currently all generated methods are static in this class
+            // the function may use the globals that are cached in local variables here
+            functionGenerationContext.writeBackCachedFields();
             functionGenerationContext.getMv().visitMethodInsn(
                     Opcodes.INVOKESTATIC,
                     functionOwner,
@@ -80,6 +88,21 @@ public class FunctionCallCodegen extends CodegenDelegatable {
                     FunctionGenerationContext.generateDescriptor((FunctionSymbol) functionSymbol),
                     false
             );
+            functionGenerationContext.reloadCachedFields();
+
+            if (discardResult) {
+                discardResultOf((FunctionSymbol) functionSymbol);
+            }
+        }
+    }
+
+    /**
+     * Pops the result of the function call off the stack, if the function returns one.
+     * @param funcSymbol    The function that was called.
+     */
+    private void discardResultOf(FunctionSymbol funcSymbol) {
+        if (funcSymbol.getReturnType() != SymbolType.VOID) {
+            functionGenerationContext.getMv().visitInsn(Opcodes.POP);
         }
     }
 
@@ -92,14 +115,16 @@ public class FunctionCallCodegen extends CodegenDelegatable {
         var booleanPassedParams = ctx.callArgList().booleanCallParams;
         var normalPassedParams = ctx.callArgList().callParams;
 
+        // The types of the arguments were already annotated during static checking, so this is just a lookup
+        ExpressionTypeDetector typeDetector = new ExpressionTypeDetector(symbolTable);
+
         while (argsPushed < totalArgs) {
             switch (argsList.get(argsPushed).getSymbolType()) {
                 case BOOL:
                     // We need to check if the normalPassedParams contains a boolean expr disguised as a normal one
                     // This can happen if it's just a single function call or an identifier with no boolean ops
 
-                    if (normalPassedParams.size() > 0) {
-                        ExpressionTypeDetector typeDetector = new ExpressionTypeDetector(symbolTable);
+                    if (normalParamCounter < normalPassedParams.size()) {
                         var typeDetectionResult = typeDetector.getType(
                                 normalPassedParams.get(normalParamCounter)
                         );
@@ -139,12 +164,49 @@ public class FunctionCallCodegen extends CodegenDelegatable {
                     stringExprCodegen.doCodegen();
                     normalParamCounter++;
                     break;
+
+                case INT_ARRAY:
+                    SamosaParser.ExprContext intArrayExpr = normalPassedParams.get(normalParamCounter);
+                    IntArrayExprCodegen intArrayExprCodegen = new IntArrayExprCodegen(
+                            intArrayExpr, symbolTable, functionGenerationContext, className, packageName
+                    );
+                    intArrayExprCodegen.doCodegen();
+                    normalParamCounter++;
+                    break;
             }
 
             argsPushed++;
         }
     }
 
+    /**
+     * Generates a call of the function to itself that is the last thing it does (return (args) -> itself.)
+     * as a jump to its beginning: the arguments are evaluated and stored into the parameters, and then the
+     * function starts over (so it needs no new stack frame).
+     * @param funcSymbol    The function that is being generated (and is called).
+     * @param ctx           The call (a FunctionCallNoArgsContext or a FunctionCallWithArgsContext).
+     * @param functionStart The label at the beginning of the code of the function.
+     */
+    public void doSelfTailCallCodegen(
+            FunctionSymbol funcSymbol, SamosaParser.FunctionCallContext ctx, Label functionStart
+    ) {
+        if (ctx instanceof SamosaParser.FunctionCallWithArgsContext) {
+            // all the arguments are evaluated before any parameter is changed, as they may use the parameters
+            pushArgumentsToStack(funcSymbol, (SamosaParser.FunctionCallWithArgsContext) ctx);
+
+            ArrayList<ISymbol> paramList = funcSymbol.getParamList();
+            for (int i = paramList.size() - 1; i >= 0; i--) {
+                ISymbol param = paramList.get(i);
+                functionGenerationContext.getMv().visitVarInsn(
+                        FunctionGenerationContext.typeOf(param.getSymbolType()).getOpcode(Opcodes.ISTORE),
+                        functionGenerationContext.getLocalVarIndex(param)
+                );
+            }
+        }
+
+        functionGenerationContext.getMv().visitJumpInsn(Opcodes.GOTO, functionStart);
+    }
+
     private void setBuiltinCodegenParams(Method theBuiltin) {
         if (theBuiltin.isAnnotationPresent(Builtins.Functions.RequiresCodegenParams.class)) {
             if (!theBuiltin.isAnnotationPresent(Builtins.Functions.SamosaBuiltinFuncName.class)) {
@@ -170,9 +232,6 @@ public class FunctionCallCodegen extends CodegenDelegatable {
         String funcName = ctx.IDENTIFIER().getText();
         ISymbol functionSymbol = symbolTable.lookupInCoordinates(funcName, new Pair<>(0, 0));
 
-        var stackSize = functionGenerationContext.getAnalyzerAdapter().stack != null ?
-                functionGenerationContext.getAnalyzerAdapter().stack.size() : 0;
-
         if (functionSymbol == null) {
             // TODO: find in the imported packages
 
@@ -197,6 +256,10 @@ public class FunctionCallCodegen extends CodegenDelegatable {
                 e.printStackTrace();
                 System.exit(-1);
             }
+
+            if (discardResult) {
+                discardResultOf(theFunc.getFirst());
+            }
         }
         else if (functionSymbol instanceof FunctionSymbol) {
             // the function exists in this class
@@ -206,6 +269,8 @@ public class FunctionCallCodegen extends CodegenDelegatable {
             // first push its arguments to the stack
             pushArgumentsToStack(funcSymbol, ctx);
 
+            // the function may use the globals that are cached in local variables here
+            functionGenerationContext.writeBackCachedFields();
             functionGenerationContext.getMv().visitMethodInsn(
                     Opcodes.INVOKESTATIC,
                     functionOwner,
@@ -213,16 +278,10 @@ public class FunctionCallCodegen extends CodegenDelegatable {
                     FunctionGenerationContext.generateDescriptor(funcSymbol),
                     false
             );
-        }
+            functionGenerationContext.reloadCachedFields();
 
-        if (discardResult) {
-            // pop the stack once if it has a result
-            var currentStackSize = functionGenerationContext.getAnalyzerAdapter().stack != null ?
-                    functionGenerationContext.getAnalyzerAdapter().stack.size() : 0;
-            if (currentStackSize - stackSize == 1) {
-                // one result was pushed to stack
-                // need to pop it since we are discarding the result
-                functionGenerationContext.getMv().visitInsn(Opcodes.POP);
+            if (discardResult) {
+                discardResultOf(funcSymbol);
             }
         }
     }
@@ -1,25 +1,43 @@
 package com.sachett.samosa.samosac.codegen.function;
 
 import com.sachett.samosa.samosac.codegen.ClassFileGenerator;
+import com.sachett.samosa.samosac.optimizer.FunctionInliner;
+import com.sachett.samosa.samosac.optimizer.PeepholeOptimizer;
 import com.sachett.samosa.samosac.symbol.FunctionSymbol;
 import com.sachett.samosa.samosac.symbol.ISymbol;
+import com.sachett.samosa.samosac.symbol.SymbolType;
+import kotlin.Pair;
+import org.antlr.v4.runtime.tree.ParseTree;
 import org.apache.bcel.util.ClassPath;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
-import org.objectweb.asm.commons.AnalyzerAdapter;
-import org.objectweb.asm.commons.LocalVariablesSorter;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 
 import com.sachett.samosa.logging.LoggingUtilsKt;
 import org.objectweb.asm.util.TraceClassVisitor;
 
 public class FunctionGenerationContext {
     private final MethodVisitor methodVisitor;
-    private final LocalVariablesSorter localVariablesSorter;
-    private final AnalyzerAdapter analyzerAdapter;
-    private final HashMap<String, Integer> localVariableIndex = new HashMap<>();
+
+    /*
+     * The local variables that are in scope, in the order they were declared in (the innermost scope is at the end),
+     * with their slots. The slots are given out like a stack: when a scope ends (see exitScope()), its variables
+     * are dropped and their slots are used again for the variables declared after it.
+     */
+    private ISymbol[] localSymbols = new ISymbol[16];
+    private int[] localSlots = new int[16];
+    private int numLocals = 0;
+    private final int argumentsSize;
+    private int nextFreeSlot;
+
+    /* The values of numLocals and nextFreeSlot when each of the enclosing scopes was entered */
+    private int[] scopeStarts = new int[16];
+    private int numScopes = 0;
     private ClassFileGenerator parentClassGenerator = null;
 
     /**
@@ -33,12 +51,20 @@ public class FunctionGenerationContext {
             int access, String name, String descriptor,
             String signature, String[] exceptions
     ) {
-        this.methodVisitor = classWriter.visitMethod(access, name, descriptor, signature, exceptions);
-        analyzerAdapter = new AnalyzerAdapter(
-                FunctionGenerationContext.class.getName(),
-                access, name, descriptor, this.methodVisitor
+        // the code gets the small functions it calls inlined, goes through the peephole optimizer
+        // and then gets its stack map frames before reaching the class writer
+        this.methodVisitor = new FunctionInliner(
+                access, name, descriptor, signature, exceptions, this,
+                new PeepholeOptimizer(
+                        access, name, descriptor, signature, exceptions,
+                        new StackMapFrameEmitter(
+                                access, name, descriptor, signature, exceptions,
+                                classWriter.visitMethod(access, name, descriptor, signature, exceptions)
+                        )
+                )
         );
-        localVariablesSorter = new LocalVariablesSorter(access, descriptor, analyzerAdapter);
+        argumentsSize = getArgumentsSize(access, descriptor);
+        nextFreeSlot = argumentsSize;
     }
 
     public FunctionGenerationContext(
@@ -46,12 +72,20 @@ public class FunctionGenerationContext {
             int access, String name, String descriptor,
             String signature, String[] exceptions
     ) {
-        this.methodVisitor = classWriter.visitMethod(access, name, descriptor, signature, exceptions);
-        analyzerAdapter = new AnalyzerAdapter(
-                FunctionGenerationContext.class.getName(),
-                access, name, descriptor, this.methodVisitor
+        // the code gets the small functions it calls inlined, goes through the peephole optimizer
+        // and then gets its stack map frames before reaching the class writer
+        this.methodVisitor = new FunctionInliner(
+                access, name, descriptor, signature, exceptions, this,
+                new PeepholeOptimizer(
+                        access, name, descriptor, signature, exceptions,
+                        new StackMapFrameEmitter(
+                                access, name, descriptor, signature, exceptions,
+                                classWriter.visitMethod(access, name, descriptor, signature, exceptions)
+                        )
+                )
         );
-        localVariablesSorter = new LocalVariablesSorter(access, descriptor, this.methodVisitor);
+        argumentsSize = getArgumentsSize(access, descriptor);
+        nextFreeSlot = argumentsSize;
     }
 
     public MethodVisitor getMethodVisitor() {
@@ -59,58 +93,321 @@ public class FunctionGenerationContext {
     }
 
     public MethodVisitor getMv() {
-        return analyzerAdapter;
-    }
-
-    public AnalyzerAdapter getAnalyzerAdapter() {
-        return analyzerAdapter;
+        return methodVisitor;
     }
 
     public void setParentClassGenerator(ClassFileGenerator classFileGenerator) {
         this.parentClassGenerator = classFileGenerator;
     }
 
+    public boolean isMainFunction() {
+        return parentClassGenerator != null && parentClassGenerator.getMainFunctionGenerationContext() == this;
+    }
+
     public ClassFileGenerator getParentClassGenerator() {
         return this.parentClassGenerator;
     }
 
-    public static class FrameStackMap {
-        public int numLocals;
-        public Object[] locals;
-        public int numStack;
-        public Object[] stack;
+    private static int getArgumentsSize(int access, String descriptor) {
+        int argumentsSize = Type.getArgumentsAndReturnSizes(descriptor) >> 2;
+        if ((access & Opcodes.ACC_STATIC) != 0) {
+            // there is no "this" argument
+            argumentsSize--;
+        }
+        return argumentsSize;
+    }
+
+    /**
+     * Gives the variable a new local variable slot (the first one not used by the variables in scope).
+     */
+    public void newLocal(ISymbol symbol, Type type) {
+        registerLocal(symbol, nextFreeSlot);
+        nextFreeSlot += type.getSize();
+    }
 
-        public FrameStackMap(int numLocals, Object[] locals, int numStack, Object[] stack) {
-            this.numLocals = numLocals;
-            this.locals = locals;
-            this.numStack = numStack;
-            this.stack = stack;
+    /**
+     * Returns a new local variable slot for a value that the codegen keeps for a while (not a variable of the
+     * program). The slot is free again when the current scope ends.
+     */
+    public int newTempLocal(Type type) {
+        int index = nextFreeSlot;
+        registerLocal(null, index);
+        nextFreeSlot += type.getSize();
+        return index;
+    }
+
+    /**
+     * Makes the variable use the given local variable slot (like that of an argument).
+     */
+    public void registerLocal(ISymbol symbol, int index) {
+        if (numLocals == localSymbols.length) {
+            localSymbols = Arrays.copyOf(localSymbols, numLocals * 2);
+            localSlots = Arrays.copyOf(localSlots, numLocals * 2);
         }
+
+        localSymbols[numLocals] = symbol;
+        localSlots[numLocals] = index;
+        numLocals++;
+    }
+
+    public void unregisterLocal(ISymbol symbol) {
+        int localIndex = findLocal(symbol);
+        if (localIndex < 0) {
+            return;
+        }
+
+        if (localIndex == numLocals - 1 && localSlots[localIndex] >= getCurrentScopeStartSlot()) {
+            // it is the last one, so its slot is free again
+            nextFreeSlot = localSlots[localIndex];
+        }
+
+        System.arraycopy(localSymbols, localIndex + 1, localSymbols, localIndex, numLocals - localIndex - 1);
+        System.arraycopy(localSlots, localIndex + 1, localSlots, localIndex, numLocals - localIndex - 1);
+        localSymbols[--numLocals] = null;
     }
 
     /**
-     * Should be used before a visitJump or visitLabel call to retrieve status of current stack and locals.
-     * @return  Locals and stack of current frame
+     * Starts a new scope (a block): the variables declared from now on are dropped when it ends.
      */
-    public FrameStackMap getCurrentFrameStackInfo() {
-        var localsSize = analyzerAdapter.locals == null ? 0 : analyzerAdapter.locals.size();
-        var locals = analyzerAdapter.locals == null ? null : analyzerAdapter.locals.toArray();
-        var stackSize = analyzerAdapter.stack == null ? 0 : analyzerAdapter.stack.size();
-        var stack = analyzerAdapter.stack == null ? null : analyzerAdapter.stack.toArray();
+    public void enterScope() {
+        if (2 * numScopes + 2 > scopeStarts.length) {
+            scopeStarts = Arrays.copyOf(scopeStarts, scopeStarts.length * 2);
+        }
 
-        return new FrameStackMap(localsSize, locals, stackSize, stack);
+        scopeStarts[2 * numScopes] = numLocals;
+        scopeStarts[2 * numScopes + 1] = nextFreeSlot;
+        numScopes++;
     }
 
-    public LocalVariablesSorter getLocalVariablesSorter() {
-        return localVariablesSorter;
+    /**
+     * Ends the current scope, freeing the slots of its variables.
+     */
+    public void exitScope() {
+        if (numScopes == 0) {
+            LoggingUtilsKt.err("Internal error: No scope to exit.");
+        }
+
+        numScopes--;
+        int scopeNumLocals = scopeStarts[2 * numScopes];
+        Arrays.fill(localSymbols, scopeNumLocals, numLocals, null);
+        numLocals = scopeNumLocals;
+        nextFreeSlot = scopeStarts[2 * numScopes + 1];
+    }
+
+    private int getCurrentScopeStartSlot() {
+        return numScopes == 0 ? argumentsSize : scopeStarts[2 * numScopes - 1];
+    }
+
+    /**
+     * Returns the index of the variable in localSymbols (searching from the innermost scope), or -1.
+     */
+    private int findLocal(ISymbol symbol) {
+        for (int i = numLocals - 1; i >= 0; i--) {
+            if (localSymbols[i] == symbol) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks if the variable is stored in a local variable of this function
+     * (otherwise, it is a static field of the class).
+     */
+    public boolean hasLocal(ISymbol symbol) {
+        return findLocal(symbol) >= 0;
+    }
+
+    /**
+     * A static field whose value is kept in a local variable of this function for a while (see CodegenCommons).
+     */
+    private static class CachedField {
+        final ISymbol symbol;
+        final String owner;
+        final String fieldName;
+        final Type type;
+        final int localVarIndex;
+        final boolean isWritten;
+
+        CachedField(ISymbol symbol, String owner, String fieldName, Type type, int localVarIndex, boolean isWritten) {
+            this.symbol = symbol;
+            this.owner = owner;
+            this.fieldName = fieldName;
+            this.type = type;
+            this.localVarIndex = localVarIndex;
+            this.isWritten = isWritten;
+        }
     }
 
-    public void newLocal(String name, Type type) {
-        localVariableIndex.put(name, localVariablesSorter.newLocal(type));
+    private final ArrayList<CachedField> cachedFields = new ArrayList<>();
+
+    /**
+     * Loads the static field into a new local variable, which the variable is accessed through from now on, until uncacheField() is called.
+     * @param isWritten Whether the variable is assigned to while it is cached
+     *                  (if not, the field does not need to be updated with the value of the local variable).
+     */
+    public void cacheField(ISymbol symbol, String owner, String fieldName, Type type, boolean isWritten) {
+        newLocal(symbol, type);
+        int localVarIndex = getLocalVarIndex(symbol);
+        methodVisitor.visitFieldInsn(Opcodes.GETSTATIC, owner, fieldName, type.getDescriptor());
+        methodVisitor.visitVarInsn(type.getOpcode(Opcodes.ISTORE), localVarIndex);
+        cachedFields.add(new CachedField(symbol, owner, fieldName, type, localVarIndex, isWritten));
     }
 
-    public void registerLocal(String name, int index) {
-        localVariableIndex.put(name, index);
+    /**
+     * Stores the value of the local variable back into the field, and accesses the variable through the field again.
+     */
+    public void uncacheField(ISymbol symbol, String fieldName) {
+        for (CachedField cachedField : cachedFields) {
+            if (cachedField.fieldName.equals(fieldName)) {
+                if (cachedField.isWritten) {
+                    writeBackField(cachedField);
+                }
+                cachedFields.remove(cachedField);
+                break;
+            }
+        }
+        unregisterLocal(symbol);
+    }
+
+    private void writeBackField(CachedField cachedField) {
+        methodVisitor.visitVarInsn(cachedField.type.getOpcode(Opcodes.ILOAD), cachedField.localVarIndex);
+        methodVisitor.visitFieldInsn(
+                Opcodes.PUTSTATIC, cachedField.owner, cachedField.fieldName, cachedField.type.getDescriptor()
+        );
+    }
+
+    /**
+     * Stores the values of the cached fields back into them (before calling a function, which may use them).
+     */
+    public void writeBackCachedFields() {
+        for (CachedField cachedField : cachedFields) {
+            if (cachedField.isWritten) {
+                writeBackField(cachedField);
+            }
+        }
+    }
+
+    /**
+     * Loads the cached fields into their local variables again (after calling a function, which may change them).
+     */
+    public void reloadCachedFields() {
+        for (CachedField cachedField : cachedFields) {
+            methodVisitor.visitFieldInsn(
+                    Opcodes.GETSTATIC, cachedField.owner, cachedField.fieldName, cachedField.type.getDescriptor()
+            );
+            methodVisitor.visitVarInsn(cachedField.type.getOpcode(Opcodes.ISTORE), cachedField.localVarIndex);
+        }
+    }
+
+    /**
+     * Checks if the value of the variable is kept in a static field (even if it is cached in a local variable
+     * for now), which the functions that are called may change.
+     */
+    public boolean isStoredInField(ISymbol symbol) {
+        if (!hasLocal(symbol)) {
+            return true;
+        }
+
+        for (CachedField cachedField : cachedFields) {
+            if (cachedField.symbol == symbol) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* The loop-invariant expressions whose values are computed before the loop, with their local variables */
+    private final IdentityHashMap<ParseTree, Pair<Integer, Type>> hoistedExprs = new IdentityHashMap<>();
+
+    /**
+     * Stores the value on top of the stack (that of the expression) into a new local variable, which the expression
+     * is loaded from when it is generated from now on, until unhoistExpr() is called (see WhileStmtCodegen).
+     */
+    public void hoistExpr(ParseTree expr, Type type) {
+        int localVarIndex = newTempLocal(type);
+        methodVisitor.visitVarInsn(type.getOpcode(Opcodes.ISTORE), localVarIndex);
+        hoistedExprs.put(expr, new Pair<>(localVarIndex, type));
+    }
+
+    public void unhoistExpr(ParseTree expr) {
+        hoistedExprs.remove(expr);
+    }
+
+    public boolean isHoisted(ParseTree expr) {
+        return hoistedExprs.containsKey(expr);
+    }
+
+    /**
+     * Generates the code to load the value of the expression if it has been hoisted out of a loop.
+     * @return Whether the expression has been hoisted (and its value loaded).
+     */
+    public boolean loadHoistedExpr(ParseTree expr) {
+        Pair<Integer, Type> hoistedExpr = hoistedExprs.get(expr);
+        if (hoistedExpr == null) {
+            return false;
+        }
+
+        methodVisitor.visitVarInsn(hoistedExpr.getSecond().getOpcode(Opcodes.ILOAD), hoistedExpr.getFirst());
+        return true;
+    }
+
+    /**
+     * Generates the code to load the value of a variable: from its local variable if it has one in this function,
+     * from its static field otherwise.
+     * @param symbol    The variable.
+     * @param isGlobal  Whether the variable is declared in the global scope
+     *                  (its field has the plain name of the variable then, not the augmented one).
+     * @param owner     The class the static fields are in.
+     */
+    public void loadVariable(ISymbol symbol, boolean isGlobal, String owner) {
+        Type type = typeOf(symbol.getSymbolType());
+        if (hasLocal(symbol)) {
+            methodVisitor.visitVarInsn(type.getOpcode(Opcodes.ILOAD), getLocalVarIndex(symbol));
+        } else {
+            methodVisitor.visitFieldInsn(Opcodes.GETSTATIC, owner, getFieldName(symbol, isGlobal), type.getDescriptor());
+        }
+    }
+
+    /**
+     * Generates the code to store the value on top of the stack into a variable (see loadVariable()).
+     */
+    public void storeVariable(ISymbol symbol, boolean isGlobal, String owner) {
+        Type type = typeOf(symbol.getSymbolType());
+        if (hasLocal(symbol)) {
+            methodVisitor.visitVarInsn(type.getOpcode(Opcodes.ISTORE), getLocalVarIndex(symbol));
+        } else {
+            methodVisitor.visitFieldInsn(Opcodes.PUTSTATIC, owner, getFieldName(symbol, isGlobal), type.getDescriptor());
+        }
+    }
+
+    private String getFieldName(ISymbol symbol, boolean isGlobal) {
+        // globals are stored in fields with their plain names, the variables in the blocks of main
+        // in fields with their augmented names
+        if (isGlobal) {
+            return symbol.getName();
+        }
+
+        if (parentClassGenerator == null
+                || !parentClassGenerator.getStaticVarsAugmentedNames().containsKey(symbol.getAugmentedName())) {
+            LoggingUtilsKt.err("Internal error: Invalid local variable demanded.");
+        }
+        return symbol.getAugmentedName();
+    }
+
+    static public Type typeOf(SymbolType symbolType) {
+        switch (symbolType) {
+            case INT:
+                return Type.INT_TYPE;
+            case BOOL:
+                return Type.BOOLEAN_TYPE;
+            case STRING:
+                return Type.getType(String.class);
+            case INT_ARRAY:
+                return Type.getType(int[].class);
+            default:
+                return Type.VOID_TYPE;
+        }
     }
 
     static public String generateDescriptor(FunctionSymbol functionSymbol) {
@@ -127,6 +424,9 @@ public class FunctionGenerationContext {
                 case BOOL:
                     descriptorString.append("Z");
                     break;
+                case INT_ARRAY:
+                    descriptorString.append("[I");
+                    break;
             }
         }
         descriptorString.append(")");
@@ -140,6 +440,9 @@ public class FunctionGenerationContext {
             case BOOL:
                 descriptorString.append("Z");
                 break;
+            case INT_ARRAY:
+                descriptorString.append("[I");
+                break;
             case VOID:
                 descriptorString.append("V");
                 break;
@@ -148,14 +451,14 @@ public class FunctionGenerationContext {
         return descriptorString.toString();
     }
 
-    public Integer getLocalVarIndex(String name) {
-        if (localVariableIndex.containsKey(name)) {
-            return localVariableIndex.get(name);
-        }
-        else {
+    public int getLocalVarIndex(ISymbol symbol) {
+        int localIndex = findLocal(symbol);
+        if (localIndex < 0) {
             LoggingUtilsKt.err("Internal error: Invalid local variable demanded.");
             throw new RuntimeException();
         }
+
+        return localSlots[localIndex];
     }
 
     public void setNeedsNoExprReturn(boolean needsNoExprReturn) {
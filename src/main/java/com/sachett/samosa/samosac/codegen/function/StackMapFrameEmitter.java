@@ -0,0 +1,219 @@
+package com.sachett.samosa.samosac.codegen.function;
+
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.*;
+import org.objectweb.asm.tree.analysis.Analyzer;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
+import org.objectweb.asm.tree.analysis.BasicInterpreter;
+import org.objectweb.asm.tree.analysis.BasicValue;
+import org.objectweb.asm.tree.analysis.Frame;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import com.sachett.samosa.logging.LoggingUtilsKt;
+
+/**
+ * Buffers the code of a method and inserts its stack map frames, before passing it on to the class writer
+ * (which then only has to compute the max stack size and the max number of locals, see ClassWriter.COMPUTE_MAXS).
+ *
+ * A frame is inserted at each instruction that is the target of a jump. The types in the frames are found with
+ * a single data-flow analysis of the method, which (unlike ClassWriter.COMPUTE_FRAMES) never needs to load
+ * any class to merge two types: a local variable or stack slot that has different types on the paths meeting at
+ * an instruction is just marked as unusable (TOP) there. This works because the codegen:
+ * - never leaves values of different types in the same stack slot on paths that meet,
+ * - never jumps between a NEW and the call to the constructor (so no uninitialized objects are in the frames),
+ * - never leaves unreachable code behind (the peephole optimizer removes it before this runs).
+ */
+public class StackMapFrameEmitter extends MethodNode {
+    private final MethodVisitor nextMethodVisitor;
+
+    /* The max stack size to start the analysis with; it is doubled until it is enough. */
+    private static final int INITIAL_MAX_STACK = 16;
+
+    public StackMapFrameEmitter(
+            int access, String name, String descriptor,
+            String signature, String[] exceptions,
+            MethodVisitor nextMethodVisitor
+    ) {
+        super(Opcodes.ASM9, access, name, descriptor, signature, exceptions);
+        this.nextMethodVisitor = nextMethodVisitor;
+    }
+
+    @Override
+    public void visitEnd() {
+        super.visitEnd();
+        insertFrames();
+        accept(nextMethodVisitor);
+    }
+
+    /**
+     * Interprets the values with their exact types, so that the frames can be built from them.
+     * Two different types merge into an unusable value.
+     */
+    private static class TypedInterpreter extends BasicInterpreter {
+        TypedInterpreter() {
+            super(Opcodes.ASM9);
+        }
+
+        @Override
+        public BasicValue newValue(Type type) {
+            if (type != null && (type.getSort() == Type.OBJECT || type.getSort() == Type.ARRAY)) {
+                return new BasicValue(type);
+            }
+
+            return super.newValue(type);
+        }
+    }
+
+    private void insertFrames() {
+        // the instructions at which frames are needed
+        LinkedHashSet<AbstractInsnNode> frameInsns = new LinkedHashSet<>();
+        for (AbstractInsnNode insn : instructions) {
+            if (insn instanceof JumpInsnNode) {
+                addFrameInsn(frameInsns, ((JumpInsnNode) insn).label);
+            } else if (insn instanceof TableSwitchInsnNode) {
+                addFrameInsn(frameInsns, ((TableSwitchInsnNode) insn).dflt);
+                ((TableSwitchInsnNode) insn).labels.forEach(label -> addFrameInsn(frameInsns, label));
+            } else if (insn instanceof LookupSwitchInsnNode) {
+                addFrameInsn(frameInsns, ((LookupSwitchInsnNode) insn).dflt);
+                ((LookupSwitchInsnNode) insn).labels.forEach(label -> addFrameInsn(frameInsns, label));
+            }
+        }
+        tryCatchBlocks.forEach(tryCatchBlock -> addFrameInsn(frameInsns, tryCatchBlock.handler));
+
+        if (frameInsns.isEmpty()) {
+            return;
+        }
+
+        Frame<BasicValue>[] frames = analyze();
+        if (frames == null) {
+            return;
+        }
+
+        // the frames are all made before inserting any, as inserting them changes the indices of the instructions
+        List<FrameNode> frameNodes = new ArrayList<>();
+        for (AbstractInsnNode insn : frameInsns) {
+            Frame<BasicValue> frame = frames[instructions.indexOf(insn)];
+            frameNodes.add(frame == null ? null : makeFrameNode(frame));
+        }
+
+        int frameIndex = 0;
+        for (AbstractInsnNode insn : frameInsns) {
+            FrameNode frameNode = frameNodes.get(frameIndex++);
+            if (frameNode != null) {
+                instructions.insertBefore(insn, frameNode);
+            }
+        }
+    }
+
+    /**
+     * Adds the first instruction after the label (which is where the frame for the label goes).
+     */
+    private void addFrameInsn(LinkedHashSet<AbstractInsnNode> frameInsns, LabelNode label) {
+        AbstractInsnNode insn = label;
+        while (insn != null && insn.getOpcode() < 0) {
+            insn = insn.getNext();
+        }
+
+        if (insn != null) {
+            frameInsns.add(insn);
+        }
+    }
+
+    private Frame<BasicValue>[] analyze() {
+        maxLocals = computeMaxLocals();
+        maxStack = INITIAL_MAX_STACK;
+
+        while (true) {
+            try {
+                return new Analyzer<>(new TypedInterpreter()).analyze("", this);
+            } catch (AnalyzerException e) {
+                if (!(e.getCause() instanceof IndexOutOfBoundsException) || maxStack > instructions.size() * 2) {
+                    LoggingUtilsKt.err("Internal error: Cannot compute the stack map frames for " + name + ": " + e);
+                    return null;
+                }
+
+                // the stack got deeper than assumed
+                maxStack *= 2;
+            }
+        }
+    }
+
+    private int computeMaxLocals() {
+        int numLocals = Type.getArgumentsAndReturnSizes(desc) >> 2;
+        if ((access & Opcodes.ACC_STATIC) != 0) {
+            // there is no "this" argument
+            numLocals--;
+        }
+
+        for (AbstractInsnNode insn : instructions) {
+            if (insn instanceof VarInsnNode) {
+                int var = ((VarInsnNode) insn).var;
+                int size = (insn.getOpcode() == Opcodes.LLOAD || insn.getOpcode() == Opcodes.DLOAD
+                        || insn.getOpcode() == Opcodes.LSTORE || insn.getOpcode() == Opcodes.DSTORE) ? 2 : 1;
+                numLocals = Math.max(numLocals, var + size);
+            } else if (insn instanceof IincInsnNode) {
+                numLocals = Math.max(numLocals, ((IincInsnNode) insn).var + 1);
+            }
+        }
+
+        return numLocals;
+    }
+
+    private FrameNode makeFrameNode(Frame<BasicValue> frame) {
+        List<Object> locals = new ArrayList<>();
+        int lastUsableLocal = -1;
+        for (int i = 0; i < frame.getLocals(); i++) {
+            BasicValue value = frame.getLocal(i);
+            locals.add(toFrameType(value));
+            if (locals.get(locals.size() - 1) != Opcodes.TOP) {
+                lastUsableLocal = locals.size() - 1;
+            }
+
+            if (value.getSize() == 2) {
+                // a long or a double takes up one entry in the frame, but two local variable slots
+                i++;
+            }
+        }
+
+        // the unusable locals at the end need not be listed
+        locals = locals.subList(0, lastUsableLocal + 1);
+
+        List<Object> stack = new ArrayList<>();
+        for (int i = 0; i < frame.getStackSize(); i++) {
+            stack.add(toFrameType(frame.getStack(i)));
+        }
+
+        return new FrameNode(Opcodes.F_NEW, locals.size(), locals.toArray(), stack.size(), stack.toArray());
+    }
+
+    private static Object toFrameType(BasicValue value) {
+        if (value == null || value.getType() == null) {
+            return Opcodes.TOP;
+        }
+
+        switch (value.getType().getSort()) {
+            case Type.BOOLEAN:
+            case Type.CHAR:
+            case Type.BYTE:
+            case Type.SHORT:
+            case Type.INT:
+                return Opcodes.INTEGER;
+            case Type.FLOAT:
+                return Opcodes.FLOAT;
+            case Type.LONG:
+                return Opcodes.LONG;
+            case Type.DOUBLE:
+                return Opcodes.DOUBLE;
+            case Type.OBJECT:
+            case Type.ARRAY:
+                return value.getType().getInternalName();
+            default:
+                return Opcodes.TOP;
+        }
+    }
+}
@@ -2,6 +2,6 @@ package com.sachett.samosa.samosac.codegen.utils.delegation;
 
 public enum CodegenDelegatedMethod {
     NORMAL_DECLASSIGN, BOOLEAN_DECLASSIGN, DECL, TYPEINF_DECLASSIGN, TYPEINF_BOOLEAN_DECLASSIGN,
-    EXPR_ASSIGN, BOOLEAN_EXPR_ASSIGN, BLOCK, FUNCTIONCALL_NOARGS, FUNCTIONCALL_WITHARGS,
-    WHILE, BREAK, CONTINUE, IF, RETURN_BOOL, RETURN_WITHEXPR, RETURN_NOEXPR, IMPLICIT_RET_FUNCDEF, EXPLICIT_RET_FUNCDEF
+    EXPR_ASSIGN, BOOLEAN_EXPR_ASSIGN, ARRAY_ELEMENT_ASSIGN, BLOCK, FUNCTIONCALL_NOARGS, FUNCTIONCALL_WITHARGS,
+    WHILE, FOR, BREAK, CONTINUE, IF, RETURN_BOOL, RETURN_WITHEXPR, RETURN_NOEXPR, IMPLICIT_RET_FUNCDEF, EXPLICIT_RET_FUNCDEF
 }
@@ -15,6 +15,7 @@ public class CodegenMethodMap {
             entry(SamosaParser.TypeInferredDeclAssignStmtContext.class, CodegenDelegatedMethod.TYPEINF_DECLASSIGN),
             entry(SamosaParser.TypeInferredBooleanDeclAssignStmtContext.class, CodegenDelegatedMethod.TYPEINF_BOOLEAN_DECLASSIGN),
             entry(SamosaParser.WhileStmtContext.class, CodegenDelegatedMethod.WHILE),
+            entry(SamosaParser.ForStmtContext.class, CodegenDelegatedMethod.FOR),
             entry(SamosaParser.BreakControlStmtContext.class, CodegenDelegatedMethod.BREAK),
             entry(SamosaParser.ContinueControlStmtContext.class, CodegenDelegatedMethod.CONTINUE),
             entry(SamosaParser.IfStmtContext.class, CodegenDelegatedMethod.IF),
@@ -25,6 +26,7 @@ public class CodegenMethodMap {
             entry(SamosaParser.ExplicitRetTypeFuncDefContext.class, CodegenDelegatedMethod.EXPLICIT_RET_FUNCDEF),
             entry(SamosaParser.ExprAssignContext.class, CodegenDelegatedMethod.EXPR_ASSIGN),
             entry(SamosaParser.BooleanExprAssignContext.class, CodegenDelegatedMethod.BOOLEAN_EXPR_ASSIGN),
+            entry(SamosaParser.ArrayElementAssignContext.class, CodegenDelegatedMethod.ARRAY_ELEMENT_ASSIGN),
             entry(SamosaParser.BlockContext.class, CodegenDelegatedMethod.BLOCK),
             entry(SamosaParser.FunctionCallNoArgsContext.class, CodegenDelegatedMethod.FUNCTIONCALL_NOARGS),
             entry(SamosaParser.FunctionCallWithArgsContext.class, CodegenDelegatedMethod.FUNCTIONCALL_WITHARGS)
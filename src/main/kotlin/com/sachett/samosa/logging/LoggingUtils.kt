@@ -6,30 +6,103 @@ enum class Severity {
     WARNING, ERROR, FATAL
 }
 
+/**
+ * The diagnostics (errors and warnings) reported by some work while they were being collected
+ * instead of printed right away (see collectDiagnostics()).
+ */
+class Diagnostics {
+    private val messages: ArrayList<Pair<Boolean, String>> = arrayListOf()
+
+    /**
+     * Whether a fatal error stopped the work.
+     */
+    var hasFatalError = false
+        internal set
+
+    internal fun add(message: String, isError: Boolean) {
+        messages.add(Pair(isError, message))
+    }
+
+    /**
+     * Prints the diagnostics in the order they were reported in.
+     */
+    fun print() {
+        for ((isError, message) in messages) {
+            if (isError) System.err.println(message) else println(message)
+        }
+    }
+}
+
+/**
+ * Thrown instead of exiting on a fatal error while the diagnostics are being collected, to stop the work.
+ */
+private class FatalErrorException : RuntimeException()
+
+private val collectedDiagnostics = ThreadLocal<Diagnostics?>()
+
+/**
+ * Runs the work with the diagnostics reported on this thread collected instead of printed.
+ * A fatal error stops the work (instead of the process), so that work done in parallel can have
+ * its diagnostics printed in a fixed order afterwards.
+ */
+fun collectDiagnostics(work: () -> Unit): Diagnostics {
+    val diagnostics = Diagnostics()
+    val enclosingDiagnostics = collectedDiagnostics.get()
+    collectedDiagnostics.set(diagnostics)
+    try {
+        work()
+    } catch (e: FatalErrorException) {
+        // the fatal error has been collected already
+    } finally {
+        collectedDiagnostics.set(enclosingDiagnostics)
+    }
+    return diagnostics
+}
+
+private fun report(message: String, isError: Boolean) {
+    val diagnostics = collectedDiagnostics.get()
+    if (diagnostics != null) {
+        diagnostics.add(message, isError)
+    } else if (isError) {
+        System.err.println(message)
+    } else {
+        println(message)
+    }
+}
+
+private fun fatal(): Nothing {
+    val diagnostics = collectedDiagnostics.get()
+    if (diagnostics != null) {
+        diagnostics.hasFatalError = true
+        throw FatalErrorException()
+    }
+    exitProcess(-1)
+}
+
 /**
  * Fatal error.
  */
 fun err(message: String): Nothing {
-    System.err.println(message)
-    exitProcess(-1)
+    report(message, isError = true)
+    fatal()
 }
 
 fun fmtfatalerr(message: String, lineNumber: Int): Nothing {
-    System.err.println("[Error, Line $lineNumber] $message")
-    exitProcess(-1)
+    report("[Error, Line $lineNumber] $message", isError = true)
+    fatal()
 }
 
 fun fmterror(message: String, lineNumber: Int, severity: Severity = Severity.FATAL) {
     when (severity) {
         Severity.WARNING -> {
-            println("[Warning, Line ${lineNumber}] $message")
+            report("[Warning, Line ${lineNumber}] $message", isError = false)
         }
         Severity.ERROR -> {
-            System.err.println("[Error, Line ${lineNumber}] $message")
+            report("[Error, Line ${lineNumber}] $message", isError = true)
         }
         Severity.FATAL -> {
-            System.err.println("[Error, Line ${lineNumber}] $message")
-            exitProcess(-1)
+            report("[Error, Line ${lineNumber}] $message", isError = true)
+            fatal()
         }
     }
-}
\ No newline at end of file
+}
@@ -4,7 +4,12 @@ import com.sachett.samosa.logging.err
 import com.sachett.samosa.parser.SamosaLexer
 import com.sachett.samosa.parser.SamosaParser
 import com.sachett.samosa.samosac.codegen.ClassFileGenerator
+import com.sachett.samosa.samosac.codegen.RuntimeSupportWriter
+import com.sachett.samosa.samosac.codegen.TargetRelease
+import com.sachett.samosa.samosac.optimizer.ConstantPropagator
+import com.sachett.samosa.samosac.optimizer.DeadCodeEliminator
 import com.sachett.samosa.samosac.staticchecker.StaticTypesChecker
+import com.sachett.samosa.samosac.staticchecker.evaluators.FunctionCallEvaluator
 import com.sachett.samosa.samosac.symbol.symboltable.SymbolTable
 import org.antlr.v4.runtime.CharStreams
 import org.antlr.v4.runtime.CommonTokenStream
@@ -18,20 +23,36 @@ fun main(args: Array<String>) {
     }
 
     var outputDir = File("./out")
-    for (arg in args) {
-        if (arg.startsWith("-o")) {
-            outputDir = File(arg.substring(2))
+    var targetRelease = TargetRelease.DEFAULT
+    var randomSeed: Long? = null
+    val inputFiles = arrayListOf<String>()
+    var argIndex = 0
+    while (argIndex < args.size) {
+        val arg = args[argIndex]
+        when {
+            // --target=<release> or --target <release>
+            arg.startsWith("--target") -> {
+                val release = if (arg.startsWith("--target=")) arg.substringAfter("=") else args.getOrNull(++argIndex)
+                targetRelease = release?.toIntOrNull()?.let { TargetRelease.of(it) }
+                    ?: err("samosac: Invalid target release: $release (supported: " +
+                            TargetRelease.values().joinToString { it.release.toString() } + ")")
+            }
+            // --seed=<seed> or --seed <seed>, for the random numbers of probable statements
+            arg.startsWith("--seed") -> {
+                val seed = if (arg.startsWith("--seed=")) arg.substringAfter("=") else args.getOrNull(++argIndex)
+                randomSeed = seed?.toLongOrNull() ?: err("samosac: Invalid seed: $seed")
+            }
+            arg.startsWith("-o") -> outputDir = File(arg.substring(2))
+            !arg.startsWith("-") -> inputFiles.add(arg)
         }
+        argIndex++
     }
 
     // parallel generation of class files
     runBlocking {
-        repeat (args.size) {
-            if (args[it].startsWith("-")) {
-                return@repeat
-            }
+        for (inputFile in inputFiles) {
             launch {
-                val inputStream = CharStreams.fromFileName(args[0])
+                val inputStream = CharStreams.fromFileName(inputFile)
                 val samosaGrammarLexer = SamosaLexer(inputStream)
                 val commonTokenStream = CommonTokenStream(samosaGrammarLexer)
                 val samosaParser = SamosaParser(commonTokenStream)
@@ -44,17 +65,31 @@ fun main(args: Array<String>) {
                 val staticTypesChecker = StaticTypesChecker(symbolTable)
                 staticTypesChecker.visit(programContext)
 
+                // the calls to the pure functions can be folded from now on
+                symbolTable.functionCallEvaluator = FunctionCallEvaluator(programContext, symbolTable)
+
+                println("Propagating constants...")
+                val constantPropagator = ConstantPropagator(symbolTable)
+                constantPropagator.propagateConstants(programContext)
+
+                println("Eliminating dead code...")
+                val deadCodeEliminator = DeadCodeEliminator(symbolTable)
+                deadCodeEliminator.eliminateDeadCode(programContext)
+
                 println("Beginning class file generation")
 
-                val sourceFile = File(args[it])
+                val sourceFile = File(inputFile)
                 if (!sourceFile.exists()) {
                     err("samosac: Input source file not found, quitting.")
                 }
 
-                val classFileGenerator = ClassFileGenerator(programContext, sourceFile, outputDir, symbolTable)
+                val classFileGenerator = ClassFileGenerator(programContext, sourceFile, outputDir, symbolTable, targetRelease, randomSeed)
                 classFileGenerator.generateClass()
                 classFileGenerator.writeClass()
             }
         }
     }
+
+    // the generated classes need the runtime support classes alongside them
+    RuntimeSupportWriter.writeRuntimeClasses(outputDir, targetRelease)
 }
\ No newline at end of file
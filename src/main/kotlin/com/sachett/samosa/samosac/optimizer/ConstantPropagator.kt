@@ -0,0 +1,134 @@
+package com.sachett.samosa.samosac.optimizer
+
+import com.sachett.samosa.parser.SamosaBaseListener
+import com.sachett.samosa.parser.SamosaParser
+import com.sachett.samosa.samosac.staticchecker.evaluators.BoolExpressionEvaluator
+import com.sachett.samosa.samosac.staticchecker.evaluators.IntExpressionEvaluator
+import com.sachett.samosa.samosac.staticchecker.evaluators.StringExpressionEvaluator
+import com.sachett.samosa.samosac.symbol.BoolSymbol
+import com.sachett.samosa.samosac.symbol.ISymbol
+import com.sachett.samosa.samosac.symbol.IntSymbol
+import com.sachett.samosa.samosac.symbol.StringSymbol
+import com.sachett.samosa.samosac.symbol.symboltable.SymbolTable
+import org.antlr.v4.runtime.ParserRuleContext
+import org.antlr.v4.runtime.tree.ParseTree
+import org.antlr.v4.runtime.tree.ParseTreeWalker
+
+/**
+ * Propagates constants through the declarations of the program.
+ *
+ * The static checker only calculates the initial values of symbols whose initializers are made of literals.
+ * Once the checking is over, it is known which symbols are never reassigned; the initializers of such symbols
+ * are folded again here, this time replacing the identifiers of other constants with their values.
+ * The declarations are walked in the order they appear in, so a constant is always calculated before
+ * it is used in the initializer of another one.
+ *
+ * Once all the constants are known, every expression of the program is folded, once for each tree
+ * (the folders record the values of all the constant sub-expressions on the way, see SymbolTable.foldedValues).
+ *
+ * The codegen then emits the calculated values instead of the initializer expressions (and the identifiers),
+ * and looks up the folded values instead of generating code for the constant expressions.
+ */
+class ConstantPropagator(private val symbolTable: SymbolTable) : SamosaBaseListener() {
+
+    fun propagateConstants(programContext: SamosaParser.ProgramContext) {
+        ParseTreeWalker.DEFAULT.walk(this, programContext)
+        foldExpressions(programContext)
+    }
+
+    /**
+     * Folds the expressions in the tree, starting from the outermost ones (the folders go through the
+     * sub-expressions themselves). An expression inside another one is only folded on its own if the folders
+     * do not go into it: an argument of a function call (which is not under an expression directly),
+     * or the size of a new int[].
+     */
+    private fun foldExpressions(node: ParseTree) {
+        if (node is SamosaParser.ExprContext
+            && (node.parent !is SamosaParser.ExprContext || node.parent is SamosaParser.ExprNewIntArrayContext)
+        ) {
+            foldExpr(node)
+        } else if (node is SamosaParser.BooleanExprContext && node.parent !is SamosaParser.BooleanExprContext) {
+            BoolExpressionEvaluator(node, symbolTable, propagateConstants = true).checkStaticEvaluable()
+        }
+
+        for (i in 0 until node.childCount) {
+            foldExpressions(node.getChild(i))
+        }
+    }
+
+    private fun foldExpr(expr: SamosaParser.ExprContext) {
+        // the type of the expression is not needed: each folder finds nothing to fold in an expression
+        // of the other type
+        IntExpressionEvaluator(expr, symbolTable).checkStaticEvaluable()
+        StringExpressionEvaluator(expr, symbolTable).checkStaticEvaluable()
+    }
+
+    /**
+     * Returns the symbol declared by the declaration, if its initial value still has to be calculated.
+     */
+    private fun symbolToCalculate(declCtx: ParserRuleContext): ISymbol? {
+        val symbol = symbolTable.symbolAnnotations.get(declCtx) ?: return null
+        return if (symbol.isInitialValueCalculated || symbol.isReassigned) null else symbol
+    }
+
+    private fun calculateInitialValue(symbol: ISymbol, initExpr: SamosaParser.ExprContext) {
+        when (symbol) {
+            is IntSymbol -> {
+                val intExpressionEvaluator = IntExpressionEvaluator(initExpr, symbolTable)
+                if (intExpressionEvaluator.checkStaticEvaluable()) {
+                    symbol.value = intExpressionEvaluator.evaluate()
+                    symbol.isInitialValueCalculated = true
+                }
+            }
+            is StringSymbol -> {
+                val stringExpressionEvaluator = StringExpressionEvaluator(initExpr, symbolTable)
+                if (stringExpressionEvaluator.checkStaticEvaluable()) {
+                    symbol.value = stringExpressionEvaluator.evaluate()
+                    symbol.isInitialValueCalculated = true
+                }
+            }
+            is BoolSymbol -> {
+                // a boolie initialized with a normal expression: that can only be another boolie identifier
+                // (or a function call), possibly within parentheses
+                var expr = initExpr
+                while (expr is SamosaParser.ExprParenContext) {
+                    expr = expr.expr()
+                }
+
+                val value = symbolTable.functionCallEvaluator?.evaluateBoolExpr(expr)
+                    ?: (symbolTable.lookupConstant(expr) as? BoolSymbol)?.value
+                    ?: return
+                symbol.value = value
+                symbol.isInitialValueCalculated = true
+            }
+        }
+    }
+
+    private fun calculateInitialValue(symbol: ISymbol, initExpr: SamosaParser.BooleanExprContext) {
+        if (symbol !is BoolSymbol) {
+            return
+        }
+
+        val boolExpressionEvaluator = BoolExpressionEvaluator(initExpr, symbolTable, propagateConstants = true)
+        if (boolExpressionEvaluator.checkStaticEvaluable()) {
+            symbol.value = boolExpressionEvaluator.evaluate()
+            symbol.isInitialValueCalculated = true
+        }
+    }
+
+    override fun enterNormalDeclAssignStmt(ctx: SamosaParser.NormalDeclAssignStmtContext?) {
+        symbolToCalculate(ctx!!)?.let { calculateInitialValue(it, ctx.expr()) }
+    }
+
+    override fun enterTypeInferredDeclAssignStmt(ctx: SamosaParser.TypeInferredDeclAssignStmtContext?) {
+        symbolToCalculate(ctx!!)?.let { calculateInitialValue(it, ctx.expr()) }
+    }
+
+    override fun enterBooleanDeclAssignStmt(ctx: SamosaParser.BooleanDeclAssignStmtContext?) {
+        symbolToCalculate(ctx!!)?.let { calculateInitialValue(it, ctx.booleanExpr()) }
+    }
+
+    override fun enterTypeInferredBooleanDeclAssignStmt(ctx: SamosaParser.TypeInferredBooleanDeclAssignStmtContext?) {
+        symbolToCalculate(ctx!!)?.let { calculateInitialValue(it, ctx.booleanExpr()) }
+    }
+}
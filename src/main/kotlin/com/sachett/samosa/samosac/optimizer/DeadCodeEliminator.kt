@@ -0,0 +1,231 @@
+package com.sachett.samosa.samosac.optimizer
+
+import com.sachett.samosa.parser.SamosaParser
+import com.sachett.samosa.samosac.staticchecker.evaluators.BoolExpressionEvaluator
+import com.sachett.samosa.samosac.symbol.symboltable.SymbolTable
+import org.antlr.v4.runtime.ParserRuleContext
+import org.antlr.v4.runtime.tree.ParseTree
+import org.antlr.v4.runtime.tree.TerminalNode
+
+/**
+ * Removes unreachable code from the parse tree, so that no code is generated for it.
+ *
+ * This drops:
+ * - the branches of if statements whose conditions are known to be false at compile time, and all the
+ *   branches after one whose condition is known to be true (an if statement is replaced by the block of
+ *   its first branch, if that branch is always taken),
+ * - while loops whose conditions are known to be false,
+ * - the statements that follow a return, break or continue (or an if statement whose branches all end
+ *   in one of these, or a loop that never exits) in the same block.
+ *
+ * It should be run after constant propagation, so that conditions on constants are known.
+ */
+class DeadCodeEliminator(private val symbolTable: SymbolTable) {
+
+    fun eliminateDeadCode(programContext: SamosaParser.ProgramContext) {
+        eliminateDeadCodeIn(programContext)
+    }
+
+    private fun eliminateDeadCodeIn(ctx: ParserRuleContext) {
+        ctx.children?.toList()?.forEach {
+            if (it is ParserRuleContext) {
+                eliminateDeadCodeIn(it)
+            }
+        }
+
+        if (ctx is SamosaParser.StatementsContext) {
+            eliminateDeadStatements(ctx)
+        }
+    }
+
+    /**
+     * Drops the dead compound statements and the unreachable statements of a statement list.
+     */
+    private fun eliminateDeadStatements(ctx: SamosaParser.StatementsContext) {
+        val liveChildren = arrayListOf<ParseTree>()
+        var reachable = true
+
+        for (child in ctx.children) {
+            // function definitions and comments are not code that is executed in place
+            if (child !is SamosaParser.StatementContext && child !is SamosaParser.CompoundStmtContext
+                && child !is SamosaParser.UncertainCompoundStmtContext && child !is SamosaParser.BlockContext
+            ) {
+                liveChildren.add(child)
+                continue
+            }
+
+            if (!reachable) {
+                continue
+            }
+
+            val liveChild = if (child is SamosaParser.CompoundStmtContext) simplifyCompoundStmt(child) else child
+            if (liveChild == null) {
+                continue
+            }
+
+            if (liveChild is ParserRuleContext) {
+                liveChild.parent = ctx
+            }
+
+            liveChildren.add(liveChild)
+            reachable = !neverCompletes(liveChild)
+        }
+
+        ctx.children = liveChildren
+    }
+
+    /**
+     * Returns the code that remains of a compound statement once its dead parts are dropped
+     * (which may be the compound statement itself, the block of an if branch that is always taken, or nothing).
+     */
+    private fun simplifyCompoundStmt(ctx: SamosaParser.CompoundStmtContext): ParseTree? {
+        val whileStmt = ctx.whileStmt()
+        if (whileStmt != null) {
+            return if (constantCondition(whileStmt.booleanExpr()) == false) null else ctx
+        }
+
+        val ifStmt = ctx.ifStmt() ?: return ctx
+        val branches = splitIntoBranches(ifStmt)
+        val liveBranches = arrayListOf<IfBranch>()
+
+        for (branch in branches) {
+            if (branch.condition == null) {
+                liveBranches.add(branch)
+                break
+            }
+
+            val conditionValue = constantCondition(branch.condition)
+            if (conditionValue == false) {
+                continue
+            }
+
+            if (conditionValue == true) {
+                // the branch is always taken when reached; the ones after it never are
+                liveBranches.add(IfBranch(branch.tokens, null, branch.block))
+                break
+            }
+
+            liveBranches.add(branch)
+        }
+
+        if (liveBranches.isEmpty()) {
+            return null
+        }
+
+        if (liveBranches[0].condition == null) {
+            return liveBranches[0].block
+        }
+
+        rebuildIfStmt(ifStmt, liveBranches)
+
+        return ctx
+    }
+
+    /**
+     * A branch of an if statement: its tokens (IF, ELSE, the parentheses), its condition
+     * (null for the else branch) and its block.
+     */
+    private class IfBranch(
+        val tokens: List<TerminalNode>,
+        val condition: SamosaParser.BooleanExprContext?,
+        val block: SamosaParser.BlockContext
+    )
+
+    private fun splitIntoBranches(ifStmt: SamosaParser.IfStmtContext): List<IfBranch> {
+        val branches = arrayListOf<IfBranch>()
+        var tokens = arrayListOf<TerminalNode>()
+        var condition: SamosaParser.BooleanExprContext? = null
+
+        for (child in ifStmt.children) {
+            when (child) {
+                is TerminalNode -> tokens.add(child)
+                is SamosaParser.BooleanExprContext -> condition = child
+                is SamosaParser.BlockContext -> {
+                    branches.add(IfBranch(tokens, condition, child))
+                    tokens = arrayListOf()
+                    condition = null
+                }
+            }
+        }
+
+        return branches
+    }
+
+    /**
+     * Rebuilds the if statement out of the live branches (the first of which must have a condition).
+     */
+    private fun rebuildIfStmt(ifStmt: SamosaParser.IfStmtContext, liveBranches: List<IfBranch>) {
+        val children = arrayListOf<ParseTree>()
+        val elseIfBlocks = arrayListOf<SamosaParser.BlockContext>()
+        val elseBlocks = arrayListOf<SamosaParser.BlockContext>()
+
+        liveBranches.forEachIndexed { index, branch ->
+            if (branch.condition == null) {
+                // the else branch: ELSE block
+                children.add(branch.tokens.first { it.symbol.type == SamosaParser.ELSE })
+                children.add(branch.block)
+                elseBlocks.add(branch.block)
+                return@forEachIndexed
+            }
+
+            // IF ( condition ) block, preceded by an ELSE for all but the first branch
+            if (index > 0) {
+                children.add(branch.tokens.first { it.symbol.type == SamosaParser.ELSE })
+                elseIfBlocks.add(branch.block)
+            }
+
+            children.add(branch.tokens.first { it.symbol.type == SamosaParser.IF })
+            children.add(branch.tokens.first { it.symbol.type == SamosaParser.LPAREN })
+            children.add(branch.condition)
+            children.add(branch.tokens.first { it.symbol.type == SamosaParser.RPAREN })
+            children.add(branch.block)
+        }
+
+        ifStmt.children = children
+        ifStmt.elseifblocks = elseIfBlocks
+        ifStmt.elseblock = elseBlocks
+    }
+
+    /**
+     * Returns the value of the condition if it is known at compile time, null otherwise.
+     */
+    private fun constantCondition(condition: SamosaParser.BooleanExprContext): Boolean? {
+        val boolExpressionEvaluator = BoolExpressionEvaluator(condition, symbolTable, propagateConstants = true)
+        return if (boolExpressionEvaluator.checkStaticEvaluable()) boolExpressionEvaluator.evaluate() else null
+    }
+
+    /**
+     * Checks if control never goes on to the statement after the given one.
+     */
+    private fun neverCompletes(node: ParseTree): Boolean {
+        return when (node) {
+            is SamosaParser.RegularStmtContext -> node.returnStmt() != null || node.loopcontrolStmt() != null
+            is SamosaParser.BlockContext -> node.statements()?.children?.any { neverCompletes(it) } ?: false
+            is SamosaParser.CompoundStmtContext -> {
+                val ifStmt = node.ifStmt()
+                val whileStmt = node.whileStmt()
+                if (ifStmt != null) {
+                    ifStmt.elseblock.isNotEmpty() && ifStmt.block().all { neverCompletes(it) }
+                } else if (whileStmt != null) {
+                    constantCondition(whileStmt.booleanExpr()) == true && !breaksOutOf(whileStmt.block())
+                } else {
+                    // a for loop always ends once its variable reaches the end of the range
+                    false
+                }
+            }
+            else -> false
+        }
+    }
+
+    /**
+     * Checks if there is a break statement for the enclosing loop in the given subtree.
+     */
+    private fun breaksOutOf(node: ParseTree): Boolean {
+        return when (node) {
+            is SamosaParser.BreakControlStmtContext -> true
+            // a break in these is not for the enclosing loop
+            is SamosaParser.WhileStmtContext, is SamosaParser.ForStmtContext, is SamosaParser.FuncDefContext -> false
+            else -> (0 until node.childCount).any { breaksOutOf(node.getChild(it)) }
+        }
+    }
+}
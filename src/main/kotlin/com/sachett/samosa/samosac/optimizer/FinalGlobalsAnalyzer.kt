@@ -0,0 +1,106 @@
+package com.sachett.samosa.samosac.optimizer
+
+import com.sachett.samosa.parser.SamosaParser
+import com.sachett.samosa.samosac.staticchecker.evaluators.IntExpressionEvaluator
+import com.sachett.samosa.samosac.symbol.FunctionSymbol
+import com.sachett.samosa.samosac.symbol.ISymbol
+import com.sachett.samosa.samosac.symbol.SymbolType
+import com.sachett.samosa.samosac.symbol.symboltable.SymbolTable
+import org.antlr.v4.runtime.tree.ParseTree
+import java.util.Collections
+import java.util.IdentityHashMap
+
+/**
+ * Finds out which of the globals that are stored in static fields can be final fields.
+ *
+ * A global that is never assigned to after its declaration (see ISymbol.isReassigned, which the static checker sets)
+ * and whose value is known at compile time is a final field with that value (its uses are inlined by the codegen).
+ *
+ * A global that is never assigned to but is initialized at runtime can only be a final field if it is initialized
+ * in the static initializer of the class, before main runs. So its initializer must not have side effects,
+ * nor depend on anything that main calculates: it may only use the constants, the globals that are
+ * initialized in the static initializer themselves, and the pure builtin functions.
+ */
+class FinalGlobalsAnalyzer(private val symbolTable: SymbolTable) {
+    private val classInitGlobals: MutableSet<ISymbol> = Collections.newSetFromMap(IdentityHashMap())
+
+    /**
+     * Checks if the symbol is a global that is never assigned to after its declaration.
+     */
+    fun isFinal(symbol: ISymbol): Boolean {
+        return symbol.symbolType != SymbolType.FUNCTION
+                && symbol.symbolCoordinates?.first == 0
+                && !symbol.isReassigned
+    }
+
+    /**
+     * Checks if the symbol is a global whose value is known at compile time and is never assigned to.
+     */
+    fun isConstant(symbol: ISymbol): Boolean = isFinal(symbol) && symbol.isInitialValueCalculated
+
+    /**
+     * Checks if the (final) global can be initialized in the static initializer of the class, and remembers it
+     * if so. The globals must be passed in the order they are declared in.
+     * @param initExpr  The initializer of the global (an expr or a booleanExpr).
+     */
+    fun canInitializeInClassInit(symbol: ISymbol, initExpr: ParseTree?): Boolean {
+        if (initExpr == null || !isFinal(symbol) || symbol.isInitialValueCalculated) {
+            return false
+        }
+
+        if (!isComputableInClassInit(initExpr)) {
+            return false
+        }
+
+        classInitGlobals.add(symbol)
+        return true
+    }
+
+    /**
+     * Checks if the global is initialized in the static initializer of the class.
+     */
+    fun isInitializedInClassInit(symbol: ISymbol): Boolean = symbol in classInitGlobals
+
+    private fun isComputableInClassInit(node: ParseTree): Boolean {
+        when (node) {
+            is SamosaParser.FunctionCallNoArgsContext,
+            is SamosaParser.QualifiedFunctionCallNoArgsContext,
+            is SamosaParser.QualifiedFunctionCallWithArgsContext -> return false
+
+            is SamosaParser.FunctionCallWithArgsContext -> {
+                val funcName = node.IDENTIFIER().text
+                if (funcName !in pureBuiltinFunctions || symbolTable.lookup(funcName) is FunctionSymbol) {
+                    return false
+                }
+            }
+
+            is SamosaParser.ExprIdentifierContext, is SamosaParser.BooleanExprIdentifierContext -> {
+                val symbol = symbolTable.symbolAnnotations.get(node) ?: return false
+                return isConstant(symbol) || symbol in classInitGlobals
+            }
+
+            // the elements of an array can be changed by main before the global is declared
+            is SamosaParser.ExprArrayIndexContext -> return false
+
+            // an array is only allocated in the static initializer if its size is known not to be negative
+            is SamosaParser.ExprNewIntArrayContext -> {
+                val sizeEvaluator = IntExpressionEvaluator(node.expr(), symbolTable)
+                return sizeEvaluator.checkStaticEvaluable() && sizeEvaluator.evaluate() >= 0
+            }
+        }
+
+        for (i in 0 until node.childCount) {
+            if (!isComputableInClassInit(node.getChild(i))) {
+                return false
+            }
+        }
+        return true
+    }
+
+    companion object {
+        /**
+         * The builtin functions that have no side effects and cannot fail.
+         */
+        private val pureBuiltinFunctions = setOf("itos")
+    }
+}
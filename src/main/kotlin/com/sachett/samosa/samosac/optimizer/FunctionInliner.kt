@@ -0,0 +1,245 @@
+package com.sachett.samosa.samosac.optimizer
+
+import com.sachett.samosa.samosac.codegen.function.FunctionGenerationContext
+import org.objectweb.asm.MethodVisitor
+import org.objectweb.asm.Opcodes
+import org.objectweb.asm.Type
+import org.objectweb.asm.tree.AbstractInsnNode
+import org.objectweb.asm.tree.IincInsnNode
+import org.objectweb.asm.tree.InsnList
+import org.objectweb.asm.tree.IntInsnNode
+import org.objectweb.asm.tree.JumpInsnNode
+import org.objectweb.asm.tree.LabelNode
+import org.objectweb.asm.tree.LdcInsnNode
+import org.objectweb.asm.tree.LookupSwitchInsnNode
+import org.objectweb.asm.tree.MethodInsnNode
+import org.objectweb.asm.tree.MethodNode
+import org.objectweb.asm.tree.TableSwitchInsnNode
+import org.objectweb.asm.tree.VarInsnNode
+import org.objectweb.asm.tree.analysis.Analyzer
+import org.objectweb.asm.tree.analysis.AnalyzerException
+import org.objectweb.asm.tree.analysis.BasicInterpreter
+
+/**
+ * Buffers the code of a method and replaces the calls in it to the small functions of the program
+ * with the code of those functions, before passing it on to the next method visitor (the peephole optimizer).
+ *
+ * The functions of a program can only call the ones that are defined before them, so the code of a called function
+ * is always complete (and has had its own calls inlined) by the time the call is inlined. HotSpot often does not
+ * inline calls made from a method as big as main, so doing it here lets the small helpers called in its loops
+ * be compiled along with them.
+ *
+ * A function is inlined if:
+ * - its code is at most MAX_INLINE_SIZE bytes long (about the size up to which HotSpot inlines any call),
+ * - it does not call itself (a self tail call is a jump by now, so it does not count),
+ * - it leaves nothing but its result on the stack when it returns,
+ * - and the caller stays within MAX_CALLER_SIZE bytes (HotSpot does not compile bigger methods at all).
+ *
+ * The arguments on the stack are stored into local variables after those of the caller, the parameters are
+ * accessed through them, and the returns become jumps to the end of the inlined code (with the result left on the
+ * stack, just like after the call). Two inlined calls never overlap, so they use the same local variables.
+ */
+class FunctionInliner(
+    access: Int,
+    name: String?,
+    descriptor: String?,
+    signature: String?,
+    exceptions: Array<out String>?,
+    private val functionGenerationContext: FunctionGenerationContext,
+    private val nextMethodVisitor: MethodVisitor
+) : MethodNode(Opcodes.ASM9, access, name, descriptor, signature, exceptions) {
+
+    override fun visitEnd() {
+        super.visitEnd()
+
+        val classFileGenerator = functionGenerationContext.parentClassGenerator
+        if (classFileGenerator != null) {
+            inlineCalls(classFileGenerator.className, classFileGenerator.inlinableMethods)
+
+            // keep a copy of the code for the callers of this function
+            if (isInlinable(this)) {
+                val copy = MethodNode(Opcodes.ASM9, access, name, desc, signature, exceptions?.toTypedArray())
+                accept(copy)
+                classFileGenerator.inlinableMethods[name + desc] = copy
+            }
+        }
+
+        accept(nextMethodVisitor)
+    }
+
+    private fun inlineCalls(owner: String, inlinableMethods: Map<String, MethodNode>) {
+        var callerSize = estimateSize(this)
+        var firstFreeLocal = -1
+
+        for (insn in instructions.toArray()) {
+            if (insn !is MethodInsnNode || insn.opcode != Opcodes.INVOKESTATIC || insn.owner != owner) {
+                continue
+            }
+
+            val callee = inlinableMethods[insn.name + insn.desc] ?: continue
+            val calleeSize = estimateSize(callee)
+            if (callerSize + calleeSize > MAX_CALLER_SIZE) {
+                break
+            }
+
+            if (firstFreeLocal < 0) {
+                firstFreeLocal = countLocals(this)
+            }
+
+            instructions.insert(insn, copyCode(callee, firstFreeLocal))
+            instructions.remove(insn)
+            callerSize += calleeSize
+        }
+    }
+
+    /**
+     * Makes a copy of the code of the callee that takes its arguments from the stack, and uses the local
+     * variables from firstLocal on.
+     */
+    private fun copyCode(callee: MethodNode, firstLocal: Int): InsnList {
+        val code = InsnList()
+        val end = LabelNode()
+        val labels = HashMap<LabelNode, LabelNode>()
+        callee.instructions.forEach { if (it is LabelNode) labels[it] = LabelNode() }
+
+        // the last argument is at the top of the stack
+        val argumentTypes = Type.getArgumentTypes(callee.desc)
+        val argumentLocals = IntArray(argumentTypes.size)
+        var local = firstLocal
+        for (i in argumentTypes.indices) {
+            argumentLocals[i] = local
+            local += argumentTypes[i].size
+        }
+        for (i in argumentTypes.indices.reversed()) {
+            code.add(VarInsnNode(argumentTypes[i].getOpcode(Opcodes.ISTORE), argumentLocals[i]))
+        }
+
+        for (insn in callee.instructions) {
+            if (isReturn(insn.opcode)) {
+                if (insn.next != null) {
+                    code.add(JumpInsnNode(Opcodes.GOTO, end))
+                }
+                continue
+            }
+
+            val copy = insn.clone(labels) ?: continue
+            when (copy) {
+                is VarInsnNode -> copy.`var` += firstLocal
+                is IincInsnNode -> copy.`var` += firstLocal
+            }
+            code.add(copy)
+        }
+
+        code.add(end)
+        return code
+    }
+
+    companion object {
+        const val MAX_INLINE_SIZE = 35
+        const val MAX_CALLER_SIZE = 8000
+
+        private fun isInlinable(method: MethodNode): Boolean {
+            if (method.tryCatchBlocks.isNotEmpty() || estimateSize(method) > MAX_INLINE_SIZE) {
+                return false
+            }
+
+            // recursive?
+            for (insn in method.instructions) {
+                if (insn is MethodInsnNode && insn.name == method.name && insn.desc == method.desc) {
+                    return false
+                }
+            }
+
+            // the returns must leave only the result on the stack (the caller's values are below it once inlined)
+            val frames = try {
+                Analyzer(BasicInterpreter()).analyze("", method.also { setMaxs(it) })
+            } catch (e: AnalyzerException) {
+                return false
+            }
+
+            val resultSize = if (Type.getReturnType(method.desc) == Type.VOID_TYPE) 0 else 1
+            for ((index, insn) in method.instructions.withIndex()) {
+                val frame = frames[index]
+                if (isReturn(insn.opcode) && frame != null && frame.stackSize != resultSize) {
+                    return false
+                }
+            }
+
+            return true
+        }
+
+        private fun setMaxs(method: MethodNode) {
+            method.maxLocals = countLocals(method)
+            method.maxStack = method.instructions.size() + 1
+        }
+
+        /**
+         * Returns the number of local variable slots that the method uses (including its arguments).
+         */
+        private fun countLocals(method: MethodNode): Int {
+            var numLocals = Type.getArgumentsAndReturnSizes(method.desc) shr 2
+            if ((method.access and Opcodes.ACC_STATIC) != 0) {
+                // there is no "this" argument
+                numLocals--
+            }
+
+            for (insn in method.instructions) {
+                when (insn) {
+                    is VarInsnNode -> {
+                        val size = when (insn.opcode) {
+                            Opcodes.LLOAD, Opcodes.DLOAD, Opcodes.LSTORE, Opcodes.DSTORE -> 2
+                            else -> 1
+                        }
+                        numLocals = maxOf(numLocals, insn.`var` + size)
+                    }
+                    is IincInsnNode -> numLocals = maxOf(numLocals, insn.`var` + 1)
+                }
+            }
+
+            return numLocals
+        }
+
+        /**
+         * Estimates the size of the bytecode of the method (after the peephole optimizer has picked the shortest
+         * instructions for the constants).
+         */
+        private fun estimateSize(method: MethodNode): Int {
+            var size = 0
+            for (insn in method.instructions) {
+                size += when (insn) {
+                    is VarInsnNode -> if (insn.`var` <= 3) 1 else 2
+                    is IntInsnNode -> if (insn.opcode == Opcodes.SIPUSH) 3 else 2
+                    is LdcInsnNode -> estimateConstantSize(insn.cst)
+                    is IincInsnNode, is JumpInsnNode -> 3
+                    is MethodInsnNode -> 3
+                    is TableSwitchInsnNode -> 16 + 4 * insn.labels.size
+                    is LookupSwitchInsnNode -> 12 + 8 * insn.labels.size
+                    else -> if (insn.opcode >= 0) insnSizeOf(insn) else 0
+                }
+            }
+            return size
+        }
+
+        private fun estimateConstantSize(constant: Any?): Int {
+            if (constant is Int) {
+                return when (constant) {
+                    in -1..5 -> 1
+                    in Byte.MIN_VALUE..Byte.MAX_VALUE -> 2
+                    in Short.MIN_VALUE..Short.MAX_VALUE -> 3
+                    else -> 2
+                }
+            }
+            return 2
+        }
+
+        private fun insnSizeOf(insn: AbstractInsnNode): Int {
+            return when (insn.type) {
+                AbstractInsnNode.INSN -> 1
+                AbstractInsnNode.INVOKE_DYNAMIC_INSN -> 5
+                else -> 3
+            }
+        }
+
+        private fun isReturn(opcode: Int): Boolean = opcode >= Opcodes.IRETURN && opcode <= Opcodes.RETURN
+    }
+}
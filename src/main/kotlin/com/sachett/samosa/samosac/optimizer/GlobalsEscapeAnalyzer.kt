@@ -0,0 +1,107 @@
+package com.sachett.samosa.samosac.optimizer
+
+import com.sachett.samosa.parser.SamosaParser
+import org.antlr.v4.runtime.tree.ParseTree
+import org.antlr.v4.runtime.tree.TerminalNode
+
+/**
+ * Finds out which variables of the top level code (the globals, and the variables in the blocks of main)
+ * can be seen outside of main, that is, by the functions of the program.
+ *
+ * The codegen stores such variables in static fields of the class. The others are only ever used by main,
+ * and are stored in its local variables instead (which the JIT can keep in registers).
+ *
+ * This is conservative: a name counts as used by the functions if any identifier in any function definition
+ * has that name (even if it refers to a local variable or a parameter of the function).
+ */
+class GlobalsEscapeAnalyzer(programContext: SamosaParser.ProgramContext) {
+    private val namesUsedInFunctions = hashSetOf<String>()
+
+    init {
+        collectNamesUsedInFunctions(programContext, false)
+    }
+
+    private fun collectNamesUsedInFunctions(node: ParseTree, isInFunction: Boolean) {
+        if (isInFunction && node is TerminalNode && node.symbol.type == SamosaParser.IDENTIFIER) {
+            namesUsedInFunctions.add(node.text)
+            return
+        }
+
+        val isInFunctionHere = isInFunction || node is SamosaParser.FuncDefContext
+        for (i in 0 until node.childCount) {
+            collectNamesUsedInFunctions(node.getChild(i), isInFunctionHere)
+        }
+    }
+
+    /**
+     * Checks if a variable of the top level code with this name may be used by a function.
+     */
+    fun isUsedInFunctions(name: String): Boolean = name in namesUsedInFunctions
+
+    companion object {
+        /**
+         * Returns the names of the variables that are used in the given subtree (like the body of a loop),
+         * and the names of those among them that are assigned to there.
+         */
+        @JvmStatic
+        fun findUsedAndAssignedNames(node: ParseTree): Pair<Set<String>, Set<String>> {
+            val usedNames = linkedSetOf<String>()
+            val assignedNames = hashSetOf<String>()
+            collectUsedAndAssignedNames(node, usedNames, assignedNames)
+            return Pair(usedNames, assignedNames)
+        }
+
+        private fun collectUsedAndAssignedNames(
+            node: ParseTree,
+            usedNames: MutableSet<String>,
+            assignedNames: MutableSet<String>
+        ) {
+            when (node) {
+                is SamosaParser.ExprIdentifierContext -> usedNames.add(node.IDENTIFIER().text)
+                is SamosaParser.BooleanExprIdentifierContext -> usedNames.add(node.IDENTIFIER().text)
+                is SamosaParser.ExprAssignContext -> {
+                    usedNames.add(node.IDENTIFIER().text)
+                    assignedNames.add(node.IDENTIFIER().text)
+                }
+                is SamosaParser.BooleanExprAssignContext -> {
+                    usedNames.add(node.IDENTIFIER().text)
+                    assignedNames.add(node.IDENTIFIER().text)
+                }
+                // only the elements of the array are read or written, the array itself is not assigned to
+                is SamosaParser.ExprArrayIndexContext -> usedNames.add(node.IDENTIFIER().text)
+                is SamosaParser.ArrayElementAssignContext -> usedNames.add(node.IDENTIFIER().text)
+            }
+
+            for (i in 0 until node.childCount) {
+                collectUsedAndAssignedNames(node.getChild(i), usedNames, assignedNames)
+            }
+        }
+
+        /**
+         * Returns the names of the variables declared in the given subtree.
+         */
+        @JvmStatic
+        fun findDeclaredNames(node: ParseTree): Set<String> {
+            val declaredNames = hashSetOf<String>()
+            collectDeclaredNames(node, declaredNames)
+            return declaredNames
+        }
+
+        private fun collectDeclaredNames(node: ParseTree, declaredNames: MutableSet<String>) {
+            val declaredName = when (node) {
+                is SamosaParser.DeclStmtContext -> node.IDENTIFIER()
+                is SamosaParser.NormalDeclAssignStmtContext -> node.IDENTIFIER()
+                is SamosaParser.BooleanDeclAssignStmtContext -> node.IDENTIFIER()
+                is SamosaParser.TypeInferredDeclAssignStmtContext -> node.IDENTIFIER()
+                is SamosaParser.TypeInferredBooleanDeclAssignStmtContext -> node.IDENTIFIER()
+                is SamosaParser.ForStmtContext -> node.IDENTIFIER()
+                else -> null
+            }
+            declaredName?.let { declaredNames.add(it.text) }
+
+            for (i in 0 until node.childCount) {
+                collectDeclaredNames(node.getChild(i), declaredNames)
+            }
+        }
+    }
+}
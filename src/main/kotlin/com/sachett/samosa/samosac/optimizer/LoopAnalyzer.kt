@@ -0,0 +1,425 @@
+package com.sachett.samosa.samosac.optimizer
+
+import com.sachett.samosa.parser.SamosaParser
+import com.sachett.samosa.samosac.codegen.function.FunctionGenerationContext
+import com.sachett.samosa.samosac.staticchecker.evaluators.IntExpressionEvaluator
+import com.sachett.samosa.samosac.staticchecker.evaluators.StringExpressionEvaluator
+import com.sachett.samosa.samosac.symbol.ISymbol
+import com.sachett.samosa.samosac.symbol.SymbolType
+import com.sachett.samosa.samosac.symbol.symboltable.SymbolTable
+import org.antlr.v4.runtime.tree.ParseTree
+
+/**
+ * Finds out what can be moved out of a loop, and if a while loop can be unrolled (see WhileStmtCodegen
+ * and ForStmtCodegen).
+ * It must be used while the codegen is at the loop (so that the symbol table resolves the names as they are
+ * in the loop, and the function generation context knows where the variables are stored).
+ *
+ * An expression is loop-invariant if it has no side effects, cannot fail, and uses only the variables
+ * that are not assigned to in the loop. If the loop calls the functions of the program, the variables
+ * stored in static fields are not invariant either (the functions may assign to them).
+ *
+ * A loop has a known trip count if it is like: i = 3. ... while (i < 10) { ... i = i + 2. },
+ * with the values being constants and i not being assigned to anywhere else in the loop.
+ */
+class LoopAnalyzer(
+    private val symbolTable: SymbolTable,
+    private val functionGenerationContext: FunctionGenerationContext
+) {
+    private var assignedNames: Set<String> = setOf()
+    private var declaredNames: Set<String> = setOf()
+    private var callsFunctions = false
+
+    private fun analyzeLoop(loopStmt: ParseTree) {
+        assignedNames = GlobalsEscapeAnalyzer.findUsedAndAssignedNames(loopStmt).second
+        declaredNames = GlobalsEscapeAnalyzer.findDeclaredNames(loopStmt)
+        callsFunctions = containsFunctionCalls(loopStmt)
+    }
+
+    /**
+     * Returns the largest loop-invariant expressions of the loop (in its condition and its body) that are worth
+     * computing before the loop, with their types. The expressions that are hoisted out of an enclosing loop
+     * already are left out.
+     */
+    fun findInvariantExprs(whileStmt: SamosaParser.WhileStmtContext): List<Pair<SamosaParser.ExprContext, SymbolType>> {
+        analyzeLoop(whileStmt)
+        val invariantExprs = arrayListOf<Pair<SamosaParser.ExprContext, SymbolType>>()
+        collectInvariantExprs(whileStmt, invariantExprs)
+        return invariantExprs
+    }
+
+    /**
+     * Returns the largest loop-invariant expressions of the body of the for loop, like for a while loop
+     * (the bounds of a for loop are computed once anyway). The loop variable is declared by the loop,
+     * so the expressions using it are never invariant.
+     */
+    fun findInvariantExprs(forStmt: SamosaParser.ForStmtContext): List<Pair<SamosaParser.ExprContext, SymbolType>> {
+        analyzeLoop(forStmt)
+        val invariantExprs = arrayListOf<Pair<SamosaParser.ExprContext, SymbolType>>()
+        collectInvariantExprs(forStmt.block(), invariantExprs)
+        return invariantExprs
+    }
+
+    private fun collectInvariantExprs(
+        node: ParseTree,
+        invariantExprs: MutableList<Pair<SamosaParser.ExprContext, SymbolType>>
+    ) {
+        if (node is SamosaParser.ExprContext) {
+            if (functionGenerationContext.isHoisted(node)) {
+                return
+            }
+
+            val type = getInvariantType(node)
+            if (type != null) {
+                if (isWorthHoisting(node, type)) {
+                    invariantExprs.add(Pair(node, type))
+                }
+                return
+            }
+        }
+
+        for (i in 0 until node.childCount) {
+            collectInvariantExprs(node.getChild(i), invariantExprs)
+        }
+    }
+
+    /**
+     * Returns the type of the expression if it is loop-invariant, null otherwise.
+     */
+    private fun getInvariantType(expr: SamosaParser.ExprContext): SymbolType? {
+        return when (expr) {
+            is SamosaParser.ExprDecintContext -> SymbolType.INT
+            is SamosaParser.ExprStringContext -> SymbolType.STRING
+            is SamosaParser.ExprParenContext -> getInvariantType(expr.expr())
+            is SamosaParser.UnaryMinusContext -> getInvariantType(expr.expr()).takeIf { it == SymbolType.INT }
+            is SamosaParser.ExprPlusContext -> getInvariantOperandsType(expr.expr(0), expr.expr(1))
+            is SamosaParser.ExprMinusContext, is SamosaParser.ExprMultiplyContext ->
+                getInvariantOperandsType(expr.getChild(0) as SamosaParser.ExprContext,
+                    expr.getChild(2) as SamosaParser.ExprContext).takeIf { it == SymbolType.INT }
+            is SamosaParser.ExprDivideContext, is SamosaParser.ExprModuloContext -> {
+                // the division must not fail (it would fail before the loop otherwise)
+                val divisor = expr.getChild(2) as SamosaParser.ExprContext
+                val divisorEvaluator = IntExpressionEvaluator(divisor, symbolTable)
+                if (!divisorEvaluator.checkStaticEvaluable() || divisorEvaluator.evaluate() == 0) {
+                    return null
+                }
+                getInvariantOperandsType(expr.getChild(0) as SamosaParser.ExprContext, divisor)
+                    .takeIf { it == SymbolType.INT }
+            }
+            is SamosaParser.ExprIdentifierContext -> {
+                val symbol = symbolTable.lookupWithNearestScopeValue(expr.IDENTIFIER().text).first ?: return null
+                if (isInvariantVariable(symbol)) symbol.symbolType else null
+            }
+            is SamosaParser.ExprFunctionCallContext -> {
+                val itosArgument = getBuiltinItosArgument(expr.functionCall()) ?: return null
+                if (getInvariantType(itosArgument) == SymbolType.INT) SymbolType.STRING else null
+            }
+            else -> null
+        }
+    }
+
+    private fun getInvariantOperandsType(lhs: SamosaParser.ExprContext, rhs: SamosaParser.ExprContext): SymbolType? {
+        val lhsType = getInvariantType(lhs) ?: return null
+        return if (getInvariantType(rhs) == lhsType) lhsType else null
+    }
+
+    private fun isInvariantVariable(symbol: ISymbol): Boolean {
+        if (symbol.symbolType != SymbolType.INT && symbol.symbolType != SymbolType.STRING) {
+            return false
+        }
+
+        // (a variable declared in the loop with the same name would hide it)
+        if (symbol.name in declaredNames) {
+            return false
+        }
+
+        if (symbol.isInitialValueCalculated && !symbol.isReassigned) {
+            return true
+        }
+
+        if (symbol.name in assignedNames) {
+            return false
+        }
+
+        val isFinal = functionGenerationContext.parentClassGenerator?.finalGlobalsAnalyzer?.isFinal(symbol) ?: false
+        return !callsFunctions || isFinal || !functionGenerationContext.isStoredInField(symbol)
+    }
+
+    /**
+     * Checks if it is cheaper to load the value of the (invariant) expression from a local variable
+     * than to compute it.
+     */
+    private fun isWorthHoisting(expr: SamosaParser.ExprContext, type: SymbolType): Boolean {
+        var unwrappedExpr = expr
+        while (unwrappedExpr is SamosaParser.ExprParenContext) {
+            unwrappedExpr = unwrappedExpr.expr()
+        }
+
+        if (unwrappedExpr is SamosaParser.ExprIdentifierContext
+            || unwrappedExpr is SamosaParser.ExprDecintContext
+            || unwrappedExpr is SamosaParser.ExprStringContext
+        ) {
+            return false
+        }
+
+        // the constants are folded anyway
+        return if (type == SymbolType.INT) {
+            !IntExpressionEvaluator(expr, symbolTable).checkStaticEvaluable()
+        } else {
+            !StringExpressionEvaluator(expr, symbolTable).checkStaticEvaluable()
+        }
+    }
+
+    /**
+     * Returns the argument of the call if it is a call to the builtin itos, null otherwise.
+     */
+    private fun getBuiltinItosArgument(functionCall: SamosaParser.FunctionCallContext): SamosaParser.ExprContext? {
+        if (functionCall !is SamosaParser.FunctionCallWithArgsContext
+            || functionCall.IDENTIFIER().text != "itos"
+            || isUserFunction("itos")
+        ) {
+            return null
+        }
+
+        val callArgs = functionCall.callArgList()
+        if (callArgs.callParams.size != 1 || callArgs.booleanCallParams.isNotEmpty()) {
+            return null
+        }
+        return callArgs.callParams[0]
+    }
+
+    private fun isUserFunction(name: String): Boolean = symbolTable.lookupInCoordinates(name, Pair(0, 0)) != null
+
+    /**
+     * Checks if there are calls in the subtree that may assign to the variables of the program
+     * (the builtin functions cannot).
+     */
+    private fun containsFunctionCalls(node: ParseTree): Boolean {
+        when (node) {
+            is SamosaParser.FunctionCallWithArgsContext -> if (isUserFunction(node.IDENTIFIER().text)) return true
+            is SamosaParser.FunctionCallNoArgsContext -> if (isUserFunction(node.IDENTIFIER().text)) return true
+            is SamosaParser.QualifiedFunctionCallWithArgsContext,
+            is SamosaParser.QualifiedFunctionCallNoArgsContext -> return true
+        }
+
+        for (i in 0 until node.childCount) {
+            if (containsFunctionCalls(node.getChild(i))) {
+                return true
+            }
+        }
+        return false
+    }
+
+    /**
+     * Returns the trip count of the loop if it is to be unrolled fully, or null if it is not to be
+     * (if its trip count is not known at compile time, or if the unrolled body would be too big).
+     * Only full unrolling is done: HotSpot unrolls the long counted loops itself (and does it better
+     * when their bodies have not been unrolled already).
+     */
+    fun findUnrollTripCount(whileStmt: SamosaParser.WhileStmtContext): Int? {
+        analyzeLoop(whileStmt)
+
+        // only the innermost loops are unrolled, and the loops left early cannot be
+        val bodyStatements = whileStmt.block().statements() ?: return null
+        if (containsLoopsOrLoopControlStmts(bodyStatements)) {
+            return null
+        }
+
+        // the last statement steps the counter
+        val lastStatement = bodyStatements.getChild(bodyStatements.childCount - 1) as? SamosaParser.RegularStmtContext
+        val stepAssign = lastStatement?.assignStmt() as? SamosaParser.ExprAssignContext ?: return null
+        val counterName = stepAssign.IDENTIFIER().text
+        val step = getStep(counterName, stepAssign.expr()) ?: return null
+
+        val counter = symbolTable.lookupWithNearestScopeValue(counterName).first ?: return null
+        if (counter.symbolType != SymbolType.INT || counterName in declaredNames
+            || (callsFunctions && functionGenerationContext.isStoredInField(counter))
+        ) {
+            return null
+        }
+
+        for (i in 0 until bodyStatements.childCount - 1) {
+            if (counterName in GlobalsEscapeAnalyzer.findUsedAndAssignedNames(bodyStatements.getChild(i)).second) {
+                return null
+            }
+        }
+
+        val condition = getCounterCondition(counterName, whileStmt.booleanExpr()) ?: return null
+        val initialValue = findInitialValue(counterName, whileStmt) ?: return null
+        val tripCount = getTripCount(initialValue, condition.first, condition.second, step) ?: return null
+
+        val bodySize = whileStmt.block().stop.tokenIndex - whileStmt.block().start.tokenIndex + 1
+        return if (tripCount * bodySize <= MAX_UNROLLED_SIZE) tripCount.toInt() else null
+    }
+
+    private fun containsLoopsOrLoopControlStmts(node: ParseTree): Boolean {
+        if (node is SamosaParser.WhileStmtContext || node is SamosaParser.ForStmtContext
+            || node is SamosaParser.LoopcontrolStmtContext
+        ) {
+            return true
+        }
+
+        for (i in 0 until node.childCount) {
+            if (containsLoopsOrLoopControlStmts(node.getChild(i))) {
+                return true
+            }
+        }
+        return false
+    }
+
+    /**
+     * Returns the constant that the expression adds to the counter (i + k, k + i or i - k), or null.
+     */
+    private fun getStep(counterName: String, expr: SamosaParser.ExprContext): Long? {
+        val operands = when (expr) {
+            is SamosaParser.ExprPlusContext -> expr.expr()
+            is SamosaParser.ExprMinusContext -> expr.expr()
+            else -> return null
+        }
+
+        for (side in 0..1) {
+            if (side == 1 && expr is SamosaParser.ExprMinusContext) {
+                break
+            }
+
+            val counterOperand = operands[side] as? SamosaParser.ExprIdentifierContext ?: continue
+            if (counterOperand.IDENTIFIER().text != counterName) {
+                continue
+            }
+
+            val step = evaluateInt(operands[1 - side]) ?: return null
+            return if (expr is SamosaParser.ExprMinusContext) -step else step
+        }
+        return null
+    }
+
+    /**
+     * Returns the comparison of the condition (as the token type of the operator, with the counter on the left)
+     * and the constant that the counter is compared with, or null if it is not such a condition.
+     */
+    private fun getCounterCondition(counterName: String, condition: SamosaParser.BooleanExprContext): Pair<Int, Long>? {
+        var unwrappedCondition = condition
+        while (unwrappedCondition is SamosaParser.BooleanExprParenContext) {
+            unwrappedCondition = unwrappedCondition.booleanExpr()
+        }
+
+        val (operands, operator) = when (unwrappedCondition) {
+            is SamosaParser.BooleanExprRelOpContext ->
+                Pair(unwrappedCondition.expr(), unwrappedCondition.relOp().start.type)
+            is SamosaParser.BooleanExprCompOpContext -> {
+                if (unwrappedCondition.compOp().COMPNOTEQ() == null) {
+                    return null
+                }
+                Pair(unwrappedCondition.expr(), SamosaParser.COMPNOTEQ)
+            }
+            else -> return null
+        }
+
+        for (side in 0..1) {
+            val counterOperand = operands[side] as? SamosaParser.ExprIdentifierContext ?: continue
+            if (counterOperand.IDENTIFIER().text != counterName) {
+                continue
+            }
+
+            val bound = evaluateInt(operands[1 - side]) ?: return null
+            val counterOnLeftOperator = if (side == 0) operator else when (operator) {
+                SamosaParser.LT -> SamosaParser.GT
+                SamosaParser.GT -> SamosaParser.LT
+                SamosaParser.LTEQ -> SamosaParser.GTEQ
+                SamosaParser.GTEQ -> SamosaParser.LTEQ
+                else -> operator
+            }
+            return Pair(counterOnLeftOperator, bound)
+        }
+        return null
+    }
+
+    /**
+     * Finds the value that the counter is given before the loop: the statements right before the loop
+     * (in the same block) are looked at, up to the one that assigns a constant to the counter.
+     */
+    private fun findInitialValue(counterName: String, whileStmt: SamosaParser.WhileStmtContext): Long? {
+        val compoundStmt = whileStmt.parent as? SamosaParser.CompoundStmtContext ?: return null
+        val statements = compoundStmt.parent as? SamosaParser.StatementsContext ?: return null
+
+        var index = statements.children.indexOf(compoundStmt) - 1
+        while (index >= 0) {
+            val statement = statements.getChild(index) as? SamosaParser.RegularStmtContext ?: return null
+            val (assignedName, valueExpr) = when (val stmt = statement.getChild(0)) {
+                is SamosaParser.ExprAssignContext -> Pair(stmt.IDENTIFIER().text, stmt.expr())
+                is SamosaParser.NormalDeclAssignStmtContext -> Pair(stmt.IDENTIFIER().text, stmt.expr())
+                is SamosaParser.TypeInferredDeclAssignStmtContext -> Pair(stmt.IDENTIFIER().text, stmt.expr())
+                is SamosaParser.BooleanExprAssignContext -> Pair(stmt.IDENTIFIER().text, null)
+                is SamosaParser.BooleanDeclAssignStmtContext -> Pair(stmt.IDENTIFIER().text, null)
+                is SamosaParser.TypeInferredBooleanDeclAssignStmtContext -> Pair(stmt.IDENTIFIER().text, null)
+                is SamosaParser.DeclStmtContext -> Pair(stmt.IDENTIFIER().text, null)
+                else -> return null
+            }
+
+            if (assignedName == counterName) {
+                return if (valueExpr != null) evaluateInt(valueExpr) else null
+            }
+
+            // a function called here could assign to the counter
+            if (containsFunctionCalls(statement)) {
+                return null
+            }
+            index--
+        }
+        return null
+    }
+
+    private fun evaluateInt(expr: SamosaParser.ExprContext): Long? {
+        val intExpressionEvaluator = IntExpressionEvaluator(expr, symbolTable)
+        return if (intExpressionEvaluator.checkStaticEvaluable()) intExpressionEvaluator.evaluate().toLong() else null
+    }
+
+    companion object {
+        /**
+         * The most tokens that the copies of the body of an unrolled loop may have in all.
+         */
+        const val MAX_UNROLLED_SIZE = 200
+
+        /**
+         * Returns the number of times the body of the loop runs, or null if the counter overflows
+         * or never reaches the bound.
+         */
+        private fun getTripCount(initialValue: Long, operator: Int, bound: Long, step: Long): Long? {
+            val tripCount = when (operator) {
+                SamosaParser.LT -> when {
+                    initialValue >= bound -> 0L
+                    step <= 0 -> return null
+                    else -> (bound - initialValue + step - 1) / step
+                }
+                SamosaParser.LTEQ -> when {
+                    initialValue > bound -> 0L
+                    step <= 0 -> return null
+                    else -> (bound - initialValue) / step + 1
+                }
+                SamosaParser.GT -> when {
+                    initialValue <= bound -> 0L
+                    step >= 0 -> return null
+                    else -> (initialValue - bound - step - 1) / -step
+                }
+                SamosaParser.GTEQ -> when {
+                    initialValue < bound -> 0L
+                    step >= 0 -> return null
+                    else -> (initialValue - bound) / -step + 1
+                }
+                SamosaParser.COMPNOTEQ -> when {
+                    initialValue == bound -> 0L
+                    step == 0L || (bound - initialValue) % step != 0L || (bound - initialValue) / step < 0 -> return null
+                    else -> (bound - initialValue) / step
+                }
+                else -> return null
+            }
+
+            // the values of the counter must all be ints
+            val finalValue = initialValue + tripCount * step
+            if (finalValue < Int.MIN_VALUE || finalValue > Int.MAX_VALUE) {
+                return null
+            }
+            return tripCount
+        }
+    }
+}
@@ -0,0 +1,412 @@
+package com.sachett.samosa.samosac.optimizer
+
+import org.objectweb.asm.MethodVisitor
+import org.objectweb.asm.Opcodes
+import org.objectweb.asm.tree.AbstractInsnNode
+import org.objectweb.asm.tree.FrameNode
+import org.objectweb.asm.tree.IincInsnNode
+import org.objectweb.asm.tree.InsnNode
+import org.objectweb.asm.tree.IntInsnNode
+import org.objectweb.asm.tree.JumpInsnNode
+import org.objectweb.asm.tree.LabelNode
+import org.objectweb.asm.tree.LdcInsnNode
+import org.objectweb.asm.tree.LookupSwitchInsnNode
+import org.objectweb.asm.tree.MethodNode
+import org.objectweb.asm.tree.TableSwitchInsnNode
+import org.objectweb.asm.tree.VarInsnNode
+
+/**
+ * Buffers the code of a method, runs peephole optimizations over it and then passes it on to the next method visitor
+ * (the class writer) once the method has been visited completely.
+ *
+ * The optimizations are:
+ * - pushing int constants with ICONST_*, BIPUSH or SIPUSH instead of LDC wherever possible,
+ * - replacing multiplications by powers of two with shifts, and dropping additions of 0 and multiplications by 1,
+ * - turning `x = x + c` and `x = x - c` on local variables into IINC,
+ * - replacing a store followed by a load of the same local variable with a DUP and the store,
+ *   and dropping loads (and constants) that are popped right away and stores of a variable into itself,
+ * - jump threading: jumps to GOTOs are made to jump to their final targets, GOTOs to returns become returns,
+ *   GOTOs to the next instruction are dropped, and a conditional jump over a GOTO is inverted,
+ * - dropping the code that can never be reached (which is often left behind by the other optimizations).
+ *
+ * The stack map frames are only computed after these optimizations (see StackMapFrameEmitter).
+ */
+class PeepholeOptimizer(
+    access: Int,
+    name: String?,
+    descriptor: String?,
+    signature: String?,
+    exceptions: Array<out String>?,
+    private val nextMethodVisitor: MethodVisitor
+) : MethodNode(Opcodes.ASM9, access, name, descriptor, signature, exceptions) {
+
+    override fun visitEnd() {
+        super.visitEnd()
+        optimize()
+        accept(nextMethodVisitor)
+    }
+
+    fun optimize() {
+        // one optimization often makes way for another, so keep going until nothing changes
+        var passes = 0
+        do {
+            var changed = selectConstantInstructions()
+            changed = reduceStrength() || changed
+            changed = formIncrements() || changed
+            changed = removeRedundantLoadsAndStores() || changed
+            changed = threadJumps() || changed
+            changed = removeUnreachableCode() || changed
+            passes++
+        } while (changed && passes < MAX_PASSES)
+    }
+
+    private fun selectConstantInstructions(): Boolean {
+        var changed = false
+        for (insn in instructions.toArray()) {
+            if (insn is LdcInsnNode && insn.cst is Int) {
+                instructions.set(insn, makeIntConstant(insn.cst as Int))
+                changed = true
+            }
+        }
+
+        return changed
+    }
+
+    private fun reduceStrength(): Boolean {
+        var changed = false
+        for (insn in instructions.toArray()) {
+            // the instruction may have been removed along with a previous one
+            if (!isInList(insn)) {
+                continue
+            }
+
+            val constant = intConstantOf(insn) ?: continue
+            val operation = insn.next ?: continue
+
+            when {
+                // x + 0, x - 0, x * 1, x / 1
+                (constant == 0 && (operation.opcode == Opcodes.IADD || operation.opcode == Opcodes.ISUB))
+                        || (constant == 1 && (operation.opcode == Opcodes.IMUL || operation.opcode == Opcodes.IDIV)) -> {
+                    instructions.remove(insn)
+                    instructions.remove(operation)
+                    changed = true
+                }
+
+                // x * 2^n => x << n
+                operation.opcode == Opcodes.IMUL && isPowerOfTwo(constant) -> {
+                    instructions.set(insn, makeIntConstant(Integer.numberOfTrailingZeros(constant)))
+                    instructions.set(operation, InsnNode(Opcodes.ISHL))
+                    changed = true
+                }
+
+                // 2^n * x => x << n, if x is just a load
+                operation is VarInsnNode && operation.opcode == Opcodes.ILOAD
+                        && operation.next?.opcode == Opcodes.IMUL && isPowerOfTwo(constant) -> {
+                    val multiplication = operation.next
+                    instructions.remove(insn)
+                    instructions.insert(operation, makeIntConstant(Integer.numberOfTrailingZeros(constant)))
+                    instructions.set(multiplication, InsnNode(Opcodes.ISHL))
+                    changed = true
+                }
+            }
+        }
+
+        return changed
+    }
+
+    private fun formIncrements(): Boolean {
+        var changed = false
+        for (insn in instructions.toArray()) {
+            if (!isInList(insn) || insn.opcode != Opcodes.ISTORE) {
+                continue
+            }
+
+            // looking back from the store for: ILOAD x, <c>, IADD/ISUB, ISTORE x (or <c>, ILOAD x, IADD, ISTORE x)
+            val store = insn as VarInsnNode
+            val operation = store.previous ?: continue
+            val second = operation.previous ?: continue
+            val first = second.previous ?: continue
+
+            val increment = when (operation.opcode) {
+                Opcodes.IADD -> when {
+                    isLoadOf(first, store.`var`) -> intConstantOf(second)
+                    isLoadOf(second, store.`var`) -> intConstantOf(first)
+                    else -> null
+                }
+                Opcodes.ISUB -> if (isLoadOf(first, store.`var`)) intConstantOf(second)?.let { -it } else null
+                else -> null
+            } ?: continue
+
+            if (increment < Short.MIN_VALUE || increment > Short.MAX_VALUE) {
+                continue
+            }
+
+            instructions.remove(first)
+            instructions.remove(second)
+            instructions.remove(operation)
+            instructions.set(store, IincInsnNode(store.`var`, increment))
+            changed = true
+        }
+
+        return changed
+    }
+
+    private fun removeRedundantLoadsAndStores(): Boolean {
+        var changed = false
+        for (insn in instructions.toArray()) {
+            if (!isInList(insn)) {
+                continue
+            }
+
+            val next = insn.next ?: continue
+
+            when {
+                // a value pushed only to be popped
+                next.opcode == Opcodes.POP && (insn.opcode == Opcodes.ILOAD || insn.opcode == Opcodes.ALOAD
+                        || intConstantOf(insn) != null || insn.opcode == Opcodes.DUP) -> {
+                    instructions.remove(insn)
+                    instructions.remove(next)
+                    changed = true
+                }
+
+                // x = x
+                insn is VarInsnNode && next is VarInsnNode && insn.`var` == next.`var`
+                        && storeOpcodeFor(insn.opcode) == next.opcode -> {
+                    instructions.remove(insn)
+                    instructions.remove(next)
+                    changed = true
+                }
+
+                // a store followed by a load of the same variable: keep a copy of the value on the stack instead
+                insn is VarInsnNode && next is VarInsnNode && insn.`var` == next.`var`
+                        && storeOpcodeFor(next.opcode) == insn.opcode -> {
+                    instructions.insertBefore(insn, InsnNode(Opcodes.DUP))
+                    instructions.remove(next)
+                    changed = true
+                }
+            }
+        }
+
+        return changed
+    }
+
+    private fun threadJumps(): Boolean {
+        var changed = false
+        for (insn in instructions.toArray()) {
+            if (!isInList(insn) || insn !is JumpInsnNode) {
+                continue
+            }
+
+            val finalTarget = finalTargetOf(insn.label)
+            if (finalTarget != insn.label) {
+                insn.label = finalTarget
+                changed = true
+            }
+
+            val targetInsn = firstRealInsnFrom(insn.label)
+
+            if (insn.opcode == Opcodes.GOTO && targetInsn != null && isReturn(targetInsn.opcode)) {
+                // a jump to a return is as good as the return itself
+                instructions.set(insn, InsnNode(targetInsn.opcode))
+                changed = true
+                continue
+            }
+
+            if (insn.opcode == Opcodes.GOTO && targetInsn != null && targetInsn == firstRealInsnFrom(insn.next)) {
+                // a jump to the next instruction
+                instructions.remove(insn)
+                changed = true
+                continue
+            }
+
+            // IFxx L1, GOTO L2, L1: => IF!xx L2, L1:
+            val next = insn.next
+            if (insn.opcode != Opcodes.GOTO && next is JumpInsnNode && next.opcode == Opcodes.GOTO
+                && isLabelBetween(next, insn.label)
+            ) {
+                instructions.set(insn, JumpInsnNode(invertedJumpOpcode(insn.opcode), next.label))
+                instructions.remove(next)
+                changed = true
+            }
+        }
+
+        return changed
+    }
+
+    /**
+     * Drops the instructions (and frames) that cannot be reached from the start of the method.
+     */
+    private fun removeUnreachableCode(): Boolean {
+        if (instructions.size() == 0) {
+            return false
+        }
+
+        val reachable = HashSet<AbstractInsnNode>()
+        val worklist = ArrayDeque<AbstractInsnNode>()
+        worklist.add(instructions.first)
+        tryCatchBlocks.forEach { worklist.add(it.handler) }
+
+        while (worklist.isNotEmpty()) {
+            var insn: AbstractInsnNode? = worklist.removeLast()
+
+            // follow the code straight on until it stops falling through
+            while (insn != null && reachable.add(insn)) {
+                when (insn) {
+                    is JumpInsnNode -> worklist.add(insn.label)
+                    is TableSwitchInsnNode -> {
+                        worklist.add(insn.dflt)
+                        worklist.addAll(insn.labels)
+                    }
+                    is LookupSwitchInsnNode -> {
+                        worklist.add(insn.dflt)
+                        worklist.addAll(insn.labels)
+                    }
+                }
+
+                if (!fallsThrough(insn)) {
+                    break
+                }
+
+                insn = insn.next
+            }
+        }
+
+        var changed = false
+        for (insn in instructions.toArray()) {
+            if (insn !in reachable && (insn.opcode >= 0 || insn is FrameNode)) {
+                instructions.remove(insn)
+                changed = true
+            }
+        }
+
+        return changed
+    }
+
+    private fun fallsThrough(insn: AbstractInsnNode): Boolean {
+        return when (insn.opcode) {
+            Opcodes.GOTO, Opcodes.TABLESWITCH, Opcodes.LOOKUPSWITCH, Opcodes.ATHROW -> false
+            else -> !isReturn(insn.opcode)
+        }
+    }
+
+    /**
+     * Follows the chain of GOTOs starting at the label.
+     */
+    private fun finalTargetOf(label: LabelNode): LabelNode {
+        var target = label
+        val seen = HashSet<LabelNode>()
+
+        while (seen.add(target)) {
+            val targetInsn = firstRealInsnFrom(target)
+            if (targetInsn !is JumpInsnNode || targetInsn.opcode != Opcodes.GOTO) {
+                break
+            }
+
+            target = targetInsn.label
+        }
+
+        return target
+    }
+
+    private fun firstRealInsnFrom(insn: AbstractInsnNode?): AbstractInsnNode? {
+        var current = insn
+        while (current != null && current.opcode < 0) {
+            current = current.next
+        }
+
+        return current
+    }
+
+    /**
+     * Checks if the given label comes after the instruction, with only labels and frames in between.
+     */
+    private fun isLabelBetween(insn: AbstractInsnNode, label: LabelNode): Boolean {
+        var current = insn.next
+        while (current != null && current.opcode < 0) {
+            if (current == label) {
+                return true
+            }
+
+            current = current.next
+        }
+
+        return false
+    }
+
+    private fun isInList(insn: AbstractInsnNode): Boolean {
+        return insn.previous != null || insn.next != null || instructions.first == insn
+    }
+
+    private fun isLoadOf(insn: AbstractInsnNode, variable: Int): Boolean {
+        return insn is VarInsnNode && insn.opcode == Opcodes.ILOAD && insn.`var` == variable
+    }
+
+    private fun storeOpcodeFor(loadOpcode: Int): Int {
+        return when (loadOpcode) {
+            Opcodes.ILOAD -> Opcodes.ISTORE
+            Opcodes.ALOAD -> Opcodes.ASTORE
+            else -> -1
+        }
+    }
+
+    private fun isReturn(opcode: Int): Boolean {
+        return opcode in Opcodes.IRETURN..Opcodes.RETURN
+    }
+
+    private fun isPowerOfTwo(value: Int): Boolean {
+        return value > 1 && (value and (value - 1)) == 0
+    }
+
+    companion object {
+        private const val MAX_PASSES = 10
+
+        /**
+         * Returns the value of the int constant pushed by the instruction, if it pushes one.
+         */
+        @JvmStatic
+        fun intConstantOf(insn: AbstractInsnNode): Int? {
+            return when {
+                insn.opcode in Opcodes.ICONST_M1..Opcodes.ICONST_5 -> insn.opcode - Opcodes.ICONST_0
+                insn is IntInsnNode && (insn.opcode == Opcodes.BIPUSH || insn.opcode == Opcodes.SIPUSH) -> insn.operand
+                insn is LdcInsnNode && insn.cst is Int -> insn.cst as Int
+                else -> null
+            }
+        }
+
+        /**
+         * Returns the shortest instruction that pushes the int constant.
+         */
+        @JvmStatic
+        fun makeIntConstant(value: Int): AbstractInsnNode {
+            return when (value) {
+                in -1..5 -> InsnNode(Opcodes.ICONST_0 + value)
+                in Byte.MIN_VALUE..Byte.MAX_VALUE -> IntInsnNode(Opcodes.BIPUSH, value)
+                in Short.MIN_VALUE..Short.MAX_VALUE -> IntInsnNode(Opcodes.SIPUSH, value)
+                else -> LdcInsnNode(value)
+            }
+        }
+
+        @JvmStatic
+        fun invertedJumpOpcode(opcode: Int): Int {
+            return when (opcode) {
+                Opcodes.IFEQ -> Opcodes.IFNE
+                Opcodes.IFNE -> Opcodes.IFEQ
+                Opcodes.IFLT -> Opcodes.IFGE
+                Opcodes.IFGE -> Opcodes.IFLT
+                Opcodes.IFGT -> Opcodes.IFLE
+                Opcodes.IFLE -> Opcodes.IFGT
+                Opcodes.IF_ICMPEQ -> Opcodes.IF_ICMPNE
+                Opcodes.IF_ICMPNE -> Opcodes.IF_ICMPEQ
+                Opcodes.IF_ICMPLT -> Opcodes.IF_ICMPGE
+                Opcodes.IF_ICMPGE -> Opcodes.IF_ICMPLT
+                Opcodes.IF_ICMPGT -> Opcodes.IF_ICMPLE
+                Opcodes.IF_ICMPLE -> Opcodes.IF_ICMPGT
+                Opcodes.IF_ACMPEQ -> Opcodes.IF_ACMPNE
+                Opcodes.IF_ACMPNE -> Opcodes.IF_ACMPEQ
+                Opcodes.IFNULL -> Opcodes.IFNONNULL
+                Opcodes.IFNONNULL -> Opcodes.IFNULL
+                else -> throw IllegalArgumentException("Not a conditional jump: $opcode")
+            }
+        }
+    }
+}
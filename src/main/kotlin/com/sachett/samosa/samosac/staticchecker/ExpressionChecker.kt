@@ -65,6 +65,8 @@ abstract class ExpressionChecker(protected val symbolTable: SymbolTable) : Samos
     override fun visitExprMinus(ctx: SamosaParser.ExprMinusContext?): Boolean = false
     override fun visitExprParen(ctx: SamosaParser.ExprParenContext?): Boolean = false
     override fun visitExprIdentifier(ctx: SamosaParser.ExprIdentifierContext?): Boolean = false
+    override fun visitExprArrayIndex(ctx: SamosaParser.ExprArrayIndexContext?): Boolean = false
+    override fun visitExprNewIntArray(ctx: SamosaParser.ExprNewIntArrayContext?): Boolean = false
     override fun visitExprDecint(ctx: SamosaParser.ExprDecintContext?): Boolean = false
     override fun visitExprString(ctx: SamosaParser.ExprStringContext?): Boolean = false
     override fun visitBooleanExprNot(ctx: SamosaParser.BooleanExprNotContext?): Boolean = false
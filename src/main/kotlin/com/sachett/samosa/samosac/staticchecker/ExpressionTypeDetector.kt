@@ -9,29 +9,33 @@ import com.sachett.samosa.parser.SamosaParser
 import com.sachett.samosa.samosac.symbol.FunctionSymbol
 import com.sachett.samosa.samosac.symbol.SymbolType
 import com.sachett.samosa.samosac.symbol.symboltable.SymbolTable
+import org.antlr.v4.runtime.tree.RuleNode
 
 /**
  * Tries to detect the overall expression type given an expression.
  * The expression type detection is based on the frequencies of the types in it.
+ *
+ * The numbers of terms of each type are memoized for every expression node the detector walks through
+ * (not just the one it is asked about), so asking for the type of a sub-expression later, or of an expression
+ * containing one whose type is known already, does not walk that sub-expression again.
  */
 class ExpressionTypeDetector(
     private val symbolTable: SymbolTable
-) : SamosaBaseVisitor<Unit>() {
-    private var symbolTypesInExpr: MutableMap<SymbolType, Int> = mutableMapOf(
-        SymbolType.INT to 0,
-        SymbolType.STRING to 0,
-        SymbolType.BOOL to 0,
-        SymbolType.VOID to 0,
-        SymbolType.FUNCTION to 0
-    )
-
-    private val emptySymbolTypesInExpr: Map<SymbolType, Int> = mapOf(
-        SymbolType.INT to 0,
-        SymbolType.STRING to 0,
-        SymbolType.BOOL to 0,
-        SymbolType.VOID to 0,
-        SymbolType.FUNCTION to 0
-    )
+) : SamosaBaseVisitor<Map<SymbolType, Int>>() {
+
+    companion object {
+        /**
+         * The types in the order they win ties in (the first one with the highest frequency is the type detected).
+         */
+        private val symbolTypesInOrder: List<SymbolType> = listOf(
+            SymbolType.INT,
+            SymbolType.STRING,
+            SymbolType.BOOL,
+            SymbolType.INT_ARRAY,
+            SymbolType.VOID,
+            SymbolType.FUNCTION
+        )
+    }
 
     /**
      * Tries to detect the overall expression type given the ExprContext.
@@ -42,11 +46,7 @@ class ExpressionTypeDetector(
      *          The second element is the <code>SymbolType</code> that appears the most times in the expression.
      */
     fun getType(ctx: SamosaParser.ExprContext): Pair<Boolean, SymbolType> {
-        println("----- Finding expr type for expr -----") // DEBUG
-
-        // clear the table
-        symbolTypesInExpr = emptySymbolTypesInExpr.toMutableMap()
-        visit(ctx)
+        val symbolTypesInExpr = countTypes(ctx)
 
         var maxFreq = 0
         var nTerms = 0
@@ -54,57 +54,102 @@ class ExpressionTypeDetector(
         // if there are no terms in expression then it is a void expression (which is invalid)
         var maxFreqSymbolType: SymbolType = SymbolType.VOID
 
-        symbolTypesInExpr.forEach {
-            if (it.value > maxFreq) {
-                maxFreq = it.value
-                maxFreqSymbolType = it.key
+        for (symbolType in symbolTypesInOrder) {
+            val freq = symbolTypesInExpr[symbolType] ?: continue
+            if (freq > maxFreq) {
+                maxFreq = freq
+                maxFreqSymbolType = symbolType
             }
-            nTerms += it.value
+            nTerms += freq
         }
 
         return Pair(maxFreq == nTerms, maxFreqSymbolType)
     }
 
+    /**
+     * Returns the number of terms of each type in the expression, from the symbol table's expression type
+     * annotations if the expression has been walked already.
+     */
+    private fun countTypes(ctx: SamosaParser.ExprContext): Map<SymbolType, Int> {
+        symbolTable.exprTypeAnnotations.get(ctx)?.let { return it }
+
+        val symbolTypesInExpr = visit(ctx)
+        symbolTable.exprTypeAnnotations.put(ctx, symbolTypesInExpr)
+        return symbolTypesInExpr
+    }
+
+    private fun countOf(symbolType: SymbolType): Map<SymbolType, Int> = mapOf(symbolType to 1)
+
     /* -----------------  Visitor methods -------------------- */
 
-    // check the terminals and retrieve their types
+    override fun defaultResult(): Map<SymbolType, Int> = emptyMap()
 
-    override fun visitExprDecint(ctx: SamosaParser.ExprDecintContext?) {
-        symbolTypesInExpr[SymbolType.INT] = symbolTypesInExpr.getOrDefault(SymbolType.INT, 0) + 1
-        return super.visitExprDecint(ctx)
-    }
+    override fun aggregateResult(aggregate: Map<SymbolType, Int>, nextResult: Map<SymbolType, Int>): Map<SymbolType, Int> {
+        if (aggregate.isEmpty()) {
+            return nextResult
+        }
+        if (nextResult.isEmpty()) {
+            return aggregate
+        }
 
-    override fun visitExprString(ctx: SamosaParser.ExprStringContext?) {
-        symbolTypesInExpr[SymbolType.STRING] = symbolTypesInExpr.getOrDefault(SymbolType.STRING, 0) + 1
-        return super.visitExprString(ctx)
+        val symbolTypesInExpr = aggregate.toMutableMap()
+        nextResult.forEach { (symbolType, freq) ->
+            symbolTypesInExpr[symbolType] = symbolTypesInExpr.getOrDefault(symbolType, 0) + freq
+        }
+        return symbolTypesInExpr
     }
 
-    override fun visitBooleanTrue(ctx: SamosaParser.BooleanTrueContext?) {
-        symbolTypesInExpr[SymbolType.BOOL] = symbolTypesInExpr.getOrDefault(SymbolType.BOOL, 0) + 1
-        return super.visitBooleanTrue(ctx)
+    /**
+     * Adds up the terms of the children, going through countTypes() for the sub-expressions
+     * (so that each of them is annotated too).
+     */
+    override fun visitChildren(node: RuleNode): Map<SymbolType, Int> {
+        var result = defaultResult()
+        for (i in 0 until node.childCount) {
+            val child = node.getChild(i)
+            val childResult = if (child is SamosaParser.ExprContext) countTypes(child) else child.accept(this)
+            result = aggregateResult(result, childResult)
+        }
+        return result
     }
 
-    override fun visitBooleanFalse(ctx: SamosaParser.BooleanFalseContext?) {
-        symbolTypesInExpr[SymbolType.BOOL] = symbolTypesInExpr.getOrDefault(SymbolType.BOOL, 0) + 1
-        return super.visitBooleanFalse(ctx)
-    }
+    // check the terminals and retrieve their types
+
+    override fun visitExprDecint(ctx: SamosaParser.ExprDecintContext?): Map<SymbolType, Int> = countOf(SymbolType.INT)
+
+    override fun visitExprString(ctx: SamosaParser.ExprStringContext?): Map<SymbolType, Int> = countOf(SymbolType.STRING)
+
+    override fun visitBooleanTrue(ctx: SamosaParser.BooleanTrueContext?): Map<SymbolType, Int> = countOf(SymbolType.BOOL)
+
+    override fun visitBooleanFalse(ctx: SamosaParser.BooleanFalseContext?): Map<SymbolType, Int> = countOf(SymbolType.BOOL)
 
     /**
      * Retrieves the type of identifier.
      */
-    override fun visitExprIdentifier(ctx: SamosaParser.ExprIdentifierContext?) {
+    override fun visitExprIdentifier(ctx: SamosaParser.ExprIdentifierContext?): Map<SymbolType, Int> {
         val idName = ctx?.IDENTIFIER()?.text
         val lineNumber = ctx?.IDENTIFIER()?.symbol?.line
 
-        val symbol = symbolTable.lookup(idName!!) ?: fmtfatalerr("Unknown identifier ${idName}.", lineNumber!!)
+        // the symbol that the static checker found for the identifier (which is in the scope of the identifier,
+        // not in the current scope), if the identifier has been checked already
+        val symbol = symbolTable.symbolAnnotations.get(ctx)
+            ?: symbolTable.lookup(idName!!)
+            ?: fmtfatalerr("Unknown identifier ${idName}.", lineNumber!!)
 
-        symbolTypesInExpr[symbol.symbolType] = symbolTypesInExpr.getOrDefault(symbol.symbolType, 0) + 1
-        return super.visitExprIdentifier(ctx)
+        return countOf(symbol.symbolType)
     }
 
+    // An element of an int[] is an int, and a new array is an int[] (whatever the types inside the brackets)
+
+    override fun visitExprArrayIndex(ctx: SamosaParser.ExprArrayIndexContext?): Map<SymbolType, Int> =
+        countOf(SymbolType.INT)
+
+    override fun visitExprNewIntArray(ctx: SamosaParser.ExprNewIntArrayContext?): Map<SymbolType, Int> =
+        countOf(SymbolType.INT_ARRAY)
+
     // The next two functions check the return types of any function calls in the expression
 
-    override fun visitFunctionCallWithArgs(ctx: SamosaParser.FunctionCallWithArgsContext?) {
+    override fun visitFunctionCallWithArgs(ctx: SamosaParser.FunctionCallWithArgsContext?): Map<SymbolType, Int> {
         val retType: SymbolType = FunctionCallExprChecker.getRetTypeOfFunctionCallWithArgs(ctx, symbolTable)
 
         val lineNum = ctx!!.IDENTIFIER().symbol.line
@@ -116,12 +161,11 @@ class ExpressionTypeDetector(
             )
         }
 
-        symbolTypesInExpr[retType] = symbolTypesInExpr.getOrDefault(retType, 0) + 1
-
         /* Do not go into the function call expression here (hence super's method isn't called) */
+        return countOf(retType)
     }
 
-    override fun visitFunctionCallNoArgs(ctx: SamosaParser.FunctionCallNoArgsContext?) {
+    override fun visitFunctionCallNoArgs(ctx: SamosaParser.FunctionCallNoArgsContext?): Map<SymbolType, Int> {
         val retType: SymbolType = FunctionCallExprChecker.getRetTypeOfFunctionCallNoArgs(ctx, symbolTable)
 
         val lineNum = ctx!!.IDENTIFIER().symbol.line
@@ -133,7 +177,7 @@ class ExpressionTypeDetector(
             )
         }
 
-        symbolTypesInExpr[retType] = symbolTypesInExpr.getOrDefault(retType, 0) + 1
         /* Do not go into the function call expression here (hence super's method isn't called) */
+        return countOf(retType)
     }
 }
\ No newline at end of file
@@ -193,6 +193,10 @@ class FunctionCallExprChecker {
                         expressionChecker = BoolExpressionChecker(symbolTable)
                         SymbolType.BOOL
                     }
+                    SymbolType.INT_ARRAY -> {
+                        expressionChecker = IntArrayExpressionChecker(symbolTable)
+                        SymbolType.INT_ARRAY
+                    }
                     else -> {
                         err("[Error, Line ${functionSymbol.firstAppearedLine}] An argument of type " +
                                 "${currentExpectedParam.symbolType.asString} cannot be passed " +
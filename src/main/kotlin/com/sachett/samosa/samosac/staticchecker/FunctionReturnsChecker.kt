@@ -7,7 +7,6 @@ import com.sachett.samosa.parser.SamosaParser
 import com.sachett.samosa.samosac.symbol.FunctionSymbol
 import com.sachett.samosa.samosac.symbol.SymbolType
 import com.sachett.samosa.samosac.symbol.symboltable.SymbolTable
-import org.antlr.v4.runtime.tree.ParseTreeWalker
 
 /**
  * Checks the function body and return statements in the function body. Currently, it checks:
@@ -15,7 +14,9 @@ import org.antlr.v4.runtime.tree.ParseTreeWalker
  * 2. Whether the function returns a value if it should be returning a value
  * 3. Whether there is a nested function inside.
  *
- * Use the checkReturnStmts() function with the appropriate overload.
+ * This checker does not walk the function on its own. The StaticTypesChecker forwards the listener events
+ * to it while it visits the function body (with the scope already set right), so that the body is traversed
+ * only once. Use returnStmtsOk() after the function definition has been exited.
  */
 class FunctionReturnsChecker(
     private val symbolTable: SymbolTable,
@@ -26,19 +27,7 @@ class FunctionReturnsChecker(
     private var allOk = true
     private var foundReturn = false
 
-    fun checkReturnStmts(ctx: SamosaParser.ImplicitRetTypeFuncDefContext): Boolean {
-        println("###---- Checking returns -----") // DEBUG
-        ParseTreeWalker.DEFAULT.walk(this, ctx)
-        println("###----- Finished checking returns -----") // DEBUG
-        return allOk
-    }
-
-    fun checkReturnStmts(ctx: SamosaParser.ExplicitRetTypeFuncDefContext): Boolean {
-        println("###---- Checking returns -----") // DEBUG
-        ParseTreeWalker.DEFAULT.walk(this, ctx)
-        println("###----- Finished checking returns -----") // DEBUG
-        return allOk
-    }
+    fun returnStmtsOk(): Boolean = allOk
 
     private fun checkFunInFun(fnDefinitionLineNum: Int) {
         if (!functionBlockEntered) {
@@ -103,6 +92,12 @@ class FunctionReturnsChecker(
             )
             allOk = false
         }
+
+        // there are no operators on arrays, so an expression of only arrays may still be invalid
+        if (expType == SymbolType.INT_ARRAY && !IntArrayExpressionChecker(symbolTable).checkExpr(ctx.expr())) {
+            fmterror("Invalid ${SymbolType.INT_ARRAY.asString} expression in return statement.", lineNum)
+            allOk = false
+        }
     }
 
     override fun enterReturnStmtWithBooleanExpr(ctx: SamosaParser.ReturnStmtWithBooleanExprContext?) {
@@ -112,14 +107,4 @@ class FunctionReturnsChecker(
         }
         foundReturn = true
     }
-
-    override fun enterBlock(ctx: SamosaParser.BlockContext?) {
-        println("Inc scope in FunctionReturnsChecker") // DEBUG
-        symbolTable.incrementScopeOverrideScopeCreation(false)
-    }
-
-    override fun exitBlock(ctx: SamosaParser.BlockContext?) {
-        println("Dec scope in FunctionReturnsChecker") // DEBUG
-        symbolTable.decrementScope()
-    }
 }
\ No newline at end of file
@@ -0,0 +1,57 @@
+package com.sachett.samosa.samosac.staticchecker
+
+import com.sachett.samosa.logging.Severity
+import com.sachett.samosa.logging.fmterror
+import com.sachett.samosa.parser.SamosaParser
+import com.sachett.samosa.samosac.symbol.SymbolType
+import com.sachett.samosa.samosac.symbol.symboltable.SymbolTable
+
+/**
+ * Checks int[] expressions: these can only be an int[] identifier, the allocation of a new array (int[size]),
+ * or a call to a function returning an int[] (there are no operators on arrays).
+ */
+class IntArrayExpressionChecker(symbolTable: SymbolTable) : ExpressionChecker(symbolTable) {
+    override fun checkExpr(ctx: SamosaParser.ExprContext): Boolean = visit(ctx)
+
+    /* --------------- Visitor methods -------------- */
+
+    override fun visitExprParen(ctx: SamosaParser.ExprParenContext?): Boolean = visit(ctx!!.expr())
+
+    override fun visitExprIdentifier(ctx: SamosaParser.ExprIdentifierContext?): Boolean =
+        checkIdentifierTypeInExpr(ctx!!, SymbolType.INT_ARRAY)
+
+    override fun visitExprNewIntArray(ctx: SamosaParser.ExprNewIntArrayContext?): Boolean {
+        if (!IntExpressionChecker(symbolTable).checkExpr(ctx!!.expr())) {
+            fmterror("The size of the new array must be an int expression.", ctx.start.line, Severity.ERROR)
+            return false
+        }
+
+        return true
+    }
+
+    override fun visitFunctionCallNoArgs(ctx: SamosaParser.FunctionCallNoArgsContext?): Boolean {
+        val returnSymbolType = FunctionCallExprChecker.getRetTypeOfFunctionCallNoArgs(ctx, symbolTable)
+        if (returnSymbolType != SymbolType.INT_ARRAY) {
+            fmterror(
+                "Expected return type was ${SymbolType.INT_ARRAY.asString} but the function call returns " +
+                        "value of type ${returnSymbolType.asString}.", ctx!!.IDENTIFIER().symbol.line, Severity.ERROR
+            )
+            return false
+        }
+
+        return true
+    }
+
+    override fun visitFunctionCallWithArgs(ctx: SamosaParser.FunctionCallWithArgsContext?): Boolean {
+        val returnSymbolType = FunctionCallExprChecker.getRetTypeOfFunctionCallWithArgs(ctx, symbolTable)
+        if (returnSymbolType != SymbolType.INT_ARRAY) {
+            fmterror(
+                "Expected return type was ${SymbolType.INT_ARRAY.asString} but the function call returns " +
+                        "value of type ${returnSymbolType.asString}.", ctx!!.IDENTIFIER().symbol.line, Severity.ERROR
+            )
+            return false
+        }
+
+        return true
+    }
+}
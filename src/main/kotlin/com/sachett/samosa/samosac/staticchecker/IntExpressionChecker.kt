@@ -49,6 +49,9 @@ class IntExpressionChecker(symbolTable: SymbolTable) : ExpressionChecker(symbolT
     override fun visitExprIdentifier(ctx: SamosaParser.ExprIdentifierContext?): Boolean =
         checkIdentifierTypeInExpr(ctx!!, SymbolType.INT)
 
+    override fun visitExprArrayIndex(ctx: SamosaParser.ExprArrayIndexContext?): Boolean =
+        checkIdentifierTypeInExpr(ctx!!, SymbolType.INT_ARRAY) && visit(ctx.expr())
+
     override fun visitFunctionCallNoArgs(ctx: SamosaParser.FunctionCallNoArgsContext?): Boolean {
         val returnSymbolType = FunctionCallExprChecker.getRetTypeOfFunctionCallNoArgs(ctx, symbolTable)
         if (returnSymbolType != SymbolType.INT) {
@@ -1,22 +1,64 @@
 package com.sachett.samosa.samosac.staticchecker
 
+import com.sachett.samosa.logging.Diagnostics
+import com.sachett.samosa.logging.collectDiagnostics
 import com.sachett.samosa.logging.err
 import com.sachett.samosa.logging.fmtfatalerr
 import com.sachett.samosa.parser.SamosaBaseVisitor
 import com.sachett.samosa.parser.SamosaParser
 import com.sachett.samosa.samosac.staticchecker.analyzers.FunctionControlPathAnalyzer
+import com.sachett.samosa.samosac.staticchecker.analyzers.FunctionPurityAnalyzer
 import com.sachett.samosa.samosac.staticchecker.evaluators.BoolExpressionEvaluator
 import com.sachett.samosa.samosac.staticchecker.evaluators.IntExpressionEvaluator
 import com.sachett.samosa.samosac.staticchecker.evaluators.StringExpressionEvaluator
 import com.sachett.samosa.samosac.symbol.*
 import com.sachett.samosa.samosac.symbol.symboltable.SymbolTable
+import org.antlr.v4.runtime.ParserRuleContext
 import org.antlr.v4.runtime.tree.ErrorNode
 import org.antlr.v4.runtime.tree.ErrorNodeImpl
 import org.antlr.v4.runtime.tree.ParseTree
+import java.util.concurrent.ForkJoinTask
+import java.util.concurrent.RecursiveAction
 import kotlin.math.exp
+import kotlin.system.exitProcess
 
 class StaticTypesChecker(private val symbolTable: SymbolTable) : SamosaBaseVisitor<Void?>() {
 
+    /**
+     * The return statements and the control paths of the function being visited are checked in the
+     * same traversal as the types. These two are fed the listener events as the body is visited.
+     * They are null when not inside a function.
+     */
+    private var functionReturnsChecker: FunctionReturnsChecker? = null
+    private var functionControlPathAnalyzer: FunctionControlPathAnalyzer? = null
+
+    /**
+     * While the declarations (globals and function signatures) are being collected, the function bodies
+     * are not visited. They are queued up here instead, and checked in parallel afterwards (see visitProgram).
+     */
+    private var collectingDeclarations = false
+    private val functionBodyChecks: ArrayList<FunctionBodyCheckTask> = arrayListOf()
+
+    /**
+     * The functions whose results are cached (let memo ...). They can only be checked to be pure once all the
+     * function bodies have been checked (see visitProgram).
+     */
+    private val memoizedFunctions: ArrayList<FunctionSymbol> = arrayListOf()
+
+    /**
+     * Checks a function body with a checker (and a symbol table cursor) of its own.
+     * The errors found are kept (see collectDiagnostics()), to be reported in the order of the functions
+     * once all the checks are over.
+     */
+    private class FunctionBodyCheckTask(private val checkFunctionBody: () -> Unit) : RecursiveAction() {
+        var diagnostics: Diagnostics? = null
+            private set
+
+        override fun compute() {
+            diagnostics = collectDiagnostics(checkFunctionBody)
+        }
+    }
+
     /* --------------------- Utility functions ----------------------- */
 
     private fun processArgList(argParamCtx: SamosaParser.ArgParamContext): ISymbol {
@@ -37,18 +79,23 @@ class StaticTypesChecker(private val symbolTable: SymbolTable) : SamosaBaseVisit
 
         var symbol: ISymbol? = null
 
+        // the value of a parameter is known only at runtime
         if (typeNameCtx.INTTYPE() != null) {
-            val intSymbol = IntSymbol(idName, definedOnLineNum, isInitialValueCalculated = true, initializeExpressionPresent = false)
+            val intSymbol = IntSymbol(idName, definedOnLineNum, isInitialValueCalculated = false, initializeExpressionPresent = false)
             symbolTable.insert(idName, intSymbol)
             symbol = intSymbol
         } else if (typeNameCtx.STRINGTYPE() != null) {
-            val stringSymbol = StringSymbol(idName, definedOnLineNum, isInitialValueCalculated = true, initializeExpressionPresent = false)
+            val stringSymbol = StringSymbol(idName, definedOnLineNum, isInitialValueCalculated = false, initializeExpressionPresent = false)
             symbolTable.insert(idName, stringSymbol)
             symbol = stringSymbol
         } else if (typeNameCtx.BOOLTYPE() != null) {
-            val boolSymbol = BoolSymbol(idName, definedOnLineNum, isInitialValueCalculated = true, initializeExpressionPresent = false)
+            val boolSymbol = BoolSymbol(idName, definedOnLineNum, isInitialValueCalculated = false, initializeExpressionPresent = false)
             symbolTable.insert(idName, boolSymbol)
             symbol = boolSymbol
+        } else if (typeNameCtx.arrayTypeName() != null) {
+            val intArraySymbol = IntArraySymbol(idName, definedOnLineNum, initializeExpressionPresent = false)
+            symbolTable.insert(idName, intArraySymbol)
+            symbol = intArraySymbol
         } else if (typeNameCtx.VOIDTYPE() != null) {
             err(
                 "[Error, Line ${definedOnLineNum}] Void type variables are not supported. " +
@@ -60,6 +107,14 @@ class StaticTypesChecker(private val symbolTable: SymbolTable) : SamosaBaseVisit
         return symbol!!
     }
 
+    /**
+     * Inserts the symbol declared by a declaration statement, and annotates the statement with it.
+     */
+    private fun insertDeclaredSymbol(declCtx: ParserRuleContext, idName: String, symbol: ISymbol) {
+        symbolTable.insert(idName, symbol)
+        symbolTable.symbolAnnotations.put(declCtx, symbol)
+    }
+
     /**
      * Parses and adds the function parameters for a function definition
      * in which the return type is explicitly declared.
@@ -114,16 +169,147 @@ class StaticTypesChecker(private val symbolTable: SymbolTable) : SamosaBaseVisit
         return paramList
     }
 
+    /**
+     * Marks the function as one whose results are cached. Only a function that returns a value can be memoized.
+     */
+    private fun markMemoized(functionSymbol: FunctionSymbol, memoKeyword: SamosaParser.MemoKeywordContext) {
+        if (memoKeyword.text != "memo") {
+            fmtfatalerr(
+                "Expected 'memo' or a function name after let, found '${memoKeyword.text}'.",
+                functionSymbol.firstAppearedLine
+            )
+        }
+
+        if (functionSymbol.returnType == SymbolType.VOID) {
+            fmtfatalerr(
+                "Function ${functionSymbol.name} returns nothing, so there is nothing to memo.",
+                functionSymbol.firstAppearedLine
+            )
+        }
+
+        functionSymbol.isMemoized = true
+        memoizedFunctions.add(functionSymbol)
+    }
+
+    /**
+     * Checks that the memoized functions are pure: a cached result is returned instead of calling the function,
+     * so calling it must not do anything else.
+     */
+    private fun checkMemoizedFunctions(ctx: SamosaParser.ProgramContext) {
+        if (memoizedFunctions.isEmpty()) {
+            return
+        }
+
+        val purityAnalyzer = FunctionPurityAnalyzer(ctx, symbolTable)
+        memoizedFunctions.forEach {
+            if (!purityAnalyzer.isPure(it)) {
+                fmtfatalerr(
+                    "Function ${it.name} cannot be memo as it is not pure " +
+                            "(it uses I/O, probable statements, changing globals or other impure functions).",
+                    it.firstAppearedLine
+                )
+            }
+        }
+    }
+
+    /**
+     * Visits the function definition's body while checking its return statements and control paths.
+     * Reports the errors, if any, after the body has been visited.
+     * If the declarations are still being collected, the check is queued up to be done later.
+     */
+    private fun checkFunctionBody(
+        ctx: ParserRuleContext,
+        functionSymbol: FunctionSymbol,
+        enterFunction: (FunctionReturnsChecker) -> Unit,
+        exitFunction: (FunctionReturnsChecker) -> Unit
+    ): Void? {
+        if (collectingDeclarations) {
+            // The signature (and the parameters' scope) is known now. The forked cursor starts from here,
+            // and it must not see the globals declared after this function.
+            val functionBodyChecker = StaticTypesChecker(
+                symbolTable.forkCursor(globalsVisibleUpToLine = functionSymbol.firstAppearedLine)
+            )
+            functionBodyChecks.add(FunctionBodyCheckTask {
+                functionBodyChecker.checkFunctionBody(ctx, functionSymbol, enterFunction, exitFunction)
+            })
+
+            // The function's scope will be entered by the forked cursor, not by this one
+            symbolTable.createNewScopeEntryOnIncrement = true
+            return null
+        }
+
+        val enclosingReturnsChecker = functionReturnsChecker
+        val enclosingControlPathAnalyzer = functionControlPathAnalyzer
+
+        // This lets the enclosing function's checker report a function defined within a function
+        enclosingReturnsChecker?.let(enterFunction)
+
+        val returnsChecker = FunctionReturnsChecker(symbolTable, functionSymbol)
+        val controlPathAnalyzer = FunctionControlPathAnalyzer(symbolTable, functionSymbol)
+        functionReturnsChecker = returnsChecker
+        functionControlPathAnalyzer = controlPathAnalyzer
+
+        enterFunction(returnsChecker)
+        val visitFunctionInside = visitChildren(ctx)
+        exitFunction(returnsChecker)
+
+        functionReturnsChecker = enclosingReturnsChecker
+        functionControlPathAnalyzer = enclosingControlPathAnalyzer
+
+        if (!controlPathAnalyzer.allControlPathsReturn()) {
+            fmtfatalerr(
+                "Not all possible execution paths in the function return a value of type ${functionSymbol.returnType.asString}.",
+                functionSymbol.firstAppearedLine
+            )
+        }
+
+        if (!returnsChecker.returnStmtsOk()) {
+            fmtfatalerr(
+                "Function body contains errors. (There may be additional information above.)",
+                functionSymbol.firstAppearedLine
+            )
+        }
+
+        return visitFunctionInside
+    }
+
     /* -----------------  Visitor methods -------------------- */
 
     override fun visitProgram(ctx: SamosaParser.ProgramContext?): Void? {
         println("Visiting program...")
-        return super.visitProgram(ctx)
+
+        // First, check everything except the function bodies (this collects the globals and function signatures)
+        collectingDeclarations = true
+        val programVisit = super.visitProgram(ctx)
+        collectingDeclarations = false
+
+        // The function bodies do not depend on each other, so they can be checked in parallel now
+        ForkJoinTask.invokeAll(functionBodyChecks)
+
+        // the tasks are in the order of the functions in the program, so the output does not depend on the timing
+        var hasFatalError = false
+        for (functionBodyCheck in functionBodyChecks) {
+            functionBodyCheck.diagnostics?.let {
+                it.print()
+                hasFatalError = hasFatalError || it.hasFatalError
+            }
+        }
+        functionBodyChecks.clear()
+
+        if (hasFatalError) {
+            exitProcess(-1)
+        }
+
+        // whether a function is pure depends on the assignments in the whole program
+        checkMemoizedFunctions(ctx!!)
+
+        return programVisit
     }
 
     override fun visitBlock(ctx: SamosaParser.BlockContext?): Void? {
         println("Visiting block...")
         symbolTable.incrementScope()
+        functionControlPathAnalyzer?.enterBlock(ctx)
         val blockVisit = super.visitBlock(ctx)
 
         val blockStart = Pair(ctx!!.start.line, ctx.start.charPositionInLine)
@@ -154,15 +340,19 @@ class StaticTypesChecker(private val symbolTable: SymbolTable) : SamosaBaseVisit
             println("Found boolie type id $idName")
             // isInitialValueCalculated is true here because the var is initialized to a default value
             val boolSymbol = BoolSymbol(idName, firstAppearedLineNum, isInitialValueCalculated = true, initializeExpressionPresent = false)
-            symbolTable.insert(idName, boolSymbol)
+            insertDeclaredSymbol(ctx, idName, boolSymbol)
         } else if (typeNameCtx.INTTYPE() != null) {
             println("Found int type for id $idName")
             val intSymbol = IntSymbol(idName, firstAppearedLineNum, isInitialValueCalculated = true, initializeExpressionPresent = false)
-            symbolTable.insert(idName, intSymbol)
+            insertDeclaredSymbol(ctx, idName, intSymbol)
         } else if (typeNameCtx.STRINGTYPE() != null) {
             println("Found string type for id $idName")
             val stringSymbol = StringSymbol(idName, firstAppearedLineNum, isInitialValueCalculated = true, initializeExpressionPresent = false)
-            symbolTable.insert(idName, stringSymbol)
+            insertDeclaredSymbol(ctx, idName, stringSymbol)
+        } else if (typeNameCtx.arrayTypeName() != null) {
+            // an int[] that is only declared is initialized to an empty array
+            val intArraySymbol = IntArraySymbol(idName, firstAppearedLineNum, initializeExpressionPresent = false)
+            insertDeclaredSymbol(ctx, idName, intArraySymbol)
         } else if (typeNameCtx.VOIDTYPE() != null) {
             // We do not have void variables
             fmtfatalerr("Void types for variable declarations are not allowed.", firstAppearedLineNum)
@@ -221,7 +411,7 @@ class StaticTypesChecker(private val symbolTable: SymbolTable) : SamosaBaseVisit
                 intSymbol.isInitialValueCalculated = true
             }
 
-            symbolTable.insert(idName, intSymbol)
+            insertDeclaredSymbol(ctx, idName, intSymbol)
         } else if (typeNameCtx.STRINGTYPE() != null) {
             val stringSymbol = StringSymbol(idName, firstAppearedLineNum, isInitialValueCalculated = false, initializeExpressionPresent = true)
             val stringExprChecker = StringExpressionChecker(symbolTable)
@@ -242,7 +432,22 @@ class StaticTypesChecker(private val symbolTable: SymbolTable) : SamosaBaseVisit
                 stringSymbol.isInitialValueCalculated = true
             }
 
-            symbolTable.insert(idName, stringSymbol)
+            insertDeclaredSymbol(ctx, idName, stringSymbol)
+        } else if (typeNameCtx.arrayTypeName() != null) {
+            val intArraySymbol = IntArraySymbol(idName, firstAppearedLineNum, initializeExpressionPresent = true)
+            val intArrayExprChecker = IntArrayExpressionChecker(symbolTable)
+
+            if (!intArrayExprChecker.checkExpr(ctx.expr())) {
+                val typeDetector = ExpressionTypeDetector(symbolTable)
+                val detectedType = typeDetector.getType(ctx.expr())
+                fmtfatalerr(
+                    "Expected ${SymbolType.INT_ARRAY.asString} expression on RHS, " +
+                            "found ${if (detectedType.first) detectedType.second.asString else "mismatched types. "}. ",
+                    firstAppearedLineNum
+                )
+            }
+
+            insertDeclaredSymbol(ctx, idName, intArraySymbol)
         } else if (typeNameCtx.VOIDTYPE() != null) {
             // no support for void variables
             fmtfatalerr("Void types for variable declarations are not yet supported. ", firstAppearedLineNum)
@@ -289,7 +494,7 @@ class StaticTypesChecker(private val symbolTable: SymbolTable) : SamosaBaseVisit
         if (boolExpressionEvaluator.checkStaticEvaluable()) {
             boolSymbol.isInitialValueCalculated = true
         }
-        symbolTable.insert(idName, boolSymbol)
+        insertDeclaredSymbol(ctx, idName, boolSymbol)
 
         return super.visitBooleanDeclAssignStmt(ctx)
     }
@@ -347,7 +552,7 @@ class StaticTypesChecker(private val symbolTable: SymbolTable) : SamosaBaseVisit
                 if (intExpressionEvaluator.checkStaticEvaluable()) {
                     intSymbol.isInitialValueCalculated = true
                 }
-                symbolTable.insert(idName, intSymbol)
+                insertDeclaredSymbol(ctx, idName, intSymbol)
             }
             SymbolType.STRING -> {
                 val stringSymbol = StringSymbol(idName, firstAppearedLineNum, true, isInitialValueCalculated = false, initializeExpressionPresent = true)
@@ -368,7 +573,7 @@ class StaticTypesChecker(private val symbolTable: SymbolTable) : SamosaBaseVisit
                 if (stringExpressionEvaluator.checkStaticEvaluable()) {
                     stringSymbol.isInitialValueCalculated = true
                 }
-                symbolTable.insert(idName, stringSymbol)
+                insertDeclaredSymbol(ctx, idName, stringSymbol)
             }
             SymbolType.BOOL -> {
                 // We probably have one of these 2 cases here:
@@ -382,7 +587,20 @@ class StaticTypesChecker(private val symbolTable: SymbolTable) : SamosaBaseVisit
                 // TODO: implement the original override for checkExpr that takes a normal expression context in BoolExpressionChecker
 
                 val boolSymbol = BoolSymbol(idName, firstAppearedLineNum, true, isInitialValueCalculated = false, initializeExpressionPresent = true)
-                symbolTable.insert(idName, boolSymbol)
+                insertDeclaredSymbol(ctx, idName, boolSymbol)
+            }
+            SymbolType.INT_ARRAY -> {
+                val intArraySymbol = IntArraySymbol(idName, firstAppearedLineNum, true, initializeExpressionPresent = true)
+                val intArrayExprChecker = IntArrayExpressionChecker(symbolTable)
+
+                if (!intArrayExprChecker.checkExpr(ctx.expr())) {
+                    fmtfatalerr(
+                        "While inferring type, expected ${SymbolType.INT_ARRAY.asString} expression on RHS, " +
+                                "found mismatched types. ",
+                        firstAppearedLineNum
+                    )
+                }
+                insertDeclaredSymbol(ctx, idName, intArraySymbol)
             }
             else -> {
                 // invalid type
@@ -434,7 +652,7 @@ class StaticTypesChecker(private val symbolTable: SymbolTable) : SamosaBaseVisit
         if (boolExpressionEvaluator.checkStaticEvaluable()) {
             boolSymbol.isInitialValueCalculated = true
         }
-        symbolTable.insert(idName, boolSymbol)
+        insertDeclaredSymbol(ctx, idName, boolSymbol)
 
         return super.visitTypeInferredBooleanDeclAssignStmt(ctx)
     }
@@ -459,6 +677,16 @@ class StaticTypesChecker(private val symbolTable: SymbolTable) : SamosaBaseVisit
             )
         }
 
+        if (isForLoopVariable(ctx, existingSymbol)) {
+            fmtfatalerr(
+                "Cannot assign to $idName, which is the variable of a for loop.",
+                lineNum
+            )
+        }
+
+        existingSymbol.isReassigned = true
+        symbolTable.symbolAnnotations.put(ctx, existingSymbol)
+
         when (existingSymbol.symbolType) {
             SymbolType.INT -> {
                 val intExprChecker = IntExpressionChecker(symbolTable)
@@ -513,6 +741,19 @@ class StaticTypesChecker(private val symbolTable: SymbolTable) : SamosaBaseVisit
                     )
                 }
             }
+            SymbolType.INT_ARRAY -> {
+                val intArrayExprChecker = IntArrayExpressionChecker(symbolTable)
+
+                if (!intArrayExprChecker.checkExpr(ctx.expr())) {
+                    val typeDetector = ExpressionTypeDetector(symbolTable)
+                    val detectedType = typeDetector.getType(ctx.expr())
+                    fmtfatalerr(
+                        "Expected ${SymbolType.INT_ARRAY.asString} expression on RHS, " +
+                                "found ${if (detectedType.first) detectedType.second.asString else "mismatched types. "}. ",
+                        lineNum
+                    )
+                }
+            }
             else -> {
                 // invalid type
                 fmtfatalerr(
@@ -525,20 +766,112 @@ class StaticTypesChecker(private val symbolTable: SymbolTable) : SamosaBaseVisit
         return super.visitExprAssign(ctx)
     }
 
+    /**
+     * Checks if the symbol is the variable of a for loop that the node is in.
+     */
+    private fun isForLoopVariable(node: ParseTree, symbol: ISymbol): Boolean {
+        var parent = node.parent
+        while (parent != null) {
+            if (parent is SamosaParser.ForStmtContext && symbolTable.symbolAnnotations.get(parent) === symbol) {
+                return true
+            }
+            parent = parent.parent
+        }
+        return false
+    }
+
     override fun visitExprIdentifier(ctx: SamosaParser.ExprIdentifierContext?): Void? {
         println("Visiting ExprIdentifier...") // debug
         val idName = ctx!!.IDENTIFIER().symbol.text
         val lineNum = ctx.IDENTIFIER().symbol.line
 
-        symbolTable.lookup(idName)
+        val symbol = symbolTable.lookup(idName)
             ?: fmtfatalerr(
                 "Unknown identifier $idName.",
                 lineNum
             )
 
+        symbolTable.symbolAnnotations.put(ctx, symbol)
         return super.visitExprIdentifier(ctx)
     }
 
+    override fun visitExprArrayIndex(ctx: SamosaParser.ExprArrayIndexContext?): Void? {
+        val idName = ctx!!.IDENTIFIER().symbol.text
+        val lineNum = ctx.IDENTIFIER().symbol.line
+
+        val symbol = symbolTable.lookup(idName)
+            ?: fmtfatalerr(
+                "Unknown identifier $idName.",
+                lineNum
+            )
+
+        if (symbol.symbolType != SymbolType.INT_ARRAY) {
+            fmtfatalerr("Cannot index into $idName, which is of type ${symbol.symbolType.asString}.", lineNum)
+        }
+
+        if (!IntExpressionChecker(symbolTable).checkExpr(ctx.expr())) {
+            fmtfatalerr("The index into $idName must be an ${SymbolType.INT.asString} expression.", lineNum)
+        }
+
+        symbolTable.symbolAnnotations.put(ctx, symbol)
+        return super.visitExprArrayIndex(ctx)
+    }
+
+    override fun visitExprNewIntArray(ctx: SamosaParser.ExprNewIntArrayContext?): Void? {
+        if (!IntExpressionChecker(symbolTable).checkExpr(ctx!!.expr())) {
+            fmtfatalerr("The size of the new array must be an ${SymbolType.INT.asString} expression.", ctx.start.line)
+        }
+
+        return super.visitExprNewIntArray(ctx)
+    }
+
+    override fun visitArrayElementAssign(ctx: SamosaParser.ArrayElementAssignContext?): Void? {
+        val idName = ctx!!.IDENTIFIER().symbol.text
+        val lineNum = ctx.IDENTIFIER().symbol.line
+
+        val existingSymbol = symbolTable.lookup(idName)
+            ?: fmtfatalerr(
+                "Cannot assign to an element of unknown identifier $idName.",
+                lineNum
+            )
+
+        if (existingSymbol.symbolType != SymbolType.INT_ARRAY) {
+            fmtfatalerr(
+                "Cannot assign to an element of $idName, which is of type ${existingSymbol.symbolType.asString}.",
+                lineNum
+            )
+        }
+
+        if (!IntExpressionChecker(symbolTable).checkExpr(ctx.index)) {
+            fmtfatalerr("The index into $idName must be an ${SymbolType.INT.asString} expression.", lineNum)
+        }
+
+        if (!IntExpressionChecker(symbolTable).checkExpr(ctx.value)) {
+            val typeDetector = ExpressionTypeDetector(symbolTable)
+            val detectedType = typeDetector.getType(ctx.value)
+            fmtfatalerr(
+                "Expected ${SymbolType.INT.asString} expression on RHS, " +
+                        "found ${if (detectedType.first) detectedType.second.asString else "mismatched types. "}. ",
+                lineNum
+            )
+        }
+
+        // the array itself is not reassigned, only its elements are
+        symbolTable.symbolAnnotations.put(ctx, existingSymbol)
+        return super.visitArrayElementAssign(ctx)
+    }
+
+    override fun visitBooleanExprIdentifier(ctx: SamosaParser.BooleanExprIdentifierContext?): Void? {
+        // the type of the identifier is checked by BoolExpressionChecker
+        val symbol = symbolTable.lookup(ctx!!.IDENTIFIER().symbol.text)
+
+        if (symbol != null) {
+            symbolTable.symbolAnnotations.put(ctx, symbol)
+        }
+
+        return super.visitBooleanExprIdentifier(ctx)
+    }
+
     override fun visitFunctionCallWithArgs(ctx: SamosaParser.FunctionCallWithArgsContext?): Void? {
         // we don't have any use for the return type of the function call
         // we use this just for checking the function call
@@ -586,6 +919,9 @@ class StaticTypesChecker(private val symbolTable: SymbolTable) : SamosaBaseVisit
             )
         }
 
+        existingSymbol.isReassigned = true
+        symbolTable.symbolAnnotations.put(ctx, existingSymbol)
+
         // right side should be an expression that returns a boolean value
         val boolExpressionChecker = BoolExpressionChecker(symbolTable)
 
@@ -623,29 +959,18 @@ class StaticTypesChecker(private val symbolTable: SymbolTable) : SamosaBaseVisit
         val paramList = parseAndAddFunctionParamsImplicitDef(ctx)
         val functionSymbol = FunctionSymbol(idName, definedLineNum, paramList, SymbolType.VOID)
 
-        val functionReturnsChecker = FunctionReturnsChecker(symbolTable, functionSymbol)
         symbolTable.insert(idName, functionSymbol)
-        val visitFunctionInside = super.visitImplicitRetTypeFuncDef(ctx)
-        val functionReturnsOk = functionReturnsChecker.checkReturnStmts(ctx)
-
-        val functionControlPathsChecker = FunctionControlPathAnalyzer(symbolTable, functionSymbol)
-        val functionReturnPathsOk = functionControlPathsChecker.checkAllControlPathsForReturns(ctx)
-
-        if (!functionReturnPathsOk) {
-            fmtfatalerr(
-                "Not all possible execution paths in the function return a value of type ${functionSymbol.returnType.asString}.",
-                definedLineNum
-            )
+        symbolTable.symbolAnnotations.put(ctx, functionSymbol)
+        if (ctx.memoKeyword() != null) {
+            markMemoized(functionSymbol, ctx.memoKeyword())
         }
 
-        if (!functionReturnsOk) {
-            fmtfatalerr(
-                "Function body contains errors. (There may be additional information above.)",
-                definedLineNum
-            )
-        }
-
-        return visitFunctionInside
+        return checkFunctionBody(
+            ctx,
+            functionSymbol,
+            enterFunction = { it.enterImplicitRetTypeFuncDef(ctx) },
+            exitFunction = { it.exitImplicitRetTypeFuncDef(ctx) },
+        )
     }
 
     override fun visitExplicitRetTypeFuncDef(ctx: SamosaParser.ExplicitRetTypeFuncDefContext?): Void? {
@@ -678,34 +1003,25 @@ class StaticTypesChecker(private val symbolTable: SymbolTable) : SamosaBaseVisit
             SymbolType.STRING
         } else if (ctx.typeName().BOOLTYPE() != null) {
             SymbolType.BOOL
+        } else if (ctx.typeName().arrayTypeName() != null) {
+            SymbolType.INT_ARRAY
         } else {
             SymbolType.VOID
         }
 
         val functionSymbol = FunctionSymbol(idName, definedLineNum, paramList, funcRetType)
         symbolTable.insert(idName, functionSymbol)
-        val visitFunctionInside = super.visitExplicitRetTypeFuncDef(ctx)
-        val functionReturnsChecker = FunctionReturnsChecker(symbolTable, functionSymbol)
-        val functionReturnsOk = functionReturnsChecker.checkReturnStmts(ctx)
-
-        val functionControlPathsChecker = FunctionControlPathAnalyzer(symbolTable, functionSymbol)
-        val functionReturnPathsOk = functionControlPathsChecker.checkAllControlPathsForReturns(ctx)
-
-        if (!functionReturnPathsOk) {
-            fmtfatalerr(
-                "Not all possible execution paths in the function return a value of type ${functionSymbol.returnType.asString}.",
-                definedLineNum
-            )
-        }
-
-        if (!functionReturnsOk) {
-            fmtfatalerr(
-                "Function body contains errors. (There might be additional information above.)",
-                definedLineNum
-            )
+        symbolTable.symbolAnnotations.put(ctx, functionSymbol)
+        if (ctx.memoKeyword() != null) {
+            markMemoized(functionSymbol, ctx.memoKeyword())
         }
 
-        return visitFunctionInside
+        return checkFunctionBody(
+            ctx,
+            functionSymbol,
+            enterFunction = { it.enterExplicitRetTypeFuncDef(ctx) },
+            exitFunction = { it.exitExplicitRetTypeFuncDef(ctx) },
+        )
     }
 
     override fun visitIfStmt(ctx: SamosaParser.IfStmtContext?): Void? {
@@ -722,7 +1038,10 @@ class StaticTypesChecker(private val symbolTable: SymbolTable) : SamosaBaseVisit
             }
         }
 
-        return super.visitIfStmt(ctx)
+        functionControlPathAnalyzer?.enterIfStmt(ctx)
+        val ifStmtVisit = super.visitIfStmt(ctx)
+        functionControlPathAnalyzer?.exitIfStmt(ctx)
+        return ifStmtVisit
     }
 
     override fun visitWhileStmt(ctx: SamosaParser.WhileStmtContext?): Void? {
@@ -733,18 +1052,94 @@ class StaticTypesChecker(private val symbolTable: SymbolTable) : SamosaBaseVisit
                         "for while statement.", ctx.WHILE().symbol.line
             )
         }
-        return super.visitWhileStmt(ctx)
+
+        functionControlPathAnalyzer?.enterWhileStmt(ctx)
+        val whileStmtVisit = super.visitWhileStmt(ctx)
+        functionControlPathAnalyzer?.exitWhileStmt(ctx)
+        return whileStmtVisit
+    }
+
+    override fun visitForStmt(ctx: SamosaParser.ForStmtContext?): Void? {
+        val idName = ctx!!.IDENTIFIER().symbol.text
+        val lineNum = ctx.FOR().symbol.line
+
+        val intExprChecker = IntExpressionChecker(symbolTable)
+        if (!intExprChecker.checkExpr(ctx.start) || !intExprChecker.checkExpr(ctx.end)) {
+            fmtfatalerr("The range of a for loop must be given by ${SymbolType.INT.asString} expressions.", lineNum)
+        }
+
+        if (ctx.stepKeyword() != null && ctx.stepKeyword().text != "step") {
+            fmtfatalerr("Expected 'step' before the step of the for loop, found '${ctx.stepKeyword().text}'.", lineNum)
+        }
+
+        // the step is added to the loop variable with an iinc instruction, so it must be a (short) constant
+        if (ctx.step != null) {
+            val stepEvaluator = IntExpressionEvaluator(ctx.step)
+            val isStepValid = intExprChecker.checkExpr(ctx.step) && stepEvaluator.checkStaticEvaluable()
+                    && stepEvaluator.evaluate().let { it != 0 && it in Short.MIN_VALUE..Short.MAX_VALUE }
+            if (!isStepValid) {
+                fmtfatalerr(
+                    "The step of a for loop must be a nonzero ${SymbolType.INT.asString} constant " +
+                            "from ${Short.MIN_VALUE} to ${Short.MAX_VALUE}.",
+                    lineNum
+                )
+            }
+        }
+
+        val existingSymbol = symbolTable.lookup(idName)
+        if (existingSymbol != null) {
+            fmtfatalerr(
+                "Identifier $idName was declared before on line ${existingSymbol.firstAppearedLine}.",
+                lineNum
+            )
+        }
+
+        /**
+         * The loop variable is inserted into the scope of the loop body, like the parameters
+         * of a function are (see processArgList()).
+         * It changes on every iteration, so it is never a constant.
+         */
+        symbolTable.incrementScope()
+        val loopVariable = IntSymbol(idName, lineNum, isInitialValueCalculated = false, initializeExpressionPresent = true)
+        loopVariable.isReassigned = true
+        insertDeclaredSymbol(ctx, idName, loopVariable)
+        symbolTable.decrementScope(false)
+
+        functionControlPathAnalyzer?.enterForStmt(ctx)
+        val forStmtVisit = super.visitForStmt(ctx)
+        functionControlPathAnalyzer?.exitForStmt(ctx)
+        return forStmtVisit
+    }
+
+    override fun visitReturnStmtNoExpr(ctx: SamosaParser.ReturnStmtNoExprContext?): Void? {
+        functionReturnsChecker?.enterReturnStmtNoExpr(ctx)
+        functionControlPathAnalyzer?.enterReturnStmtNoExpr(ctx)
+        return super.visitReturnStmtNoExpr(ctx)
+    }
+
+    override fun visitReturnStmtWithExpr(ctx: SamosaParser.ReturnStmtWithExprContext?): Void? {
+        functionReturnsChecker?.enterReturnStmtWithExpr(ctx)
+        functionControlPathAnalyzer?.enterReturnStmtWithExpr(ctx)
+        return super.visitReturnStmtWithExpr(ctx)
+    }
+
+    override fun visitReturnStmtWithBooleanExpr(ctx: SamosaParser.ReturnStmtWithBooleanExprContext?): Void? {
+        functionReturnsChecker?.enterReturnStmtWithBooleanExpr(ctx)
+        functionControlPathAnalyzer?.enterReturnStmtWithBooleanExpr(ctx)
+        return super.visitReturnStmtWithBooleanExpr(ctx)
     }
 
     override fun visitBreakControlStmt(ctx: SamosaParser.BreakControlStmtContext?): Void? {
         var parentBlockCtx = ctx!!.parent
 
-        while (parentBlockCtx != null && parentBlockCtx !is SamosaParser.WhileStmtContext) {
+        while (parentBlockCtx != null && parentBlockCtx !is SamosaParser.WhileStmtContext
+            && parentBlockCtx !is SamosaParser.ForStmtContext
+        ) {
             parentBlockCtx = parentBlockCtx.parent
         }
 
         if (parentBlockCtx == null) {
-            // this statement is not a part of while
+            // this statement is not a part of a loop
             fmtfatalerr("Breakout statement must be within a loop.", ctx.BREAK().symbol.line)
         }
 
@@ -754,12 +1149,14 @@ class StaticTypesChecker(private val symbolTable: SymbolTable) : SamosaBaseVisit
     override fun visitContinueControlStmt(ctx: SamosaParser.ContinueControlStmtContext?): Void? {
         var parentBlockCtx = ctx!!.parent
 
-        while (parentBlockCtx != null && parentBlockCtx !is SamosaParser.WhileStmtContext) {
+        while (parentBlockCtx != null && parentBlockCtx !is SamosaParser.WhileStmtContext
+            && parentBlockCtx !is SamosaParser.ForStmtContext
+        ) {
             parentBlockCtx = parentBlockCtx.parent
         }
 
         if (parentBlockCtx == null) {
-            // this statement is not a part of while
+            // this statement is not a part of a loop
             fmtfatalerr("Continue statement must be within a loop.", ctx.CONTINUE().symbol.line)
         }
 
@@ -8,35 +8,24 @@ import com.sachett.samosa.samosac.symbol.FunctionSymbol
 import com.sachett.samosa.samosac.symbol.SymbolType
 import com.sachett.samosa.samosac.symbol.symboltable.SymbolTable
 import org.antlr.v4.runtime.tree.ErrorNode
-import org.antlr.v4.runtime.tree.ParseTreeWalker
 import java.util.ArrayDeque
 
+/**
+ * Builds a tree of the control paths in a function and checks that all of them return a value.
+ * Like the FunctionReturnsChecker, it is fed the listener events by the StaticTypesChecker
+ * while it visits the function body, so it does not walk the function again on its own.
+ */
 class FunctionControlPathAnalyzer(
     private val symbolTable: SymbolTable,
     private val fnSymbol: FunctionSymbol
 ) : SamosaBaseListener() {
 
-    fun checkAllControlPathsForReturns(ctx: SamosaParser.ImplicitRetTypeFuncDefContext): Boolean {
-        println("**--- Starting control paths analysis ---") // DEBUG
+    fun allControlPathsReturn(): Boolean {
         // No need to check if it returns void
         if (fnSymbol.returnType == SymbolType.VOID) {
             return true
         }
 
-        ParseTreeWalker.DEFAULT.walk(this, ctx)
-
-        return functionRootBlock.doesReturnProperly
-    }
-
-    fun checkAllControlPathsForReturns(ctx: SamosaParser.ExplicitRetTypeFuncDefContext): Boolean {
-        println("**--- Starting control paths analysis ---") // DEBUG
-        // No need to check if it returns void
-        if (fnSymbol.returnType == SymbolType.VOID) {
-            return true
-        }
-
-        ParseTreeWalker.DEFAULT.walk(this, ctx)
-
         return functionRootBlock.doesReturnProperly
     }
 
@@ -127,10 +116,19 @@ class FunctionControlPathAnalyzer(
         exitControlNode()
     }
 
+    override fun enterForStmt(ctx: SamosaParser.ForStmtContext?) {
+        val forControlNode = ForControlNode(fnSymbol, currentStrayBlock.parent!!)
+        addControlNode(forControlNode)
+    }
+
+    override fun exitForStmt(ctx: SamosaParser.ForStmtContext?) {
+        exitControlNode()
+    }
+
     override fun enterBlock(ctx: SamosaParser.BlockContext?) {
-        symbolTable.incrementScopeOverrideScopeCreation(false)
         if (ctx!!.parent is SamosaParser.IfStmtContext
             || ctx.parent is SamosaParser.WhileStmtContext
+            || ctx.parent is SamosaParser.ForStmtContext
             || ctx.parent is SamosaParser.ImplicitRetTypeFuncDefContext?
             || ctx.parent is SamosaParser.ExplicitRetTypeFuncDefContext?
         ) {
@@ -138,10 +136,6 @@ class FunctionControlPathAnalyzer(
         }
     }
 
-    override fun exitBlock(ctx: SamosaParser.BlockContext?) {
-        symbolTable.decrementScope(false)
-    }
-
     override fun visitErrorNode(node: ErrorNode?) {
         // TODO: Handle this
         super.visitErrorNode(node)
@@ -0,0 +1,160 @@
+package com.sachett.samosa.samosac.staticchecker.analyzers
+
+import com.sachett.samosa.parser.SamosaParser
+import com.sachett.samosa.samosac.symbol.FunctionSymbol
+import com.sachett.samosa.samosac.symbol.ISymbol
+import com.sachett.samosa.samosac.symbol.SymbolType
+import com.sachett.samosa.samosac.symbol.symboltable.SymbolTable
+import org.antlr.v4.runtime.tree.ParseTree
+import java.util.IdentityHashMap
+
+/**
+ * Finds out which functions of the program are pure, that is, have no side effects and return the same result
+ * whenever they are called with the same arguments.
+ *
+ * A function is pure if its body:
+ * - does not assign to any global,
+ * - does not read any global that is assigned to after its declaration,
+ * - calls no builtin function other than the pure ones (no I/O like putout, putin or exit),
+ * - has no probable (uncertain) statements, nor function definitions of its own,
+ * - does not use arrays (their elements can change between two calls, even if the arrays passed are the same),
+ * - and only calls pure functions (a function that calls itself can still be pure).
+ *
+ * This needs the symbol annotations of the static checker (including those of the assignments and the function
+ * definitions), and so can only be used once the static checking is over.
+ */
+class FunctionPurityAnalyzer(programContext: SamosaParser.ProgramContext, private val symbolTable: SymbolTable) {
+    private val functionDefs = IdentityHashMap<FunctionSymbol, SamosaParser.FuncDefContext>()
+    private val purity = IdentityHashMap<FunctionSymbol, Boolean>()
+    private val functionsBeingAnalyzed = IdentityHashMap<FunctionSymbol, Boolean>()
+
+    init {
+        collectFunctionDefs(programContext)
+    }
+
+    private fun collectFunctionDefs(node: ParseTree) {
+        if (node is SamosaParser.FuncDefContext) {
+            (symbolTable.symbolAnnotations.get(node) as? FunctionSymbol)?.let { functionDefs[it] = node }
+        }
+
+        for (i in 0 until node.childCount) {
+            collectFunctionDefs(node.getChild(i))
+        }
+    }
+
+    /**
+     * Returns the definition of the function.
+     */
+    fun getFunctionDef(functionSymbol: FunctionSymbol): SamosaParser.FuncDefContext? = functionDefs[functionSymbol]
+
+    /**
+     * Returns the body of the function definition.
+     */
+    fun getFunctionBody(funcDef: SamosaParser.FuncDefContext): SamosaParser.BlockContext {
+        return when (funcDef) {
+            is SamosaParser.ImplicitRetTypeFuncDefContext -> funcDef.block()
+            else -> (funcDef as SamosaParser.ExplicitRetTypeFuncDefContext).block()
+        }
+    }
+
+    /**
+     * Returns the user function that the call refers to, if any.
+     */
+    fun lookupCalledFunction(functionCall: SamosaParser.FunctionCallContext): FunctionSymbol? {
+        val funcName = when (functionCall) {
+            is SamosaParser.FunctionCallNoArgsContext -> functionCall.IDENTIFIER().text
+            is SamosaParser.FunctionCallWithArgsContext -> functionCall.IDENTIFIER().text
+            else -> return null
+        }
+
+        // all the functions are in the global scope
+        return symbolTable.lookupInCoordinates(funcName, Pair(0, 0)) as? FunctionSymbol
+    }
+
+    /**
+     * Checks if the function is pure.
+     */
+    @Synchronized
+    fun isPure(functionSymbol: FunctionSymbol): Boolean {
+        purity[functionSymbol]?.let { return it }
+
+        if (functionsBeingAnalyzed.containsKey(functionSymbol)) {
+            // a recursive call: the function is pure if the rest of it is
+            return true
+        }
+
+        val funcDef = functionDefs[functionSymbol] ?: return false
+        if (functionSymbol.returnType == SymbolType.INT_ARRAY
+            || functionSymbol.paramList.any { it.symbolType == SymbolType.INT_ARRAY }) {
+            purity[functionSymbol] = false
+            return false
+        }
+
+        functionsBeingAnalyzed[functionSymbol] = true
+        val isPure = isPureCode(getFunctionBody(funcDef))
+        functionsBeingAnalyzed.remove(functionSymbol)
+
+        purity[functionSymbol] = isPure
+        return isPure
+    }
+
+    private fun isGlobal(symbol: ISymbol): Boolean {
+        return symbol.symbolType != SymbolType.FUNCTION && symbol.symbolCoordinates?.first == 0
+    }
+
+    private fun isPureCode(node: ParseTree): Boolean {
+        when (node) {
+            is SamosaParser.UncertainStatementSingleContext,
+            is SamosaParser.UncertainStatementMultipleContext,
+            is SamosaParser.UncertainCompoundStmtContext,
+            is SamosaParser.FuncDefContext,
+            is SamosaParser.QualifiedFunctionCallNoArgsContext,
+            is SamosaParser.QualifiedFunctionCallWithArgsContext,
+            is SamosaParser.ExprArrayIndexContext,
+            is SamosaParser.ExprNewIntArrayContext,
+            is SamosaParser.ArrayElementAssignContext -> return false
+
+            is SamosaParser.ExprAssignContext, is SamosaParser.BooleanExprAssignContext -> {
+                val symbol = symbolTable.symbolAnnotations.get(node) ?: return false
+                if (isGlobal(symbol)) {
+                    return false
+                }
+            }
+
+            is SamosaParser.ExprIdentifierContext, is SamosaParser.BooleanExprIdentifierContext -> {
+                val symbol = symbolTable.symbolAnnotations.get(node) ?: return false
+                if ((isGlobal(symbol) && symbol.isReassigned) || symbol.symbolType == SymbolType.INT_ARRAY) {
+                    return false
+                }
+            }
+
+            is SamosaParser.FunctionCallNoArgsContext, is SamosaParser.FunctionCallWithArgsContext -> {
+                val calledFunction = lookupCalledFunction(node as SamosaParser.FunctionCallContext)
+                if (calledFunction != null) {
+                    if (!isPure(calledFunction)) {
+                        return false
+                    }
+                } else {
+                    val funcName = (node as? SamosaParser.FunctionCallWithArgsContext)?.IDENTIFIER()?.text
+                    if (funcName !in pureBuiltinFunctions) {
+                        return false
+                    }
+                }
+            }
+        }
+
+        for (i in 0 until node.childCount) {
+            if (!isPureCode(node.getChild(i))) {
+                return false
+            }
+        }
+        return true
+    }
+
+    companion object {
+        /**
+         * The builtin functions that have no side effects (stoi may fail, but always does so for the same argument).
+         */
+        val pureBuiltinFunctions = setOf("itos", "stoi")
+    }
+}
@@ -5,5 +5,6 @@ enum class ControlBlockType {
     ELSEIF,
     ELSE,
     WHILE,
+    FOR,
     FUNCTIONROOT
 }
\ No newline at end of file
@@ -0,0 +1,46 @@
+package com.sachett.samosa.samosac.staticchecker.analyzers.blocks
+
+import com.sachett.samosa.samosac.symbol.FunctionSymbol
+
+class ForControlNode(
+    override val parentFnSymbol: FunctionSymbol,
+    override val parent: IFunctionInnerBlock
+) :
+    ControlNode(parentFnSymbol, parent) {
+    private var doesReturnComputed = false
+    override val children: ArrayList<IFunctionInnerBlock> = arrayListOf()
+
+    init {
+        // Partially build the ForControlNode
+        // (add a ForControlBlock and a stray block to it)
+
+        // The ControlBlock initializes and adds a stray block to itself
+        val forControlBlock = ControlBlock(parentFnSymbol, this, ControlBlockType.FOR)
+        children.add(forControlBlock)
+    }
+
+    /**
+     * This only tells if the body returns a value: the range of the loop may be empty, so the enclosing
+     * block does not count on it (see ControlBlock).
+     */
+    override var doesReturnProperly: Boolean = false
+        get() {
+            if (doesReturnComputed) {
+                return field
+            }
+
+            var returns = true
+
+            for (child in children) {
+                returns = returns && child.doesReturnProperly
+            }
+
+            field = returns
+            doesReturnComputed = true
+            return field
+        }
+        set(value) {
+            doesReturnComputed = true
+            field = value
+        }
+}
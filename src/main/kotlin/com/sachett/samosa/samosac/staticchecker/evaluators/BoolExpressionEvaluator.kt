@@ -4,13 +4,27 @@ import com.sachett.samosa.logging.err
 import com.sachett.samosa.parser.SamosaBaseVisitor
 import com.sachett.samosa.parser.SamosaParser
 import com.sachett.samosa.samosac.staticchecker.ExpressionTypeDetector
+import com.sachett.samosa.samosac.symbol.BoolSymbol
 import com.sachett.samosa.samosac.symbol.SymbolType
 import com.sachett.samosa.samosac.symbol.symboltable.SymbolTable
-
+import org.antlr.v4.runtime.tree.ParseTree
+
+/**
+ * Folds boolean expressions at compile time.
+ *
+ * If propagateConstants is set, identifiers that refer to constants are replaced with their values
+ * and calls to pure functions of the program with constant arguments are folded (see IntExpressionEvaluator);
+ * this should only be done once static checking is over. The values folded then are recorded in the symbol table
+ * (see SymbolTable.foldedValues).
+ */
 class BoolExpressionEvaluator(
     private var exprContext: SamosaParser.BooleanExprContext,
-    private val symbolTable: SymbolTable
+    private val symbolTable: SymbolTable,
+    private val propagateConstants: Boolean = false
 ) : SamosaBaseVisitor<Boolean>(), IStaticExprEvaluator<Boolean> {
+    /* The symbol table passed on to the int and string evaluators (for the operands of relops and compops) */
+    private val operandSymbolTable: SymbolTable? = if (propagateConstants) symbolTable else null
+
     private var isExprStaticEvaluable = true
     private var isExprStaticEvaluableCalculated = false
     private var evaluationResult: Boolean = false
@@ -24,6 +38,7 @@ class BoolExpressionEvaluator(
         }
 
         evaluationResult = visit(exprContext)
+        isExprStaticEvaluableCalculated = true
         return isExprStaticEvaluable
     }
 
@@ -46,12 +61,49 @@ class BoolExpressionEvaluator(
         evaluationResult = false
     }
 
+    override fun visit(tree: ParseTree?): Boolean {
+        if (!propagateConstants) {
+            return super.visit(tree)
+        }
+
+        (symbolTable.foldedValues.get(tree) as? Boolean)?.let { return it }
+
+        // whether this (sub)expression is known at compile time, apart from the rest of the expression
+        val isEnclosingExprStaticEvaluable = isExprStaticEvaluable
+        isExprStaticEvaluable = true
+
+        val value = super.visit(tree)
+        if (isExprStaticEvaluable) {
+            symbolTable.foldedValues.put(tree, value)
+        }
+
+        isExprStaticEvaluable = isEnclosingExprStaticEvaluable && isExprStaticEvaluable
+        return value
+    }
+
     override fun visitBooleanExprIdentifier(ctx: SamosaParser.BooleanExprIdentifierContext?): Boolean {
-        isExprStaticEvaluable = false
-        return false
+        val constantSymbol = if (propagateConstants) symbolTable.lookupConstant(ctx!!) as? BoolSymbol else null
+
+        if (constantSymbol == null) {
+            isExprStaticEvaluable = false
+            return false
+        }
+
+        return constantSymbol.value
     }
 
     override fun visitBooleanFunctionCall(ctx: SamosaParser.BooleanFunctionCallContext?): Boolean {
+        // a call to a pure function of the program
+        val callResult = if (propagateConstants) {
+            symbolTable.functionCallEvaluator?.evaluateCall(ctx!!.functionCall())
+        } else {
+            null
+        }
+
+        if (callResult is Boolean) {
+            return callResult
+        }
+
         isExprStaticEvaluable = false
         return false
     }
@@ -71,18 +123,19 @@ class BoolExpressionEvaluator(
             || (lhsType.second != rhsType.second)
             || !lhsType.second.canBeUsedWithRelOp
         ) {
+            isExprStaticEvaluable = false
             return false
         }
 
         val theRelOp = ctx.relOp()
 
         // RelOp expressions have two operands
-        var leftVal: Any? = null
-        var rightVal: Any? = null
+        val leftVal: Int
+        val rightVal: Int
 
         // Since we only have int expressions that can be compared using relops right now
         if (lhsType.second == SymbolType.INT && rhsType.second == SymbolType.INT) {
-            val intExpressionEvaluator = IntExpressionEvaluator(ctx.expr(0))
+            val intExpressionEvaluator = IntExpressionEvaluator(ctx.expr(0), operandSymbolTable)
             if (!intExpressionEvaluator.checkStaticEvaluable()) {
                 isExprStaticEvaluable = false
                 return false
@@ -95,23 +148,26 @@ class BoolExpressionEvaluator(
                 return false
             }
             rightVal = intExpressionEvaluator.evaluate()
+        } else {
+            isExprStaticEvaluable = false
+            return false
         }
 
         if (theRelOp.GT() != null) {
             if (lhsType.second == SymbolType.INT && rhsType.second == SymbolType.INT) {
-                comparisonResult = (leftVal!! as Int) > (rightVal!! as Int)
+                comparisonResult = leftVal > rightVal
             }
         } else if (theRelOp.GTEQ() != null) {
             if (lhsType.second == SymbolType.INT && rhsType.second == SymbolType.INT) {
-                comparisonResult = (leftVal!! as Int) >= (rightVal!! as Int)
+                comparisonResult = leftVal >= rightVal
             }
         } else if (theRelOp.LT() != null) {
             if (lhsType.second == SymbolType.INT && rhsType.second == SymbolType.INT) {
-                comparisonResult = (leftVal!! as Int) < (rightVal!! as Int)
+                comparisonResult = leftVal < rightVal
             }
         } else if (theRelOp.LTEQ() != null) {
             if (lhsType.second == SymbolType.INT && rhsType.second == SymbolType.INT) {
-                comparisonResult = (leftVal!! as Int) <= (rightVal!! as Int)
+                comparisonResult = leftVal <= rightVal
             }
         } else {
             err("[Error] Unknown relational operator.")
@@ -140,20 +196,21 @@ class BoolExpressionEvaluator(
         // check for incompatible types
         if ((!lhsType.first || !rhsType.first)
             || (lhsType.second != rhsType.second)
-            || !lhsType.second.canBeUsedWithRelOp
+            || !lhsType.second.canBeUsedWithCompOp
         ) {
+            isExprStaticEvaluable = false
             return false
         }
 
         val theCompOp = ctx.compOp()
 
         // RelOp expressions have two operands
-        var leftVal: Any? = null
-        var rightVal: Any? = null
+        val leftVal: Any
+        val rightVal: Any
 
         // Currently, we can only compare strings and ints using == and !=
         if (lhsType.second == SymbolType.INT && rhsType.second == SymbolType.INT) {
-            val intExpressionEvaluator = IntExpressionEvaluator(ctx.expr(0))
+            val intExpressionEvaluator = IntExpressionEvaluator(ctx.expr(0), operandSymbolTable)
             if (!intExpressionEvaluator.checkStaticEvaluable()) {
                 isExprStaticEvaluable = false
                 return false
@@ -167,7 +224,7 @@ class BoolExpressionEvaluator(
             }
             rightVal = intExpressionEvaluator.evaluate()
         } else if (lhsType.second == SymbolType.STRING && rhsType.second == SymbolType.STRING) {
-            val stringExpressionEvaluator = StringExpressionEvaluator(ctx.expr(0))
+            val stringExpressionEvaluator = StringExpressionEvaluator(ctx.expr(0), operandSymbolTable)
             if (!stringExpressionEvaluator.checkStaticEvaluable()) {
                 isExprStaticEvaluable = false
                 return false
@@ -180,19 +237,23 @@ class BoolExpressionEvaluator(
                 return false
             }
             rightVal = stringExpressionEvaluator.evaluate()
+        } else {
+            // boolie operands are not folded
+            isExprStaticEvaluable = false
+            return false
         }
 
         if (theCompOp.COMP() != null) {
             if (lhsType.second == SymbolType.INT && rhsType.second == SymbolType.INT) {
-                comparisonResult = (leftVal!! as Int) == (rightVal!! as Int)
+                comparisonResult = (leftVal as Int) == (rightVal as Int)
             } else if (lhsType.second == SymbolType.STRING && rhsType.second == SymbolType.STRING) {
-                comparisonResult = (leftVal!! as String) == (rightVal!! as String)
+                comparisonResult = (leftVal as String) == (rightVal as String)
             }
         } else if (theCompOp.COMPNOTEQ() != null) {
             if (lhsType.second == SymbolType.INT && rhsType.second == SymbolType.INT) {
-                comparisonResult = (leftVal!! as Int) != (rightVal!! as Int)
+                comparisonResult = (leftVal as Int) != (rightVal as Int)
             } else if (lhsType.second == SymbolType.STRING && rhsType.second == SymbolType.STRING) {
-                comparisonResult = (leftVal!! as String) != (rightVal!! as String)
+                comparisonResult = (leftVal as String) != (rightVal as String)
             }
         } else {
             err("[Error] Unknown comparison operator.")
@@ -0,0 +1,441 @@
+package com.sachett.samosa.samosac.staticchecker.evaluators
+
+import com.sachett.samosa.parser.SamosaParser
+import com.sachett.samosa.samosac.staticchecker.ExpressionTypeDetector
+import com.sachett.samosa.samosac.staticchecker.analyzers.FunctionPurityAnalyzer
+import com.sachett.samosa.samosac.symbol.BoolSymbol
+import com.sachett.samosa.samosac.symbol.FunctionSymbol
+import com.sachett.samosa.samosac.symbol.ISymbol
+import com.sachett.samosa.samosac.symbol.IntSymbol
+import com.sachett.samosa.samosac.symbol.StringSymbol
+import com.sachett.samosa.samosac.symbol.SymbolType
+import com.sachett.samosa.samosac.symbol.symboltable.SymbolTable
+import org.antlr.v4.runtime.tree.ParseTree
+import java.util.IdentityHashMap
+
+/**
+ * Evaluates the calls to the pure functions of the program (see FunctionPurityAnalyzer) whose arguments are known
+ * at compile time, by interpreting the bodies of the functions. The int, string and boolean expression evaluators
+ * use it to fold such calls like any other constant.
+ *
+ * The interpretation follows the JVM's semantics (ints wrap around, strings are compared by value), and gives up
+ * on anything that would fail at runtime (a division by zero, stoi on a string that is not a number),
+ * so that the failure still happens when the program runs. It also gives up once it has run more than MAX_STEPS
+ * statements (or MAX_CALL_DEPTH nested calls), so that the compilation of a long-running or non-terminating
+ * function does not take forever. The calls it could not evaluate are left as they are.
+ *
+ * The results are remembered for each function and list of arguments, so a recursive function
+ * (like fib) is interpreted once for every distinct argument.
+ */
+class FunctionCallEvaluator(programContext: SamosaParser.ProgramContext, private val symbolTable: SymbolTable) {
+    val purityAnalyzer = FunctionPurityAnalyzer(programContext, symbolTable)
+
+    private val typeDetector = ExpressionTypeDetector(symbolTable)
+    private val callResults = IdentityHashMap<SamosaParser.FunctionCallContext, Any>()
+    private val functionResults = HashMap<Pair<FunctionSymbol, List<Any>>, Any>()
+
+    /**
+     * Evaluates the call, if it is a call to a pure function of the program that returns a value,
+     * and all its arguments are known at compile time.
+     * @return  The result of the call (an Int, a String or a Boolean), or null if it cannot be evaluated.
+     */
+    @Synchronized
+    fun evaluateCall(functionCall: SamosaParser.FunctionCallContext): Any? {
+        val callResult = callResults.getOrPut(functionCall) { evaluateCallUncached(functionCall) ?: NOT_EVALUABLE }
+        return if (callResult === NOT_EVALUABLE) null else callResult
+    }
+
+    private fun evaluateCallUncached(functionCall: SamosaParser.FunctionCallContext): Any? {
+        val functionSymbol = purityAnalyzer.lookupCalledFunction(functionCall) ?: return null
+        if (functionSymbol.returnType == SymbolType.VOID || !purityAnalyzer.isPure(functionSymbol)) {
+            return null
+        }
+
+        val args = if (functionCall is SamosaParser.FunctionCallWithArgsContext) {
+            evaluateArgs(functionSymbol, functionCall.callArgList()) ?: return null
+        } else {
+            listOf()
+        }
+
+        val key = Pair(functionSymbol, args)
+        val result = functionResults[key]
+        if (result != null) {
+            return if (result === NOT_EVALUABLE) null else result
+        }
+
+        return try {
+            Interpreter().call(functionSymbol, args)
+        } catch (e: NotEvaluableException) {
+            functionResults[key] = NOT_EVALUABLE
+            null
+        }
+    }
+
+    /**
+     * Folds the arguments of the call, matching them with the parameters the same way as the codegen does.
+     */
+    private fun evaluateArgs(functionSymbol: FunctionSymbol, callArgList: SamosaParser.CallArgListContext): List<Any>? {
+        val normalArgs = callArgList.callParams
+        val booleanArgs = callArgList.booleanCallParams
+        var normalArgCounter = 0
+        var booleanArgCounter = 0
+        val args = arrayListOf<Any>()
+
+        for (param in functionSymbol.paramList) {
+            val arg: Any? = when (param.symbolType) {
+                SymbolType.INT -> {
+                    val intExpressionEvaluator = IntExpressionEvaluator(normalArgs[normalArgCounter++], symbolTable)
+                    if (intExpressionEvaluator.checkStaticEvaluable()) intExpressionEvaluator.evaluate() else null
+                }
+                SymbolType.STRING -> {
+                    val stringExpressionEvaluator =
+                        StringExpressionEvaluator(normalArgs[normalArgCounter++], symbolTable)
+                    if (stringExpressionEvaluator.checkStaticEvaluable()) stringExpressionEvaluator.evaluate() else null
+                }
+                SymbolType.BOOL -> {
+                    if (normalArgCounter < normalArgs.size
+                        && typeDetector.getType(normalArgs[normalArgCounter]).second == SymbolType.BOOL
+                    ) {
+                        // a boolie identifier or function call passed as a normal expression
+                        evaluateBoolExpr(normalArgs[normalArgCounter++])
+                    } else {
+                        val boolExpressionEvaluator =
+                            BoolExpressionEvaluator(booleanArgs[booleanArgCounter++], symbolTable, true)
+                        if (boolExpressionEvaluator.checkStaticEvaluable()) boolExpressionEvaluator.evaluate() else null
+                    }
+                }
+                else -> null
+            }
+
+            args.add(arg ?: return null)
+        }
+
+        return args
+    }
+
+    /**
+     * Folds a normal expression that is of the boolie type (an identifier or a function call).
+     */
+    fun evaluateBoolExpr(expr: SamosaParser.ExprContext): Boolean? {
+        return when (expr) {
+            is SamosaParser.ExprParenContext -> evaluateBoolExpr(expr.expr())
+            is SamosaParser.ExprIdentifierContext -> (symbolTable.lookupConstant(expr) as? BoolSymbol)?.value
+            is SamosaParser.ExprFunctionCallContext -> evaluateCall(expr.functionCall()) as? Boolean
+            else -> null
+        }
+    }
+
+    private class NotEvaluableException : RuntimeException(null, null, false, false)
+
+    private enum class Completion { NORMAL, BREAK, CONTINUE, RETURN }
+
+    /**
+     * Interprets the bodies of the functions for one evaluation, with its own limit on the number of steps.
+     */
+    private inner class Interpreter {
+        private var steps = 0
+        private var callDepth = 0
+
+        /* The values of the parameters and the local variables of the function being interpreted */
+        private var variables = IdentityHashMap<ISymbol, Any>()
+        private var returnValue: Any? = null
+
+        private fun giveUp(): Nothing = throw NotEvaluableException()
+
+        private fun step() {
+            if (++steps > MAX_STEPS) {
+                giveUp()
+            }
+        }
+
+        fun call(functionSymbol: FunctionSymbol, args: List<Any>): Any {
+            val key = Pair(functionSymbol, args)
+            functionResults[key]?.let { return if (it === NOT_EVALUABLE) giveUp() else it }
+
+            if (++callDepth > MAX_CALL_DEPTH) {
+                giveUp()
+            }
+            step()
+
+            val funcDef = purityAnalyzer.getFunctionDef(functionSymbol) ?: giveUp()
+            val callerVariables = variables
+            variables = IdentityHashMap()
+            functionSymbol.paramList.forEachIndexed { i, param -> variables[param] = args[i] }
+
+            val completion = executeBlock(purityAnalyzer.getFunctionBody(funcDef))
+            val result = if (completion == Completion.RETURN) returnValue else null
+            returnValue = null
+            variables = callerVariables
+            callDepth--
+
+            if (functionSymbol.returnType == SymbolType.VOID) {
+                return Unit
+            }
+
+            // the static checker makes sure that all the control paths return a value
+            result ?: giveUp()
+            functionResults[key] = result
+            return result
+        }
+
+        private fun executeBlock(block: SamosaParser.BlockContext): Completion {
+            val statements = block.statements() ?: return Completion.NORMAL
+
+            for (statement in statements.children) {
+                val completion = when (statement) {
+                    is SamosaParser.RegularStmtContext -> executeStatement(statement.getChild(0))
+                    is SamosaParser.CompoundStmtContext -> {
+                        statement.ifStmt()?.let { executeIfStmt(it) }
+                            ?: statement.whileStmt()?.let { executeWhileStmt(it) }
+                            ?: executeForStmt(statement.forStmt())
+                    }
+                    else -> giveUp()
+                }
+
+                if (completion != Completion.NORMAL) {
+                    return completion
+                }
+            }
+
+            return Completion.NORMAL
+        }
+
+        private fun executeStatement(statement: ParseTree): Completion {
+            step()
+
+            when (statement) {
+                is SamosaParser.DeclStmtContext -> {
+                    val symbol = declaredSymbol(statement)
+                    variables[symbol] = symbol.symbolType.defaultValue ?: giveUp()
+                }
+                is SamosaParser.NormalDeclAssignStmtContext ->
+                    variables[declaredSymbol(statement)] = evaluateExpr(statement.expr())
+                is SamosaParser.TypeInferredDeclAssignStmtContext ->
+                    variables[declaredSymbol(statement)] = evaluateExpr(statement.expr())
+                is SamosaParser.BooleanDeclAssignStmtContext ->
+                    variables[declaredSymbol(statement)] = evaluateBooleanExpr(statement.booleanExpr())
+                is SamosaParser.TypeInferredBooleanDeclAssignStmtContext ->
+                    variables[declaredSymbol(statement)] = evaluateBooleanExpr(statement.booleanExpr())
+                is SamosaParser.ExprAssignContext ->
+                    variables[assignedSymbol(statement)] = evaluateExpr(statement.expr())
+                is SamosaParser.BooleanExprAssignContext ->
+                    variables[assignedSymbol(statement)] = evaluateBooleanExpr(statement.booleanExpr())
+                is SamosaParser.FunctionCallContext -> callFunction(statement)
+                is SamosaParser.ReturnStmtNoExprContext -> return Completion.RETURN
+                is SamosaParser.ReturnStmtWithExprContext -> {
+                    returnValue = evaluateExpr(statement.expr())
+                    return Completion.RETURN
+                }
+                is SamosaParser.ReturnStmtWithBooleanExprContext -> {
+                    returnValue = evaluateBooleanExpr(statement.booleanExpr())
+                    return Completion.RETURN
+                }
+                is SamosaParser.BreakControlStmtContext -> return Completion.BREAK
+                is SamosaParser.ContinueControlStmtContext -> return Completion.CONTINUE
+                else -> giveUp()
+            }
+
+            return Completion.NORMAL
+        }
+
+        private fun executeIfStmt(ifStmt: SamosaParser.IfStmtContext): Completion {
+            step()
+
+            // the blocks are: the if block, the else if blocks, and then the else block (if any)
+            val conditions = ifStmt.booleanExpr()
+            val blocks = ifStmt.block()
+            for (i in conditions.indices) {
+                if (evaluateBooleanExpr(conditions[i])) {
+                    return executeBlock(blocks[i])
+                }
+            }
+
+            return if (blocks.size > conditions.size) executeBlock(blocks.last()) else Completion.NORMAL
+        }
+
+        private fun executeWhileStmt(whileStmt: SamosaParser.WhileStmtContext): Completion {
+            while (true) {
+                step()
+                if (!evaluateBooleanExpr(whileStmt.booleanExpr())) {
+                    return Completion.NORMAL
+                }
+
+                when (executeBlock(whileStmt.block())) {
+                    Completion.BREAK -> return Completion.NORMAL
+                    Completion.RETURN -> return Completion.RETURN
+                    else -> {}
+                }
+            }
+        }
+
+        private fun executeForStmt(forStmt: SamosaParser.ForStmtContext): Completion {
+            step()
+            val loopVariable = declaredSymbol(forStmt)
+            var value = evaluateInt(forStmt.start)
+            val end = evaluateInt(forStmt.end)
+            val stepValue = forStmt.step?.let { evaluateInt(it) } ?: 1
+
+            while (if (stepValue > 0) value < end else value > end) {
+                step()
+                variables[loopVariable] = value
+
+                when (executeBlock(forStmt.block())) {
+                    Completion.BREAK -> return Completion.NORMAL
+                    Completion.RETURN -> return Completion.RETURN
+                    else -> {}
+                }
+
+                // the loop ends instead of wrapping around (see ForStmtCodegen)
+                val nextValue = value.toLong() + stepValue
+                if (nextValue !in Int.MIN_VALUE..Int.MAX_VALUE) {
+                    break
+                }
+                value = nextValue.toInt()
+            }
+
+            return Completion.NORMAL
+        }
+
+        private fun declaredSymbol(declCtx: ParseTree): ISymbol = symbolTable.symbolAnnotations.get(declCtx) ?: giveUp()
+
+        private fun assignedSymbol(assignCtx: ParseTree): ISymbol {
+            val symbol = symbolTable.symbolAnnotations.get(assignCtx) ?: giveUp()
+            return if (variables.containsKey(symbol)) symbol else giveUp()
+        }
+
+        private fun valueOf(identifier: ParseTree): Any {
+            val symbol = symbolTable.symbolAnnotations.get(identifier) ?: giveUp()
+            variables[symbol]?.let { return it }
+
+            // a global constant
+            return when (val constantSymbol = symbolTable.lookupConstant(identifier)) {
+                is IntSymbol -> constantSymbol.value
+                is StringSymbol -> constantSymbol.value
+                is BoolSymbol -> constantSymbol.value
+                else -> giveUp()
+            }
+        }
+
+        private fun evaluateInt(expr: SamosaParser.ExprContext): Int = evaluateExpr(expr) as? Int ?: giveUp()
+
+        private fun evaluateExpr(expr: SamosaParser.ExprContext): Any {
+            return when (expr) {
+                is SamosaParser.ExprDecintContext -> expr.DECINT().text.toIntOrNull() ?: giveUp()
+                is SamosaParser.ExprStringContext -> expr.text.substring(1, expr.text.length - 1)
+                is SamosaParser.ExprIdentifierContext -> valueOf(expr)
+                is SamosaParser.ExprParenContext -> evaluateExpr(expr.expr())
+                is SamosaParser.UnaryMinusContext ->
+                    if (IntExpressionEvaluator.isIntMinValueLiteral(expr)) Int.MIN_VALUE else -evaluateInt(expr.expr())
+                is SamosaParser.ExprPlusContext -> {
+                    val left = evaluateExpr(expr.expr(0))
+                    val right = evaluateExpr(expr.expr(1))
+                    when {
+                        left is Int && right is Int -> left + right
+                        left is String && right is String -> left + right
+                        else -> giveUp()
+                    }
+                }
+                is SamosaParser.ExprMinusContext -> evaluateInt(expr.expr(0)) - evaluateInt(expr.expr(1))
+                is SamosaParser.ExprMultiplyContext -> evaluateInt(expr.expr(0)) * evaluateInt(expr.expr(1))
+                is SamosaParser.ExprDivideContext -> {
+                    val left = evaluateInt(expr.expr(0))
+                    val right = evaluateInt(expr.expr(1))
+                    if (right == 0) giveUp() else left / right
+                }
+                is SamosaParser.ExprModuloContext -> {
+                    val left = evaluateInt(expr.expr(0))
+                    val right = evaluateInt(expr.expr(1))
+                    if (right == 0) giveUp() else left % right
+                }
+                is SamosaParser.ExprFunctionCallContext -> callFunction(expr.functionCall())
+                else -> giveUp()
+            }
+        }
+
+        private fun evaluateBooleanExpr(expr: SamosaParser.BooleanExprContext): Boolean {
+            return when (expr) {
+                is SamosaParser.BooleanTrueContext -> true
+                is SamosaParser.BooleanFalseContext -> false
+                is SamosaParser.BooleanExprIdentifierContext -> valueOf(expr) as? Boolean ?: giveUp()
+                is SamosaParser.BooleanExprParenContext -> evaluateBooleanExpr(expr.booleanExpr())
+                is SamosaParser.BooleanExprNotContext -> !evaluateBooleanExpr(expr.booleanExpr())
+                is SamosaParser.BooleanExprOrContext ->
+                    evaluateBooleanExpr(expr.booleanExpr(0)) || evaluateBooleanExpr(expr.booleanExpr(1))
+                is SamosaParser.BooleanExprAndContext ->
+                    evaluateBooleanExpr(expr.booleanExpr(0)) && evaluateBooleanExpr(expr.booleanExpr(1))
+                is SamosaParser.BooleanExprXorContext ->
+                    evaluateBooleanExpr(expr.booleanExpr(0)) xor evaluateBooleanExpr(expr.booleanExpr(1))
+                is SamosaParser.BooleanExprRelOpContext -> {
+                    val left = evaluateInt(expr.expr(0))
+                    val right = evaluateInt(expr.expr(1))
+                    val relOp = expr.relOp()
+                    when {
+                        relOp.LT() != null -> left < right
+                        relOp.GT() != null -> left > right
+                        relOp.LTEQ() != null -> left <= right
+                        else -> left >= right
+                    }
+                }
+                is SamosaParser.BooleanExprCompOpContext -> {
+                    val areEqual = evaluateExpr(expr.expr(0)) == evaluateExpr(expr.expr(1))
+                    if (expr.compOp().COMP() != null) areEqual else !areEqual
+                }
+                is SamosaParser.BooleanFunctionCallContext -> callFunction(expr.functionCall()) as? Boolean ?: giveUp()
+                else -> giveUp()
+            }
+        }
+
+        private fun callFunction(functionCall: SamosaParser.FunctionCallContext): Any {
+            val functionSymbol = purityAnalyzer.lookupCalledFunction(functionCall)
+
+            if (functionCall !is SamosaParser.FunctionCallWithArgsContext) {
+                // no pure builtin takes no arguments
+                return call(functionSymbol ?: giveUp(), listOf())
+            }
+
+            val callArgList = functionCall.callArgList()
+            if (functionSymbol == null) {
+                if (callArgList.callParams.size != 1 || callArgList.booleanCallParams.isNotEmpty()) {
+                    giveUp()
+                }
+
+                val arg = evaluateExpr(callArgList.callParams[0])
+                return when (functionCall.IDENTIFIER().text) {
+                    "itos" -> (arg as? Int ?: giveUp()).toString()
+                    "stoi" -> (arg as? String ?: giveUp()).toIntOrNull() ?: giveUp()
+                    else -> giveUp()
+                }
+            }
+
+            // match the arguments with the parameters the same way as the codegen does
+            val normalArgs = callArgList.callParams
+            val booleanArgs = callArgList.booleanCallParams
+            var normalArgCounter = 0
+            var booleanArgCounter = 0
+            val args = arrayListOf<Any>()
+
+            for (param in functionSymbol.paramList) {
+                args.add(
+                    if (param.symbolType != SymbolType.BOOL) {
+                        evaluateExpr(normalArgs[normalArgCounter++])
+                    } else if (normalArgCounter < normalArgs.size
+                        && typeDetector.getType(normalArgs[normalArgCounter]).second == SymbolType.BOOL
+                    ) {
+                        evaluateExpr(normalArgs[normalArgCounter++])
+                    } else {
+                        evaluateBooleanExpr(booleanArgs[booleanArgCounter++])
+                    }
+                )
+            }
+
+            return call(functionSymbol, args)
+        }
+    }
+
+    companion object {
+        const val MAX_STEPS = 100000
+        const val MAX_CALL_DEPTH = 100
+
+        private val NOT_EVALUABLE = Any()
+    }
+}
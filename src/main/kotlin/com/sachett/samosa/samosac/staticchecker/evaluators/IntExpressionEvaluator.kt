@@ -1,14 +1,35 @@
 package com.sachett.samosa.samosac.staticchecker.evaluators
 
+import com.sachett.samosa.logging.fmtfatalerr
 import com.sachett.samosa.parser.SamosaBaseVisitor
 import com.sachett.samosa.parser.SamosaParser
+import com.sachett.samosa.samosac.symbol.IntSymbol
 import com.sachett.samosa.samosac.symbol.SymbolType
+import com.sachett.samosa.samosac.symbol.symboltable.SymbolTable
+import org.antlr.v4.runtime.tree.ParseTree
 
-import net.objecthunter.exp4j.ExpressionBuilder
-
-class IntExpressionEvaluator(private var exprContext: SamosaParser.ExprContext): SamosaBaseVisitor<Void?>() {
+/**
+ * Folds integer expressions at compile time.
+ * The folding follows the JVM's int semantics exactly: arithmetic wraps around on overflow,
+ * division truncates towards zero and the remainder takes the sign of the dividend.
+ * A division (or modulo) by zero is reported as an error.
+ *
+ * The visitor methods return null for (sub)expressions that cannot be evaluated at compile time.
+ *
+ * If a symbol table is given, identifiers that refer to constants (symbols whose values are known at compile time
+ * and that are never reassigned) are replaced with their values, and calls to stoi with constant arguments are folded
+ * (as are the calls to pure functions of the program, see FunctionCallEvaluator).
+ * This should only be done once static checking is over, when it is known which symbols get reassigned.
+ * The values folded then are recorded in the symbol table (see SymbolTable.foldedValues), and not folded again.
+ */
+class IntExpressionEvaluator(
+    private var exprContext: SamosaParser.ExprContext,
+    private val symbolTable: SymbolTable? = null
+): SamosaBaseVisitor<Int?>() {
     private var isExprStaticEvaluable = true
     private var isExprStaticEvaluableCalculated = false
+    private var evaluationResult: Int? = null
+
     /**
      * Checks if the expression can be evaluated at compile time.
      */
@@ -17,7 +38,9 @@ class IntExpressionEvaluator(private var exprContext: SamosaParser.ExprContext):
             return isExprStaticEvaluable
         }
 
-        visit(exprContext)
+        evaluationResult = visit(exprContext)
+        isExprStaticEvaluable = evaluationResult != null
+        isExprStaticEvaluableCalculated = true
         return isExprStaticEvaluable
     }
 
@@ -25,6 +48,7 @@ class IntExpressionEvaluator(private var exprContext: SamosaParser.ExprContext):
         this.exprContext = exprContext
         isExprStaticEvaluableCalculated = false
         isExprStaticEvaluable = true
+        evaluationResult = null
     }
 
     /**
@@ -36,17 +60,146 @@ class IntExpressionEvaluator(private var exprContext: SamosaParser.ExprContext):
             return SymbolType.INT.defaultValue!! as Int
         }
 
-        val exp = ExpressionBuilder(exprContext.text).build()
-        return exp.evaluate().toInt()
+        return evaluationResult!!
+    }
+
+    override fun visit(tree: ParseTree?): Int? {
+        if (symbolTable == null) {
+            return super.visit(tree)
+        }
+
+        (symbolTable.foldedValues.get(tree) as? Int)?.let { return it }
+
+        val value = super.visit(tree)
+        if (value != null) {
+            symbolTable.foldedValues.put(tree, value)
+        }
+        return value
+    }
+
+    /**
+     * Folds a binary operation, if both the operands are known at compile time.
+     */
+    private inline fun foldBinary(
+        lhs: SamosaParser.ExprContext,
+        rhs: SamosaParser.ExprContext,
+        operation: (Int, Int) -> Int
+    ): Int? {
+        // both the operands are visited, so that all the constant divisions by zero get reported
+        val left = visit(lhs)
+        val right = visit(rhs)
+
+        if (left == null || right == null) {
+            return null
+        }
+
+        return operation(left, right)
     }
 
-    override fun visitExprIdentifier(ctx: SamosaParser.ExprIdentifierContext?): Void? {
-        isExprStaticEvaluable = false
-        return super.visitExprIdentifier(ctx)
+    /**
+     * Same as foldBinary but reports an error if the divisor is known to be zero.
+     */
+    private inline fun foldDivision(
+        lhs: SamosaParser.ExprContext,
+        rhs: SamosaParser.ExprContext,
+        operation: (Int, Int) -> Int
+    ): Int? {
+        val left = visit(lhs)
+        val right = visit(rhs)
+
+        if (right == 0) {
+            fmtfatalerr("Division by zero.", rhs.start.line)
+        }
+
+        if (left == null || right == null) {
+            return null
+        }
+
+        return operation(left, right)
+    }
+
+    override fun visitExprDecint(ctx: SamosaParser.ExprDecintContext?): Int? {
+        return ctx!!.DECINT().text.toIntOrNull()
+            ?: fmtfatalerr("Integer literal ${ctx.DECINT().text} is too large for an int.", ctx.start.line)
     }
 
-    override fun visitExprFunctionCall(ctx: SamosaParser.ExprFunctionCallContext?): Void? {
-        isExprStaticEvaluable = false
-        return super.visitExprFunctionCall(ctx)
+    override fun visitUnaryMinus(ctx: SamosaParser.UnaryMinusContext?): Int? {
+        if (isIntMinValueLiteral(ctx!!)) {
+            return Int.MIN_VALUE
+        }
+        return visit(ctx.expr())?.let { -it }
+    }
+
+    override fun visitExprParen(ctx: SamosaParser.ExprParenContext?): Int? {
+        return visit(ctx!!.expr())
+    }
+
+    override fun visitExprPlus(ctx: SamosaParser.ExprPlusContext?): Int? =
+        foldBinary(ctx!!.expr(0), ctx.expr(1)) { left, right -> left + right }
+
+    override fun visitExprMinus(ctx: SamosaParser.ExprMinusContext?): Int? =
+        foldBinary(ctx!!.expr(0), ctx.expr(1)) { left, right -> left - right }
+
+    override fun visitExprMultiply(ctx: SamosaParser.ExprMultiplyContext?): Int? =
+        foldBinary(ctx!!.expr(0), ctx.expr(1)) { left, right -> left * right }
+
+    override fun visitExprDivide(ctx: SamosaParser.ExprDivideContext?): Int? =
+        foldDivision(ctx!!.expr(0), ctx.expr(1)) { left, right -> left / right }
+
+    override fun visitExprModulo(ctx: SamosaParser.ExprModuloContext?): Int? =
+        foldDivision(ctx!!.expr(0), ctx.expr(1)) { left, right -> left % right }
+
+    override fun visitExprIdentifier(ctx: SamosaParser.ExprIdentifierContext?): Int? {
+        return (symbolTable?.lookupConstant(ctx!!) as? IntSymbol)?.value
+    }
+
+    override fun visitExprString(ctx: SamosaParser.ExprStringContext?): Int? {
+        return null
+    }
+
+    override fun visitExprArrayIndex(ctx: SamosaParser.ExprArrayIndexContext?): Int? {
+        // the elements of an array are only known at runtime (but a constant division by zero in the index is not)
+        visit(ctx!!.expr())
+        return null
+    }
+
+    override fun visitExprFunctionCall(ctx: SamosaParser.ExprFunctionCallContext?): Int? {
+        if (symbolTable == null) {
+            return null
+        }
+
+        // a call to a pure function of the program
+        symbolTable.functionCallEvaluator?.evaluateCall(ctx!!.functionCall())?.let { return it as? Int }
+
+        val functionCall = ctx!!.functionCall() as? SamosaParser.FunctionCallWithArgsContext ?: return null
+        val callArgs = functionCall.callArgList()
+        if (functionCall.IDENTIFIER().text != "stoi" || callArgs.callParams.size != 1) {
+            return null
+        }
+
+        val stringArgEvaluator = StringExpressionEvaluator(callArgs.callParams[0], symbolTable)
+        if (!stringArgEvaluator.checkStaticEvaluable()) {
+            return null
+        }
+
+        // a string that is not a number is left to fail at runtime
+        return try {
+            Integer.parseInt(stringArgEvaluator.evaluate())
+        } catch (e: NumberFormatException) {
+            null
+        }
+    }
+
+    companion object {
+        /**
+         * Checks if the negation is the literal -2147483648 (Int.MIN_VALUE), whose digits alone are too large
+         * for an int, so the literal has to be read as a whole (like in Java).
+         */
+        @JvmStatic
+        fun isIntMinValueLiteral(ctx: SamosaParser.UnaryMinusContext): Boolean {
+            val operand = ctx.expr()
+            return operand is SamosaParser.ExprDecintContext
+                    && operand.DECINT().text.toLongOrNull() == -Int.MIN_VALUE.toLong()
+        }
     }
-}
\ No newline at end of file
+}
@@ -2,11 +2,23 @@ package com.sachett.samosa.samosac.staticchecker.evaluators
 
 import com.sachett.samosa.parser.SamosaBaseVisitor
 import com.sachett.samosa.parser.SamosaParser
+import com.sachett.samosa.samosac.symbol.StringSymbol
 import com.sachett.samosa.samosac.symbol.SymbolType
+import com.sachett.samosa.samosac.symbol.symboltable.SymbolTable
+import org.antlr.v4.runtime.tree.ParseTree
+import org.antlr.v4.runtime.tree.RuleNode
 
-import net.objecthunter.exp4j.ExpressionBuilder
-
-class StringExpressionEvaluator(private var exprContext: SamosaParser.ExprContext): SamosaBaseVisitor<String>() {
+/**
+ * Folds string expressions (concatenations of string literals) at compile time.
+ *
+ * If a symbol table is given, identifiers that refer to constants are replaced with their values,
+ * and calls to itos (or to pure functions of the program) with constant arguments are folded
+ * (see IntExpressionEvaluator). The values folded then are recorded in the symbol table.
+ */
+class StringExpressionEvaluator(
+    private var exprContext: SamosaParser.ExprContext,
+    private val symbolTable: SymbolTable? = null
+): SamosaBaseVisitor<String>() {
     private var isExprStaticEvaluable = true
     private var isExprStaticEvaluableCalculated = false
     private var evaluationResult: String = ""
@@ -19,6 +31,7 @@ class StringExpressionEvaluator(private var exprContext: SamosaParser.ExprContex
         }
 
         evaluationResult = visit(exprContext)
+        isExprStaticEvaluableCalculated = true
         return isExprStaticEvaluable
     }
 
@@ -40,15 +53,70 @@ class StringExpressionEvaluator(private var exprContext: SamosaParser.ExprContex
         isExprStaticEvaluable = true
     }
 
-    // only for checking purposes
-    override fun visitExprIdentifier(ctx: SamosaParser.ExprIdentifierContext?): String {
+    override fun visit(tree: ParseTree?): String {
+        if (symbolTable == null) {
+            return super.visit(tree)
+        }
+
+        (symbolTable.foldedValues.get(tree) as? String)?.let { return it }
+
+        // whether this (sub)expression is known at compile time, apart from the rest of the expression
+        val isEnclosingExprStaticEvaluable = isExprStaticEvaluable
+        isExprStaticEvaluable = true
+
+        val value = super.visit(tree)
+        if (isExprStaticEvaluable && value != null) {
+            symbolTable.foldedValues.put(tree, value)
+        }
+
+        isExprStaticEvaluable = isEnclosingExprStaticEvaluable && isExprStaticEvaluable
+        return value
+    }
+
+    /**
+     * Any other kind of expression (like an int expression) is not a string known at compile time.
+     */
+    override fun visitChildren(node: RuleNode?): String {
         isExprStaticEvaluable = false
         return ""
     }
 
+    override fun visitExprIdentifier(ctx: SamosaParser.ExprIdentifierContext?): String {
+        val constantSymbol = symbolTable?.lookupConstant(ctx!!) as? StringSymbol
+
+        if (constantSymbol == null) {
+            isExprStaticEvaluable = false
+            return ""
+        }
+
+        return constantSymbol.value
+    }
+
     override fun visitExprFunctionCall(ctx: SamosaParser.ExprFunctionCallContext?): String {
-        isExprStaticEvaluable = false
-        return ""
+        // a call to a pure function of the program
+        symbolTable?.functionCallEvaluator?.evaluateCall(ctx!!.functionCall())?.let {
+            if (it is String) {
+                return it
+            }
+        }
+
+        val functionCall = ctx!!.functionCall() as? SamosaParser.FunctionCallWithArgsContext
+        val callArgs = functionCall?.callArgList()
+
+        if (symbolTable == null || functionCall == null || functionCall.IDENTIFIER().text != "itos"
+            || callArgs!!.callParams.size != 1
+        ) {
+            isExprStaticEvaluable = false
+            return ""
+        }
+
+        val intArgEvaluator = IntExpressionEvaluator(callArgs.callParams[0], symbolTable)
+        if (!intArgEvaluator.checkStaticEvaluable()) {
+            isExprStaticEvaluable = false
+            return ""
+        }
+
+        return intArgEvaluator.evaluate().toString()
     }
 
     // for compile-time evaluation:
@@ -10,6 +10,7 @@ class BoolSymbol(
     override var symbolCoordinates: Pair<Int, Int>? = null
 ) : ISymbol {
     override val symbolType: SymbolType = SymbolType.BOOL
+    override var isReassigned: Boolean = false
 
     override fun isSymbolType(symbolType: SymbolType): Boolean = symbolType == SymbolType.BOOL
 }
\ No newline at end of file
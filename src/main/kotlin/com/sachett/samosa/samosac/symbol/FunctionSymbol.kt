@@ -11,10 +11,14 @@ class FunctionSymbol(
     override var symbolCoordinates: Pair<Int, Int>? = null
 ) : ISymbol {
     override val symbolType: SymbolType = SymbolType.FUNCTION
+    override var isReassigned: Boolean = false
+
+    /* Are the results of the function cached (let memo ...)? */
+    var isMemoized: Boolean = false
 
     companion object {
         val allowedReturnTypes =
-            listOf(SymbolType.INT, SymbolType.BOOL, SymbolType.STRING, SymbolType.VOID)
+            listOf(SymbolType.INT, SymbolType.BOOL, SymbolType.STRING, SymbolType.INT_ARRAY, SymbolType.VOID)
     }
 
     override fun isSymbolType(symbolType: SymbolType): Boolean = symbolType == SymbolType.FUNCTION
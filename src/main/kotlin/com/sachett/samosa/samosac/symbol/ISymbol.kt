@@ -8,6 +8,7 @@ interface ISymbol {
     var initializeExpressionPresent: Boolean // was the value
     var isInitialValueCalculated: Boolean
     var symbolCoordinates: Pair<Int, Int>? // coordinates of the symbol in the symbol table
+    var isReassigned: Boolean // is the symbol assigned to anywhere after its declaration?
     fun isSymbolType(symbolType: SymbolType): Boolean
 
     /**
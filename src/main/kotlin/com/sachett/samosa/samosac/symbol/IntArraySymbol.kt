@@ -0,0 +1,19 @@
+package com.sachett.samosa.samosac.symbol
+
+class IntArraySymbol(
+    override val name: String,
+    override val firstAppearedLine: Int,
+    override val isInferredType: Boolean = false,
+    override var initializeExpressionPresent: Boolean,
+    override var symbolCoordinates: Pair<Int, Int>? = null
+) : ISymbol {
+    override val symbolType: SymbolType = SymbolType.INT_ARRAY
+    override var isReassigned: Boolean = false
+
+    // the value of an array is only known at runtime (and its elements can change even if it is never reassigned)
+    override var isInitialValueCalculated: Boolean = false
+
+    override fun isSymbolType(symbolType: SymbolType): Boolean {
+        return symbolType == SymbolType.INT_ARRAY
+    }
+}
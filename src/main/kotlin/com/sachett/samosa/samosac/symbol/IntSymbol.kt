@@ -10,6 +10,7 @@ class IntSymbol(
     override var symbolCoordinates: Pair<Int, Int>? = null
 ) : ISymbol {
     override val symbolType: SymbolType = SymbolType.INT
+    override var isReassigned: Boolean = false
 
     override fun isSymbolType(symbolType: SymbolType): Boolean {
         return symbolType == SymbolType.INT
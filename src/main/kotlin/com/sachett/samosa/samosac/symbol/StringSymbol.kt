@@ -10,6 +10,7 @@ class StringSymbol(
     override var symbolCoordinates: Pair<Int, Int>? = null
 ) : ISymbol {
     override val symbolType: SymbolType = SymbolType.STRING
+    override var isReassigned: Boolean = false
 
     override fun isSymbolType(symbolType: SymbolType): Boolean = symbolType == SymbolType.STRING
 }
\ No newline at end of file
@@ -10,6 +10,7 @@ enum class SymbolType(
     INT("int", true, true, 0xDEAD),
     STRING("string", false, true, "lawl"),
     BOOL("boolie", false, true, true),
+    INT_ARRAY("int[]", false, false),
     VOID("void", false, false),
     UNSUPPORTED("thing", false, false, null)
 }
\ No newline at end of file
@@ -2,16 +2,25 @@ package com.sachett.samosa.samosac.symbol.symboltable
 
 import com.sachett.samosa.builtins.Builtins
 import com.sachett.samosa.logging.err
+import com.sachett.samosa.samosac.staticchecker.evaluators.FunctionCallEvaluator
 import com.sachett.samosa.samosac.symbol.FunctionSymbol
 import com.sachett.samosa.samosac.symbol.ISymbol
 import com.sachett.samosa.samosac.symbol.SymbolType
+import org.antlr.v4.runtime.tree.ParseTree
+import org.antlr.v4.runtime.tree.ParseTreeProperty
 import java.lang.reflect.Method
 import java.lang.reflect.Modifier
+import java.util.Collections
 
+/**
+ * The symbol table, along with a cursor pointing to the scope that is currently being looked at.
+ * A cursor can be forked (see forkCursor()) so that separate parts of the program (function bodies)
+ * can be walked at the same time, each with its own cursor, over the same (shared) tables.
+ */
 class SymbolTable {
 
     /* Stores the top-level table */
-    private val symbolScope: ArrayList<ArrayList<SymbolTableRecordEntry>> = arrayListOf()
+    private val symbolScope: ArrayList<ArrayList<SymbolTableRecordEntry>>
 
     /**
      * Extended symbol tables for imported stuff and builtins.
@@ -21,8 +30,7 @@ class SymbolTable {
      * are represented as a string (in the JVM descriptor format).
      * The map maps the name of the builtin function to its overloads.
      */
-    private val builtinMethods: MutableMap<String, MutableMap<String, Pair<FunctionSymbol, Method>>> =
-        mutableMapOf()
+    private val builtinMethods: MutableMap<String, MutableMap<String, Pair<FunctionSymbol, Method>>>
 
     /**
      * Stores a map of blocks with their scope coordinates in the table for quick access.
@@ -30,7 +38,7 @@ class SymbolTable {
      * The start of the block's position is indicated by the '{' character's position
      * as a pair: (line number, character number).
      */
-    private val blockScopes: MutableMap<Pair<Int, Int>, Pair<Int, Int>?> = mutableMapOf()
+    private val blockScopes: MutableMap<Pair<Int, Int>, Pair<Int, Int>?>
 
     /* Stores which scope of the top-level symbol table we are currently in */
     private var currentScopeCoordinates: Pair<Int, Int> = Pair(0, 0)
@@ -41,10 +49,56 @@ class SymbolTable {
     /* On next scope increment, should a new scope be created? */
     var createNewScopeEntryOnIncrement: Boolean = true
 
+    /* The scope that was last exited; it is re-entered on the next increment if no new scope is to be created */
+    private var lastExitedSymbolTableRecord: SymbolTableRecordEntry? = null
+
     /* When coordinates are changed manually, this stack keeps track of the coordinates */
     private var lastCoordinates: java.util.ArrayDeque<Pair<Int, Int>> = java.util.ArrayDeque()
 
-    init {
+    /**
+     * If set, global symbols that first appeared after this line are not visible to this cursor.
+     * (A function body checked after all the declarations have been collected must not see the globals
+     * that are declared after the function.)
+     */
+    private var globalsVisibleUpToLine: Int? = null
+
+    /**
+     * Memoized expression types (the numbers of terms of each type, as counted by ExpressionTypeDetector),
+     * keyed by the expression's node (and those of all its sub-expressions).
+     * The type of an expression does not change once its identifiers are resolved, so it is computed once
+     * (during static checking, when the scope is right) and then just read by the later passes and the codegen.
+     */
+    val exprTypeAnnotations: ParseTreeProperty<Map<SymbolType, Int>>
+
+    /**
+     * The symbols resolved during static checking, keyed by the node of the identifier that refers to them
+     * (or by the declaration statement that declares them). Lets the later passes get to a symbol without
+     * walking the scopes again.
+     */
+    val symbolAnnotations: ParseTreeProperty<ISymbol>
+
+    /**
+     * The values of the expressions that are known at compile time (an Int, a String or a Boolean), keyed by the
+     * expression's node (and those of all its constant sub-expressions). The constant folders record the values
+     * they fold once static checking is over, and all the expressions of the program are folded once the constants
+     * have been propagated (see ConstantPropagator), so the codegen only has to look the values up.
+     */
+    val foldedValues: ParseTreeProperty<Any>
+
+    /**
+     * Evaluates the calls to the pure functions of the program at compile time, for the constant folders.
+     * It is set once static checking is over (see FunctionCallEvaluator).
+     */
+    var functionCallEvaluator: FunctionCallEvaluator? = null
+
+    constructor() {
+        symbolScope = arrayListOf()
+        builtinMethods = mutableMapOf()
+        blockScopes = Collections.synchronizedMap(mutableMapOf())
+        exprTypeAnnotations = SynchronizedParseTreeProperty()
+        symbolAnnotations = SynchronizedParseTreeProperty()
+        foldedValues = SynchronizedParseTreeProperty()
+
         val globalEntry = SymbolTableRecordEntry(null, prevScopeIndex = -1, scopeIndex = 0)
         globalEntry.recordEntryCoordinates = Pair(0, 0)
         symbolScope.add(arrayListOf(globalEntry))
@@ -53,6 +107,43 @@ class SymbolTable {
         registerBuiltinFunctions()
     }
 
+    /**
+     * Creates a new cursor over the tables of another symbol table, starting where the other one's cursor is.
+     */
+    private constructor(other: SymbolTable, globalsVisibleUpToLine: Int?) {
+        symbolScope = other.symbolScope
+        builtinMethods = other.builtinMethods
+        blockScopes = other.blockScopes
+        exprTypeAnnotations = other.exprTypeAnnotations
+        symbolAnnotations = other.symbolAnnotations
+        foldedValues = other.foldedValues
+        functionCallEvaluator = other.functionCallEvaluator
+
+        currentScopeCoordinates = other.currentScopeCoordinates
+        currentSymbolTableRecord = other.currentSymbolTableRecord
+        createNewScopeEntryOnIncrement = other.createNewScopeEntryOnIncrement
+        lastExitedSymbolTableRecord = other.lastExitedSymbolTableRecord
+        this.globalsVisibleUpToLine = globalsVisibleUpToLine
+    }
+
+    /**
+     * Forks the cursor: the returned symbol table shares all the tables with this one, but moves through
+     * the scopes on its own. Creating and entering scopes through the forked cursors is thread-safe,
+     * as long as each forked cursor itself is used by only one thread at a time.
+     * @param   globalsVisibleUpToLine  If not null, global symbols that first appeared after this line
+     *                                  will not be visible in lookups through the forked cursor.
+     */
+    fun forkCursor(globalsVisibleUpToLine: Int? = null): SymbolTable = SymbolTable(this, globalsVisibleUpToLine)
+
+    /**
+     * A ParseTreeProperty that can be annotated from many threads.
+     */
+    private class SynchronizedParseTreeProperty<V> : ParseTreeProperty<V>() {
+        init {
+            annotations = Collections.synchronizedMap(annotations)
+        }
+    }
+
     private fun registerBuiltinFunctions() {
         // Registers builtin functions
         // Populates the builtins dynamically
@@ -131,39 +222,7 @@ class SymbolTable {
      * Go one scope level in.
      */
     fun incrementScope() {
-        val newSymbolTableRecordEntry = SymbolTableRecordEntry(
-            currentSymbolTableRecord, prevScopeIndex = currentScopeCoordinates.first,
-            scopeIndex = currentScopeCoordinates.first + 1
-        )
-        if (currentScopeCoordinates.first == (symbolScope.size - 1)) {
-            currentScopeCoordinates = Pair(currentScopeCoordinates.first + 1, 0)
-            newSymbolTableRecordEntry.recordEntryCoordinates = Pair(currentScopeCoordinates.first, 0)
-            symbolScope.add(arrayListOf(newSymbolTableRecordEntry))
-            currentSymbolTableRecord = newSymbolTableRecordEntry
-        } else {
-            // implies that scope level was decreased previously
-
-            if (createNewScopeEntryOnIncrement) {
-                // create a new scope entry when increasing the scope
-                currentScopeCoordinates = Pair(
-                    currentScopeCoordinates.first + 1, symbolScope[currentScopeCoordinates.first + 1].size
-                )
-                // since this is being appended, coordinates
-                // = (currentScopeIndex, <size of this symbolScope - 1 (for 0-based indexing)>)
-                newSymbolTableRecordEntry.recordEntryCoordinates = Pair(
-                    currentScopeCoordinates.first, currentScopeCoordinates.second
-                )
-                symbolScope[currentScopeCoordinates.first].add(newSymbolTableRecordEntry)
-                currentSymbolTableRecord = newSymbolTableRecordEntry
-            } else {
-                // get the last scope entry in the next scope
-                currentScopeCoordinates = Pair(
-                    currentScopeCoordinates.first + 1, symbolScope[currentScopeCoordinates.first + 1].size - 1
-                )
-                currentSymbolTableRecord = symbolScope[currentScopeCoordinates.first].last()
-                createNewScopeEntryOnIncrement = true // reset this flag
-            }
-        }
+        enterNextScope(createNewScopeEntryOnIncrement)
     }
 
     /**
@@ -173,52 +232,77 @@ class SymbolTable {
      *                              in case currentScopeIndex != (symbolScope.size) - 1.
      */
     fun incrementScopeOverrideScopeCreation(createNewScopeEntry: Boolean = true) {
+        enterNextScope(createNewScopeEntry)
+    }
+
+    private fun enterNextScope(createNewScopeEntry: Boolean) {
         val newSymbolTableRecordEntry = SymbolTableRecordEntry(
             currentSymbolTableRecord, prevScopeIndex = currentScopeCoordinates.first,
             scopeIndex = currentScopeCoordinates.first + 1
         )
-        if (currentScopeCoordinates.first == (symbolScope.size - 1)) {
-            currentScopeCoordinates = Pair(currentScopeCoordinates.first + 1, 0)
-            newSymbolTableRecordEntry.recordEntryCoordinates = Pair(currentScopeCoordinates.first, 0)
-            symbolScope.add(arrayListOf(newSymbolTableRecordEntry))
-            currentSymbolTableRecord = newSymbolTableRecordEntry
-        } else {
-            // implies that scope level was decreased previously
-            if (createNewScopeEntry) {
-                // create a new scope entry when increasing the scope
-                currentScopeCoordinates = Pair(
-                    currentScopeCoordinates.first + 1, symbolScope[currentScopeCoordinates.first + 1].size
-                )
-                // since this is being appended, coordinates
-                // = (currentScopeIndex, <size of this symbolScope - 1 (for 0-based indexing)>)
-                newSymbolTableRecordEntry.recordEntryCoordinates = Pair(
-                    currentScopeCoordinates.first, currentScopeCoordinates.second
-                )
-                symbolScope[currentScopeCoordinates.first].add(newSymbolTableRecordEntry)
+
+        // Other (forked) cursors may be adding scopes at the same time
+        synchronized(symbolScope) {
+            if (currentScopeCoordinates.first == (symbolScope.size - 1)) {
+                currentScopeCoordinates = Pair(currentScopeCoordinates.first + 1, 0)
+                newSymbolTableRecordEntry.recordEntryCoordinates = Pair(currentScopeCoordinates.first, 0)
+                symbolScope.add(arrayListOf(newSymbolTableRecordEntry))
                 currentSymbolTableRecord = newSymbolTableRecordEntry
             } else {
-                // get the last scope entry in the next scope
-                currentScopeCoordinates = Pair(
-                    currentScopeCoordinates.first + 1, symbolScope[currentScopeCoordinates.first + 1].size - 1
-                )
-                currentSymbolTableRecord = symbolScope[currentScopeCoordinates.first].last()
-                createNewScopeEntryOnIncrement = true // reset this flag
+                // implies that scope level was decreased previously
+                if (createNewScopeEntry) {
+                    // create a new scope entry when increasing the scope
+                    currentScopeCoordinates = Pair(
+                        currentScopeCoordinates.first + 1, symbolScope[currentScopeCoordinates.first + 1].size
+                    )
+                    // since this is being appended, coordinates
+                    // = (currentScopeIndex, <size of this symbolScope - 1 (for 0-based indexing)>)
+                    newSymbolTableRecordEntry.recordEntryCoordinates = Pair(
+                        currentScopeCoordinates.first, currentScopeCoordinates.second
+                    )
+                    symbolScope[currentScopeCoordinates.first].add(newSymbolTableRecordEntry)
+                    currentSymbolTableRecord = newSymbolTableRecordEntry
+                } else {
+                    // get back into the scope entry that was exited last
+                    // (or the last scope entry in the next scope, if that is not a child of this one)
+                    val lastExited = lastExitedSymbolTableRecord
+                    currentSymbolTableRecord =
+                        if (lastExited != null && lastExited.prevScopeTable === currentSymbolTableRecord) {
+                            lastExited
+                        } else {
+                            symbolScope[currentScopeCoordinates.first + 1].last()
+                        }
+                    currentScopeCoordinates = currentSymbolTableRecord.recordEntryCoordinates!!
+                    createNewScopeEntryOnIncrement = true // reset this flag
+                }
             }
         }
     }
 
+    /**
+     * Returns the SymbolTableRecordEntry having the specified coordinates.
+     * Other (forked) cursors may be adding scopes at the same time (see enterNextScope()), so the lists
+     * of scopes are read under the same lock.
+     */
+    private fun recordEntryAt(coordinates: Pair<Int, Int>): SymbolTableRecordEntry {
+        synchronized(symbolScope) {
+            return symbolScope[coordinates.first][coordinates.second]
+        }
+    }
+
     /**
      * Sets current scope index to 0 and currently pointed scope record to first record.
      */
     fun resetScopeIndex() {
         currentScopeCoordinates = Pair(0, 0)
-        currentSymbolTableRecord = symbolScope[0][0]
+        currentSymbolTableRecord = recordEntryAt(currentScopeCoordinates)
     }
 
     /* Go one scope level back */
     @JvmOverloads
     fun decrementScope(createNewScopeEntryOnNextIncrement: Boolean = true) {
         if (currentScopeCoordinates.first != 0 && currentSymbolTableRecord.prevScopeTable != null) {
+            lastExitedSymbolTableRecord = currentSymbolTableRecord
             currentScopeCoordinates = Pair(currentScopeCoordinates.first - 1, currentScopeCoordinates.second)
             currentSymbolTableRecord = currentSymbolTableRecord.prevScopeTable!!
         }
@@ -233,12 +317,36 @@ class SymbolTable {
     fun lookup(name: String): ISymbol? {
         var tempScope: SymbolTableRecordEntry? = currentSymbolTableRecord
 
-        while (tempScope != null && !tempScope.table.containsKey(name)) {
+        while (tempScope != null && !hasVisibleSymbol(tempScope, name)) {
             tempScope = tempScope.prevScopeTable
         }
         return tempScope?.table?.get(name)
     }
 
+    /**
+     * Returns the symbol that the identifier node was resolved to, if the value of that symbol
+     * is known at compile time and the symbol is never assigned to again.
+     * @param node  The identifier node (as annotated in symbolAnnotations).
+     */
+    fun lookupConstant(node: ParseTree): ISymbol? {
+        val symbol = symbolAnnotations.get(node) ?: return null
+
+        return if (symbol.symbolType != SymbolType.FUNCTION && symbol.isInitialValueCalculated && !symbol.isReassigned) {
+            symbol
+        } else {
+            null
+        }
+    }
+
+    /**
+     * Checks if the symbol is present in the record entry and is visible to this cursor.
+     */
+    private fun hasVisibleSymbol(recordEntry: SymbolTableRecordEntry, name: String): Boolean {
+        val symbol = recordEntry.table[name] ?: return false
+        val visibleUpToLine = globalsVisibleUpToLine ?: return true
+        return recordEntry.scopeIndex != 0 || symbol.firstAppearedLine <= visibleUpToLine
+    }
+
     /**
      * Register a block with its symbol table coordinates as the current coordinates.
      * @param   blockStart  A pair indicating the starting position of the block (the '{' character's position).
@@ -256,7 +364,7 @@ class SymbolTable {
     fun lookupWithNearestScopeValue(name: String): Pair<ISymbol?, Int?> {
         var tempScope: SymbolTableRecordEntry? = currentSymbolTableRecord
 
-        while (tempScope != null && !tempScope.table.containsKey(name)) {
+        while (tempScope != null && !hasVisibleSymbol(tempScope, name)) {
             tempScope = tempScope.prevScopeTable
         }
 
@@ -269,7 +377,7 @@ class SymbolTable {
      */
     fun lookupInCoordinates(name: String, coordinates: Pair<Int, Int>): ISymbol? {
         return try {
-            val tempScope: SymbolTableRecordEntry = symbolScope[coordinates.first][coordinates.second]
+            val tempScope: SymbolTableRecordEntry = recordEntryAt(coordinates)
             if (tempScope.table.containsKey(name)) {
                 tempScope.table[name]
             } else {
@@ -286,7 +394,7 @@ class SymbolTable {
      * @param   name    The name of the symbol to look up.
      */
     fun lookupInCurrentScopeOnly(name: String): ISymbol? {
-        return if (currentSymbolTableRecord.table.containsKey(name)) {
+        return if (hasVisibleSymbol(currentSymbolTableRecord, name)) {
             currentSymbolTableRecord.table[name]
         } else {
             null
@@ -300,7 +408,7 @@ class SymbolTable {
     private fun goToCoordinates(coordinates: Pair<Int, Int>) {
         lastCoordinates.push(currentScopeCoordinates)
         currentScopeCoordinates = coordinates
-        currentSymbolTableRecord = symbolScope[coordinates.first][coordinates.second]
+        currentSymbolTableRecord = recordEntryAt(coordinates)
     }
 
     /**
@@ -319,7 +427,7 @@ class SymbolTable {
      */
     fun restoreLastCoordinates() {
         currentScopeCoordinates = lastCoordinates.pop()
-        currentSymbolTableRecord = symbolScope[currentScopeCoordinates.first][currentScopeCoordinates.second]
+        currentSymbolTableRecord = recordEntryAt(currentScopeCoordinates)
     }
 
     /**
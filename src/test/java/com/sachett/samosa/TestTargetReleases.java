@@ -0,0 +1,130 @@
+package com.sachett.samosa;
+
+import com.sachett.samosa.samosac.codegen.TargetRelease;
+import com.sachett.samosa.samosac.compiler.CompilerKt;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.TestFactory;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static com.github.stefanbirkner.systemlambda.SystemLambda.catchSystemExit;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class has tests that compile a program for each of the supported target releases (see the --target option),
+ * and check the class file versions and the output of the program.
+ */
+public class TestTargetReleases {
+
+    static final File sourceFile = new File("src/test/data/positive-compile-run/test-programs/StringConcat1.samo");
+    static final File expectedRunOutputFile =
+            new File("src/test/data/positive-compile-run/expected-run-outputs/StringConcat1.samo.run.log.should");
+    static final File targetsDir = new File("src/test/data/target-releases");
+
+    @BeforeAll
+    static void createDirs() {
+        targetsDir.mkdirs();
+    }
+
+    @TestFactory
+    Stream<DynamicTest> testCompileForEachTarget() {
+        return Arrays.stream(TargetRelease.values()).map((targetRelease) ->
+            DynamicTest.dynamicTest("Target Release: " + targetRelease.getRelease(), () -> {
+                File targetDir = new File(targetsDir.getPath() + File.separator + targetRelease.getRelease());
+                File classFileOutDir = new File(targetDir.getPath() + File.separator + "out");
+                File compilationOutputFile = new File(targetDir.getPath() + File.separator + "compile.log");
+                File compilationErrorFile = new File(targetDir.getPath() + File.separator + "compile.err");
+                File runOutputFile = new File(targetDir.getPath() + File.separator + "run.log");
+                File runErrorFile = new File(targetDir.getPath() + File.separator + "run.err");
+                classFileOutDir.mkdirs();
+
+                PrintStream prevOut = System.out;
+                PrintStream prevErr = System.err;
+                PrintStream redirectedOut = new PrintStream(compilationOutputFile);
+                PrintStream redirectedErr = new PrintStream(compilationErrorFile);
+                System.setOut(redirectedOut);
+                System.setErr(redirectedErr);
+
+                int compileStatusCode = catchSystemExit(() -> {
+                    CompilerKt.main(new String[]{
+                            sourceFile.getAbsolutePath(),
+                            "-o" + classFileOutDir.getAbsolutePath(),
+                            "--target=" + targetRelease.getRelease()
+                    });
+                    System.exit(0); // test will fail otherwise
+                });
+
+                System.setErr(prevErr);
+                System.setOut(prevOut);
+
+                assertTrue(FileUtils.readFileToString(compilationErrorFile, StandardCharsets.UTF_8).strip().equals("")
+                                && (compileStatusCode != -1),
+                        "Compilation failed for target release " + targetRelease.getRelease() + "."
+                                + "\n" + "See " + compilationErrorFile.getAbsolutePath() + " for details."
+                );
+
+                // the program and the runtime support classes must have the class file version of the target
+                Collection<File> classFiles = FileUtils.listFiles(classFileOutDir, new String[]{ "class" }, true);
+                assertTrue(classFiles.size() > 1, "The class files were not generated.");
+                for (File classFile : classFiles) {
+                    assertEquals(targetRelease.getClassFileVersion(), readClassFileVersion(classFile),
+                            "Wrong class file version for " + classFile.getAbsolutePath());
+
+                    // StringConcatFactory does not exist before Java 9
+                    if (!targetRelease.supportsIndyStringConcat()) {
+                        assertFalse(
+                                FileUtils.readFileToString(classFile, StandardCharsets.ISO_8859_1)
+                                        .contains("java/lang/invoke/StringConcatFactory"),
+                                "String concatenation by invokedynamic in " + classFile.getAbsolutePath()
+                        );
+                    }
+                }
+
+                String className = TestPositiveCompileRun.getClassFileNameFromFileName(sourceFile.getName());
+                ProcessBuilder runProcess = new ProcessBuilder("java", className);
+                runProcess.directory(classFileOutDir);
+                runProcess.redirectOutput(runOutputFile);
+                runProcess.redirectError(runErrorFile);
+
+                assertTrue(runProcess.start().waitFor(200, TimeUnit.SECONDS),
+                        "Execution timed out for target release " + targetRelease.getRelease()
+                );
+
+                assertTrue(FileUtils.readFileToString(runErrorFile, StandardCharsets.UTF_8).strip().equals(""),
+                        "Execution failed unexpectedly for target release " + targetRelease.getRelease() + "."
+                                + "\n" + "See " + runErrorFile.getAbsolutePath() + " for details."
+                );
+
+                assertTrue(
+                        FileUtils.contentEqualsIgnoreEOL(runOutputFile, expectedRunOutputFile, null),
+                        "Unexpected output for target release " + targetRelease.getRelease() + "."
+                                + "\n" + "Output received is written to file: \n\t" + runOutputFile.getAbsolutePath()
+                );
+            })
+        );
+    }
+
+    // --------------  Utils  ------------------
+
+    /**
+     * Returns the major version of a class file.
+     */
+    static int readClassFileVersion(File classFile) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(classFile))) {
+            in.readInt(); // magic
+            in.readUnsignedShort(); // minor version
+            return in.readUnsignedShort();
+        }
+    }
+}